@@ -23,6 +23,12 @@ public class InternalController {
         videoService.addCacheVideoLastAccess(videoService.getCacheMediaJobId(mediaId, resolution), null);
     }
 
+    @PostMapping("/video/{mediaId}/ladder_{top}")
+    public void cacheVideoLadderLastAccess(@PathVariable long mediaId, @PathVariable Resolution top) {
+        System.out.println("cached last access for video ladder: " + mediaId + ":" + top);
+        videoService.addCacheVideoLastAccess(videoService.getCacheLadderJobId(mediaId, top), null);
+    }
+
     @PostMapping("/album/{albumId}/{resolution}")
     public void cacheAlbumImageLastAccess(@PathVariable long albumId, @PathVariable Resolution resolution) {
         System.out.println("cached last access for album: " + albumId);
@@ -43,5 +43,15 @@ public class VideoController {
         return ResponseEntity.ok(videoService.getPartialVideoUrl(jwt.getSubject(), id, resolution));
     }
 
+    @GetMapping("/ladder/{id}/{resolution}")
+    public ResponseEntity<?> getVideoLadderUrl(@PathVariable Long id,
+                                               @PathVariable Resolution resolution,
+                                               @AuthenticationPrincipal Jwt jwt) throws Exception {
+        if (Boolean.parseBoolean(alwaysShowOriginalResolution)) {
+            return ResponseEntity.ok(videoService.getOriginalVideoUrl(jwt.getSubject(), id));
+        }
+        return ResponseEntity.ok(videoService.getLadderVideoUrl(jwt.getSubject(), id, resolution));
+    }
+
 }
 
@@ -1,5 +1,6 @@
 package dev.chinh.streamingservice.backend.content.service;
 
+import dev.chinh.streamingservice.common.ObjectUrlResolver;
 import io.minio.*;
 import io.minio.http.Method;
 import lombok.RequiredArgsConstructor;
@@ -7,6 +8,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.util.UriUtils;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
 @Service
@@ -14,6 +16,7 @@ import java.nio.charset.StandardCharsets;
 public class MinIOService {
 
     private final MinioClient minioClient;
+    private final ObjectUrlResolver objectUrlResolver;
 
     @Value("${minio.container.url}")
     private String minioContainerUrl;
@@ -29,6 +32,18 @@ public class MinIOService {
         );
     }
 
+    /**
+     * Stream an object's content. Caller closes it.
+     */
+    public InputStream getObject(String bucket, String object) throws Exception {
+        return minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(object)
+                        .build()
+        );
+    }
+
     private String encodeUriPathSegment(String str) {
         return UriUtils.encodePathSegment(str, StandardCharsets.UTF_8);
     }
@@ -41,7 +56,10 @@ public class MinIOService {
         return minioContainerUrl + "/" + encodeUriPathSegment(bucket) + "/" + encodeUriPath(object);
     }
 
-    public String getObjectUrl(String bucket, String object) {
-        return "/stream/object/" + encodeUriPathSegment(bucket) + "/" + encodeUriPath(object);
+    /**
+     * Url the browser loads an object from, object is relative to the owner's directory in the bucket.
+     */
+    public String getObjectUrl(String userId, String bucket, String object) {
+        return objectUrlResolver.getObjectUrl(userId, bucket, object);
     }
 }
@@ -1,5 +1,6 @@
 package dev.chinh.streamingservice.backend.content.service;
 
+import dev.chinh.streamingservice.common.ImageResizer;
 import dev.chinh.streamingservice.common.OSUtil;
 import dev.chinh.streamingservice.common.constant.Resolution;
 import dev.chinh.streamingservice.common.data.ContentMetaData;
@@ -11,6 +12,7 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -159,6 +161,7 @@ public class ThumbnailService {
             OSUtil.createTempDir(albumDir, ffmpegName);
 
             String scale = getFfmpegScaleString(resolution, false);
+            boolean inProcess = OSUtil.isRAMDiskHostAccessible();
 
             for (int i = 0; i < albumUrlInfo.mediaUrlList.size(); i++) {
                 final int index = i;
@@ -168,6 +171,12 @@ public class ThumbnailService {
                     continue;
 
                 CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                    String bucket = isAlbum ? albumUrlInfo.buckets.getFirst() : albumUrlInfo.buckets.get(index);
+                    if (inProcess && resizeInProcess(bucket, albumUrlInfo.pathList.get(index), output, resolution)) {
+                        thumbnailServiceCache.add(name);
+                        localThumbnailCache.add(name);
+                        return;
+                    }
                     try {
                         semaphore.acquire();
 
@@ -177,7 +186,6 @@ public class ThumbnailService {
                             cmd.addAll(List.of("docker", "exec", ffmpegName));
                         }
 
-                        String bucket = isAlbum ? albumUrlInfo.buckets.getFirst() : albumUrlInfo.buckets.get(index);
                         String input = minIOService.getObjectUrlForContainer(bucket, albumUrlInfo.pathList.get(index));
 
                         cmd.addAll(List.of(
@@ -235,6 +243,33 @@ public class ThumbnailService {
         }
     }
 
+    // decode and scale are CPU bound, more than one per core only adds heap pressure
+    private final Semaphore inProcessResizeSemaphore = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Resize with ImageIO straight from MinIO into the RAM disk, no process fork.
+     * @return false if the format isn't supported in process or decoding failed, fall back to ffmpeg
+     */
+    private boolean resizeInProcess(String bucket, String object, String output, Resolution resolution) {
+        Path outputPath = OSUtil.getRAMDiskPath(output.replaceFirst("/chunks/", ""));
+        if (!ImageResizer.canWrite(outputPath))
+            return false;
+        try {
+            inProcessResizeSemaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try (InputStream input = minIOService.getObject(bucket, object)) {
+            return ImageResizer.resize(input, outputPath, resolution.getResolution());
+        } catch (Exception e) {
+            System.err.println("In process resize failed for " + object + ", falling back to ffmpeg: " + e.getMessage());
+            return false;
+        } finally {
+            inProcessResizeSemaphore.release();
+        }
+    }
+
     private String getFfmpegScaleString(Resolution resolution, boolean wrapInDoubleQuotes) {
         if (wrapInDoubleQuotes)
             return String.format(
@@ -31,7 +31,7 @@ public class VideoService extends MediaService {
 
     public JobStatus getOriginalVideoUrl(String userId, long videoId) {
         MediaDescription mediaDescription = getMediaDescription(userId, videoId);
-        String url = minIOService.getObjectUrl(mediaDescription.getBucket(), ContentMetaData.removeUserIdDirFromObjectKey(userId, mediaDescription.getKey()));
+        String url = minIOService.getObjectUrl(userId, mediaDescription.getBucket(), ContentMetaData.removeUserIdDirFromObjectKey(userId, mediaDescription.getKey()));
         return new JobStatus(getCacheMediaJobId(videoId, Resolution.original), url);
     }
 
@@ -40,7 +40,7 @@ public class VideoService extends MediaService {
         MediaDescription mediaDescription = getMediaDescription(userId, videoId);
         String jobId = getCachePreviewJobId(videoId);
         if (mediaDescription.getPreview() != null) {
-            return new JobStatus(jobId, minIOService.getObjectUrl(ContentMetaData.PREVIEW, ContentMetaData.removeUserIdDirFromObjectKey(userId, mediaDescription.getPreview())));
+            return new JobStatus(jobId, minIOService.getObjectUrl(userId, ContentMetaData.PREVIEW, ContentMetaData.removeUserIdDirFromObjectKey(userId, mediaDescription.getPreview())));
         }
         addCacheVideoLastAccess(jobId, null);
         String previewName = mediaDescription.getUserId() + "/preview_"  + ContentMetaData.removeUserIdDirFromObjectKey(String.valueOf(mediaDescription.getUserId()), mediaDescription.getKey());
@@ -60,6 +60,20 @@ public class VideoService extends MediaService {
         return new JobStatus(jobId, addJobToFfmpegQueue(ffmpegQueueKey, jobId, "result", getMediaJobDescription(userId, mediaDescription, jobId, res, "partial")));
     }
 
+    /**
+     * Adaptive bitrate ladder of all resolutions up to the given top resolution, encoded in a single ffmpeg pass.
+     */
+    public JobStatus getLadderVideoUrl(String userId, long videoId, Resolution top) throws Exception {
+        String jobId = getCacheLadderJobId(videoId, top);
+        if (top == Resolution.original)
+            top = null;
+
+        MediaDescription mediaDescription = getMediaDescription(userId, videoId);
+
+        addCacheVideoLastAccess(jobId, null);
+        return new JobStatus(jobId, addJobToFfmpegQueue(ffmpegQueueKey, jobId, "result", getMediaJobDescription(userId, mediaDescription, jobId, top, "ladder")));
+    }
+
     public void addCacheVideoLastAccess(String videoId, Long expiry) {
         String videoLastAccessKey = "cache:lastAccess:video";
         addCacheLastAccess(videoLastAccessKey, videoId, expiry);
@@ -69,6 +83,11 @@ public class VideoService extends MediaService {
         return videoId + ":preview";
     }
 
+    // a ladder per top resolution, they have different rungs. The workers' ladder directory is this id with : as /
+    public String getCacheLadderJobId(long videoId, Resolution top) {
+        return videoId + ":ladder_" + (top == null ? Resolution.original : top).name();
+    }
+
     @Override
     protected MediaDescription getMediaDescription(String userId, long videoId) {
         MediaDescription mediaDescription = super.getMediaDescription(userId, videoId);
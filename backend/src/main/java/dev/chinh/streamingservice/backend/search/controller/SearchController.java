@@ -26,19 +26,21 @@ public class SearchController {
     @PostMapping
     public ResponseEntity<MediaSearchResult> search(@RequestParam String searchString,
                                                     @RequestParam(required = false) int page,
+                                                    @RequestParam(required = false) String cursor,
                                                     @RequestParam(required = false) SortBy sortBy,
                                                     @RequestParam(required = false) SortOrder sortOrder,
                                                     @AuthenticationPrincipal Jwt jwt) throws Exception {
-        return ResponseEntity.ok().body(mediaSearchService.search(jwt.getSubject(), searchString, page, pageSize, sortBy, sortOrder));
+        return ResponseEntity.ok().body(mediaSearchService.search(jwt.getSubject(), searchString, page, pageSize, cursor, sortBy, sortOrder));
     }
 
     @PostMapping("/advance")
     public ResponseEntity<MediaSearchResult> advanceSearch(@RequestBody MediaSearchRequest mediaSearchRequest,
                                                            @RequestParam(required = false) int page,
+                                                           @RequestParam(required = false) String cursor,
                                                            @RequestParam(required = false) SortBy sortBy,
                                                            @RequestParam(required = false) SortOrder sortOrder,
                                                            @AuthenticationPrincipal Jwt jwt) throws Exception {
-        return ResponseEntity.ok().body(mediaSearchService.advanceSearch(jwt.getSubject(), mediaSearchRequest, page, pageSize, sortBy, sortOrder));
+        return ResponseEntity.ok().body(mediaSearchService.advanceSearch(jwt.getSubject(), mediaSearchRequest, page, pageSize, cursor, sortBy, sortOrder));
     }
 
     @PostMapping("/keyword")
@@ -46,19 +48,21 @@ public class SearchController {
                                                            @RequestParam(name = "keys") List<Object> keywordList,
                                                            @RequestParam(required = false, defaultValue = "true") boolean matchAll,
                                                            @RequestParam(required = false) int page,
+                                                           @RequestParam(required = false) String cursor,
                                                            @RequestParam(required = false) SortBy sortBy,
                                                            @RequestParam(required = false) SortOrder sortOrder,
                                                            @AuthenticationPrincipal Jwt jwt) throws Exception {
         return ResponseEntity.ok().body(
-                mediaSearchService.searchByKeywords(jwt.getSubject(), nameEntity.getName(), keywordList, matchAll, page, pageSize, sortBy, sortOrder));
+                mediaSearchService.searchByKeywords(jwt.getSubject(), nameEntity.getName(), keywordList, matchAll, page, pageSize, cursor, sortBy, sortOrder));
     }
 
     @PostMapping("/match-all")
     public ResponseEntity<MediaSearchResult> matchAllSearch(@RequestParam(required = false) int page,
+                                                            @RequestParam(required = false) String cursor,
                                                             @RequestParam(required = false) SortBy sortBy,
                                                             @RequestParam(required = false) SortOrder sortOrder,
                                                             @AuthenticationPrincipal Jwt jwt) throws Exception {
-        return ResponseEntity.ok().body(mediaSearchService.searchMatchAll(jwt.getSubject(), page, pageSize, sortBy, sortOrder));
+        return ResponseEntity.ok().body(mediaSearchService.searchMatchAll(jwt.getSubject(), page, pageSize, cursor, sortBy, sortOrder));
     }
 
     @GetMapping("/name/{nameEntity}")
@@ -20,4 +20,7 @@ public class MediaSearchResult {
     private int pageSize;
     private long totalPages;
     private long total;
+
+    // search_after token for the next page, null on the last one
+    private String nextCursor;
 }
@@ -2,17 +2,18 @@ package dev.chinh.streamingservice.backend.search.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.chinh.streamingservice.common.constant.SearchCacheKeys;
 import dev.chinh.streamingservice.mediapersistence.projection.MediaSearchItem;
 import lombok.RequiredArgsConstructor;
 import org.jspecify.annotations.NonNull;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 @Service
 @RequiredArgsConstructor
@@ -21,6 +22,11 @@ public class MediaSearchCacheService {
     private final RedisTemplate<String, String> redisStringTemplate;
     private final ObjectMapper objectMapper;
 
+    // shorter than the item ttl, a page whose items expired is a miss anyway
+    private static final Duration SEARCH_PAGE_TTL = Duration.ofMinutes(10);
+
+    public record CachedSearchPage(List<Long> ids, long total, String nextCursor) {}
+
     public void cacheMediaSearchItem(String userId, MediaSearchItem item) {
         try {
             String json = objectMapper.writeValueAsString(item);
@@ -106,4 +112,62 @@ public class MediaSearchCacheService {
     public void removeCachedMediaSearchItem(String userId, long id) {
         redisStringTemplate.delete(getCacheItemString(userId, id));
     }
-}
\ No newline at end of file
+
+    // 0 when the search-indexer hasn't written anything for the user recently
+    public long getSearchGeneration(String userId) {
+        String generation = redisStringTemplate.opsForValue().get(SearchCacheKeys.generation(userId));
+        return generation == null ? 0 : Long.parseLong(generation);
+    }
+
+    public CachedSearchPage getCachedSearchPage(String userId, long generation, String query) {
+        String json = redisStringTemplate.opsForValue().get(getSearchPageKey(userId, generation, query));
+        if (json == null)
+            return null;
+        try {
+            return objectMapper.readValue(json, CachedSearchPage.class);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to parse json", e);
+        }
+    }
+
+    public void cacheSearchPage(String userId, long generation, String query, CachedSearchPage page) {
+        try {
+            String json = objectMapper.writeValueAsString(page);
+            redisStringTemplate.opsForValue().set(getSearchPageKey(userId, generation, query), json, SEARCH_PAGE_TTL);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to parse json", e);
+        }
+    }
+
+    /**
+     * @return the items in the given order, or null if any of them is no longer cached
+     */
+    public List<MediaSearchItem> getCachedMediaSearchItems(String userId, List<Long> ids) {
+        if (ids.isEmpty())
+            return List.of();
+        List<String> keys = ids.stream().map(id -> getCacheItemString(userId, id)).toList();
+        List<String> jsons = redisStringTemplate.opsForValue().multiGet(keys);
+        if (jsons == null)
+            return null;
+        List<MediaSearchItem> items = new ArrayList<>(jsons.size());
+        for (String json : jsons) {
+            if (json == null)
+                return null;
+            try {
+                items.add(objectMapper.readValue(json, MediaSearchItem.class));
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Failed to parse json", e);
+            }
+        }
+        return items;
+    }
+
+    private String getSearchPageKey(String userId, long generation, String query) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+            return SearchCacheKeys.PAGE_PREFIX + userId + ":" + generation + ":" + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
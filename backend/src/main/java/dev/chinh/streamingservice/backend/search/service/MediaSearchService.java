@@ -1,5 +1,6 @@
 package dev.chinh.streamingservice.backend.search.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.chinh.streamingservice.backend.MediaMapper;
 import dev.chinh.streamingservice.backend.content.service.MinIOService;
@@ -11,9 +12,11 @@ import dev.chinh.streamingservice.searchclient.OpenSearchService;
 import dev.chinh.streamingservice.backend.search.data.*;
 import dev.chinh.streamingservice.searchclient.constant.SortBy;
 import dev.chinh.streamingservice.searchclient.data.MediaSearchRangeField;
+import dev.chinh.streamingservice.searchclient.data.SearchCursor;
 import dev.chinh.streamingservice.searchclient.data.SearchFieldGroup;
 import lombok.RequiredArgsConstructor;
 import org.apache.coyote.BadRequestException;
+import org.opensearch.client.opensearch._types.FieldValue;
 import org.opensearch.client.opensearch._types.SortOrder;
 import org.opensearch.client.opensearch.core.SearchResponse;
 import org.opensearch.client.opensearch.core.search.Hit;
@@ -61,9 +64,10 @@ public class MediaSearchService {
                 .toList();
     }
 
-    public MediaSearchResult advanceSearch(String userId, MediaSearchRequest request, int page, int size,
+    public MediaSearchResult advanceSearch(String userId, MediaSearchRequest request, int page, int size, String cursor,
                                            SortBy sortBy, SortOrder sortOrder) throws Exception {
-        checkMaxPage(page);
+        checkMaxPage(page, cursor);
+        List<FieldValue> searchAfter = SearchCursor.decode(cursor);
         boolean hasAnyField = request.hasAny();
         if (!hasAnyField) {
             throw new BadRequestException("Empty advanced search request");
@@ -80,14 +84,13 @@ public class MediaSearchService {
             }
         }
 
-        MapSearchResult mapSearchResult = mapResponseToMediaSearchResult(
-                userId, openSearchService.advanceSearch(Long.parseLong(userId), MEDIA_INDEX_NAME, includes, excludes, request.getRangeFields(), page, size, sortBy, sortOrder),
-                page, size);
-
-        if (!Boolean.parseBoolean(alwaysShowOriginalResolution))
-            thumbnailService.processThumbnails(userId, mapSearchResult.searchItems);
-        mediaSearchCacheService.cacheMediaSearchItems(userId, mapSearchResult.searchItems);
-        return mapSearchResult.searchResult;
+        String query = normalizeQuery("advance", List.of(
+                normalizeSearchFields(request.getIncludeFields()),
+                normalizeSearchFields(request.getExcludeFields()),
+                normalizeRangeFields(request.getRangeFields())
+        ), page, size, cursor, sortBy, sortOrder);
+        return cachedSearch(userId, query, page, size, () ->
+                openSearchService.advanceSearch(Long.parseLong(userId), MEDIA_INDEX_NAME, includes, excludes, request.getRangeFields(), page, size, searchAfter, sortBy, sortOrder));
     }
 
     private List<SearchFieldGroup> mapMediaSearchFieldsToSearchFieldGroups(List<MediaSearchField> searchFields) {
@@ -107,52 +110,119 @@ public class MediaSearchService {
         return searchFieldGroups;
     }
 
-    public MediaSearchResult search(String userId, String searchString, int page, int size, SortBy sortBy,
+    public MediaSearchResult search(String userId, String searchString, int page, int size, String cursor, SortBy sortBy,
                                     SortOrder sortOrder) throws Exception {
-        checkMaxPage(page);
+        checkMaxPage(page, cursor);
+        List<FieldValue> searchAfter = SearchCursor.decode(cursor);
         if (!MediaSearchField.validateSearchString(searchString)) {
             throw new IllegalArgumentException("Invalid search string");
         }
-        MapSearchResult mapSearchResult = mapResponseToMediaSearchResult(
-                userId, openSearchService.search(Long.parseLong(userId), MEDIA_INDEX_NAME, searchString, page, size, sortBy, sortOrder),
-                page, size);
-
-        if (!Boolean.parseBoolean(alwaysShowOriginalResolution))
-            thumbnailService.processThumbnails(userId, mapSearchResult.searchItems);
-
-        mediaSearchCacheService.cacheMediaSearchItems(userId, mapSearchResult.searchItems);
-        return mapSearchResult.searchResult;
+        // the text is analyzed, case and extra whitespace don't change the hits
+        String text = searchString.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        String query = normalizeQuery("text", text, page, size, cursor, sortBy, sortOrder);
+        return cachedSearch(userId, query, page, size, () ->
+                openSearchService.search(Long.parseLong(userId), MEDIA_INDEX_NAME, searchString, page, size, searchAfter, sortBy, sortOrder));
     }
 
     public MediaSearchResult searchByKeywords(String userId, String field, List<Object> keywords, boolean matchAll, int page, int size,
-                                              SortBy sortBy, SortOrder sortOrder) throws Exception {
-        checkMaxPage(page);
+                                              String cursor, SortBy sortBy, SortOrder sortOrder) throws Exception {
+        checkMaxPage(page, cursor);
+        List<FieldValue> searchAfter = SearchCursor.decode(cursor);
         ContentMetaData.validateSearchFieldName(field);
-        MapSearchResult mapSearchResult = mapResponseToMediaSearchResult(
-                userId, openSearchService.searchTermByOneField(Long.parseLong(userId), MEDIA_INDEX_NAME, field + "." + ContentMetaData.ID, keywords, matchAll, page, size, sortBy, sortOrder),
-                page, size);
+        String query = normalizeQuery("keywords", Arrays.asList(field, matchAll, normalizeValues(keywords)), page, size, cursor, sortBy, sortOrder);
+        return cachedSearch(userId, query, page, size, () ->
+                openSearchService.searchTermByOneField(Long.parseLong(userId), MEDIA_INDEX_NAME, field + "." + ContentMetaData.ID, keywords, matchAll, page, size, searchAfter, sortBy, sortOrder));
+    }
 
-        if (!Boolean.parseBoolean(alwaysShowOriginalResolution))
-            thumbnailService.processThumbnails(userId, mapSearchResult.searchItems);
+    public MediaSearchResult searchMatchAll(String userId, int page, int size, String cursor, SortBy sortBy, SortOrder sortOrder) throws Exception {
+        checkMaxPage(page, cursor);
+        List<FieldValue> searchAfter = SearchCursor.decode(cursor);
+        String query = normalizeQuery("all", "", page, size, cursor, sortBy, sortOrder);
+        return cachedSearch(userId, query, page, size, () ->
+                openSearchService.searchMatchAll(MEDIA_INDEX_NAME, Long.parseLong(userId), page, size, searchAfter, sortBy, sortOrder));
+    }
 
-        mediaSearchCacheService.cacheMediaSearchItems(userId, mapSearchResult.searchItems);
-        return mapSearchResult.searchResult;
+    @FunctionalInterface
+    private interface SearchCall {
+        SearchResponse<Object> execute() throws IOException;
     }
 
-    public MediaSearchResult searchMatchAll(String userId, int page, int size, SortBy sortBy, SortOrder sortOrder) throws Exception {
-        checkMaxPage(page);
-        MapSearchResult mapSearchResult = mapResponseToMediaSearchResult(
-                userId, openSearchService.searchMatchAll(MEDIA_INDEX_NAME, Long.parseLong(userId), page, size, sortBy, sortOrder), page, size);
+    /**
+     * Result pages are cached as hit ids plus total under the user's index generation, so paging back and forth over
+     * the same query is answered from Redis. The items come from the per item cache - if one of them has expired the
+     * page is a miss. The generation is read before querying, a write racing the query then only invalidates it.
+     */
+    private MediaSearchResult cachedSearch(String userId, String query, int page, int size, SearchCall searchCall) throws IOException {
+        long generation = mediaSearchCacheService.getSearchGeneration(userId);
+        MapSearchResult mapSearchResult = null;
+        MediaSearchCacheService.CachedSearchPage cachedPage = mediaSearchCacheService.getCachedSearchPage(userId, generation, query);
+        if (cachedPage != null) {
+            List<MediaSearchItem> items = mediaSearchCacheService.getCachedMediaSearchItems(userId, cachedPage.ids());
+            if (items != null) {
+                mapSearchResult = mapItemsToMediaSearchResult(userId, items, cachedPage.total(), page, size);
+                mapSearchResult.searchResult.setNextCursor(cachedPage.nextCursor());
+            }
+        }
+        boolean cached = mapSearchResult != null;
+        if (!cached) {
+            SearchResponse<Object> response = searchCall.execute();
+            mapSearchResult = mapResponseToMediaSearchResult(userId, response, page, size);
+            mapSearchResult.searchResult.setNextCursor(SearchCursor.next(response, size));
+        }
 
         if (!Boolean.parseBoolean(alwaysShowOriginalResolution))
             thumbnailService.processThumbnails(userId, mapSearchResult.searchItems);
 
         mediaSearchCacheService.cacheMediaSearchItems(userId, mapSearchResult.searchItems);
+        if (!cached) {
+            mediaSearchCacheService.cacheSearchPage(userId, generation, query, new MediaSearchCacheService.CachedSearchPage(
+                    mapSearchResult.searchItems.stream().map(MediaSearchItem::getId).toList(),
+                    mapSearchResult.searchResult.getTotal(),
+                    mapSearchResult.searchResult.getNextCursor()));
+        }
         return mapSearchResult.searchResult;
     }
 
-    private void checkMaxPage(int page) {
-        if (page > 50)
+    // field order of a request and value order within a field don't change the hits
+    private String normalizeQuery(String type, Object query, int page, int size, String cursor, SortBy sortBy, SortOrder sortOrder) {
+        return toJson(Arrays.asList(type, query, cursor == null ? page : cursor, size, sortBy, sortOrder));
+    }
+
+    private List<String> normalizeSearchFields(List<MediaSearchField> fields) {
+        if (fields == null)
+            return List.of();
+        return fields.stream()
+                .map(f -> toJson(Arrays.asList(f.getField(), f.isMatchAll(), normalizeValues(f.getValues()))))
+                .sorted()
+                .toList();
+    }
+
+    private List<String> normalizeRangeFields(List<MediaSearchRangeField> fields) {
+        if (fields == null)
+            return List.of();
+        return fields.stream()
+                .map(f -> toJson(Arrays.asList(f.getField(), f.getFrom(), f.getTo())))
+                .sorted()
+                .toList();
+    }
+
+    private List<String> normalizeValues(Collection<Object> values) {
+        if (values == null)
+            return List.of();
+        return values.stream().map(String::valueOf).sorted().toList();
+    }
+
+    private String toJson(Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to parse json", e);
+        }
+    }
+
+    // offset paging gets more expensive the deeper it goes, past the cap only cursors are accepted
+    private void checkMaxPage(int page, String cursor) {
+        if (cursor == null && page > 50)
             throw new IllegalArgumentException("Max page's'exceeded, please refine your search");
     }
 
@@ -163,14 +233,19 @@ public class MediaSearchService {
 
     private MapSearchResult mapResponseToMediaSearchResult(String userId, SearchResponse<Object> response, int page, int size) {
         List<MediaSearchItem> items = new ArrayList<>();
-        List<MediaSearchItemResponse> itemResponses = new ArrayList<>();
         for (Hit<Object> hit : response.hits().hits()) {
-            MediaSearchItem searchItem = mapper.convertValue(hit.source(), MediaSearchItem.class);
-            items.add(searchItem);
+            items.add(mapper.convertValue(hit.source(), MediaSearchItem.class));
+        }
+        return mapItemsToMediaSearchResult(userId, items, response.hits().total() == null ? 0 : response.hits().total().value(), page, size);
+    }
+
+    private MapSearchResult mapItemsToMediaSearchResult(String userId, List<MediaSearchItem> items, long total, int page, int size) {
+        List<MediaSearchItemResponse> itemResponses = new ArrayList<>();
+        for (MediaSearchItem searchItem : items) {
             MediaSearchItemResponse itemResponse = mediaMapper.map(searchItem);
             if (Boolean.parseBoolean(alwaysShowOriginalResolution)) {
                 itemResponse.setThumbnail(searchItem.hasThumbnail()
-                        ? minIOService.getObjectUrl(ContentMetaData.THUMBNAIL_BUCKET, ContentMetaData.removeUserIdDirFromObjectKey(userId, searchItem.getThumbnail()))
+                        ? minIOService.getObjectUrl(userId, ContentMetaData.THUMBNAIL_BUCKET, ContentMetaData.removeUserIdDirFromObjectKey(userId, searchItem.getThumbnail()))
                         : null);
             } else {
                 itemResponse.setThumbnail(searchItem.hasThumbnail()
@@ -184,7 +259,7 @@ public class MediaSearchService {
         MediaSearchResult result = new MediaSearchResult(itemResponses);
         result.setPage(page);
         result.setPageSize(size);
-        result.setTotal(response.hits().total() == null ? 0 : response.hits().total().value());
+        result.setTotal(total);
         result.setTotalPages((result.getTotal() + size -1) / size);
 
         return new MapSearchResult(result, items);
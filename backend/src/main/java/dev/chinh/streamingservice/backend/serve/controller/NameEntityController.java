@@ -18,33 +18,37 @@ public class NameEntityController {
 
     @GetMapping("/authors")
     public ResponseEntity<?> getAuthors(@RequestParam(value = "p", defaultValue = "0") int offset,
+                                        @RequestParam(value = "c", required = false) String cursor,
                                         @RequestParam(value = "by", defaultValue = "NAME") SortBy sortBy,
                                         @RequestParam(value = "order", defaultValue = "Asc") SortOrder order,
                                         @AuthenticationPrincipal Jwt jwt) {
-        return ResponseEntity.ok().body(mediaNameEntityService.findAllAuthors(jwt.getSubject(), offset, sortBy, order));
+        return ResponseEntity.ok().body(mediaNameEntityService.findAllAuthors(jwt.getSubject(), offset, cursor, sortBy, order));
     }
 
     @GetMapping("/characters")
     public ResponseEntity<?> getCharacters(@RequestParam(value = "p", defaultValue = "0") int offset,
+                                           @RequestParam(value = "c", required = false) String cursor,
                                            @RequestParam(value = "by", defaultValue = "NAME") SortBy sortBy,
                                            @RequestParam(value = "order", defaultValue = "Asc") SortOrder order,
                                            @AuthenticationPrincipal Jwt jwt) {
-        return ResponseEntity.ok().body(mediaNameEntityService.findAllCharacters(jwt.getSubject(), offset, sortBy, order));
+        return ResponseEntity.ok().body(mediaNameEntityService.findAllCharacters(jwt.getSubject(), offset, cursor, sortBy, order));
     }
 
     @GetMapping("/universes")
     public ResponseEntity<?> getUniverses(@RequestParam(value = "p", defaultValue = "0") int offset,
+                                          @RequestParam(value = "c", required = false) String cursor,
                                           @RequestParam(value = "by", defaultValue = "NAME") SortBy sortBy,
                                           @RequestParam(value = "order", defaultValue = "Asc") SortOrder order,
                                           @AuthenticationPrincipal Jwt jwt) {
-        return ResponseEntity.ok().body(mediaNameEntityService.findAllUniverses(jwt.getSubject(), offset, sortBy, order));
+        return ResponseEntity.ok().body(mediaNameEntityService.findAllUniverses(jwt.getSubject(), offset, cursor, sortBy, order));
     }
 
     @GetMapping("/tags")
     public ResponseEntity<?> getTags(@RequestParam(value = "p", defaultValue = "0") int offset,
+                                     @RequestParam(value = "c", required = false) String cursor,
                                      @RequestParam(value = "by", defaultValue = "NAME") SortBy sortBy,
                                      @RequestParam(value = "order", defaultValue = "Asc") SortOrder order,
                                      @AuthenticationPrincipal Jwt jwt) {
-        return ResponseEntity.ok().body(mediaNameEntityService.findAllTags(jwt.getSubject(), offset, sortBy, order));
+        return ResponseEntity.ok().body(mediaNameEntityService.findAllTags(jwt.getSubject(), offset, cursor, sortBy, order));
     }
 }
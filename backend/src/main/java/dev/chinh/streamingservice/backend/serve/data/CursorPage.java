@@ -0,0 +1,21 @@
+package dev.chinh.streamingservice.backend.serve.data;
+
+import lombok.Getter;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * Page with the search_after token for the page after it, null on the last one.
+ */
+@Getter
+public class CursorPage<T> extends PageImpl<T> {
+
+    private final String nextCursor;
+
+    public CursorPage(List<T> content, Pageable pageable, long total, String nextCursor) {
+        super(content, pageable, total);
+        this.nextCursor = nextCursor;
+    }
+}
@@ -58,6 +58,13 @@ public class MediaDisplayContent {
     @JsonProperty(ContentMetaData.YEAR)
     private Integer year;
 
+    // hover-scrub previews of a video: the WebVTT index names tiles of the sprite sheet by its file name
+    @JsonProperty(ContentMetaData.SCRUB_INDEX)
+    private String scrubIndex;
+
+    @JsonProperty(ContentMetaData.SCRUB_SPRITE)
+    private String scrubSprite;
+
     private MediaType mediaType;
 
     // optional inner child media ids if the current media is just a grouper (not individual video item or album)
@@ -58,13 +58,16 @@ public class MediaDisplayService {
         if (mediaItem.hasThumbnail()) {
             if (Boolean.parseBoolean(alwaysShowOriginalResolution)) {
                 String thumbnailBucket = mediaItem.getMediaType() == MediaType.ALBUM ? mediaItem.getBucket() : ContentMetaData.THUMBNAIL_BUCKET;
-                mediaDisplayContent.setThumbnail(minIOService.getObjectUrl(thumbnailBucket, ContentMetaData.removeUserIdDirFromObjectKey(userId, mediaItem.getThumbnail())));
+                mediaDisplayContent.setThumbnail(minIOService.getObjectUrl(userId, thumbnailBucket, ContentMetaData.removeUserIdDirFromObjectKey(userId, mediaItem.getThumbnail())));
             } else {
                 mediaDisplayContent.setThumbnail(ThumbnailService.getThumbnailPath(ThumbnailService.getThumbnailUrlParentPath(), mediaId, mediaItem.getThumbnail()));
                 thumbnailService.processThumbnails(userId, List.of(mediaItem));
             }
         }
 
+        if (mediaItem.getMediaType() == MediaType.VIDEO && !mediaItem.isGrouper())
+            setScrubPreview(userId, mediaItem, mediaDisplayContent);
+
         if (mediaItem.isGrouper()) {
             GroupSlice mediaIds = getNextGroupOfMedia(userId, mediaId, 0, Sort.Direction.DESC);
             mediaDisplayContent.setChildMediaIds(mediaIds);
@@ -75,6 +78,17 @@ public class MediaDisplayService {
         return mediaDisplayContent;
     }
 
+    // generated at ingest next to the thumbnail, best effort - clients treat a missing index as no preview
+    private void setScrubPreview(String userId, MediaDescription mediaItem, MediaDisplayContent mediaDisplayContent) {
+        List<String> spriteObjects = ContentMetaData.spriteObjectsOfThumbnail(mediaItem.getThumbnail());
+        if (spriteObjects.isEmpty())
+            return;
+        mediaDisplayContent.setScrubSprite(minIOService.getObjectUrl(userId, ContentMetaData.THUMBNAIL_BUCKET,
+                ContentMetaData.removeUserIdDirFromObjectKey(userId, spriteObjects.get(0))));
+        mediaDisplayContent.setScrubIndex(minIOService.getObjectUrl(userId, ContentMetaData.THUMBNAIL_BUCKET,
+                ContentMetaData.removeUserIdDirFromObjectKey(userId, spriteObjects.get(1))));
+    }
+
     private void addCacheGroupOfMedia(String userId, long mediaId, int page, Sort.Direction sortOrder, GroupSlice mediaIds) throws JsonProcessingException {
         String id = getCacheGroupOfMediaString(userId, mediaId);
         redisStringTemplate.opsForHash().put(id, page + ":" + sortOrder, objectMapper.writeValueAsString(mediaIds));
@@ -3,11 +3,14 @@ package dev.chinh.streamingservice.backend.serve.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.chinh.streamingservice.backend.content.service.MinIOService;
 import dev.chinh.streamingservice.backend.content.service.ThumbnailService;
+import dev.chinh.streamingservice.backend.serve.data.CursorPage;
 import dev.chinh.streamingservice.common.data.ContentMetaData;
 import dev.chinh.streamingservice.mediapersistence.projection.NameEntityDTO;
 import dev.chinh.streamingservice.searchclient.OpenSearchService;
 import dev.chinh.streamingservice.searchclient.constant.SortBy;
+import dev.chinh.streamingservice.searchclient.data.SearchCursor;
 import lombok.RequiredArgsConstructor;
+import org.opensearch.client.opensearch._types.FieldValue;
 import org.opensearch.client.opensearch._types.SortOrder;
 import org.opensearch.client.opensearch.core.SearchResponse;
 import org.opensearch.client.opensearch.core.search.Hit;
@@ -31,26 +34,26 @@ public class MediaNameEntityService {
     private String alwaysShowOriginalResolution;
     private final int pageSize = 20;
 
-    public Page<NameEntityDTO> findAllAuthors(String userId, int page, SortBy sortBy, SortOrder sortOrder) {
-        return mapInfo(userId, page, searchMatchAll(ContentMetaData.AUTHORS, userId, page, sortBy, sortOrder), false);
+    public CursorPage<NameEntityDTO> findAllAuthors(String userId, int page, String cursor, SortBy sortBy, SortOrder sortOrder) {
+        return mapInfo(userId, page, searchMatchAll(ContentMetaData.AUTHORS, userId, page, cursor, sortBy, sortOrder), false);
     }
 
-    public Page<NameEntityDTO> findAllCharacters(String userId, int page, SortBy sortBy, SortOrder sortOrder) {
-        return mapInfo(userId, page, searchMatchAll(ContentMetaData.CHARACTERS, userId, page, sortBy, sortOrder), true);
+    public CursorPage<NameEntityDTO> findAllCharacters(String userId, int page, String cursor, SortBy sortBy, SortOrder sortOrder) {
+        return mapInfo(userId, page, searchMatchAll(ContentMetaData.CHARACTERS, userId, page, cursor, sortBy, sortOrder), true);
     }
 
-    public Page<NameEntityDTO> findAllUniverses(String userId, int page, SortBy sortBy, SortOrder sortOrder) {
-        return mapInfo(userId, page, searchMatchAll(ContentMetaData.UNIVERSES, userId, page, sortBy, sortOrder), true);
+    public CursorPage<NameEntityDTO> findAllUniverses(String userId, int page, String cursor, SortBy sortBy, SortOrder sortOrder) {
+        return mapInfo(userId, page, searchMatchAll(ContentMetaData.UNIVERSES, userId, page, cursor, sortBy, sortOrder), true);
     }
 
-    public Page<NameEntityDTO> findAllTags(String userId, int page, SortBy sortBy, SortOrder sortOrder) {
-        return mapInfo(userId, page, searchMatchAll(ContentMetaData.TAGS, userId, page, sortBy, sortOrder), false);
+    public CursorPage<NameEntityDTO> findAllTags(String userId, int page, String cursor, SortBy sortBy, SortOrder sortOrder) {
+        return mapInfo(userId, page, searchMatchAll(ContentMetaData.TAGS, userId, page, cursor, sortBy, sortOrder), false);
     }
 
-    private Page<NameEntityDTO> mapInfo(String userId, int page, SearchResponse<Object> searchResponse, boolean hasThumbnail) {
+    private CursorPage<NameEntityDTO> mapInfo(String userId, int page, SearchResponse<Object> searchResponse, boolean hasThumbnail) {
         int size = searchResponse.hits().hits().size();
         if (size == 0)
-            return new PageImpl<>(new ArrayList<>(), PageRequest.of(page, pageSize), 0);
+            return new CursorPage<>(new ArrayList<>(), PageRequest.of(page, pageSize), 0, null);
 
         List<NameEntityDTO> nameEntries = new ArrayList<>(size);
         for (Hit<Object> hit : searchResponse.hits().hits()) {
@@ -61,7 +64,7 @@ public class MediaNameEntityService {
             if (Boolean.parseBoolean(alwaysShowOriginalResolution)) {
                 nameEntries.forEach(nameEntry -> {
                     try {
-                        nameEntry.setThumbnail(minIOService.getObjectUrl(ContentMetaData.THUMBNAIL_BUCKET, ContentMetaData.removeUserIdDirFromObjectKey(userId, nameEntry.getThumbnail())));
+                        nameEntry.setThumbnail(minIOService.getObjectUrl(userId, ContentMetaData.THUMBNAIL_BUCKET, ContentMetaData.removeUserIdDirFromObjectKey(userId, nameEntry.getThumbnail())));
                     } catch (Exception e) {
                         throw new RuntimeException(e);
                     }
@@ -79,14 +82,16 @@ public class MediaNameEntityService {
             }
         }
         int total = searchResponse.hits().total() == null ? 0 : (int) searchResponse.hits().total().value();
-        return new PageImpl<>(nameEntries, PageRequest.of(page, pageSize), total);
+        return new CursorPage<>(nameEntries, PageRequest.of(page, pageSize), total, SearchCursor.next(searchResponse, pageSize));
     }
 
-    public SearchResponse<Object> searchMatchAll(String indexName, String userId, int page, SortBy sortBy, SortOrder sortOrder) {
-        if (page > 50)
+    public SearchResponse<Object> searchMatchAll(String indexName, String userId, int page, String cursor, SortBy sortBy, SortOrder sortOrder) {
+        // offset paging only, deeper pages go through the cursor
+        if (cursor == null && page > 50)
             throw new IllegalArgumentException("Max page's'exceeded, please refine your search");
+        List<FieldValue> searchAfter = SearchCursor.decode(cursor);
         try {
-            return openSearchService.searchMatchAll(indexName, Long.parseLong(userId), page, pageSize, sortBy, sortOrder);
+            return openSearchService.searchMatchAll(indexName, Long.parseLong(userId), page, pageSize, searchAfter, sortBy, sortOrder);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
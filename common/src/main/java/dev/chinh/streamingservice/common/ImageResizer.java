@@ -0,0 +1,160 @@
+package dev.chinh.streamingservice.common;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+/**
+ * In-process image downscaling with ImageIO, replacing a forked ffmpeg per image for common formats.
+ * <p>
+ * Same geometry as the ffmpeg filter used before:
+ * {@code scale='if(gte(iw,ih),-2,min(iw,R))':'if(gte(ih,iw),-2,min(ih,R))'}, i.e. the shorter side becomes
+ * min(side, R), the other side keeps the aspect ratio rounded to an even number, and images are never upscaled.
+ * The source is decoded with subsampling so large photos are never fully materialized.
+ * <p>
+ * Decoding WebP needs the TwelveMonkeys imageio-webp plugin on the classpath. Formats without an ImageIO reader
+ * or writer (e.g. WebP output) return false and callers fall back to ffmpeg.
+ */
+public final class ImageResizer {
+
+    private static final float JPEG_QUALITY = 0.9f; // close to ffmpeg -q:v 2
+
+    static {
+        ImageIO.setUseCache(false); // buffer in memory rather than temp files on disk
+    }
+
+    private ImageResizer() {}
+
+    public static boolean canWrite(Path output) {
+        return ImageIO.getImageWritersByFormatName(formatOf(output)).hasNext();
+    }
+
+    /**
+     * @param input  source image, read once and not closed
+     * @param output file to write, skipped if it already exists (same as ffmpeg -n)
+     * @param target length of the shorter side
+     * @return false if the format isn't supported in process - nothing was written
+     */
+    public static boolean resize(InputStream input, Path output, int target) throws IOException {
+        if (Files.exists(output))
+            return true;
+        String format = formatOf(output);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext())
+            return false;
+
+        BufferedImage source;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
+            if (iis == null)
+                return false;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+                return false;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int shorter = Math.min(width, height);
+                int targetShorter = Math.min(shorter, target);
+                // decode at no less than twice the target so the final scale still has detail to work with
+                int subsampling = Math.max(1, shorter / (targetShorter * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                source = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        BufferedImage scaled = scale(source, target, !format.equals("png") && !format.equals("gif"));
+
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        ImageWriter writer = writers.next();
+        try (OutputStream out = Files.newOutputStream(tmp);
+             ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            if (format.equals("jpg") || format.equals("jpeg")) {
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeParam.setCompressionQuality(JPEG_QUALITY);
+            }
+            writer.write(null, new IIOImage(scaled, null, null), writeParam);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        } finally {
+            writer.dispose();
+        }
+        // nginx may serve the file the moment it exists - never expose a partial write
+        Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private static BufferedImage scale(BufferedImage source, int target, boolean opaque) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int dstWidth, dstHeight;
+        if (width >= height) {
+            dstHeight = Math.min(height, target);
+            dstWidth = even((double) width * dstHeight / height);
+        } else {
+            dstWidth = Math.min(width, target);
+            dstHeight = even((double) height * dstWidth / width);
+        }
+
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage current = source;
+        // halve step by step, a single bilinear pass over a large ratio aliases badly
+        while (true) {
+            int w = current.getWidth() / 2;
+            int h = current.getHeight() / 2;
+            boolean last = w < dstWidth || h < dstHeight;
+            if (last) {
+                w = dstWidth;
+                h = dstHeight;
+            }
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                if (opaque) {
+                    g.setColor(Color.WHITE); // flatten transparency for formats without alpha
+                    g.fillRect(0, 0, w, h);
+                }
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+            if (last)
+                break;
+        }
+        return current;
+    }
+
+    private static int even(double value) {
+        return Math.max(2, (int) Math.round(value / 2) * 2);
+    }
+
+    private static String formatOf(Path output) {
+        String name = output.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "jpg" : name.substring(dot + 1).toLowerCase();
+    }
+}
@@ -186,6 +186,11 @@ public class OSUtil {
         throw new RuntimeException("Unable to get RAM usable space from container");
     }
 
+    public static int getCpuCores() {
+        // container aware - respects cgroup cpu limits
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     public static long getUsableMemory() {
         return MEMORY_USABLE.get();
     }
@@ -195,9 +200,16 @@ public class OSUtil {
     }
 
     public static void refreshUsableMemory(String containerName) throws IOException, InterruptedException {
+        MEMORY_USABLE.set(readUsableMemory(containerName));
+    }
+
+    /**
+     * Usable space on the RAM disk as reported by the file system, without touching MEMORY_USABLE.
+     */
+    public static long readUsableMemory(String containerName) throws IOException, InterruptedException {
         if (containerName == null || containerName.isEmpty())
             containerName = "nginx";
-        MEMORY_USABLE.set(getActualMemoryUsableSpace(containerName));
+        return getActualMemoryUsableSpace(containerName);
     }
 
 
@@ -215,6 +227,19 @@ public class OSUtil {
         throw new IllegalStateException("Unsupported OS");
     }
 
+    /**
+     * Whether the RAM disk is mounted on this host (or this service runs in the same container network),
+     * so files under it can be read and written directly instead of through docker exec.
+     */
+    public static boolean isRAMDiskHostAccessible() {
+        OS os = _getDetectedOS();
+        return os == OS.MAC || os == OS.LINUX || checkServiceIsInContainer();
+    }
+
+    public static Path getRAMDiskPath(String relativePath) {
+        return Path.of(normalizePath(_getRAMDISKName(), relativePath));
+    }
+
     public static String replaceHostRAMDiskWithContainer(String path) {
         if (path.startsWith(_getRAMDISKName()))
             return path.replace(_getRAMDISKName(), BASE_DIR);
@@ -0,0 +1,31 @@
+package dev.chinh.streamingservice.common;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The minio.presign.* settings, read once for every service that hands out object urls.
+ * The signer only exists with minio.presign.enabled, its properties aren't needed otherwise.
+ */
+@Configuration
+public class ObjectUrlConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "minio.presign.enabled", havingValue = "true")
+    public PresignedUrlSigner presignedUrlSigner(@Value("${minio.presign.public-url:${minio.url}}") String publicUrl,
+                                                 @Value("${minio.access-key}") String accessKey,
+                                                 @Value("${minio.secret-key}") String secretKey,
+                                                 @Value("${minio.presign.region:us-east-1}") String region,
+                                                 @Value("${minio.presign.expiry-seconds:3600}") long expirySeconds,
+                                                 @Value("${minio.presign.window-seconds:600}") long windowSeconds) {
+        return new PresignedUrlSigner(publicUrl, accessKey, secretKey, region, expirySeconds, windowSeconds);
+    }
+
+    @Bean
+    public ObjectUrlResolver objectUrlResolver(ObjectProvider<PresignedUrlSigner> urlSigner) {
+        return new ObjectUrlResolver(urlSigner.getIfAvailable());
+    }
+}
@@ -0,0 +1,31 @@
+package dev.chinh.streamingservice.common;
+
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Urls the browser loads objects from, the nginx /stream/object proxy or presigned MinIO urls.
+ */
+public final class ObjectUrlResolver {
+
+    private final PresignedUrlSigner urlSigner;
+
+    /**
+     * @param urlSigner null to go through nginx
+     */
+    public ObjectUrlResolver(PresignedUrlSigner urlSigner) {
+        this.urlSigner = urlSigner;
+    }
+
+    /**
+     * object is relative to the owner's directory in the bucket, nginx maps /stream/object paths the same way.
+     * With presigning on, the url goes straight to MinIO (or the CDN) instead.
+     */
+    public String getObjectUrl(String userId, String bucket, String object) {
+        if (urlSigner != null)
+            return urlSigner.sign(bucket, userId + "/" + object);
+        return "/stream/object/" + UriUtils.encodePathSegment(bucket, StandardCharsets.UTF_8)
+                + "/" + UriUtils.encodePath(object, StandardCharsets.UTF_8); // preserve '/'
+    }
+}
@@ -0,0 +1,145 @@
+package dev.chinh.streamingservice.common;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * S3 signature v4 presigned GET urls for MinIO, signed in process without the MinIO client.
+ * <p>
+ * Signing time is rounded down to a window, and urls stay valid for the expiry plus that window, so every caller
+ * within a window gets the same url for an object: it is computed once and then served from a map that is replaced
+ * when the window ends, so it only ever holds the current window's urls, up to MAX_CACHED of them. Browsers can
+ * cache the object under a stable url for the same reason. The signing key only changes daily and is cached as well.
+ * <p>
+ * publicUrl is the origin clients use - MinIO itself or a CDN in front of it that forwards the Host header.
+ */
+public final class PresignedUrlSigner {
+
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter SCOPE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    private static final int MAX_CACHED = 100_000;
+
+    private record WindowCache(long window, Map<String, String> urls) {}
+    private record SigningKey(String date, byte[] key) {}
+
+    private final String origin;
+    private final String host;
+    private final String accessKey;
+    private final String secretKey;
+    private final String region;
+    private final long expirySeconds;
+    private final long windowSeconds;
+
+    private volatile WindowCache cache = new WindowCache(-1, Map.of());
+    private volatile SigningKey signingKey;
+
+    /**
+     * @param expirySeconds minimum time a url stays valid
+     * @param windowSeconds how long the same url is handed out, added on top of the expiry
+     */
+    public PresignedUrlSigner(String publicUrl, String accessKey, String secretKey, String region, long expirySeconds, long windowSeconds) {
+        URI uri = URI.create(publicUrl);
+        this.origin = uri.getScheme() + "://" + uri.getRawAuthority();
+        this.host = uri.getRawAuthority(); // includes a non default port, as the Host header does
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.region = region;
+        this.expirySeconds = expirySeconds;
+        this.windowSeconds = windowSeconds;
+        if (expirySeconds + windowSeconds > 7 * 24 * 3600)
+            throw new IllegalArgumentException("Presigned urls can be valid for 7 days at most");
+    }
+
+    public String sign(String bucket, String object) {
+        long window = Instant.now().getEpochSecond() / windowSeconds;
+        WindowCache current = cache;
+        if (current.window() != window) {
+            // urls of the last window are never handed out again, a racing thread's map is only a few urls lost
+            current = new WindowCache(window, new ConcurrentHashMap<>());
+            cache = current;
+        }
+        String cacheKey = bucket + "/" + object;
+        String url = current.urls().get(cacheKey);
+        if (url != null)
+            return url;
+
+        url = presign(bucket, object, Instant.ofEpochSecond(window * windowSeconds));
+        if (current.urls().size() < MAX_CACHED)
+            current.urls().putIfAbsent(cacheKey, url);
+        return url;
+    }
+
+    private String presign(String bucket, String object, Instant signedAt) {
+        String amzDate = AMZ_DATE.format(signedAt);
+        String date = SCOPE_DATE.format(signedAt);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String canonicalUri = "/" + encode(bucket, false) + "/" + encode(object, true);
+        // parameters in sorted order
+        String query = "X-Amz-Algorithm=AWS4-HMAC-SHA256"
+                + "&X-Amz-Credential=" + encode(accessKey + "/" + scope, false)
+                + "&X-Amz-Date=" + amzDate
+                + "&X-Amz-Expires=" + (expirySeconds + windowSeconds)
+                + "&X-Amz-SignedHeaders=host";
+        String canonicalRequest = "GET\n" + canonicalUri + "\n" + query + "\nhost:" + host + "\n\nhost\nUNSIGNED-PAYLOAD";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + HexFormat.of().formatHex(sha256(canonicalRequest));
+        String signature = HexFormat.of().formatHex(hmac(signingKey(date), stringToSign));
+        return origin + canonicalUri + "?" + query + "&X-Amz-Signature=" + signature;
+    }
+
+    private byte[] signingKey(String date) {
+        SigningKey current = signingKey;
+        if (current != null && current.date().equals(date))
+            return current.key();
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        signingKey = new SigningKey(date, key);
+        return key;
+    }
+
+    // RFC 3986 unreserved characters stay, everything else is percent encoded - the encoding S3 signs
+    private static String encode(String value, boolean keepSlash) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(bytes.length + 16);
+        for (byte b : bytes) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (keepSlash && c == '/')) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xf, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -45,4 +45,28 @@ public enum Resolution {
             return 256;
         return 1;
     }
+
+    /**
+     * Target video bitrate used for a rung of an adaptive bitrate ladder.
+     * Needed so the HLS master playlist can advertise BANDWIDTH for each variant.
+     */
+    public static int getLadderBitrateKbps(Resolution resolution) {
+        if (resolution == Resolution.p2160)
+            return 16000;
+        else if (resolution == Resolution.p1440)
+            return 9000;
+        else if (resolution == Resolution.p1080)
+            return 5000;
+        else if (resolution == Resolution.p720)
+            return 2800;
+        else if (resolution == Resolution.p480)
+            return 1400;
+        else if (resolution == Resolution.p360)
+            return 800;
+        else if (resolution == Resolution.p240)
+            return 400;
+        else if (resolution == Resolution.p144)
+            return 200;
+        return 0;
+    }
 }
@@ -0,0 +1,12 @@
+package dev.chinh.streamingservice.common.constant;
+
+public class SearchCacheKeys {
+
+    // bumped by the search-indexer on every write to a user's documents, part of every cached result page key
+    public static final String GENERATION_PREFIX = "search:gen:";
+    public static final String PAGE_PREFIX = "search:page:";
+
+    public static String generation(String userId) {
+        return GENERATION_PREFIX + userId;
+    }
+}
@@ -6,6 +6,7 @@ import java.lang.reflect.Field;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.List;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -30,6 +31,8 @@ public class ContentMetaData {
     public static final String OBJECT_NAME = "objectName";
     public static final String THUMBNAIL = "thumbnail";
     public static final String PREVIEW = "preview";
+    public static final String SCRUB_INDEX = "scrubIndex";
+    public static final String SCRUB_SPRITE = "scrubSprite";
     public static final String LENGTH = "length";
     public static final String RESOLUTION = "resolution";
     public static final String SIZE = "size";
@@ -86,4 +89,33 @@ public class ContentMetaData {
     public static String removeUserIdDirFromObjectKey(String userId, String objectKey) {
         return objectKey.startsWith(userId + "/") ? objectKey.substring(userId.length() + 1) : objectKey;
     }
+
+    // scrub previews of a video in the thumbnail bucket, named after the media so they survive thumbnail changes
+    public static String spriteObjectOf(String userId, long mediaId) {
+        return userId + "/vid/" + mediaId + "_sprite.jpg";
+    }
+
+    public static String spriteIndexObjectOf(String userId, long mediaId) {
+        return userId + "/vid/" + mediaId + "_sprite.vtt";
+    }
+
+    /**
+     * The sprite sheet and index belonging to a video thumbnail, empty for any other thumbnail.
+     */
+    public static List<String> spriteObjectsOfThumbnail(String thumbnailObject) {
+        if (thumbnailObject == null)
+            return List.of();
+        String[] parts = thumbnailObject.split("/", 3);
+        if (parts.length != 3 || !parts[1].equals("vid"))
+            return List.of();
+        int end = parts[2].indexOf('_');
+        if (end <= 0)
+            return List.of();
+        try {
+            long mediaId = Long.parseLong(parts[2].substring(0, end));
+            return List.of(spriteObjectOf(parts[0], mediaId), spriteIndexObjectOf(parts[0], mediaId));
+        } catch (NumberFormatException e) {
+            return List.of();
+        }
+    }
 }
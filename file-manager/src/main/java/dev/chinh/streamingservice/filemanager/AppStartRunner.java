@@ -1,6 +1,9 @@
 package dev.chinh.streamingservice.filemanager;
 
+import dev.chinh.streamingservice.filemanager.service.DirectoryStatsService;
+import dev.chinh.streamingservice.filemanager.service.FileNameIndexService;
 import dev.chinh.streamingservice.filemanager.service.FileService;
+import dev.chinh.streamingservice.filemanager.service.SubtreeService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
@@ -11,9 +14,15 @@ import org.springframework.stereotype.Component;
 public class AppStartRunner implements ApplicationRunner {
 
     private final FileService fileService;
+    private final SubtreeService subtreeService;
+    private final DirectoryStatsService directoryStatsService;
+    private final FileNameIndexService fileNameIndexService;
 
     @Override
     public void run(ApplicationArguments args) {
         fileService.createRootFolder();
+        subtreeService.backfillAncestors();
+        directoryStatsService.backfill();
+        fileNameIndexService.start();
     }
 }
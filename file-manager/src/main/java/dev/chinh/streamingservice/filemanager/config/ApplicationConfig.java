@@ -3,7 +3,7 @@ package dev.chinh.streamingservice.filemanager.config;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
-import dev.chinh.streamingservice.filemanager.data.FileSystemItem;
+import dev.chinh.streamingservice.filemanager.service.FileCacheService;
 import dev.chinh.streamingservice.filemanager.service.FileLockService;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
@@ -23,7 +23,7 @@ public class ApplicationConfig {
     public record DirectoryCached(String dirId, Set<String> userUsing) implements EntryCached {}
 
     @Bean
-    public Cache<String, EntryCached> DirectoryIdCache(FileLockService fileLockService, ObjectProvider<Cache<String, EntryCached>> cacheProvider, Cache<String, FileSystemItem> fileCache) {
+    public Cache<String, EntryCached> DirectoryIdCache(FileLockService fileLockService, ObjectProvider<Cache<String, EntryCached>> cacheProvider, Cache<String, FileCacheService.VersionedItem> fileCache) {
         return Caffeine.newBuilder()
                 .expireAfterAccess(15, TimeUnit.MINUTES)
                 .removalListener((String key, EntryCached value, RemovalCause cause) -> {
@@ -48,7 +48,7 @@ public class ApplicationConfig {
                 .build();
     }
 
-    private void cleanupDirAccessCache(Cache<String, EntryCached> cache, String dirKey, String userId, FileLockService fileLockService, Cache<String, FileSystemItem> fileCache) {
+    private void cleanupDirAccessCache(Cache<String, EntryCached> cache, String dirKey, String userId, FileLockService fileLockService, Cache<String, FileCacheService.VersionedItem> fileCache) {
         cache.asMap().computeIfPresent(dirKey, (_, v) -> {
             DirectoryCached directoryCached = (DirectoryCached) v;
             directoryCached.userUsing().remove(userId);
@@ -60,13 +60,13 @@ public class ApplicationConfig {
         });
     }
 
-    private void removeFileStatus(FileLockService fileLockService, String fileId, Cache<String, FileSystemItem> fileCache) {
+    private void removeFileStatus(FileLockService fileLockService, String fileId, Cache<String, FileCacheService.VersionedItem> fileCache) {
         fileLockService.releaseLockedFileItem(Set.of(fileId));
-        fileCache.invalidate(fileId);
+        fileCache.invalidate(fileId); // local only, the item itself did not change
     }
 
     @Bean
-    public Cache<String, FileSystemItem> FileCache() {
+    public Cache<String, FileCacheService.VersionedItem> FileCache() {
         return Caffeine.newBuilder()
                 .maximumSize(10000)
                 .expireAfterAccess(15, TimeUnit.MINUTES)
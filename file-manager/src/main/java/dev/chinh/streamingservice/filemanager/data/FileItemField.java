@@ -6,6 +6,7 @@ public class FileItemField {
     public static final String USER_ID = "uI";
     public static final String PARENT_ID = "pI";
     public static final String PATH = "pt";
+    public static final String ANCESTORS = "an";
     public static final String FILE_TYPE = "ft";
     public static final String MEDIA_ID = "mI";
     public static final String NAME = "nm";
@@ -19,5 +20,10 @@ public class FileItemField {
     public static final String HEIGHT = "h";
     public static final String AREA = "a";
     public static final String UPLOAD_DATE = "up";
+    // directory aggregates over the whole subtree
+    public static final String SUBTREE_SIZE = "ts";
+    public static final String FILE_COUNT = "fc";
+    public static final String IMAGE_COUNT = "ic";
+    public static final String VIDEO_COUNT = "vc";
     public static final String STATUS_CODE = "sc";
 }
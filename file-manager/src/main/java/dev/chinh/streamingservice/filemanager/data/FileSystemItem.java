@@ -13,6 +13,8 @@ import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 @Builder
 @Data
@@ -22,6 +24,12 @@ import java.time.Instant;
 @CompoundIndexes({
         @CompoundIndex(name = "user_path_name_idx", def = "{'userId': 1, 'path': 1, 'name': 1}"),
 
+        // Subtree queries (multikey on ancestors): keyset walk, first media / nth child by name, any media
+        @CompoundIndex(name = "user_ancestors_id_idx", def = "{'userId': 1, 'ancestors': 1, '_id': 1}"),
+        @CompoundIndex(name = "user_ancestors_type_name_idx", def = "{'userId': 1, 'ancestors': 1, 'fileType': 1, 'name': 1}"),
+        @CompoundIndex(name = "user_ancestors_name_idx", def = "{'userId': 1, 'ancestors': 1, 'name': 1, '_id': -1}"),
+        @CompoundIndex(name = "user_ancestors_media_idx", def = "{'userId': 1, 'ancestors': 1, 'mId': 1}"),
+
         // SortBy.UPLOAD: Usually we want newest first (-1)
         @CompoundIndex(name = "user_parent_upload_idx", def = "{'userId': 1, 'parentId': 1, 'uploadDate': -1}"),
         // SortBy.NAME: Usually alphabetical (1)
@@ -66,6 +74,9 @@ public class FileSystemItem {
     @Field(FileItemField.PATH)
     private String path; // format: /rootId/parent1Id/parentId/
 
+    @Field(FileItemField.ANCESTORS)
+    private List<String> ancestors; // ids in path, root first - kept in sync with path
+
     @Field(FileItemField.FILE_TYPE)
     private FileType fileType;
 
@@ -105,10 +116,32 @@ public class FileSystemItem {
     @JsonProperty(ContentMetaData.UPLOAD_DATE)
     private Instant uploadDate;
 
+    // directories only, maintained by DirectoryStatsService
+    @Field(FileItemField.SUBTREE_SIZE)
+    private Long subtreeSize;
+
+    @Field(FileItemField.FILE_COUNT)
+    private Integer fileCount;
+
+    @Field(FileItemField.IMAGE_COUNT)
+    private Integer imageCount;
+
+    @Field(FileItemField.VIDEO_COUNT)
+    private Integer videoCount;
+
     @ReadOnlyProperty // Prevents Spring from trying to save this to the database
     @Field("pageToken")
     private String pageToken;
 
+    public static List<String> ancestorsOf(String path) {
+        List<String> ids = new ArrayList<>();
+        for (String id : path.split("/")) {
+            if (!id.isEmpty())
+                ids.add(id);
+        }
+        return ids;
+    }
+
     public void setResolution(int w, int h) {
         this.resolution = new ResolutionInfo(w, h);
     }
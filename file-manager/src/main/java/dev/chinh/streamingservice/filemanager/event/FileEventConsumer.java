@@ -7,15 +7,19 @@ import dev.chinh.streamingservice.filemanager.config.KafkaConfig;
 import dev.chinh.streamingservice.filemanager.service.FileConsumerService;
 import dev.chinh.streamingservice.filemanager.service.FileService;
 import lombok.AllArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 @AllArgsConstructor
 public class FileEventConsumer {
@@ -33,6 +37,32 @@ public class FileEventConsumer {
         }
     }
 
+    /**
+     * Consecutive FileCreated records of a poll go in as one batch. If the batch fails it was rolled back as a whole,
+     * so the events are replayed one by one to find the record at fault - only that one is retried and dead-lettered.
+     */
+    private void onCreateFiles(List<ConsumerRecord<String, MediaUpdateEvent>> records, int from, int to) {
+        List<MediaUpdateEvent.FileCreated> events = records.subList(from, to).stream()
+                .map(r -> (MediaUpdateEvent.FileCreated) r.value())
+                .toList();
+        if (events.size() > 1) {
+            log.info("Received {} create file events", events.size());
+            try {
+                fileConsumerService.handleCreateFiles(events);
+                return;
+            } catch (Exception e) {
+                log.warn("Failed to create {} files as a batch, creating one by one", events.size(), e);
+            }
+        }
+        for (int i = 0; i < events.size(); i++) {
+            try {
+                onCreateFile(events.get(i));
+            } catch (Exception e) {
+                throw new BatchListenerFailedException("Failed to create file", e, from + i);
+            }
+        }
+    }
+
     private void onDirectoryToMedia(MediaUpdateEvent.DirectoryToMediaInitiated event) {
         log.info("Received initiate directory to media initiated event: {}", event.fileId());
         try {
@@ -104,30 +134,48 @@ public class FileEventConsumer {
             EventTopics.MEDIA_FILE_AND_BACKUP_TOPIC,
             EventTopics.MEDIA_FILE_SEARCH_AND_BACKUP_TOPIC,
             EventTopics.MEDIA_FILE_UPLOAD_SEARCH_AND_BACKUP_TOPIC
-    }, groupId = KafkaConfig.MEDIA_GROUP_ID)
-    public void handle(@Payload MediaUpdateEvent event, Acknowledgment ack) {
-        try {
-            switch (event) {
-                case MediaUpdateEvent.FileCreated e -> onCreateFile(e);
-                case MediaUpdateEvent.FileDeleted e -> onDeleteFile(e);
-                case MediaUpdateEvent.DirectoryToMediaInitiated e -> onDirectoryToMedia(e);
-                case MediaUpdateEvent.NestedDirectoryToMediaInitiated e -> onNestedDirectoryToMedia(e);
-                case MediaUpdateEvent.MediaCreatedReady e -> onCompleteFileToMedia(e);
-                case MediaUpdateEvent.MediaThumbnailUpdateInitiated e -> onInitiateUpdateMediaThumbnail(e);
-                case MediaUpdateEvent.MediaThumbnailUpdatedReady e -> onUpdateMediaThumbnail(e);
-                case MediaUpdateEvent.DirectoryMoved e -> onMoveFile(e);
-
-
-                case MediaUpdateEvent.ControlAddAsVideo e -> controlAddAsVideo(e.userId(), e.fileId());
-                case MediaUpdateEvent.ControlAddAsAlbum e -> controlAddAsAlbum(e.userId(), e.fileId());
-                case MediaUpdateEvent.ControlAddAsGrouper e -> controlAddAsGrouper(e.userId(), e.fileId());
-                default ->
-                    System.err.println("Unknown MediaUpdateEvent type: " + event.getClass());
+    }, groupId = KafkaConfig.MEDIA_GROUP_ID, batch = "true")
+    public void handle(List<ConsumerRecord<String, MediaUpdateEvent>> records, Acknowledgment ack) {
+        // records are processed in order, offsets before a failed index are committed by the error handler
+        int i = 0;
+        while (i < records.size()) {
+            int end = i;
+            while (end < records.size() && records.get(end).value() instanceof MediaUpdateEvent.FileCreated)
+                end++;
+            if (end > i) {
+                onCreateFiles(records, i, end);
+                i = end;
+                continue;
             }
-            ack.acknowledge();
-        } catch (Exception e) {
-            log.error("Failed to handle media event: {}", event, e);
-            throw e;
+            MediaUpdateEvent event = records.get(i).value();
+            try {
+                handle(event);
+            } catch (Exception e) {
+                log.error("Failed to handle media event: {}", event, e);
+                throw new BatchListenerFailedException("Failed to handle media event", e, i);
+            }
+            i++;
+        }
+        ack.acknowledge();
+    }
+
+    private void handle(MediaUpdateEvent event) {
+        switch (event) {
+            case MediaUpdateEvent.FileCreated e -> onCreateFile(e);
+            case MediaUpdateEvent.FileDeleted e -> onDeleteFile(e);
+            case MediaUpdateEvent.DirectoryToMediaInitiated e -> onDirectoryToMedia(e);
+            case MediaUpdateEvent.NestedDirectoryToMediaInitiated e -> onNestedDirectoryToMedia(e);
+            case MediaUpdateEvent.MediaCreatedReady e -> onCompleteFileToMedia(e);
+            case MediaUpdateEvent.MediaThumbnailUpdateInitiated e -> onInitiateUpdateMediaThumbnail(e);
+            case MediaUpdateEvent.MediaThumbnailUpdatedReady e -> onUpdateMediaThumbnail(e);
+            case MediaUpdateEvent.DirectoryMoved e -> onMoveFile(e);
+
+
+            case MediaUpdateEvent.ControlAddAsVideo e -> controlAddAsVideo(e.userId(), e.fileId());
+            case MediaUpdateEvent.ControlAddAsAlbum e -> controlAddAsAlbum(e.userId(), e.fileId());
+            case MediaUpdateEvent.ControlAddAsGrouper e -> controlAddAsGrouper(e.userId(), e.fileId());
+            default ->
+                System.err.println("Unknown MediaUpdateEvent type: " + event.getClass());
         }
     }
 
@@ -7,6 +7,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.util.List;
+
 @Service
 @AllArgsConstructor
 public class FileEventProducer {
@@ -15,12 +17,20 @@ public class FileEventProducer {
 
     public record EventWrapper(String topic, String eventKey, Object event) {}
     public record ImmediateEventWrapper(String topic, String eventKey, Object event) {}
+    public record BatchEventWrapper(List<EventWrapper> events) {}
 
     @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
     public void publishTransactionalEventListener(EventWrapper event) {
         kafkaTemplate.send(event.topic, event.eventKey, event.event);
     }
 
+    // sent back to back after one commit, the producer packs them into as few requests as it can
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void publishTransactionalBatch(BatchEventWrapper batch) {
+        for (EventWrapper event : batch.events)
+            kafkaTemplate.send(event.topic, event.eventKey, event.event);
+    }
+
     @EventListener
     public void publishImmediateEvent(ImmediateEventWrapper event) {
         kafkaTemplate.send(event.topic, event.eventKey, event.event);
@@ -0,0 +1,21 @@
+package dev.chinh.streamingservice.filemanager.exception;
+
+import lombok.Getter;
+
+/**
+ * The request can't be served right now but will be once the service has caught up - answered with 503 and Retry-After.
+ */
+@Getter
+public class ServiceUnavailableException extends RuntimeException {
+
+    private final int retryAfterSeconds;
+
+    public ServiceUnavailableException(String message) {
+        this(message, 5);
+    }
+
+    public ServiceUnavailableException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -1,18 +1,21 @@
 package dev.chinh.streamingservice.filemanager.internal;
 
+import dev.chinh.streamingservice.common.proto.FileChunk;
 import dev.chinh.streamingservice.common.proto.FileItem;
 import dev.chinh.streamingservice.common.proto.FileRequest;
 import dev.chinh.streamingservice.common.proto.FileResponse;
 import dev.chinh.streamingservice.common.proto.FileServiceGrpc;
+import dev.chinh.streamingservice.common.proto.FileStreamRequest;
 import dev.chinh.streamingservice.filemanager.constant.SortBy;
 import dev.chinh.streamingservice.filemanager.data.FileSystemItem;
 import dev.chinh.streamingservice.filemanager.service.FileFindService;
 import dev.chinh.streamingservice.filemanager.service.FileService;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import lombok.RequiredArgsConstructor;
 import net.devh.boot.grpc.server.service.GrpcService;
-import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Sort;
 
 import java.util.List;
@@ -24,6 +27,9 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
     private final FileService fileService;
     private final FileFindService fileFindService;
 
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+    private static final int MAX_CHUNK_SIZE = 500;
+
     @Override
     public void findFileByMId(FileRequest request, StreamObserver<FileResponse> responseObserver) {
         FileSystemItem fileItem = fileService.findByMId(request.getUserId(), Long.parseLong(request.getId()));
@@ -69,6 +75,62 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    /**
+     * Streams a whole subtree in keyset chunks. The next window is only queried once the transport is ready
+     * for more, so a slow client holds back the database instead of piling chunks up in memory here.
+     */
+    @Override
+    public void streamFilesInDirectory(FileStreamRequest request, StreamObserver<FileChunk> responseObserver) {
+        ServerCallStreamObserver<FileChunk> observer = (ServerCallStreamObserver<FileChunk>) responseObserver;
+        int chunkSize = request.getChunkSize() <= 0 ? DEFAULT_CHUNK_SIZE : Math.min(request.getChunkSize(), MAX_CHUNK_SIZE);
+        int limit = request.getLimit() <= 0 ? Integer.MAX_VALUE : request.getLimit();
+        SortBy sortBy = request.getSortBy().isEmpty() ? SortBy.NAME : SortBy.valueOf(request.getSortBy());
+        Sort.Direction sortOrder = request.getSortOrder().isEmpty() ? Sort.Direction.ASC : Sort.Direction.valueOf(request.getSortOrder());
+
+        try {
+            fileService.getFileSystemItem(request.getUserId(), request.getId(), true);
+        } catch (Exception e) {
+            observer.onError(Status.NOT_FOUND
+                    .withDescription("Directory was not found with id: " + request.getId())
+                    .asRuntimeException());
+            return;
+        }
+
+        // onReady callbacks are serialized per call, plain fields are enough
+        var state = new Object() {
+            String cursor = request.getCursor();
+            int sent = 0;
+            boolean done = false;
+        };
+        observer.setOnCancelHandler(() -> state.done = true);
+        observer.setOnReadyHandler(() -> {
+            try {
+                while (!state.done && observer.isReady()) {
+                    int size = Math.min(chunkSize, limit - state.sent);
+                    var result = fileFindService.findFilesInSubtree(
+                            request.getUserId(), request.getId(), state.cursor, sortBy, sortOrder, Limit.of(size));
+                    state.sent += result.content().size();
+                    state.cursor = result.nextCursor() == null ? "" : result.nextCursor();
+
+                    observer.onNext(FileChunk.newBuilder()
+                            .addAllContent(result.content().stream().map(this::toFileItem).toList())
+                            .setNextCursor(result.hasNext() ? state.cursor : "")
+                            .build());
+
+                    if (!result.hasNext() || state.sent >= limit) {
+                        state.done = true;
+                        observer.onCompleted();
+                    }
+                }
+            } catch (Exception e) {
+                state.done = true;
+                observer.onError(Status.INTERNAL
+                        .withDescription("Failed to list directory: " + e.getMessage())
+                        .asRuntimeException());
+            }
+        });
+    }
+
     private FileItem toFileItem(FileSystemItem fileItem) {
         return FileItem.newBuilder()
                         .setId(fileItem.getId())
@@ -13,8 +13,8 @@ public interface FileSystemRepository extends MongoRepository<FileSystemItem, St
 
     Slice<FileSystemItem> findByUserIdAndParentId(Long userId, String parentId, Pageable pageable);
 
-    @Query("{ 'userId': ?0, 'path': { $regex: ?1 } }")
-    Window<FileSystemItem> findByUserIdAndPathRegex(Long userId, String pathRegex, Sort sort, Limit limit, ScrollPosition scrollPosition);
+    // ancestors is an array, equality matches any element - everything under the directory
+    Window<FileSystemItem> findByUserIdAndAncestors(Long userId, String ancestorId, Sort sort, Limit limit, ScrollPosition scrollPosition);
 
     Window<FileSystemItem> findByUserIdAndParentId(Long userId, String parentId, Sort sort, Limit limit, ScrollPosition scrollPosition);
 }
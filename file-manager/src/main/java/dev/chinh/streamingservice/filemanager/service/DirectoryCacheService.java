@@ -6,6 +6,7 @@ import dev.chinh.streamingservice.filemanager.constant.FileStatus;
 import dev.chinh.streamingservice.filemanager.constant.FileType;
 import dev.chinh.streamingservice.filemanager.data.FileItemField;
 import dev.chinh.streamingservice.filemanager.data.FileSystemItem;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
@@ -13,6 +14,8 @@ import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
 import java.util.Map;
@@ -30,6 +33,13 @@ public class DirectoryCacheService {
     private final FileCacheService fileCacheService;
     private final FileLockService fileLockService;
 
+    @PostConstruct
+    public void init() {
+        // a directory changed on another instance (moved, renamed, deleted): resolve its name again on next use
+        fileCacheService.addRemoteInvalidationListener(ids -> directoryIdCache.asMap().values().removeIf(entry ->
+                entry instanceof ApplicationConfig.DirectoryCached(String dirId, _) && ids.contains(dirId)));
+    }
+
     public String getCachedElseDbDirectoryId(String parentId, String dirName, String userId, boolean mustBeDirectory) {
         String dirKey = getDirKey(userId, dirName, parentId);
         var dirCached = (ApplicationConfig.DirectoryCached) directoryIdCache.get(dirKey, _ -> {
@@ -56,11 +66,15 @@ public class DirectoryCacheService {
 
     public ApplicationConfig.DirectoryCached getCachedOrCreateDirectory(String dirName, String dirParentId, String dirPath, String userId) {
         String dirKey = getDirKey(userId, dirName, dirParentId);
+        boolean[] loaded = {false};
         ApplicationConfig.EntryCached entry = directoryIdCache.get(dirKey, _ -> {
             // Only executes if the key is missing
+            loaded[0] = true;
             String fileId = getOrCreateFolder(userId, dirName, dirParentId, dirPath, FileType.DIR);
             return new ApplicationConfig.DirectoryCached(fileId, ConcurrentHashMap.newKeySet());
         });
+        if (loaded[0])
+            evictOnRollback(dirKey, entry);
 
         if (entry instanceof ApplicationConfig.DirectoryCached directoryCached) {
             // Thread-safe mutation of the set
@@ -84,6 +98,11 @@ public class DirectoryCacheService {
                 .setOnInsert(FileItemField.NAME, name)
                 .setOnInsert(FileItemField.PARENT_ID, parentId)
                 .setOnInsert(FileItemField.PATH, currentPath)
+                .setOnInsert(FileItemField.ANCESTORS, FileSystemItem.ancestorsOf(currentPath))
+                .setOnInsert(FileItemField.SUBTREE_SIZE, 0L)
+                .setOnInsert(FileItemField.FILE_COUNT, 0)
+                .setOnInsert(FileItemField.IMAGE_COUNT, 0)
+                .setOnInsert(FileItemField.VIDEO_COUNT, 0)
                 .setOnInsert(FileItemField.FILE_TYPE, fileType)
                 .setOnInsert(FileItemField.UPLOAD_DATE, LocalDateTime.now());
 
@@ -98,6 +117,19 @@ public class DirectoryCacheService {
         return dir.getId();
     }
 
+    // the folder may have been inserted by the caller's transaction, its id must not outlive a rollback
+    private void evictOnRollback(String dirKey, ApplicationConfig.EntryCached entry) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+            return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED)
+                    directoryIdCache.asMap().remove(dirKey, entry);
+            }
+        });
+    }
+
     public void addDirectoryToUserUsingList(String userId, String dirName, String dirParentId) {
         String dirKey = getDirKey(userId, dirName, dirParentId);
         // .get() is atomic for creation, and returns the existing item if present
@@ -0,0 +1,202 @@
+package dev.chinh.streamingservice.filemanager.service;
+
+import dev.chinh.streamingservice.filemanager.constant.FileType;
+import dev.chinh.streamingservice.filemanager.data.FileItemField;
+import dev.chinh.streamingservice.filemanager.data.FileSystemItem;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Per-directory aggregates (bytes, files, images, videos) over the whole subtree, kept up to date on every
+ * create, move and delete instead of being recounted. Each change is one bulk write over the affected ancestors,
+ * whose cached copies are dropped once it commits.
+ */
+@Service
+@RequiredArgsConstructor
+public class DirectoryStatsService {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryStatsService.class);
+    private final MongoTemplate mongoTemplate;
+    private final FileCacheService fileCacheService;
+
+    public record Delta(long size, int files, int images, int videos) {
+
+        /**
+         * What item contributes to each of its ancestors - itself for a file, its aggregates for a directory.
+         */
+        public static Delta of(FileSystemItem item) {
+            if (!FileType.isNotDir(item.getFileType()))
+                return new Delta(
+                        nonNull(item.getSubtreeSize()),
+                        nonNull(item.getFileCount()),
+                        nonNull(item.getImageCount()),
+                        nonNull(item.getVideoCount()));
+            return new Delta(
+                    nonNull(item.getSize()),
+                    1,
+                    item.getFileType() == FileType.IMAGE ? 1 : 0,
+                    item.getFileType() == FileType.VIDEO ? 1 : 0);
+        }
+
+        public Delta plus(Delta other) {
+            return new Delta(size + other.size, files + other.files, images + other.images, videos + other.videos);
+        }
+
+        public Delta negate() {
+            return new Delta(-size, -files, -images, -videos);
+        }
+
+        public boolean isEmpty() {
+            return size == 0 && files == 0 && images == 0 && videos == 0;
+        }
+
+        private static long nonNull(Long value) {
+            return value == null ? 0 : value;
+        }
+
+        private static int nonNull(Integer value) {
+            return value == null ? 0 : value;
+        }
+    }
+
+    /**
+     * Apply delta to every directory in path, and the album length change to albumIds, in one round trip.
+     */
+    public void apply(String path, Delta delta, Collection<String> albumIds, int lengthDelta) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileSystemItem.class);
+        Set<String> touched = new HashSet<>();
+        Set<String> ancestorIds = ancestorIds(path);
+        if (addInc(bulk, ancestorIds, delta))
+            touched.addAll(ancestorIds);
+        if (lengthDelta != 0 && !albumIds.isEmpty()) {
+            bulk.updateMulti(new Query(Criteria.where("id").in(albumIds)), new Update().inc(FileItemField.LENGTH, lengthDelta));
+            touched.addAll(albumIds);
+        }
+        execute(bulk, touched);
+    }
+
+    /**
+     * Shift delta from the old ancestors to the new ones. Ancestors both paths share are left alone.
+     */
+    public void move(String oldPath, String newPath, Delta delta) {
+        Set<String> oldIds = ancestorIds(oldPath);
+        Set<String> newIds = ancestorIds(newPath);
+        Set<String> common = new HashSet<>(oldIds);
+        common.retainAll(newIds);
+        oldIds.removeAll(common);
+        newIds.removeAll(common);
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileSystemItem.class);
+        Set<String> touched = new HashSet<>();
+        if (addInc(bulk, oldIds, delta.negate()))
+            touched.addAll(oldIds);
+        if (addInc(bulk, newIds, delta))
+            touched.addAll(newIds);
+        execute(bulk, touched);
+    }
+
+    /**
+     * Add delta to every directory in path, for callers folding many changes into one {@link #applyAll} call.
+     */
+    public static void fold(Map<String, Delta> deltas, String path, Delta delta) {
+        for (String id : ancestorIds(path))
+            deltas.merge(id, delta, Delta::plus);
+    }
+
+    /**
+     * Folded deltas per directory and length changes per album in one bulk write - one update per document
+     * however many changes went into it.
+     */
+    public void applyAll(Map<String, Delta> deltas, Map<String, Integer> lengthDeltas) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileSystemItem.class);
+        Set<String> touched = new HashSet<>();
+        for (Map.Entry<String, Delta> entry : deltas.entrySet()) {
+            if (addInc(bulk, Set.of(entry.getKey()), entry.getValue()))
+                touched.add(entry.getKey());
+        }
+        for (Map.Entry<String, Integer> entry : lengthDeltas.entrySet()) {
+            if (entry.getValue() == 0)
+                continue;
+            bulk.updateOne(new Query(Criteria.where("id").is(entry.getKey())), new Update().inc(FileItemField.LENGTH, entry.getValue()));
+            touched.add(entry.getKey());
+        }
+        execute(bulk, touched);
+    }
+
+    // cached copies still carry the old aggregates, invalidateFileCache drops them after commit
+    private void execute(BulkOperations bulk, Set<String> touched) {
+        if (touched.isEmpty())
+            return;
+        bulk.execute();
+        fileCacheService.invalidateFileCache(touched);
+    }
+
+    private boolean addInc(BulkOperations bulk, Set<String> ids, Delta delta) {
+        if (ids.isEmpty() || delta.isEmpty())
+            return false;
+        bulk.updateMulti(new Query(Criteria.where("id").in(ids)), new Update()
+                .inc(FileItemField.SUBTREE_SIZE, delta.size())
+                .inc(FileItemField.FILE_COUNT, delta.files())
+                .inc(FileItemField.IMAGE_COUNT, delta.images())
+                .inc(FileItemField.VIDEO_COUNT, delta.videos()));
+        return true;
+    }
+
+    // the root folder (always first) is shared by every user, it carries no aggregates
+    private static Set<String> ancestorIds(String path) {
+        List<String> ancestors = FileSystemItem.ancestorsOf(path);
+        return ancestors.isEmpty() ? new HashSet<>() : new HashSet<>(ancestors.subList(1, ancestors.size()));
+    }
+
+    /**
+     * Compute aggregates for directories written before they were maintained. One aggregation over all files,
+     * merged into their ancestors; only runs while some directory is still missing them.
+     */
+    public void backfill() {
+        Criteria isDir = Criteria.where(FileItemField.FILE_TYPE).in(FileType.DIR, FileType.ALBUM, FileType.GROUPER);
+        Query missing = new Query(new Criteria().andOperator(isDir, Criteria.where(FileItemField.FILE_COUNT).exists(false)));
+        if (!mongoTemplate.exists(missing, FileSystemItem.class))
+            return;
+
+        mongoTemplate.updateMulti(missing, new Update()
+                .set(FileItemField.SUBTREE_SIZE, 0L)
+                .set(FileItemField.FILE_COUNT, 0)
+                .set(FileItemField.IMAGE_COUNT, 0)
+                .set(FileItemField.VIDEO_COUNT, 0), FileSystemItem.class);
+
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document(FileItemField.FILE_TYPE,
+                        new Document("$nin", List.of(FileType.DIR.name(), FileType.ALBUM.name(), FileType.GROUPER.name())))),
+                new Document("$unwind", new Document("path", "$" + FileItemField.ANCESTORS).append("includeArrayIndex", "depth")),
+                new Document("$match", new Document("depth", new Document("$gt", 0))), // skip the root
+                new Document("$group", new Document("_id", new Document("$toObjectId", "$" + FileItemField.ANCESTORS))
+                        .append(FileItemField.SUBTREE_SIZE, new Document("$sum", new Document("$ifNull", List.of("$" + FileItemField.SIZE, 0L))))
+                        .append(FileItemField.FILE_COUNT, new Document("$sum", 1))
+                        .append(FileItemField.IMAGE_COUNT, new Document("$sum", countIf(FileType.IMAGE)))
+                        .append(FileItemField.VIDEO_COUNT, new Document("$sum", countIf(FileType.VIDEO)))),
+                new Document("$merge", new Document("into", mongoTemplate.getCollectionName(FileSystemItem.class))
+                        .append("on", "_id")
+                        .append("whenMatched", "merge")
+                        .append("whenNotMatched", "discard"))
+        );
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(FileSystemItem.class))
+                .aggregate(pipeline)
+                .allowDiskUse(true)
+                .toCollection();
+        log.info("Backfilled directory aggregates");
+    }
+
+    private static Document countIf(FileType fileType) {
+        return new Document("$cond", List.of(new Document("$eq", List.of("$" + FileItemField.FILE_TYPE, fileType.name())), 1, 0));
+    }
+}
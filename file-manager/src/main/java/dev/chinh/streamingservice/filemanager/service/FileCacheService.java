@@ -1,84 +1,332 @@
 package dev.chinh.streamingservice.filemanager.service;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import dev.chinh.streamingservice.filemanager.data.FileItemField;
 import dev.chinh.streamingservice.filemanager.data.FileSystemItem;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
 public class FileCacheService {
 
     /*
-        This service is used to cache file metadata in memory for general read not maintaining locked dir item - that is directory cache service
-        If multiple service of file-manager- remove this class as it will create inconsistency!
+        This service is used to cache file metadata for general read not maintaining locked dir item - that is directory cache service
+        Two levels: a local Caffeine cache in front of a Redis copy shared by every file-manager instance.
+        Each invalidation bumps a per-id version in Redis and is broadcast on INVALIDATION_CHANNEL so other instances
+        drop their local copy. Entries remember the version they were read at and are never stored over a newer one.
      */
 
-    private final Cache<String, FileSystemItem> fileCache;
+    public record VersionedItem(long version, FileSystemItem item) {}
+
+    public static final String INVALIDATION_CHANNEL = "file-cache:invalidate";
+    private static final String ITEM_KEY = "file-cache:item:";
+    private static final String VERSION_KEY = "file-cache:ver:";
+    private static final Duration SHARED_TTL = Duration.ofMinutes(15);
+    private static final Duration VERSION_TTL = Duration.ofDays(1); // outlives any cached copy
+
+    // store only while the version the item was read at is still current - a slow reader can't put back old data
+    private static final RedisScript<Long> PUT_IF_CURRENT = new DefaultRedisScript<>("""
+            local current = redis.call('GET', KEYS[1]) or '0'
+            if current ~= ARGV[1] then return 0 end
+            redis.call('SET', KEYS[2], ARGV[2], 'PX', ARGV[3])
+            return 1
+            """, Long.class);
+
+    private static final Logger log = LoggerFactory.getLogger(FileCacheService.class);
+
+    private final Cache<String, VersionedItem> fileCache;
     private final MongoTemplate mongoTemplate;
+    private final MongoConverter mongoConverter;
+    private final RedisTemplate<String, String> redisStringTemplate;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    // latest invalidation seen per id, so a local put racing a broadcast can tell it is stale
+    private final Cache<String, Long> invalidatedVersions = Caffeine.newBuilder()
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+    private final List<Consumer<Set<String>>> remoteInvalidationListeners = new CopyOnWriteArrayList<>();
+
+    private final Counter localHits;
+    private final Counter sharedHits;
+    private final Counter databaseLoads;
+    private final Timer invalidationLag;
+
+    public FileCacheService(Cache<String, VersionedItem> fileCache,
+                            MongoTemplate mongoTemplate,
+                            MongoConverter mongoConverter,
+                            RedisTemplate<String, String> redisStringTemplate,
+                            RedisMessageListenerContainer redisListenerContainer,
+                            MeterRegistry meterRegistry) {
+        this.fileCache = fileCache;
+        this.mongoTemplate = mongoTemplate;
+        this.mongoConverter = mongoConverter;
+        this.redisStringTemplate = redisStringTemplate;
+        this.localHits = Counter.builder("file.cache.requests").tag("source", "local").register(meterRegistry);
+        this.sharedHits = Counter.builder("file.cache.requests").tag("source", "shared").register(meterRegistry);
+        this.databaseLoads = Counter.builder("file.cache.requests").tag("source", "database").register(meterRegistry);
+        this.invalidationLag = Timer.builder("file.cache.invalidation.lag")
+                .description("time from an invalidation on one instance until this one dropped its copy")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        MessageListenerAdapter listenerAdapter = new MessageListenerAdapter(this, "onInvalidation");
+        listenerAdapter.afterPropertiesSet();
+        redisListenerContainer.addMessageListener(listenerAdapter, new ChannelTopic(INVALIDATION_CHANNEL));
+    }
 
     // this does not check the items belong to a userId or not, use only after checking all ids belong to the userId
     public List<FileSystemItem> getCachedFilesElseFromDatabase(Collection<String> ids, Criteria criteria, Predicate<FileSystemItem> filter) {
-        Map<String, FileSystemItem> result = fileCache.getAll(ids, (keysToFetch) -> {
-            Query query = new Query(Criteria.where("id").in(keysToFetch));
-            if (criteria != null) query.addCriteria(criteria);
-            List<FileSystemItem> fetched = mongoTemplate.find(query, FileSystemItem.class);
-            return fetched.stream().collect(Collectors.toMap(FileSystemItem::getId, item -> item));
+        int[] fetched = {0};
+        Map<String, VersionedItem> result = fileCache.getAll(ids, keysToFetch -> {
+            fetched[0] = keysToFetch.size();
+            return loadAll(keysToFetch, criteria);
         });
-        var listResult = new ArrayList<>(result.values());
+        localHits.increment(Math.max(0, new HashSet<>(ids).size() - fetched[0]));
+        var listResult = result.values().stream().map(VersionedItem::item).toList();
         if (filter != null)
             return listResult.stream().filter(filter).toList();
         return listResult;
     }
 
     public FileSystemItem getFileCache(String id) {
-        return fileCache.getIfPresent(id);
+        VersionedItem entry = fileCache.getIfPresent(id);
+        return entry == null ? null : entry.item();
     }
 
     public FileSystemItem getFileCache(String id, Function<String, FileSystemItem> function) {
-        return fileCache.get(id, function);
+        return get(id, function);
     }
 
     /**
-     * If getCachedFirst is true, the file cache is checked first. Then from the database. The result is cached.
+     * If getCachedFirst is true, the local then the shared cache is checked first. Then from the database. The result is cached.
      * Else from database only, the result is still cached.
      */
     public FileSystemItem getCachedFileElseFromDatabase(String userId, String id, boolean getCachedFirst) {
-        // atomic: if multiple threads request the same ID, the compute function runs only once.
-        // get, else compute, save, and return the result.
         if (getCachedFirst) {
-            var item = fileCache.get(id, k -> findById(userId, k));
+            var item = get(id, k -> findById(userId, k));
+            if (item == null)
+                return null;
             if (item.getUserId() == null || item.getUserId().toString().equals(userId))
                 return item;
             return null;
         }
+        long version = currentVersion(id);
         var item = findById(userId, id);
-        putFileCache(item);
+        databaseLoads.increment();
+        if (item != null) {
+            putShared(id, version, item);
+            putLocal(new VersionedItem(version, item));
+        }
         return item;
     }
 
-    public void putFileCache(FileSystemItem item) {
-        fileCache.put(item.getId(), item);
-    }
-
     public void invalidateFileCache(String id) {
-        fileCache.invalidate(id);
+        invalidateFileCache(List.of(id));
     }
 
+    /**
+     * Drop ids everywhere: bump their versions, remove the shared copies and tell the other instances.
+     * Inside a transaction this runs after commit, a read before the commit would cache the old item
+     * under the new version. Nothing is dropped on rollback, the items didn't change.
+     */
     public void invalidateFileCache(Collection<String> ids) {
-        fileCache.invalidateAll(ids);
+        if (ids.isEmpty())
+            return;
+        List<String> idList = List.copyOf(ids);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateNow(idList);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateNow(idList);
+            }
+        });
+    }
+
+    private void invalidateNow(List<String> idList) {
+        List<Object> results = redisStringTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String id : idList) {
+                byte[] versionKey = (VERSION_KEY + id).getBytes(StandardCharsets.UTF_8);
+                connection.stringCommands().incr(versionKey);
+                connection.keyCommands().expire(versionKey, VERSION_TTL.toSeconds());
+                connection.keyCommands().del((ITEM_KEY + id).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        // format: nodeId sentAtMillis id:version id:version ...
+        StringBuilder message = new StringBuilder(nodeId).append(' ').append(System.currentTimeMillis());
+        for (int i = 0; i < idList.size(); i++) {
+            long version = ((Number) results.get(i * 3)).longValue();
+            invalidateLocal(idList.get(i), version);
+            message.append(' ').append(idList.get(i)).append(':').append(version);
+        }
+        redisStringTemplate.convertAndSend(INVALIDATION_CHANNEL, message.toString());
+    }
+
+    /**
+     * Invalidation broadcast by any instance, our own messages are skipped.
+     */
+    public void onInvalidation(String message) {
+        String[] parts = message.split(" ");
+        if (parts.length < 3 || parts[0].equals(nodeId))
+            return;
+        Set<String> ids = new HashSet<>();
+        for (int i = 2; i < parts.length; i++) {
+            int colon = parts[i].lastIndexOf(':');
+            String id = parts[i].substring(0, colon);
+            invalidateLocal(id, Long.parseLong(parts[i].substring(colon + 1)));
+            ids.add(id);
+        }
+        invalidationLag.record(Math.max(0, System.currentTimeMillis() - Long.parseLong(parts[1])), TimeUnit.MILLISECONDS);
+        for (Consumer<Set<String>> listener : remoteInvalidationListeners) {
+            try {
+                listener.accept(ids);
+            } catch (Exception e) {
+                log.warn("Invalidation listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Notified with the ids another instance changed, for local state derived from them.
+     */
+    public void addRemoteInvalidationListener(Consumer<Set<String>> listener) {
+        remoteInvalidationListeners.add(listener);
+    }
+
+    private FileSystemItem get(String id, Function<String, FileSystemItem> fromDatabase) {
+        boolean[] loaded = {false};
+        // atomic: if multiple threads request the same ID, the compute function runs only once.
+        VersionedItem entry = fileCache.get(id, k -> {
+            loaded[0] = true;
+            return load(k, fromDatabase);
+        });
+        if (!loaded[0])
+            localHits.increment();
+        return entry == null ? null : entry.item();
+    }
+
+    private VersionedItem load(String id, Function<String, FileSystemItem> fromDatabase) {
+        long version = currentVersion(id);
+        FileSystemItem shared = decode(redisStringTemplate.opsForValue().get(ITEM_KEY + id), version);
+        if (shared != null) {
+            sharedHits.increment();
+            return new VersionedItem(version, shared);
+        }
+        databaseLoads.increment();
+        FileSystemItem item = fromDatabase.apply(id);
+        if (item == null)
+            return null;
+        putShared(id, version, item);
+        return new VersionedItem(version, item);
+    }
+
+    private Map<String, VersionedItem> loadAll(Set<? extends String> keysToFetch, Criteria criteria) {
+        List<String> keys = List.copyOf(keysToFetch);
+        List<String> versions = redisStringTemplate.opsForValue().multiGet(keys.stream().map(k -> VERSION_KEY + k).toList());
+        List<String> shared = redisStringTemplate.opsForValue().multiGet(keys.stream().map(k -> ITEM_KEY + k).toList());
+
+        Map<String, VersionedItem> loaded = new HashMap<>();
+        Map<String, Long> missing = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            long version = parseVersion(versions == null ? null : versions.get(i));
+            FileSystemItem item = decode(shared == null ? null : shared.get(i), version);
+            if (item != null)
+                loaded.put(keys.get(i), new VersionedItem(version, item));
+            else
+                missing.put(keys.get(i), version);
+        }
+        sharedHits.increment(loaded.size());
+        if (missing.isEmpty())
+            return loaded;
+
+        databaseLoads.increment(missing.size());
+        Query query = new Query(Criteria.where("id").in(missing.keySet()));
+        if (criteria != null) query.addCriteria(criteria);
+        for (FileSystemItem item : mongoTemplate.find(query, FileSystemItem.class)) {
+            long version = missing.get(item.getId());
+            putShared(item.getId(), version, item);
+            loaded.put(item.getId(), new VersionedItem(version, item));
+        }
+        return loaded;
+    }
+
+    private void putLocal(VersionedItem entry) {
+        Long invalidated = invalidatedVersions.getIfPresent(entry.item().getId());
+        if (invalidated != null && invalidated > entry.version())
+            return;
+        fileCache.asMap().merge(entry.item().getId(), entry, (old, neu) -> old.version() > neu.version() ? old : neu);
+    }
+
+    private void invalidateLocal(String id, long version) {
+        invalidatedVersions.asMap().merge(id, version, Math::max);
+        // an entry read at or after this version is already newer than the change
+        fileCache.asMap().computeIfPresent(id, (_, entry) -> entry.version() < version ? null : entry);
+    }
+
+    private void putShared(String id, long version, FileSystemItem item) {
+        try {
+            redisStringTemplate.execute(PUT_IF_CURRENT,
+                    List.of(VERSION_KEY + id, ITEM_KEY + id),
+                    String.valueOf(version), encode(version, item), String.valueOf(SHARED_TTL.toMillis()));
+        } catch (Exception e) {
+            log.warn("Failed to share cached file {}", id, e);
+        }
+    }
+
+    private long currentVersion(String id) {
+        return parseVersion(redisStringTemplate.opsForValue().get(VERSION_KEY + id));
+    }
+
+    private static long parseVersion(String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    // format: version NEWLINE item as extended json, written with the same mapping as the collection
+    private String encode(long version, FileSystemItem item) {
+        Document document = new Document();
+        mongoConverter.write(item, document);
+        return version + "\n" + document.toJson();
+    }
+
+    private FileSystemItem decode(String value, long expectedVersion) {
+        if (value == null)
+            return null;
+        int newline = value.indexOf('\n');
+        if (newline < 0 || Long.parseLong(value.substring(0, newline)) != expectedVersion)
+            return null;
+        return mongoConverter.read(FileSystemItem.class, Document.parse(value.substring(newline + 1)));
     }
 
     private FileSystemItem findById(String userId, String id) {
@@ -17,8 +17,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
-import org.springframework.data.mongodb.core.aggregation.StringOperators;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
@@ -27,7 +25,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.*;
-import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
@@ -39,37 +36,17 @@ public class FileConsumerService {
     private final FileCacheService fileCacheService;
     private final DirectoryCacheService directoryCacheService;
     private final FileLockService fileLockService;
+    private final SubtreeService subtreeService;
+    private final DirectoryStatsService directoryStatsService;
     private final ApplicationEventPublisher publisher;
 
+    private record ParentDir(String id, String path) {}
+
     @Transactional
     public void handleCreateFile(MediaUpdateEvent.FileCreated event) {
-        String rootId = fileService.getROOT_FOLDER_ID();
-        StringBuilder currentPath = new StringBuilder("/" + rootId + "/");
         String[] parts = event.fileName().split("/");
-        String parentId = rootId;
-        if (parts.length > 1) {
-            for (int i = 0; i < parts.length - 1; i++) {
-                ApplicationConfig.DirectoryCached directoryCached = directoryCacheService.getCachedOrCreateDirectory(parts[i], parentId, currentPath.toString(), event.userId());
-
-                directoryCacheService.addDirectoryToUserUsingList(event.userId(), parts[i], parentId);
-
-                String folderId = directoryCached.dirId();
-                parentId = folderId;
-                currentPath.append(folderId).append("/");
-            }
-        }
-        String fileName = parts[parts.length - 1];
-        FileSystemItem fileItem = FileSystemItem.builder()
-                .userId(Long.parseLong(event.userId()))
-                .parentId(parentId)
-                .path(currentPath.toString())
-                .bucket(event.bucket())
-                .objectName(event.objectName())
-                .name(fileName)
-                .size(event.size())
-                .fileType(FileType.detectFileTypeFromMediaType(MediaType.detectMediaType(fileName)))
-                .uploadDate(Instant.now())
-                .build();
+        ParentDir parent = resolveParent(event.userId(), Arrays.copyOf(parts, parts.length - 1));
+        FileSystemItem fileItem = newFileItem(event, parent, parts[parts.length - 1]);
         mongoTemplate.insert(fileItem);
 
         if (event.isLast()) {
@@ -77,32 +54,135 @@ public class FileConsumerService {
         }
 
         if (event.mediaId() != null && event.mediaType() != null) {
-            publisher.publishEvent(new FileEventProducer.EventWrapper(
-                    EventTopics.MEDIA_OBJECT_TOPIC,
-                    event.userId(),
-                    new MediaUpdateEvent.MediaEnriched(
-                            event.userId(),
-                            fileItem.getId(),
-                            event.mediaId(),
-                            event.mediaType(),
-                            event.thumbnailObject(),
-                            true,
-                            -1,
-                            -1
-                    )
-            ));
+            publisher.publishEvent(mediaEnriched(event, fileItem));
         }
 
         Set<String> parentIds = fileService.getCommonIds(fileItem.getPath());
         Criteria criteria = Criteria.where(FileItemField.FILE_TYPE).is(FileType.ALBUM);
         List<FileSystemItem> parents = fileService.getItemInIds(parentIds, true, criteria, f -> f.getFileType() == FileType.ALBUM);
-        updateParentMediaLength(event.userId(), parents, 1);
+        updateParentStats(event.userId(), fileItem.getPath(), parents, DirectoryStatsService.Delta.of(fileItem));
         log.info("Created file: {} with name: {}", fileItem.getId(), fileItem.getName());
     }
 
+    /**
+     * Bulk variant of handleCreateFile for consecutive FileCreated events of one poll. Directories are resolved once
+     * per batch, items go in with one insertMany, ancestor aggregates and album lengths are folded into one bulk write
+     * and one length event per album, and the enrichment events are sent together after the commit.
+     */
+    @Transactional
+    public void handleCreateFiles(List<MediaUpdateEvent.FileCreated> events) {
+        long start = System.nanoTime();
+        Map<List<String>, ParentDir> parentDirs = new HashMap<>(); // userId followed by the directory names
+        Map<String, List<FileSystemItem>> byPath = new LinkedHashMap<>();
+        Map<String, String> userIdOfPath = new HashMap<>();
+        List<FileSystemItem> items = new ArrayList<>(events.size());
+        for (MediaUpdateEvent.FileCreated event : events) {
+            String[] parts = event.fileName().split("/");
+            String[] dirNames = Arrays.copyOf(parts, parts.length - 1);
+            List<String> key = new ArrayList<>(parts.length);
+            key.add(event.userId());
+            key.addAll(Arrays.asList(dirNames));
+            ParentDir parent = parentDirs.computeIfAbsent(key, _ -> resolveParent(event.userId(), dirNames));
+
+            FileSystemItem fileItem = newFileItem(event, parent, parts[parts.length - 1]);
+            items.add(fileItem);
+            byPath.computeIfAbsent(parent.path(), _ -> new ArrayList<>()).add(fileItem);
+            userIdOfPath.put(parent.path(), event.userId());
+        }
+        mongoTemplate.insert(items, FileSystemItem.class);
+
+        List<FileEventProducer.EventWrapper> enriched = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            MediaUpdateEvent.FileCreated event = events.get(i);
+            if (event.isLast())
+                directoryCacheService.removeAllDirectoriesUserUsing(event.userId());
+            if (event.mediaId() != null && event.mediaType() != null)
+                enriched.add(mediaEnriched(event, items.get(i)));
+        }
+        if (!enriched.isEmpty())
+            publisher.publishEvent(new FileEventProducer.BatchEventWrapper(enriched));
+
+        Criteria criteria = Criteria.where(FileItemField.FILE_TYPE).is(FileType.ALBUM);
+        Map<String, DirectoryStatsService.Delta> deltas = new HashMap<>();
+        Map<String, Integer> lengthDeltas = new HashMap<>();
+        Map<String, FileSystemItem> albums = new HashMap<>();
+        for (Map.Entry<String, List<FileSystemItem>> entry : byPath.entrySet()) {
+            DirectoryStatsService.Delta delta = new DirectoryStatsService.Delta(0, 0, 0, 0);
+            for (FileSystemItem item : entry.getValue())
+                delta = delta.plus(DirectoryStatsService.Delta.of(item));
+            DirectoryStatsService.fold(deltas, entry.getKey(), delta);
+
+            Set<String> parentIds = fileService.getCommonIds(entry.getKey());
+            for (FileSystemItem album : fileService.getItemInIds(parentIds, true, criteria, f -> f.getFileType() == FileType.ALBUM)) {
+                albums.put(album.getId(), album);
+                lengthDeltas.merge(album.getId(), delta.files(), Integer::sum);
+            }
+        }
+        directoryStatsService.applyAll(deltas, lengthDeltas);
+        for (FileSystemItem album : albums.values()) {
+            String userId = album.getUserId().toString();
+            publisher.publishEvent(new FileEventProducer.EventWrapper(
+                    EventTopics.MEDIA_UPLOAD_TOPIC,
+                    userId,
+                    new MediaUpdateEvent.MediaFileLengthUpdate(userId, album.getMId(), lengthDeltas.get(album.getId()))
+            ));
+        }
+
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        log.info("Created {} files in {} directories in {} ms ({} files/s)",
+                items.size(), byPath.size(), millis, items.size() * 1000L / millis);
+    }
+
+    private ParentDir resolveParent(String userId, String[] dirNames) {
+        String parentId = fileService.getROOT_FOLDER_ID();
+        StringBuilder currentPath = new StringBuilder("/" + parentId + "/");
+        for (String dirName : dirNames) {
+            ApplicationConfig.DirectoryCached directoryCached = directoryCacheService.getCachedOrCreateDirectory(dirName, parentId, currentPath.toString(), userId);
+
+            directoryCacheService.addDirectoryToUserUsingList(userId, dirName, parentId);
+
+            String folderId = directoryCached.dirId();
+            parentId = folderId;
+            currentPath.append(folderId).append("/");
+        }
+        return new ParentDir(parentId, currentPath.toString());
+    }
+
+    private static FileSystemItem newFileItem(MediaUpdateEvent.FileCreated event, ParentDir parent, String fileName) {
+        return FileSystemItem.builder()
+                .userId(Long.parseLong(event.userId()))
+                .parentId(parent.id())
+                .path(parent.path())
+                .ancestors(FileSystemItem.ancestorsOf(parent.path()))
+                .bucket(event.bucket())
+                .objectName(event.objectName())
+                .name(fileName)
+                .size(event.size())
+                .fileType(FileType.detectFileTypeFromMediaType(MediaType.detectMediaType(fileName)))
+                .uploadDate(Instant.now())
+                .build();
+    }
+
+    private static FileEventProducer.EventWrapper mediaEnriched(MediaUpdateEvent.FileCreated event, FileSystemItem fileItem) {
+        return new FileEventProducer.EventWrapper(
+                EventTopics.MEDIA_OBJECT_TOPIC,
+                event.userId(),
+                new MediaUpdateEvent.MediaEnriched(
+                        event.userId(),
+                        fileItem.getId(),
+                        event.mediaId(),
+                        event.mediaType(),
+                        event.thumbnailObject(),
+                        true,
+                        -1,
+                        -1
+                )
+        );
+    }
+
     @Transactional
     public void handleDirectoryToMedia(MediaUpdateEvent.DirectoryToMediaInitiated event) {
-        FileSystemItem item = fileService.findById(event.userId(), event.fileId(), true);
+        FileSystemItem item = fileService.findById(event.userId(), event.fileId(), false); // aggregates must be current
         if (item == null) {
             log.warn("Item not found, skipping directory to media {}", event.fileId());
             return;
@@ -115,34 +195,10 @@ public class FileConsumerService {
             log.warn("Item is not a directory, skipping directory to media {}", event.fileId());
             return;
         }
-        long size = event.initialSize();
-        int skip = event.offset();
-        int batchSize = 1000;
-
-        String parentPath = Pattern.quote(fileService.getPathForFileItem(item.getPath(), item.getId()));
-        Query query = Query.query(Criteria
-                        .where(FileItemField.PATH).regex("^" + parentPath))
-                .limit(batchSize)
-                .skip(skip);
-        query.fields().include("id", FileItemField.SIZE, FileItemField.FILE_TYPE);
-        List<FileSystemItem> batch = mongoTemplate.find(query, FileSystemItem.class);
-
-        size += batch.stream()
-                .filter(f -> FileType.isNotDir(f.getFileType()))
-                .mapToLong(FileSystemItem::getSize).sum();
-
-        boolean hasMore = batch.size() == batchSize;
-        skip += batch.size();
-
-        if (hasMore) {
-            publisher.publishEvent(new FileEventProducer.EventWrapper(
-                    EventTopics.MEDIA_FILE_TOPIC,
-                    event.userId(),
-                    new MediaUpdateEvent.DirectoryToMediaInitiated(
-                            event.userId(), event.fileId(), event.mediaId(), event.mediaType(), event.searchable(), false, event.thumbnailObject(), size, skip)
-            ));
-            return;
-        }
+        // the subtree aggregates are maintained on every write, nothing to count here
+        DirectoryStatsService.Delta stats = DirectoryStatsService.Delta.of(item);
+        long size = event.initialSize() + stats.size();
+        int length = event.offset() + stats.files();
 
         if (event.updateParentLength()) {
             Update update = new Update().inc(FileItemField.LENGTH, 1);
@@ -164,7 +220,7 @@ public class FileConsumerService {
                 EventTopics.MEDIA_OBJECT_TOPIC,
                 event.userId(),
                 new MediaUpdateEvent.MediaEnriched(
-                        event.userId(), item.getId(), event.mediaId(), event.mediaType(), event.thumbnailObject(), event.searchable(), size, skip)
+                        event.userId(), item.getId(), event.mediaId(), event.mediaType(), event.thumbnailObject(), event.searchable(), size, length)
         ));
         log.info("Created media for directory: {} with name: {}", item.getId(), item.getName());
     }
@@ -257,14 +313,7 @@ public class FileConsumerService {
         String objectName = item.getObjectName();
         String bucket = item.getBucket();
         if (!FileType.isNotDir(item.getFileType())) {
-            String parentPath = Pattern.quote(fileService.getPathForFileItem(item.getPath(), item.getId()));
-            Query query = Query.query(Criteria
-                            .where(FileItemField.PATH).regex("^" + parentPath)
-                            .and(FileItemField.FILE_TYPE).in(FileType.IMAGE, FileType.VIDEO))
-                    .with(Sort.by(Sort.Direction.ASC, FileItemField.NAME))
-                    .skip(event.num()) // zero-based index
-                    .limit(1);
-            FileSystemItem numItem = mongoTemplate.findOne(query, FileSystemItem.class);
+            FileSystemItem numItem = subtreeService.findMediaDescendant(item.getUserId(), item.getId(), event.num());
             if (numItem == null) {
                 log.warn("Item with id: {} does not have child at num {}, skipping update media thumbnail", item.getId(), event.num());
                 return;
@@ -328,20 +377,25 @@ public class FileConsumerService {
         List<FileSystemItem> parents = fileService.getItemInIds(parentIds, true, criteria, f -> f.getFileType() == FileType.ALBUM);
 
         int batchSize = 500;
+        String afterId = null;
+        DirectoryStatsService.Delta removed = FileType.isNotDir(fileItem.getFileType())
+                ? DirectoryStatsService.Delta.of(fileItem)
+                : new DirectoryStatsService.Delta(0, 0, 0, 0);
         while (hasMore) {
-            String parentPath = Pattern.quote(fileService.getPathForFileItem(fileItem.getPath(), fileItem.getId()));
-            List<FileSystemItem> batch = mongoTemplate.find(Query.query(Criteria
-                    .where(FileItemField.PATH).regex("^" + parentPath)).limit(batchSize), FileSystemItem.class);
+            List<FileSystemItem> batch = subtreeService.findDescendants(
+                    fileItem.getUserId(), fileItem.getId(), afterId, batchSize, null,
+                    "id", FileItemField.FILE_TYPE, FileItemField.SIZE, FileItemField.BUCKET, FileItemField.OBJECT_NAME, FileItemField.THUMBNAIL);
 
             hasMore = batch.size() == batchSize;
+            if (hasMore)
+                afterId = batch.getLast().getId();
 
             List<String> ids = new ArrayList<>();
-            int fileCount = 0;
             Map<String, List<String>> toDelete = new HashMap<>();
             for (FileSystemItem item : batch) {
                 ids.add(item.getId());
                 if (FileType.isNotDir(item.getFileType())) {
-                    fileCount++;
+                    removed = removed.plus(DirectoryStatsService.Delta.of(item));
                     toDelete.computeIfAbsent(item.getBucket(), _ -> new ArrayList<>()).add(item.getObjectName());
                     if (item.getThumbnail() != null)
                         toDelete.computeIfAbsent(ContentMetaData.THUMBNAIL_BUCKET, _ -> new ArrayList<>()).add(item.getThumbnail());
@@ -354,7 +408,6 @@ public class FileConsumerService {
                         new MediaUpdateEvent.ObjectDeleted(entry.getKey(), entry.getValue())
                 ));
             }
-            updateParentMediaLength(userId, parents, -fileCount);
             mongoTemplate.remove(new Query(Criteria.where("id").in(ids)), FileSystemItem.class);
             fileCacheService.invalidateFileCache(ids);
             log.info("Deleted {} items for folder {} ", ids.size(), fileItem.getId());
@@ -375,16 +428,19 @@ public class FileConsumerService {
                     new MediaUpdateEvent.ThumbnailDeleted(fileItem.getThumbnail())
             ));
 
-        if (FileType.isNotDir(fileItem.getFileType())) {
-            updateParentMediaLength(userId, parents, -1);
-        }
+        // counted from what was actually removed, cached aggregates of fileItem may be stale
+        updateParentStats(userId, fileItem.getPath(), parents, removed.negate());
     }
 
-    private void updateParentMediaLength(String userId, List<FileSystemItem> parents, int lengthDelta) {
-        for (FileSystemItem parent : parents) {
-            Query query = new Query(Criteria.where("id").is(parent.getId()));
-            Update update = new Update().inc(FileItemField.LENGTH, lengthDelta);
-            mongoTemplate.updateFirst(query, update, FileSystemItem.class);
+    /**
+     * Aggregates of every ancestor and the length of album ancestors in one bulk write, then tell media-upload.
+     */
+    private void updateParentStats(String userId, String path, List<FileSystemItem> albumParents, DirectoryStatsService.Delta delta) {
+        int lengthDelta = delta.files();
+        directoryStatsService.apply(path, delta, albumParents.stream().map(FileSystemItem::getId).toList(), lengthDelta);
+        if (lengthDelta == 0)
+            return;
+        for (FileSystemItem parent : albumParents) {
             publisher.publishEvent(new FileEventProducer.EventWrapper(
                     EventTopics.MEDIA_UPLOAD_TOPIC,
                     userId,
@@ -416,18 +472,8 @@ public class FileConsumerService {
         }
 
         // needing oldPath since item or source dir path is already updated to reflect changes
-        // item is the source directory, we need to get all children and update their paths
-        String childrenIdPrefix = oldPath + item.getId() + "/"; // all children in the directory
-        String newIdPrefix = newParent.getPath() + newParent.getId() + "/";
-
-        String anchoredRegex = "^" + Pattern.quote(childrenIdPrefix);
-        Query query = new Query(Criteria.where(FileItemField.PATH).regex(anchoredRegex)); // find children
-        AggregationUpdate update = AggregationUpdate.update()
-                .set(FileItemField.PATH)
-                .toValue(StringOperators.ReplaceOne.valueOf(FileItemField.PATH)
-                        .find(oldPath) // find old path prefix and replace with new path prefix
-                        .replacement(newIdPrefix));
-        mongoTemplate.updateMulti(query, update, FileSystemItem.class);
+        // item is the source directory, we need to get all children and update their paths and ancestors
+        subtreeService.moveDescendants(item.getUserId(), item.getId(), oldPath, newParent);
 
         Set<String> commonIds = fileService.getCommonIds(oldPath + item.getId() + newParent.getPath() + newParent.getId());
         fileLockService.releaseLockedFileItem(commonIds);
@@ -13,11 +13,12 @@ import org.springframework.data.domain.*;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.*;
-import java.util.regex.Pattern;
 
 @Service
 @RequiredArgsConstructor
@@ -28,6 +29,7 @@ public class FileFindService {
     private final ThumbnailService thumbnailService;
     private final ObjectMapper objectMapper;
     private final MongoTemplate mongoTemplate;
+    private final FileNameIndexService fileNameIndexService;
 
     private final Limit searchResultLimit = Limit.of(25);
     public record FileSearchResult(String parentId, String parentName, List<FileSystemItem> content, String nextCursor, boolean hasNext) {}
@@ -81,14 +83,19 @@ public class FileFindService {
     }
 
     public FileSearchResult findFilesInDirectory(String userId, String parentId, String cursorStr, SortBy sortBy, Sort.Direction sortOrder) {
-        FileSystemItem parent = fileService.getFileSystemItem(userId, parentId, true);
-        String regexPath = "^" + Pattern.quote(parent.getPath() + parent.getId() + "/");
+        fileService.getFileSystemItem(userId, parentId, true);
+        return findFilesInSubtree(userId, parentId, cursorStr, sortBy, sortOrder, searchResultLimit);
+    }
 
-        Window<FileSystemItem> window = fileSystemRepository.findByUserIdAndPathRegex(
+    /**
+     * Everything under dirId, without checking dirId exists.
+     */
+    public FileSearchResult findFilesInSubtree(String userId, String dirId, String cursorStr, SortBy sortBy, Sort.Direction sortOrder, Limit limit) {
+        Window<FileSystemItem> window = fileSystemRepository.findByUserIdAndAncestors(
                 Long.parseLong(userId),
-                regexPath,
+                dirId,
                 getSort(sortBy, sortOrder),
-                searchResultLimit,
+                limit,
                 getFindingCursor(cursorStr)
         );
 
@@ -97,6 +104,8 @@ public class FileFindService {
 
     public FileSearchResult searchFileByName(String userId, String parentId, String fileName, boolean isRecursive, String searchAfterToken) {
         FileSystemItem parent = fileService.getFileSystemItem(userId, parentId, true);
+        if (fileNameIndexService.isEnabled())
+            return searchFileByNameInIndex(userId, parent, fileName, isRecursive, searchAfterToken);
 
         List<AggregationOperation> stages = new ArrayList<>();
         String indexName = "fileNameSearchIndex";
@@ -167,6 +176,31 @@ public class FileFindService {
         return new FileSearchResult(null, null, results, nextToken, nextToken != null);
     }
 
+    // results come best ranked first, the page token carries the score and id of the last one
+    private FileSearchResult searchFileByNameInIndex(String userId, FileSystemItem parent, String fileName, boolean isRecursive, String after) {
+        final int size = 25;
+        List<FileNameIndexService.Hit> hits = fileNameIndexService.search(
+                Long.parseLong(userId), fileName, parent.getId(), parent.getPath() + parent.getId() + "/", isRecursive,
+                after == null || after.isBlank() ? null : after, size);
+        boolean hasNext = hits.size() > size;
+        if (hasNext)
+            hits = hits.subList(0, size);
+        if (hits.isEmpty())
+            return new FileSearchResult(null, null, List.of(), null, false);
+
+        List<String> ids = hits.stream().map(FileNameIndexService.Hit::id).toList();
+        Map<String, FileSystemItem> itemsById = new HashMap<>();
+        for (FileSystemItem item : mongoTemplate.find(new Query(Criteria.where("id").in(ids)), FileSystemItem.class))
+            itemsById.put(item.getId(), item);
+        List<FileSystemItem> results = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            FileSystemItem item = itemsById.get(id);
+            if (item != null) // removed since the search
+                results.add(item);
+        }
+        getUpdatedThumbnailUrl(userId, results);
+        return new FileSearchResult(null, null, results, hasNext ? hits.getLast().pageToken() : null, hasNext);
+    }
 
     private ScrollPosition getFindingCursor(String cursorStr) {
         ScrollPosition scrollPosition = decodeCursor(cursorStr);
@@ -3,24 +3,195 @@ package dev.chinh.streamingservice.filemanager.service;
 import dev.chinh.streamingservice.filemanager.constant.FileStatus;
 import dev.chinh.streamingservice.filemanager.data.FileItemField;
 import dev.chinh.streamingservice.filemanager.data.FolderLocks;
+import dev.chinh.streamingservice.filemanager.exception.ServiceUnavailableException;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.stream.Collectors;
 
+/**
+ * Lock checks are answered from a lock table in Redis instead of a query per call, shared by every file-manager
+ * instance. folder_locks stays the durable copy: every change is still written there, and whenever Redis comes up
+ * without the table (restart, flush) the first check on any instance refills it from there before answering.
+ * While Redis can't be reached nothing is checked or locked - a lock only Mongo knows would be missed by the
+ * other instances once Redis is back - and the request is answered as retriable.
+ * <p>
+ * Callers pass the chain from the root down to the item, and the statuses to ignore per ancestor decide which
+ * operations may run below a locked directory - the same compatibility rules as before, only without the round trip.
+ */
 @Service
 @RequiredArgsConstructor
 public class FileLockService {
 
+    private static final String LOCK_KEY = "file-lock:";
+    private static final String LOADED_KEY = "file-locks:loaded"; // set once the table holds every folder_locks lock
+    private static final Duration LOCK_TTL = Duration.ofMinutes(15); // same as the folder_locks TTL index
+    private static final Logger log = LoggerFactory.getLogger(FileLockService.class);
+
+    /*
+        Check and lock in one step for every instance. Value per lock: status SPACE userId.
+        KEYS: the loaded marker, the ids to check, then the ids to lock.
+        ARGV: number of ids to check, ttl in ms, userId, per checked id the statuses to ignore joined by commas,
+        then per locked id its status.
+        Returns {'R'} if the table has to be refilled from folder_locks first.
+        Returns {'C', key, value} for a conflict, nothing is locked then.
+        Otherwise {'L', keys...} with the locks it created, existing locks keep status and owner and only get a new ttl.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CHECK_AND_LOCK = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return {'R'}
+            end
+            local checks = tonumber(ARGV[1])
+            for i = 2, checks + 1 do
+                local held = redis.call('GET', KEYS[i])
+                if held then
+                    local status = string.match(held, '^(%S+)')
+                    if not string.find(',' .. ARGV[2 + i] .. ',', ',' .. status .. ',', 1, true) then
+                        return {'C', KEYS[i], held}
+                    end
+                end
+            end
+            local created = {'L'}
+            for i = checks + 2, #KEYS do
+                if redis.call('SET', KEYS[i], ARGV[2 + i] .. ' ' .. ARGV[3], 'NX', 'PX', ARGV[2]) then
+                    table.insert(created, KEYS[i])
+                else
+                    redis.call('PEXPIRE', KEYS[i], ARGV[2])
+                end
+            end
+            return created
+            """, List.class);
+
     private final MongoTemplate safeWriteMongoTemplate;
+    private final RedisTemplate<String, String> redisStringTemplate;
+
+    @PostConstruct
+    public void init() {
+        try {
+            loadPersistedLocks();
+        } catch (Exception e) {
+            log.warn("Failed to load file locks into Redis, the first check loads them", e);
+        }
+    }
+
+    // existing keys are left alone, they are at least as recent as their folder_locks copy
+    private void loadPersistedLocks() {
+        int loaded = 0;
+        for (Document document : safeWriteMongoTemplate.getCollection(safeWriteMongoTemplate.getCollectionName(FolderLocks.class)).find()) {
+            Date lockedAt = document.getDate("expiryTime");
+            long ttl = (lockedAt == null ? System.currentTimeMillis() : lockedAt.getTime())
+                    + LOCK_TTL.toMillis() - System.currentTimeMillis();
+            if (ttl <= 0)
+                continue;
+            redisStringTemplate.opsForValue().setIfAbsent(LOCK_KEY + document.get("_id"),
+                    document.getString(FileItemField.STATUS_CODE) + " " + document.getString(FileItemField.USER_ID),
+                    Duration.ofMillis(ttl));
+            loaded++;
+        }
+        redisStringTemplate.opsForValue().set(LOADED_KEY, "1");
+        log.info("Loaded {} file locks", loaded);
+    }
 
     public void lockFileItem(String userId, Set<String> fileIds, Map<String, FileStatus> statusMap) {
         if (fileIds.isEmpty()) return;
+        lockIfNotLocked(userId, Set.of(), null, fileIds, statusMap);
+    }
+
+    /**
+     * Check and lock as one step, so two requests can't both pass the check - on any instance.
+     * @return the conflicting lock, nothing is locked then
+     * @throws ServiceUnavailableException while Redis can't be reached
+     */
+    public FolderLocks lockIfNotLocked(String userId, Set<String> checkIds, Map<String, Set<FileStatus>> ignoredStatusMap,
+                                       Set<String> fileIds, Map<String, FileStatus> statusMap) {
+        List<String> result;
+        try {
+            result = checkAndLock(userId, checkIds, ignoredStatusMap, fileIds, statusMap);
+            if (result.getFirst().equals("R")) {
+                loadPersistedLocks();
+                result = checkAndLock(userId, checkIds, ignoredStatusMap, fileIds, statusMap);
+            }
+        } catch (Exception e) {
+            log.warn("Lock table unavailable", e);
+            throw new ServiceUnavailableException("File locks are unavailable, try again shortly");
+        }
+        if (result.getFirst().equals("C"))
+            return toFolderLock(result.get(1), result.get(2));
+        if (!result.getFirst().equals("L"))
+            throw new ServiceUnavailableException("File locks are being loaded, try again shortly");
+        List<String> created = result.subList(1, result.size());
+        if (!fileIds.isEmpty()) {
+            try {
+                persistLock(userId, fileIds, statusMap);
+            } catch (RuntimeException e) {
+                unlock(created);
+                throw e;
+            }
+            // the upsert is part of the caller's transaction, a rollback must free what it took here
+            afterCompletion(false, () -> unlock(created));
+        }
+        return null;
+    }
+
+    public void releaseLockedFileItem(Set<String> fileIds) {
+        if (fileIds.isEmpty()) return;
+        Query query = new Query(Criteria.where("id").in(fileIds));
+        safeWriteMongoTemplate.remove(query, FolderLocks.class);
+        // the removal can still roll back, keep the lock until it is committed
+        List<String> keys = fileIds.stream().map(id -> LOCK_KEY + id).toList();
+        afterCompletion(true, () -> unlock(keys));
+    }
+
+    public FolderLocks checkIfFileItemInLock(Set<String> fileIds, Map<String, Set<FileStatus>> ignoredStatusMap) {
+        if (fileIds.isEmpty()) return null;
+        return lockIfNotLocked(null, fileIds, ignoredStatusMap, Set.of(), Map.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> checkAndLock(String userId, Set<String> checkIds, Map<String, Set<FileStatus>> ignoredStatusMap,
+                                      Set<String> fileIds, Map<String, FileStatus> statusMap) {
+        List<String> keys = new ArrayList<>(checkIds.size() + fileIds.size() + 1);
+        List<String> args = new ArrayList<>(keys.size() + 3);
+        keys.add(LOADED_KEY);
+        args.add(String.valueOf(checkIds.size()));
+        args.add(String.valueOf(LOCK_TTL.toMillis()));
+        args.add(userId == null ? "" : userId);
+        for (String id : checkIds) {
+            keys.add(LOCK_KEY + id);
+            Set<FileStatus> ignored = ignoredStatusMap == null ? null : ignoredStatusMap.get(id);
+            args.add(ignored == null ? "" : ignored.stream().map(Enum::name).collect(Collectors.joining(",")));
+        }
+        for (String id : fileIds) {
+            keys.add(LOCK_KEY + id);
+            args.add(statusMap.getOrDefault(id, FileStatus.PROCESSING).name());
+        }
+        return redisStringTemplate.execute(CHECK_AND_LOCK, keys, args.toArray());
+    }
+
+    private static FolderLocks toFolderLock(String key, String value) {
+        int space = value.indexOf(' ');
+        return new FolderLocks(key.substring(LOCK_KEY.length()), value.substring(space + 1),
+                FileStatus.valueOf(value.substring(0, space)));
+    }
+
+    private void persistLock(String userId, Set<String> fileIds, Map<String, FileStatus> statusMap) {
         // Use UNORDERED to process everything even if some IDs already exist
         BulkOperations bulkOps = safeWriteMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FolderLocks.class);
 
@@ -37,23 +208,29 @@ public class FileLockService {
         bulkOps.execute();
     }
 
-    public void releaseLockedFileItem(Set<String> fileIds) {
-        if (fileIds.isEmpty()) return;
-        Query query = new Query(Criteria.where("id").in(fileIds));
-        safeWriteMongoTemplate.remove(query, FolderLocks.class);
+    private void unlock(List<String> keys) {
+        if (keys.isEmpty()) return;
+        try {
+            redisStringTemplate.delete(keys);
+        } catch (Exception e) {
+            // the lock expires with its ttl
+            log.warn("Failed to remove file locks {}", keys, e);
+        }
     }
 
-    public FolderLocks checkIfFileItemInLock(Set<String> fileIds, Map<String, Set<FileStatus>> ignoredStatusMap) {
-        if (fileIds.isEmpty()) return null;
-        Criteria criteria = Criteria.where("id").in(fileIds);
-        if (ignoredStatusMap != null && !ignoredStatusMap.isEmpty()) {
-            List<Criteria> excludeCriteria = new ArrayList<>();
-            ignoredStatusMap.forEach((id, status) -> {
-                excludeCriteria.add(Criteria.where("id").is(id).and(FileItemField.STATUS_CODE).in(status));
-            });
-            // "nor" ensures that none of these specific ID+Status pairs are returned
-            criteria.norOperator(excludeCriteria.toArray(new Criteria[0]));
-        }
-        return safeWriteMongoTemplate.findOne(new Query(criteria), FolderLocks.class);
+    // without a transaction the write is already final: run it now if committed, never if not
+    private void afterCompletion(boolean committed, Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (committed)
+                action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if ((status == STATUS_COMMITTED) == committed)
+                    action.run();
+            }
+        });
     }
 }
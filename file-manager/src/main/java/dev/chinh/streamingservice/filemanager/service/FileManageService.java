@@ -18,9 +18,12 @@ public class FileManageService {
 
     private static final Logger log = LoggerFactory.getLogger(FileManageService.class);
     private final MongoTemplate mongoTemplate;
+    private final FileNameIndexService fileNameIndexService;
 
     @PostConstruct
     public void createAtlasSearchIndex() {
+        if (fileNameIndexService.isEnabled())
+            return; // names are searched in process, self-hosted mongo has no search indexes
         // Tokenizer: Split on ANYTHING that is NOT a Unicode Letter or Number.
         // (This automatically handles spaces, hyphens, and underscores.)
         Document splitTokenizer = new Document("type", "regexSplit")
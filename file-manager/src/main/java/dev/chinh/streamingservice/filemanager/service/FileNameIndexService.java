@@ -0,0 +1,434 @@
+package dev.chinh.streamingservice.filemanager.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import dev.chinh.streamingservice.filemanager.data.FileItemField;
+import dev.chinh.streamingservice.filemanager.data.FileSystemItem;
+import dev.chinh.streamingservice.filemanager.exception.ServiceUnavailableException;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory name index used instead of an Atlas $search index, so name search works on a self-hosted replica set.
+ * <p>
+ * Names are split and lowercased the same way the Atlas analyzer did, and every word is indexed under its first one and
+ * two characters plus all of its trigrams, keyed by user. A query word is looked up by the most selective of those grams
+ * and candidates are confirmed against the stored name, so matching stays "every query word is a prefix of a word of the
+ * name". Directory scope is checked on the stored path. Matches are ranked by how much of the name's grams the query
+ * covers, so the closest names come first like the Atlas score did.
+ * <p>
+ * Built from fs_metadata on start and kept current from a change stream - every instance sees every change,
+ * whichever instance made it.
+ */
+@Service
+public class FileNameIndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(FileNameIndexService.class);
+    private static final Pattern SPLIT = Pattern.compile("[^\\p{L}\\p{N}]+"); // same tokenizer as the Atlas analyzer
+    private static final int COMPACT_MIN_REMOVED = 100_000;
+    // server codes for a resume token that is no longer in the oplog
+    private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    public record Hit(String id, double score) {
+        // continue after this hit
+        public String pageToken() {
+            return score + "_" + id;
+        }
+    }
+    // best first: higher score, then smaller id
+    private static final Comparator<Hit> RANK = Comparator.comparingDouble(Hit::score).reversed().thenComparing(Hit::id);
+
+    private static final class Entry {
+        private final String id;
+        private final long userId;
+        private final String[] words;
+        private String parentId;
+        private String path;
+
+        private Entry(String id, long userId, String[] words, String parentId, String path) {
+            this.id = id;
+            this.userId = userId;
+            this.words = words;
+            this.parentId = parentId;
+            this.path = path;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private List<Entry> entries = new ArrayList<>(); // doc number -> entry, null once removed
+    private Map<String, Integer> docNumbers = new HashMap<>();
+    private Map<String, IntList> postings = new HashMap<>(); // userId + ' ' + gram -> doc numbers
+    private int removed;
+
+    private volatile boolean ready;
+    private volatile boolean running;
+    private Thread watcher;
+
+    public FileNameIndexService(MongoTemplate mongoTemplate,
+                                @Value("${file-search.engine:atlas}") String engine) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = engine.equals("embedded");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void start() {
+        if (!enabled || running)
+            return;
+        running = true;
+        watcher = Thread.ofVirtual().name("file-name-index").start(this::watch);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (watcher != null)
+            watcher.interrupt();
+    }
+
+    /**
+     * The user's items whose name matches every word of query, best ranked first.
+     * @param parentPath path of the directory scope including its own id, e.g. /root/a/b/
+     * @param after      page token of the last hit of the previous page, null for the first
+     * @param limit      page size, one more is returned when there are more
+     */
+    public List<Hit> search(long userId, String query, String parentId, String parentPath, boolean recursive, String after, int limit) {
+        if (!ready)
+            throw new ServiceUnavailableException("Search is not ready yet, try again shortly");
+        String[] queryWords = words(query);
+        if (queryWords.length == 0)
+            return List.of();
+        Hit afterHit = after == null ? null : decodePageToken(after);
+        Set<String> queryGrams = grams(queryWords);
+
+        // worst hit on top, so the heap keeps the best limit + 1
+        PriorityQueue<Hit> page = new PriorityQueue<>(limit + 2, RANK.reversed());
+        lock.readLock().lock();
+        try {
+            IntList candidates = null;
+            for (String word : queryWords) {
+                IntList list = mostSelective(userId, word);
+                if (list == null)
+                    return List.of();
+                if (candidates == null || list.size < candidates.size)
+                    candidates = list;
+            }
+            for (int i = 0; i < candidates.size; i++) {
+                Entry entry = entries.get(candidates.values[i]);
+                if (entry == null || entry.userId != userId)
+                    continue;
+                if (!inScope(entry, parentId, parentPath, recursive) || !matches(entry.words, queryWords))
+                    continue;
+                Hit hit = new Hit(entry.id, score(entry.words, queryGrams));
+                if (afterHit != null && RANK.compare(hit, afterHit) <= 0)
+                    continue;
+                if (page.size() > limit && RANK.compare(hit, page.peek()) >= 0)
+                    continue;
+                page.add(hit);
+                if (page.size() > limit + 1)
+                    page.poll();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hit> hits = new ArrayList<>(page);
+        hits.sort(RANK);
+        return hits;
+    }
+
+    private static Hit decodePageToken(String token) {
+        int separator = token.lastIndexOf('_');
+        try {
+            return new Hit(token.substring(separator + 1), Double.parseDouble(token.substring(0, separator)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+    }
+
+    // share of the name's grams the query has, a name that is mostly the query words ranks first
+    private static double score(String[] nameWords, Set<String> queryGrams) {
+        Set<String> nameGrams = grams(nameWords);
+        int overlap = 0;
+        for (String gram : queryGrams) {
+            if (nameGrams.contains(gram))
+                overlap++;
+        }
+        return (double) overlap / (nameGrams.size() + queryGrams.size() - overlap);
+    }
+
+    private IntList mostSelective(long userId, String word) {
+        if (word.length() <= 2)
+            return postings.get(key(userId, "^" + word));
+        IntList best = postings.get(key(userId, "^" + word.substring(0, 2)));
+        for (int i = 0; best != null && i + 3 <= word.length(); i++) {
+            IntList list = postings.get(key(userId, word.substring(i, i + 3)));
+            if (list == null || list.size < best.size)
+                best = list;
+        }
+        return best;
+    }
+
+    private static boolean inScope(Entry entry, String parentId, String parentPath, boolean recursive) {
+        if (recursive)
+            return entry.path != null && entry.path.startsWith(parentPath);
+        return parentId.equals(entry.parentId);
+    }
+
+    private static boolean matches(String[] nameWords, String[] queryWords) {
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String nameWord : nameWords) {
+                if (nameWord.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    private void watch() {
+        MongoCollection<Document> collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(FileSystemItem.class));
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("$or", List.of(
+                        new Document("operationType", new Document("$in", List.of("insert", "replace", "delete"))),
+                        // aggregates are updated on every upload, only name and location changes matter here
+                        new Document("updateDescription.updatedFields." + FileItemField.NAME, new Document("$exists", true)),
+                        new Document("updateDescription.updatedFields." + FileItemField.PATH, new Document("$exists", true)),
+                        new Document("updateDescription.updatedFields." + FileItemField.PARENT_ID, new Document("$exists", true))))),
+                new Document("$project", new Document("operationType", 1)
+                        .append("documentKey", 1)
+                        .append("fullDocument._id", 1)
+                        .append("fullDocument." + FileItemField.USER_ID, 1)
+                        .append("fullDocument." + FileItemField.NAME, 1)
+                        .append("fullDocument." + FileItemField.PARENT_ID, 1)
+                        .append("fullDocument." + FileItemField.PATH, 1)));
+
+        BsonDocument resumeToken = null;
+        while (running) {
+            var stream = collection.watch(pipeline)
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .maxAwaitTime(1, TimeUnit.SECONDS);
+            if (resumeToken != null)
+                stream.resumeAfter(resumeToken);
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+                if (resumeToken == null) {
+                    // the stream is open before the scan, changes made during it are replayed afterwards
+                    resumeToken = cursor.getResumeToken();
+                    rebuild(collection);
+                }
+                while (running) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change == null)
+                        continue;
+                    apply(change);
+                    resumeToken = cursor.getResumeToken();
+                }
+            } catch (Exception e) {
+                if (!running)
+                    return;
+                log.warn("File name index change stream failed, reopening", e);
+                if (historyLost(e))
+                    resumeToken = null; // start over from a full scan
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException _) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // anything else is resumed from the last token, a rebuild of a big collection is only worth it when it must
+    private static boolean historyLost(Exception e) {
+        if (e instanceof IllegalStateException)
+            return true; // collection dropped
+        return e instanceof MongoException mongoException
+                && (mongoException.getCode() == CHANGE_STREAM_HISTORY_LOST
+                || mongoException.getCode() == CHANGE_STREAM_FATAL_ERROR
+                || mongoException.hasErrorLabel("NonResumableChangeStreamError"));
+    }
+
+    private void apply(ChangeStreamDocument<Document> change) {
+        OperationType type = change.getOperationType();
+        if (type == OperationType.DELETE) {
+            if (change.getDocumentKey() != null)
+                remove(change.getDocumentKey().getObjectId("_id").getValue().toHexString());
+            return;
+        }
+        if (type == OperationType.INVALIDATE || type == OperationType.DROP) {
+            throw new IllegalStateException("fs_metadata was dropped");
+        }
+        Document document = change.getFullDocument();
+        if (document != null)
+            put(document);
+    }
+
+    private void rebuild(MongoCollection<Document> collection) {
+        long start = System.nanoTime();
+        List<Entry> newEntries = new ArrayList<>();
+        Map<String, Integer> newDocNumbers = new HashMap<>();
+        Map<String, IntList> newPostings = new HashMap<>();
+        try (MongoCursor<Document> cursor = collection.find()
+                .projection(Projections.include(FileItemField.USER_ID, FileItemField.NAME, FileItemField.PARENT_ID, FileItemField.PATH))
+                .batchSize(10_000)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Entry entry = toEntry(cursor.next());
+                if (entry != null)
+                    add(newEntries, newDocNumbers, newPostings, entry);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            entries = newEntries;
+            docNumbers = newDocNumbers;
+            postings = newPostings;
+            removed = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ready = true;
+        log.info("Built file name index: {} items, {} grams in {} ms",
+                newEntries.size(), newPostings.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void put(Document document) {
+        Entry entry = toEntry(document);
+        if (entry == null)
+            return;
+        lock.writeLock().lock();
+        try {
+            Integer existing = docNumbers.get(entry.id);
+            if (existing != null) {
+                Entry old = entries.get(existing);
+                // a move only changes location, the postings still hold
+                if (old.userId == entry.userId && Arrays.equals(old.words, entry.words)) {
+                    old.parentId = entry.parentId;
+                    old.path = entry.path;
+                    return;
+                }
+                entries.set(existing, null);
+                removed++;
+            }
+            add(entries, docNumbers, postings, entry);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = docNumbers.remove(id);
+            if (existing == null)
+                return;
+            entries.set(existing, null);
+            removed++;
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // renames leave their old entry behind just like removals, both check here under the write lock
+    private void compactIfSparse() {
+        if (removed > COMPACT_MIN_REMOVED && removed > entries.size() / 2)
+            compact();
+    }
+
+    // drop removed entries and the postings pointing at them, under the write lock
+    private void compact() {
+        List<Entry> newEntries = new ArrayList<>(entries.size() - removed);
+        Map<String, Integer> newDocNumbers = new HashMap<>();
+        Map<String, IntList> newPostings = new HashMap<>();
+        for (Entry entry : entries) {
+            if (entry != null)
+                add(newEntries, newDocNumbers, newPostings, entry);
+        }
+        entries = newEntries;
+        docNumbers = newDocNumbers;
+        postings = newPostings;
+        removed = 0;
+    }
+
+    private static void add(List<Entry> entries, Map<String, Integer> docNumbers, Map<String, IntList> postings, Entry entry) {
+        int docNumber = entries.size();
+        entries.add(entry);
+        docNumbers.put(entry.id, docNumber);
+        for (String gram : grams(entry.words))
+            postings.computeIfAbsent(key(entry.userId, gram), _ -> new IntList()).add(docNumber);
+    }
+
+    private static Set<String> grams(String[] words) {
+        Set<String> grams = new HashSet<>();
+        for (String word : words) {
+            grams.add("^" + word.substring(0, 1));
+            if (word.length() >= 2)
+                grams.add("^" + word.substring(0, 2));
+            for (int i = 0; i + 3 <= word.length(); i++)
+                grams.add(word.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    private static Entry toEntry(Document document) {
+        Object userId = document.get(FileItemField.USER_ID);
+        String name = document.getString(FileItemField.NAME);
+        if (!(userId instanceof Number number) || name == null)
+            return null; // the shared root folder
+        return new Entry(
+                document.getObjectId(FileItemField.ID).toHexString(),
+                number.longValue(),
+                words(name),
+                document.getString(FileItemField.PARENT_ID),
+                document.getString(FileItemField.PATH));
+    }
+
+    private static String[] words(String text) {
+        return Arrays.stream(SPLIT.split(text.toLowerCase(Locale.ROOT)))
+                .filter(word -> !word.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    private static String key(long userId, String gram) {
+        return userId + " " + gram;
+    }
+}
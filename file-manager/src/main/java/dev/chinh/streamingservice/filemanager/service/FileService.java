@@ -2,6 +2,7 @@ package dev.chinh.streamingservice.filemanager.service;
 
 import com.mongodb.client.result.UpdateResult;
 import dev.chinh.streamingservice.common.OSUtil;
+import dev.chinh.streamingservice.common.ObjectUrlResolver;
 import dev.chinh.streamingservice.common.constant.MediaType;
 import dev.chinh.streamingservice.common.data.ContentMetaData;
 import dev.chinh.streamingservice.common.event.EventTopics;
@@ -30,14 +31,11 @@ import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.util.UriUtils;
 
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
@@ -52,6 +50,9 @@ public class FileService {
     private final DirectoryCacheService directoryCacheService;
     private final FileCacheService fileCacheService;
     private final FileLockService fileLockService;
+    private final SubtreeService subtreeService;
+    private final DirectoryStatsService directoryStatsService;
+    private final ObjectUrlResolver objectUrlResolver;
 
 
     public static final String MEDIA_PATH = ContentMetaData.MEDIA_BUCKET;
@@ -65,7 +66,7 @@ public class FileService {
             throw new IllegalArgumentException("File is a directory");
         }
         String objectWithoutUserId = ContentMetaData.removeUserIdDirFromObjectKey(userId, item.getObjectName());
-        return "/stream/object/" + UriUtils.encodePathSegment(item.getBucket(), StandardCharsets.UTF_8) + "/" + UriUtils.encodePath(objectWithoutUserId, StandardCharsets.UTF_8);
+        return objectUrlResolver.getObjectUrl(userId, item.getBucket(), objectWithoutUserId);
     }
 
 
@@ -115,12 +116,12 @@ public class FileService {
         }
         Map<String, Set<FileStatus>> parentIgnoreStatus = getCommonIds(item.getPath()).stream()
                 .collect(Collectors.toMap(key -> key, _ -> Set.of(FileStatus.BEING_MOVED_INTO)));
-        FolderLocks folderIsLocked = fileLockService.checkIfFileItemInLock(getCommonIds(item.getPath() + item.getId()), parentIgnoreStatus);
+        FolderLocks folderIsLocked = fileLockService.lockIfNotLocked(userId, getCommonIds(item.getPath() + item.getId()), parentIgnoreStatus,
+                Set.of(item.getId()), Collections.emptyMap());
         if (folderIsLocked != null) {
             throw new IllegalArgumentException(getLockedInfoString(userId, folderIsLocked.getId(), folderIsLocked.getStatusCode()));
         }
 
-        fileLockService.lockFileItem(userId, Set.of(item.getId()), Collections.emptyMap());
         fileCacheService.invalidateFileCache(item.getId());
 
         publisher.publishEvent(new FileEventProducer.EventWrapper(
@@ -170,7 +171,7 @@ public class FileService {
         fileLockService.lockFileItem(userId, Set.of(item.getId()), Collections.emptyMap());
         fileCacheService.invalidateFileCache(item.getId());
 
-        FileSystemItem first = findFirstImageOrVideo(userId, getPathForFileItem(item.getPath(), item.getId()));
+        FileSystemItem first = findFirstImageOrVideo(userId, item.getId());
         if (!item.getParentId().equals(getROOT_FOLDER_ID())) {
             FileSystemItem parent = getFileSystemItem(userId, item.getParentId(), true);
             if (parent.getFileType() == FileType.GROUPER) {
@@ -245,7 +246,7 @@ public class FileService {
         fileLockService.lockFileItem(userId, Set.of(item.getId()), Collections.emptyMap());
         fileCacheService.invalidateFileCache(item.getId());
 
-        FileSystemItem first = findFirstImageOrVideo(userId, getPathForFileItem(item.getPath(), item.getId()));
+        FileSystemItem first = findFirstImageOrVideo(userId, item.getId());
         publisher.publishEvent(new FileEventProducer.EventWrapper(
                 EventTopics.MEDIA_UPLOAD_TOPIC,
                 userId,
@@ -286,6 +287,11 @@ public class FileService {
                 .userId(Long.parseLong(userId))
                 .parentId(parentId)
                 .path(parent.getPath() + parentId + "/")
+                .ancestors(FileSystemItem.ancestorsOf(parent.getPath() + parentId + "/"))
+                .subtreeSize(0L)
+                .fileCount(0)
+                .imageCount(0)
+                .videoCount(0)
                 .fileType(FileType.DIR)
                 .name(newFolderName)
                 .uploadDate(Instant.now())
@@ -342,19 +348,19 @@ public class FileService {
     public void initiateDeleteFile(String userId, String fileId) {
         FileSystemItem item = getFileSystemItem(userId, fileId, false);
         if (!FileType.isNotDir(item.getFileType())) { // if a directory
-            boolean anyChildMedia = anyChildMedia(userId, getPathForFileItem(item.getPath(), item.getId()));
+            boolean anyChildMedia = anyChildMedia(userId, item.getId());
             if (anyChildMedia) {
                 throw new IllegalArgumentException("Directory is not empty - include media item");
             }
         }
         Map<String, Set<FileStatus>> parentIgnoreStatus = getCommonIds(item.getPath()).stream()
                 .collect(Collectors.toMap(key -> key, _ -> Set.of(FileStatus.BEING_MOVED_INTO)));
-        FolderLocks folderIsLocked = fileLockService.checkIfFileItemInLock(getCommonIds(item.getPath() + item.getId()), parentIgnoreStatus);
+        FolderLocks folderIsLocked = fileLockService.lockIfNotLocked(userId, getCommonIds(item.getPath() + item.getId()), parentIgnoreStatus,
+                Set.of(item.getId()), Map.of(item.getId(), FileStatus.DELETING));
         if (folderIsLocked != null) {
             throw new IllegalArgumentException(getLockedInfoString(userId, folderIsLocked.getId(), folderIsLocked.getStatusCode()));
         }
 
-        fileLockService.lockFileItem(userId, Set.of(item.getId()), Map.of(item.getId(), FileStatus.DELETING));
         fileCacheService.invalidateFileCache(item.getId());
 
         if (item.getMId() != null && item.getMId() > 0) {
@@ -375,19 +381,19 @@ public class FileService {
             throw new IllegalArgumentException("Media file not found: " + mediaId);
         }
         if (!FileType.isNotDir(item.getFileType())) { // if a directory
-            boolean anyChildMedia = anyChildMedia(userId, getPathForFileItem(item.getPath(), item.getId()));
+            boolean anyChildMedia = anyChildMedia(userId, item.getId());
             if (anyChildMedia) {
                 throw new IllegalArgumentException("Media is not empty - include nested media item");
             }
         }
         Map<String, Set<FileStatus>> parentIgnoreStatus = getCommonIds(item.getPath()).stream()
                 .collect(Collectors.toMap(key -> key, _ -> Set.of(FileStatus.BEING_MOVED_INTO)));
-        FolderLocks folderIsLocked = fileLockService.checkIfFileItemInLock(getCommonIds(item.getPath() + item.getId()), parentIgnoreStatus);
+        FolderLocks folderIsLocked = fileLockService.lockIfNotLocked(userId, getCommonIds(item.getPath() + item.getId()), parentIgnoreStatus,
+                Set.of(item.getId()), Map.of(item.getId(), FileStatus.DELETING));
         if (folderIsLocked != null) {
             throw new IllegalArgumentException(getLockedInfoString(userId, folderIsLocked.getId(), folderIsLocked.getStatusCode()));
         }
 
-        fileLockService.lockFileItem(userId, Set.of(item.getId()), Map.of(item.getId(), FileStatus.DELETING));
         fileCacheService.invalidateFileCache(item.getId());
 
         publisher.publishEvent(new FileEventProducer.EventWrapper(
@@ -422,7 +428,11 @@ public class FileService {
                 .collect(Collectors.toMap(id -> id, _ -> Set.of(FileStatus.BEING_MOVED_INTO)));
 
         Set<String> commonIds = getCommonIds(item.getPath() + item.getId() + newParent.getPath() + newParent.getId());
-        FolderLocks folderIsLocked = fileLockService.checkIfFileItemInLock(commonIds, parentStatusMap);
+        // a directory locks both chains in the same step, a concurrent move of either side sees it at once
+        FolderLocks folderIsLocked = FileType.isNotDir(item.getFileType())
+                ? fileLockService.checkIfFileItemInLock(commonIds, parentStatusMap)
+                : fileLockService.lockIfNotLocked(userId, commonIds, parentStatusMap,
+                        commonIds, parentIds.stream().collect(Collectors.toMap(id -> id, _ -> FileStatus.BEING_MOVED_INTO)));
         if (folderIsLocked != null) {
             throw new IllegalArgumentException(getLockedInfoString(userId, folderIsLocked.getId(), folderIsLocked.getStatusCode()));
         }
@@ -433,10 +443,10 @@ public class FileService {
         Query query = new Query(Criteria.where("id").is(fileId));
         Update update = new Update()
                 .set(FileItemField.PARENT_ID, newParentId)
-                .set(FileItemField.PATH, newParent.getPath() + newParent.getId() + "/");
+                .set(FileItemField.PATH, newParent.getPath() + newParent.getId() + "/")
+                .set(FileItemField.ANCESTORS, FileSystemItem.ancestorsOf(newParent.getPath() + newParent.getId() + "/"));
 
         if (!FileType.isNotDir(item.getFileType())) { // if a directory
-            fileLockService.lockFileItem(userId, commonIds, parentIds.stream().collect(Collectors.toMap(id -> id, _ -> FileStatus.BEING_MOVED_INTO)));
             fileCacheService.invalidateFileCache(commonIds);
 
             publisher.publishEvent(new FileEventProducer.EventWrapper(
@@ -476,6 +486,8 @@ public class FileService {
         }
 
         FileSystemItem moved = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), FileSystemItem.class);
+        if (moved != null) // item was read uncached so a directory's aggregates are current
+            directoryStatsService.move(item.getPath(), newParent.getPath() + newParent.getId() + "/", DirectoryStatsService.Delta.of(item));
 
         if (moved != null && (item.getFileType() == FileType.IMAGE || item.getThumbnail() != null)) {
             String thumbnailPath = ThumbnailService.getThumbnailPath(
@@ -510,22 +522,13 @@ public class FileService {
         return mongoTemplate.exists(query, FileSystemItem.class);
     }
 
-    private boolean anyChildMedia(String userId, String parentPath) {
-        String quotedParentPath = Pattern.quote(parentPath);
-        return mongoTemplate.exists(
-                new Query(Criteria
-                        .where(FileItemField.USER_ID).is(Long.parseLong(userId))
-                        .and(FileItemField.PATH).regex("^" + quotedParentPath)
-                        .and(FileItemField.MEDIA_ID).nin(null, 0)),
-                FileSystemItem.class);
+    private boolean anyChildMedia(String userId, String dirId) {
+        return subtreeService.anyDescendant(Long.parseLong(userId), dirId,
+                Criteria.where(FileItemField.MEDIA_ID).nin(null, 0));
     }
 
-    private FileSystemItem findFirstImageOrVideo(String userId, String parentPath) {
-        String quotedParentPath = Pattern.quote(parentPath);
-        return mongoTemplate.findOne(new Query(Criteria
-                .where(FileItemField.USER_ID).is(Long.parseLong(userId))
-                .and(FileItemField.PATH).regex("^" + quotedParentPath)
-                .and(FileItemField.FILE_TYPE).in(FileType.IMAGE, FileType.VIDEO)), FileSystemItem.class);
+    private FileSystemItem findFirstImageOrVideo(String userId, String dirId) {
+        return subtreeService.findFirstMediaDescendant(Long.parseLong(userId), dirId);
     }
 
     private String addUserIdToPath(String userId, String path) {
@@ -658,6 +661,7 @@ public class FileService {
         Update update = new Update()
                 .setOnInsert(FileItemField.NAME, MEDIA_PATH)
                 .setOnInsert(FileItemField.PATH, "/")
+                .setOnInsert(FileItemField.ANCESTORS, List.of())
                 .setOnInsert(FileItemField.FILE_TYPE, FileType.DIR);
 
         UpdateResult result = mongoTemplate.upsert(query, update, FileSystemItem.class);
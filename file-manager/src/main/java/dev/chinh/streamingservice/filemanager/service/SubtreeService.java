@@ -0,0 +1,125 @@
+package dev.chinh.streamingservice.filemanager.service;
+
+import com.mongodb.client.result.UpdateResult;
+import dev.chinh.streamingservice.filemanager.constant.FileType;
+import dev.chinh.streamingservice.filemanager.data.FileItemField;
+import dev.chinh.streamingservice.filemanager.data.FileSystemItem;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Subtree queries over the ancestors array instead of anchored path regexes.
+ * Every item stores the ids of all its ancestors, so "everything under dir" is an equality match
+ * on a multikey index and can be walked with an _id keyset rather than skip.
+ */
+@Service
+@RequiredArgsConstructor
+public class SubtreeService {
+
+    private static final Logger log = LoggerFactory.getLogger(SubtreeService.class);
+    private final MongoTemplate mongoTemplate;
+
+    public static Criteria descendantsOf(long userId, String dirId) {
+        return Criteria.where(FileItemField.USER_ID).is(userId)
+                .and(FileItemField.ANCESTORS).is(dirId);
+    }
+
+    /**
+     * One keyset page of everything under dirId in _id order.
+     * @param afterId last id of the previous page, null for the first
+     * @param filter  extra conditions, nullable
+     * @param fields  fields to load, all when empty
+     */
+    public List<FileSystemItem> findDescendants(long userId, String dirId, String afterId, int limit, Criteria filter, String... fields) {
+        Criteria criteria = descendantsOf(userId, dirId);
+        if (afterId != null)
+            criteria.and("id").gt(new ObjectId(afterId));
+        Query query = withFilter(criteria, filter)
+                .with(Sort.by(Sort.Direction.ASC, "id"))
+                .limit(limit);
+        if (fields.length > 0)
+            query.fields().include(fields);
+        return mongoTemplate.find(query, FileSystemItem.class);
+    }
+
+    public long countDescendants(long userId, String dirId, Criteria filter) {
+        return mongoTemplate.count(withFilter(descendantsOf(userId, dirId), filter), FileSystemItem.class);
+    }
+
+    public boolean anyDescendant(long userId, String dirId, Criteria filter) {
+        return mongoTemplate.exists(withFilter(descendantsOf(userId, dirId), filter), FileSystemItem.class);
+    }
+
+    /**
+     * The num-th (zero-based) image or video under dirId by name. Still a skip, but over index keys only.
+     */
+    public FileSystemItem findMediaDescendant(long userId, String dirId, int num) {
+        Query query = new Query(descendantsOf(userId, dirId)
+                .and(FileItemField.FILE_TYPE).in(FileType.IMAGE, FileType.VIDEO))
+                .with(Sort.by(Sort.Direction.ASC, FileItemField.NAME))
+                .skip(num)
+                .limit(1);
+        return mongoTemplate.findOne(query, FileSystemItem.class);
+    }
+
+    public FileSystemItem findFirstMediaDescendant(long userId, String dirId) {
+        return mongoTemplate.findOne(new Query(descendantsOf(userId, dirId)
+                .and(FileItemField.FILE_TYPE).in(FileType.IMAGE, FileType.VIDEO)), FileSystemItem.class);
+    }
+
+    /**
+     * Re-parent everything under dirId in one indexed multi-update. The directory itself is updated by the caller.
+     * @param oldPath path of dirId before the move
+     */
+    public UpdateResult moveDescendants(long userId, String dirId, String oldPath, FileSystemItem newParent) {
+        String newPath = newParent.getPath() + newParent.getId() + "/";
+        List<String> newAncestors = new ArrayList<>(FileSystemItem.ancestorsOf(newPath));
+        int oldDepth = FileSystemItem.ancestorsOf(oldPath).size();
+
+        AggregationUpdate update = AggregationUpdate.update()
+                .set(FileItemField.PATH)
+                .toValue(StringOperators.ReplaceOne.valueOf(FileItemField.PATH)
+                        .find(oldPath) // find old path prefix and replace with new path prefix
+                        .replacement(newPath))
+                .set(FileItemField.ANCESTORS)
+                .toValue(ArrayOperators.arrayOf(newAncestors)
+                        .concat(ArrayOperators.Slice.sliceArrayOf(FileItemField.ANCESTORS)
+                                .offset(oldDepth)
+                                .itemCount(Integer.MAX_VALUE)));
+        return mongoTemplate.updateMulti(new Query(descendantsOf(userId, dirId)), update, FileSystemItem.class);
+    }
+
+    /**
+     * Derive ancestors from path for items written before the field existed. Runs server side in one pass.
+     */
+    public void backfillAncestors() {
+        Document filter = new Document(FileItemField.ANCESTORS, new Document("$exists", false));
+        Document split = new Document("$split", List.of("$" + FileItemField.PATH, "/"));
+        Document nonEmpty = new Document("$filter", new Document("input", split)
+                .append("cond", new Document("$ne", List.of("$$this", ""))));
+        var result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(FileSystemItem.class))
+                .updateMany(filter, List.of(new Document("$set", new Document(FileItemField.ANCESTORS, nonEmpty))));
+        if (result.getModifiedCount() > 0)
+            log.info("Backfilled ancestors for {} items", result.getModifiedCount());
+    }
+
+    private static Query withFilter(Criteria criteria, Criteria filter) {
+        return filter == null
+                ? new Query(criteria)
+                : new Query(new Criteria().andOperator(criteria, filter));
+    }
+}
@@ -0,0 +1,526 @@
+package dev.chinh.streamingservice.mediabackup;
+
+import dev.chinh.streamingservice.common.OSUtil;
+import dev.chinh.streamingservice.common.data.ContentMetaData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.Result;
+import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nightly check that the backup of each configured bucket matches MinIO, for events that were missed or ended
+ * in the DLQ.
+ * <p>
+ * Keyed buckets (thumbnails) are backed up under their object keys. Media buckets are mirrored by file path,
+ * their files are matched to objects by the source recorded on each file when it was copied. The media tree is
+ * walked once for all media buckets. Objects without a file are copied into .reconcile/recovered, objects older
+ * than the first recorded source are only counted as unattributed, their files were copied before sources were kept.
+ * A file whose source another file already claims is a duplicate, recovered duplicates are deleted.
+ * <p>
+ * Objects modified within the grace period are left alone, their event may still be queued in the listener.
+ * <p>
+ * The bucket listing (sorted by key) is merge-joined with the local files of the range the run covers.
+ * Objects that are missing locally or differ in size or ETag are copied again; local files without an object are
+ * counted, and removed only with delete-extra. Unchanged files are not read: the ETag recorded on the file when it
+ * was copied is compared instead, files without one are hashed once and then get it recorded.
+ * <p>
+ * A run stops after max-objects-per-run and the last key checked is kept in a checkpoint file, the next run lists
+ * from there. At most that many local files are held as well, a run whose files run out first stops at the last
+ * of them. A complete pass removes the checkpoint, so the following run starts over at the first key.
+ */
+@Service
+@EnableScheduling
+public class BackupReconcileService {
+
+    private static final int CHECKPOINT_EVERY = 1000;
+    private static final String CHECKPOINT_DIR = ".reconcile";
+    private static final String RECOVERED_DIR = "recovered";
+    private static final String SOURCES_SINCE = "sources.since";
+
+    // MinIO lists keys in UTF-8 byte order, String order differs for characters outside the BMP
+    private static final Comparator<String> KEY_ORDER =
+            (a, b) -> Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+
+    private final MinIOService minIOService;
+    private final BackupTransferService backupTransferService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${media.backup.location}")
+    private String backupLocation;
+    @Value("${backup.enabled}")
+    private String backupEnabled;
+    @Value("${backup.reconcile.buckets:thumbnail}")
+    private List<String> buckets;
+    @Value("${backup.reconcile.media-buckets:video,image,audio,other}")
+    private List<String> mediaBuckets;
+    @Value("${backup.reconcile.max-objects-per-run:200000}")
+    private long maxObjectsPerRun;
+    @Value("${backup.reconcile.parallelism:8}")
+    private int parallelism;
+    @Value("${backup.reconcile.delete-extra:false}")
+    private boolean deleteExtra;
+    @Value("${backup.reconcile.grace-period-minutes:60}")
+    private long gracePeriodMinutes;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Map<String, AtomicLong> lastCompletedPass = new ConcurrentHashMap<>();
+
+    public BackupReconcileService(MinIOService minIOService, BackupTransferService backupTransferService, MeterRegistry meterRegistry) {
+        this.minIOService = minIOService;
+        this.backupTransferService = backupTransferService;
+        this.meterRegistry = meterRegistry;
+        meterRegistry.gauge("backup.reconcile.running", running, r -> r.get() ? 1 : 0);
+    }
+
+    private enum Divergence { MISSING, MISMATCHED }
+
+    /**
+     * @param mirrored files are found by their recorded source instead of their path under roots
+     * @param recoverInto where objects without a file are copied to, a mirrored bucket's own directory of recovered
+     */
+    private record Layout(boolean mirrored, List<Path> roots, Path recoverInto) {}
+
+    /**
+     * Local files of one bucket by key, after startAfter and at most limit of them - the smallest keys are kept.
+     * truncated: files after the last one were left out, the run can't tell what exists past it.
+     */
+    private static final class LocalFiles {
+        private final NavigableMap<String, Path> files = new TreeMap<>(KEY_ORDER);
+        // later files claiming a key already held, by key
+        private final List<Map.Entry<String, Path>> duplicates = new ArrayList<>();
+        private final String startAfter;
+        private final long limit;
+        private boolean truncated;
+
+        private LocalFiles(String startAfter, long limit) {
+            this.startAfter = startAfter;
+            this.limit = limit;
+        }
+
+        private void offer(String key, Path file) {
+            if (key == null || startAfter != null && KEY_ORDER.compare(key, startAfter) <= 0)
+                return;
+            if (files.containsKey(key)) {
+                duplicates.add(Map.entry(key, file));
+                return;
+            }
+            if (files.size() >= limit) {
+                truncated = true;
+                if (KEY_ORDER.compare(key, files.lastKey()) >= 0)
+                    return;
+                files.pollLastEntry();
+            }
+            files.put(key, file);
+        }
+    }
+
+    private record BucketMetrics(Counter scanned, Counter scannedBytes, Counter missing, Counter mismatched,
+                                 Counter extra, Counter duplicate, Counter unattributed, Counter repaired, Counter failed) {}
+
+    private BucketMetrics metrics(String bucket) {
+        return new BucketMetrics(
+                counter("backup.reconcile.scanned", bucket),
+                Counter.builder("backup.reconcile.scanned.bytes").baseUnit("bytes").tag("bucket", bucket).register(meterRegistry),
+                counter("backup.reconcile.missing", bucket),
+                counter("backup.reconcile.mismatched", bucket),
+                counter("backup.reconcile.extra", bucket),
+                counter("backup.reconcile.duplicate", bucket),
+                counter("backup.reconcile.unattributed", bucket),
+                counter("backup.reconcile.repaired", bucket),
+                counter("backup.reconcile.failed", bucket)
+        );
+    }
+
+    private Counter counter(String name, String bucket) {
+        return Counter.builder(name).tag("bucket", bucket).register(meterRegistry);
+    }
+
+    // files copied from now on carry their source, older media objects can't be matched to a file
+    @PostConstruct
+    public void init() {
+        if (!Boolean.parseBoolean(backupEnabled))
+            return;
+        try {
+            sourcesRecordedSince();
+        } catch (IOException e) {
+            System.err.println("Failed to read " + SOURCES_SINCE + ": " + e.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${backup.reconcile.cron:0 0 3 * * *}")
+    public void reconcile() {
+        if (!Boolean.parseBoolean(backupEnabled))
+            return;
+        if (!running.compareAndSet(false, true)) {
+            System.out.println("Backup reconcile already running, skipping");
+            return;
+        }
+        try {
+            for (String bucket : buckets) {
+                reconcileBucket(bucket, () -> {
+                    String startAfter = readCheckpoint(bucket);
+                    return reconcile(bucket, startAfter, walk(layout(bucket).roots().getFirst(), startAfter));
+                });
+            }
+            if (mediaBuckets.isEmpty())
+                return;
+            Map<String, LocalFiles> mediaFiles;
+            try {
+                mediaFiles = walkMirrored();
+            } catch (IOException e) {
+                System.err.println("Failed to walk media backup: " + e.getMessage());
+                return;
+            }
+            for (String bucket : mediaBuckets) {
+                LocalFiles localFiles = mediaFiles.get(bucket);
+                reconcileBucket(bucket, () -> reconcile(bucket, localFiles.startAfter, localFiles));
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void reconcileBucket(String bucket, Callable<Boolean> pass) {
+        try {
+            if (pass.call())
+                lastCompletedPass(bucket).set(System.currentTimeMillis() / 1000);
+        } catch (Exception e) {
+            System.err.println("Failed to reconcile backup of bucket " + bucket + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private AtomicLong lastCompletedPass(String bucket) {
+        return lastCompletedPass.computeIfAbsent(bucket, _ -> {
+            AtomicLong lastPass = new AtomicLong();
+            Gauge.builder("backup.reconcile.last.pass", lastPass, AtomicLong::get)
+                    .tag("bucket", bucket)
+                    .register(meterRegistry);
+            return lastPass;
+        });
+    }
+
+    private Layout layout(String bucket) {
+        if (!mediaBuckets.contains(bucket)) {
+            Path root = Path.of(OSUtil.normalizePath(backupLocation, bucket)).normalize();
+            return new Layout(false, List.of(root), root);
+        }
+        Path recovered = Path.of(OSUtil.normalizePath(backupLocation, CHECKPOINT_DIR), RECOVERED_DIR, bucket).normalize();
+        Path media = Path.of(OSUtil.normalizePath(backupLocation, ContentMetaData.MEDIA_BUCKET)).normalize();
+        return new Layout(true, List.of(media, recovered), recovered);
+    }
+
+    /**
+     * @return true if the pass over the bucket is complete, false if it stopped at the per run limit
+     */
+    private boolean reconcile(String bucket, String startAfter, LocalFiles localFiles) throws Exception {
+        Layout layout = layout(bucket);
+        Path checkpoint = checkpointOf(bucket);
+        System.out.println("Reconciling backup of bucket " + bucket + (startAfter == null ? " from the start" : " after " + startAfter));
+
+        BucketMetrics metrics = metrics(bucket);
+        Instant sourcesSince = layout.mirrored() ? sourcesRecordedSince() : null;
+        Instant settledBefore = Instant.now().minus(Duration.ofMinutes(gracePeriodMinutes));
+        for (Map.Entry<String, Path> duplicate : localFiles.duplicates) {
+            Path claimedBy = localFiles.files.get(duplicate.getKey());
+            // the key may have been dropped past the limit since, it is checked in a later run
+            if (claimedBy != null)
+                onDuplicate(duplicate, layout, claimedBy, metrics);
+        }
+        NavigableMap<String, Path> local = localFiles.files;
+        String coveredUpTo = localFiles.truncated ? local.lastKey() : null;
+
+        Semaphore permits = new Semaphore(parallelism);
+        List<CompletableFuture<Void>> chunk = new ArrayList<>(CHECKPOINT_EVERY);
+        long scanned = 0;
+        String lastKey = null;
+        boolean complete = true;
+        boolean pastLocal = false;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Result<Item> result : minIOService.getAllItemsInBucketAfter(bucket, startAfter)) {
+                if (scanned >= maxObjectsPerRun) {
+                    complete = false;
+                    break;
+                }
+                Item item = result.get();
+                if (item.isDir())
+                    continue;
+
+                String key = item.objectName();
+                if (coveredUpTo != null && KEY_ORDER.compare(key, coveredUpTo) > 0) {
+                    // past the local files held, the rest is checked next run
+                    complete = false;
+                    pastLocal = true;
+                    break;
+                }
+                // local files sorting before this key have no object
+                while (!local.isEmpty() && KEY_ORDER.compare(local.firstKey(), key) < 0)
+                    onExtra(local.pollFirstEntry(), metrics);
+                Path localPath = local.remove(key);
+
+                permits.acquire();
+                chunk.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        check(bucket, layout, item, localPath, sourcesSince, settledBefore, metrics);
+                    } finally {
+                        permits.release();
+                    }
+                }, executor));
+                metrics.scanned().increment();
+                metrics.scannedBytes().increment(item.size());
+                scanned++;
+                lastKey = key;
+
+                if (chunk.size() >= CHECKPOINT_EVERY) {
+                    awaitChunk(chunk);
+                    writeCheckpoint(checkpoint, lastKey);
+                }
+            }
+            awaitChunk(chunk);
+        }
+
+        if (complete || pastLocal) {
+            // no object left up to the last local file held, those files are extra
+            for (Map.Entry<String, Path> file : local.entrySet())
+                onExtra(file, metrics);
+            if (coveredUpTo != null) {
+                complete = false;
+                lastKey = coveredUpTo;
+            }
+        }
+        if (complete) {
+            Files.deleteIfExists(checkpoint);
+            System.out.println("Reconciled backup of bucket " + bucket + ": " + scanned + " objects, pass complete");
+        } else {
+            writeCheckpoint(checkpoint, lastKey);
+            System.out.println("Reconciled backup of bucket " + bucket + ": " + scanned + " objects, continuing after " + lastKey + " next run");
+        }
+        return complete;
+    }
+
+    private void check(String bucket, Layout layout, Item item, Path localPath, Instant sourcesSince, Instant settledBefore,
+                       BucketMetrics metrics) {
+        String key = item.objectName();
+        // the listener may still be copying it, a recovered copy would end up next to the listener's
+        if (item.lastModified().toInstant().isAfter(settledBefore))
+            return;
+        Path target = localPath;
+        if (target == null) {
+            if (layout.mirrored() && item.lastModified().toInstant().isBefore(sourcesSince)) {
+                // its file, if any, was copied before sources were recorded
+                metrics.unattributed().increment();
+                return;
+            }
+            target = layout.recoverInto().resolve(key).normalize();
+            if (!target.startsWith(layout.recoverInto())) {
+                System.err.println("Skipping object outside of the backup tree: " + bucket + "/" + key);
+                return;
+            }
+        }
+        try {
+            Divergence divergence = compare(target, item);
+            if (divergence == null)
+                return;
+            if (divergence == Divergence.MISSING)
+                metrics.missing().increment();
+            else
+                metrics.mismatched().increment();
+            System.out.println("Backup of " + bucket + "/" + key + " is " + divergence.name().toLowerCase() + ", copying to " + target);
+            backupTransferService.submit(bucket, key, target).join();
+            metrics.repaired().increment();
+        } catch (Exception e) {
+            metrics.failed().increment();
+            System.err.println("Failed to reconcile " + bucket + "/" + key + ": " + e.getMessage());
+        }
+    }
+
+    private Divergence compare(Path target, Item item) throws Exception {
+        if (!Files.isRegularFile(target))
+            return Divergence.MISSING;
+        if (Files.size(target) != item.size())
+            return Divergence.MISMATCHED;
+
+        String etag = BackupTransferService.normalizeEtag(item.etag());
+        String recorded = BackupTransferService.readRecordedEtag(target);
+        if (recorded != null)
+            return recorded.equals(etag) ? null : Divergence.MISMATCHED;
+        // copied before etags were recorded, read it once
+        if (BackupTransferService.isContentMd5(etag) && !BackupTransferService.md5(target).equalsIgnoreCase(etag))
+            return Divergence.MISMATCHED;
+        BackupTransferService.recordEtag(target, etag);
+        return null;
+    }
+
+    private void onExtra(Map.Entry<String, Path> file, BucketMetrics metrics) {
+        metrics.extra().increment();
+        if (!deleteExtra) {
+            System.out.println("Backup file without object: " + file.getKey() + " at " + file.getValue());
+            return;
+        }
+        try {
+            Files.deleteIfExists(file.getValue());
+            System.out.println("Deleted backup file without object: " + file.getKey() + " at " + file.getValue());
+        } catch (IOException e) {
+            metrics.failed().increment();
+            System.err.println("Failed to delete backup file without object: " + file.getKey() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The file kept for the key wins, media files are walked before recovered ones. A recovered duplicate is our own
+     * copy of a file that exists and is deleted, any other is reported and deleted only with delete-extra.
+     */
+    private void onDuplicate(Map.Entry<String, Path> duplicate, Layout layout, Path claimedBy, BucketMetrics metrics) {
+        metrics.duplicate().increment();
+        Path file = duplicate.getValue();
+        if (!deleteExtra && !file.startsWith(layout.recoverInto())) {
+            System.out.println("Backup file " + file + " has the source of " + claimedBy + ": " + duplicate.getKey());
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+            System.out.println("Deleted backup file " + file + ", its source is backed up at " + claimedBy);
+        } catch (IOException e) {
+            metrics.failed().increment();
+            System.err.println("Failed to delete duplicate backup file " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Local files of a keyed bucket. Directories whose keys all sort before startAfter, or after the last key once
+     * the limit is reached, are not entered.
+     */
+    private LocalFiles walk(Path root, String startAfter) throws IOException {
+        LocalFiles localFiles = new LocalFiles(startAfter, Math.max(1, maxObjectsPerRun));
+        if (Files.notExists(root))
+            return localFiles;
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(root))
+                    return FileVisitResult.CONTINUE;
+                // every key under the directory starts with its prefix, so they sort together
+                String prefix = keyOf(root, dir) + "/";
+                if (startAfter != null && KEY_ORDER.compare(prefix, startAfter) < 0 && !startAfter.startsWith(prefix))
+                    return FileVisitResult.SKIP_SUBTREE;
+                if (localFiles.files.size() >= localFiles.limit && KEY_ORDER.compare(prefix, localFiles.files.lastKey()) > 0) {
+                    localFiles.truncated = true;
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isBackupFile(file, attrs))
+                    localFiles.offer(keyOf(root, file), file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.err.println("Failed to read backup file " + file + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return localFiles;
+    }
+
+    /**
+     * Local files of every media bucket in one walk, sorted into their bucket by the recorded source.
+     * Mirrored trees can't be pruned by path, every file's source is read once.
+     */
+    private Map<String, LocalFiles> walkMirrored() throws IOException {
+        Map<String, LocalFiles> byBucket = new HashMap<>();
+        for (String bucket : mediaBuckets)
+            byBucket.put(bucket, new LocalFiles(readCheckpoint(bucket), Math.max(1, maxObjectsPerRun)));
+
+        Path media = Path.of(OSUtil.normalizePath(backupLocation, ContentMetaData.MEDIA_BUCKET)).normalize();
+        Path recovered = Path.of(OSUtil.normalizePath(backupLocation, CHECKPOINT_DIR), RECOVERED_DIR).normalize();
+        for (Path root : List.of(media, recovered)) {
+            if (Files.notExists(root))
+                continue;
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!isBackupFile(file, attrs))
+                        return FileVisitResult.CONTINUE;
+                    String source = BackupTransferService.readRecordedSource(file);
+                    int slash = source == null ? -1 : source.indexOf('/');
+                    if (slash <= 0)
+                        return FileVisitResult.CONTINUE;
+                    LocalFiles localFiles = byBucket.get(source.substring(0, slash));
+                    if (localFiles != null)
+                        localFiles.offer(source.substring(slash + 1), file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.err.println("Failed to read backup file " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return byBucket;
+    }
+
+    private static boolean isBackupFile(Path file, BasicFileAttributes attrs) {
+        return attrs.isRegularFile() && !file.getFileName().toString().endsWith(BackupTransferService.PART_SUFFIX);
+    }
+
+    private static String keyOf(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    private Path checkpointOf(String bucket) {
+        return Path.of(OSUtil.normalizePath(backupLocation, CHECKPOINT_DIR), bucket + ".checkpoint");
+    }
+
+    private String readCheckpoint(String bucket) throws IOException {
+        Path checkpoint = checkpointOf(bucket);
+        String startAfter = Files.exists(checkpoint) ? Files.readString(checkpoint).strip() : null;
+        return startAfter == null || startAfter.isEmpty() ? null : startAfter;
+    }
+
+    private Instant sourcesRecordedSince() throws IOException {
+        Path file = Path.of(OSUtil.normalizePath(backupLocation, CHECKPOINT_DIR), SOURCES_SINCE);
+        if (Files.exists(file))
+            return Instant.ofEpochMilli(Long.parseLong(Files.readString(file).strip()));
+        Instant now = Instant.now();
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, String.valueOf(now.toEpochMilli()));
+        return now;
+    }
+
+    private static void awaitChunk(List<CompletableFuture<Void>> chunk) {
+        CompletableFuture.allOf(chunk.toArray(CompletableFuture[]::new)).join();
+        chunk.clear();
+    }
+
+    private static void writeCheckpoint(Path checkpoint, String lastKey) throws IOException {
+        if (lastKey == null)
+            return;
+        Files.createDirectories(checkpoint.getParent());
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.writeString(temp, lastKey);
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,272 @@
+package dev.chinh.streamingservice.mediabackup;
+
+import io.minio.StatObjectResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Copies objects from MinIO into backup files off the listener thread.
+ * <p>
+ * Objects larger than one part are fetched as parallel ranged GETs, each streamed straight into its region of a
+ * preallocated file with positional FileChannel transfers. The copy goes to a .part file that is checked against
+ * the object's ETag and then moved into place, so a backup file that exists is always complete.
+ * At most max-concurrent transfers run at a time, the rest wait for a permit.
+ */
+@Service
+@RequiredArgsConstructor
+public class BackupTransferService {
+
+    private final MinIOService minIOService;
+
+    @Value("${backup.transfer.max-concurrent:4}")
+    private int maxConcurrent;
+    @Value("${backup.transfer.parts-per-transfer:4}")
+    private int partsPerTransfer;
+    @Value("${backup.transfer.part-size:16777216}")
+    private long partSize;
+
+    public static final String PART_SUFFIX = ".part";
+    private static final String ETAG_ATTRIBUTE = "minio.etag";
+    private static final String SOURCE_ATTRIBUTE = "minio.source";
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private Semaphore transferPermits;
+
+    @PostConstruct
+    public void init() {
+        transferPermits = new Semaphore(maxConcurrent);
+    }
+
+    public CompletableFuture<Void> submit(String bucket, String object, Path target) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                transferPermits.acquire();
+                try {
+                    transfer(bucket, object, target);
+                } finally {
+                    transferPermits.release();
+                }
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public void transfer(String bucket, String object, Path target) throws Exception {
+        StatObjectResponse stat = minIOService.statObject(bucket, object);
+        long size = stat.size();
+        Path parentPath = target.getParent();
+        if (parentPath != null && !Files.exists(parentPath))
+            Files.createDirectories(parentPath);
+        // a full disk fails here instead of halfway through the copy
+        FileStore store = Files.getFileStore(parentPath == null ? target.toAbsolutePath().getParent() : parentPath);
+        if (store.getUsableSpace() < size)
+            throw new IOException("Not enough space for " + object + ": " + size + " bytes needed, "
+                    + store.getUsableSpace() + " usable");
+
+        // unique, the listener and the reconciler may copy the same object at once
+        Path partPath = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + PART_SUFFIX);
+        long start = System.nanoTime();
+        try {
+            try (FileChannel channel = FileChannel.open(partPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (size > partSize) {
+                    preallocate(channel, size);
+                    copyParts(bucket, object, channel, size);
+                } else {
+                    try (InputStream inputStream = minIOService.getFile(bucket, object)) {
+                        copyRange(inputStream, channel, 0, size);
+                    }
+                }
+                channel.force(false);
+            }
+            String etag = verify(partPath, size, stat.etag(), object);
+            recordEtag(partPath, etag);
+            recordSource(partPath, bucket, object);
+            try {
+                Files.move(partPath, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(partPath);
+            throw e;
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.println("Backed up " + object + ": " + size + " bytes in " + elapsedMillis + " ms ("
+                + (size / 1024 / 1024 * 1000 / elapsedMillis) + " MB/s)");
+    }
+
+    private void copyParts(String bucket, String object, FileChannel channel, long size) throws Exception {
+        long parts = (size + partSize - 1) / partSize;
+        // ranges are claimed in order by a few workers, so reads stay roughly sequential per worker
+        ConcurrentLinkedQueue<Long> offsets = new ConcurrentLinkedQueue<>();
+        for (long i = 0; i < parts; i++)
+            offsets.add(i * partSize);
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(partsPerTransfer, parts); i++) {
+            workers.add(executor.submit(() -> {
+                Long offset;
+                while ((offset = offsets.poll()) != null) {
+                    long length = Math.min(partSize, size - offset);
+                    try (InputStream inputStream = minIOService.getFileRange(bucket, object, offset, length)) {
+                        copyRange(inputStream, channel, offset, length);
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> worker : workers)
+                worker.get();
+        } catch (ExecutionException e) {
+            workers.forEach(w -> w.cancel(true));
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    // transferFrom at an explicit position leaves the channel position alone, so parts can be written concurrently
+    private static void copyRange(InputStream inputStream, FileChannel channel, long offset, long length) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(inputStream);
+        long written = 0;
+        while (written < length) {
+            long n = channel.transferFrom(source, offset + written, length - written);
+            if (n <= 0)
+                throw new IOException("Unexpected end of object at " + (offset + written) + ", expected " + (offset + length));
+            written += n;
+        }
+    }
+
+    // extend the file to its final size so parts can be written at any offset, it stays sparse until they land
+    private static void preallocate(FileChannel channel, long size) throws IOException {
+        channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+    }
+
+    /**
+     * Single part uploads have the MD5 of the content as ETag. Multipart ETags are a hash of the part hashes with
+     * part sizes we don't know, for those only the size is checked.
+     * @return the etag without quotes
+     */
+    private static String verify(Path path, long size, String etag, String object) throws Exception {
+        long actualSize = Files.size(path);
+        if (actualSize != size)
+            throw new IOException("Size mismatch for " + object + ": expected " + size + ", got " + actualSize);
+        etag = normalizeEtag(etag);
+        if (!isContentMd5(etag))
+            return etag;
+
+        String actual = md5(path);
+        if (!actual.equalsIgnoreCase(etag))
+            throw new IOException("Checksum mismatch for " + object + ": expected " + etag + ", got " + actual);
+        return etag;
+    }
+
+    public static String normalizeEtag(String etag) {
+        return etag == null ? null : etag.replace("\"", "");
+    }
+
+    public static boolean isContentMd5(String etag) {
+        return etag != null && etag.length() == 32 && !etag.contains("-");
+    }
+
+    public static String md5(Path path) throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md5.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(md5.digest());
+    }
+
+    /**
+     * Keeps the verified ETag on the backup file as an extended attribute, so a later check can compare it
+     * without reading the content. No-op on file systems without user attributes.
+     */
+    public static void recordEtag(Path path, String etag) {
+        writeAttribute(path, ETAG_ATTRIBUTE, etag);
+    }
+
+    public static String readRecordedEtag(Path path) {
+        return readAttribute(path, ETAG_ATTRIBUTE);
+    }
+
+    /**
+     * Media files are backed up under their file path, not their key. The object they were copied from is kept
+     * on the file, it survives renames and moves, so the reconciler can find the file of an object.
+     */
+    public static void recordSource(Path path, String bucket, String object) {
+        writeAttribute(path, SOURCE_ATTRIBUTE, bucket + "/" + object);
+    }
+
+    /**
+     * @return the key of the object the file was copied from, null if it came from another bucket or isn't known
+     */
+    public static String readRecordedSource(Path path, String bucket) {
+        String source = readRecordedSource(path);
+        if (source == null || !source.startsWith(bucket + "/"))
+            return null;
+        return source.substring(bucket.length() + 1);
+    }
+
+    /**
+     * @return bucket/key of the object the file was copied from, null if it isn't known
+     */
+    public static String readRecordedSource(Path path) {
+        return readAttribute(path, SOURCE_ATTRIBUTE);
+    }
+
+    private static void writeAttribute(Path path, String name, String value) {
+        if (value == null)
+            return;
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+            if (view != null)
+                view.write(name, StandardCharsets.UTF_8.encode(value));
+        } catch (IOException | UnsupportedOperationException e) {
+            // attributes are an optimization only
+        }
+    }
+
+    private static String readAttribute(Path path, String name) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+            if (view == null || !view.list().contains(name))
+                return null;
+            ByteBuffer buffer = ByteBuffer.allocate(view.size(name));
+            view.read(name, buffer);
+            buffer.flip();
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
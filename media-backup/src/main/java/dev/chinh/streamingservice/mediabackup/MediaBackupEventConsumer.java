@@ -7,8 +7,15 @@ import dev.chinh.streamingservice.common.event.MediaUpdateEvent;
 import dev.chinh.streamingservice.mediabackup.config.KafkaRedPandaConfig;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.io.FileUtils;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
@@ -19,12 +26,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
 public class MediaBackupEventConsumer {
 
     private final MinIOService minIOService;
+    private final BackupTransferService backupTransferService;
+    private final DeadLetterPublishingRecoverer deadLetterRecoverer;
 
     @Value( "${media.backup.location}")
     private String MEDIA_BACKUP_LOCATION;
@@ -32,29 +45,68 @@ public class MediaBackupEventConsumer {
     @Value("${backup.enabled}")
     private String backupEnabled;
 
-    private void onCreateFile(MediaUpdateEvent.FileCreated event) throws Exception {
+    @Value("${backup.transfer.max-pending:64}")
+    private int maxPendingTransfers;
+
+    private static final String LISTENER_ID = "media-backup-listener";
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private record PendingTransfer(Path target, CompletableFuture<Void> future) {}
+    private record Progress(long offset, CompletableFuture<Void> done) {}
+
+    // copies still running, from this and earlier polls, in record order
+    private final List<PendingTransfer> pendingTransfers = new ArrayList<>();
+    // offsets handed to the listener and not committed yet, per partition in order - only used on the consumer thread
+    private final Map<TopicPartition, ArrayDeque<Progress>> uncommitted = new HashMap<>();
+
+    /**
+     * Starts the copy on the transfer engine and returns, the listener moves on to the next record.
+     * @return completes once the copy landed or the record went to the DLQ
+     */
+    private CompletableFuture<Void> onCreateFile(ConsumerRecord<String, MediaUpdateEvent> record, MediaUpdateEvent.FileCreated event) {
         System.out.println("Received create backup file event: " + event.fileName());
-        try {
-            String target = addBackupLocationToPath(addRootToPath(event.userId() + "/" + event.fileName()));
-            Path targetPath = Paths.get(target);
-            if (Files.exists(targetPath)) {
-                System.err.println("File already exists: " + target);
-                return;
-            }
-            try (InputStream inputStream = minIOService.getFile(event.bucket(), event.objectName())) {
-                Path parentPath = targetPath.getParent();
-                if (parentPath != null && !Files.exists(parentPath))
-                    Files.createDirectories(parentPath);
-
-                Files.copy(inputStream, targetPath);
-            } catch (FileAlreadyExistsException e) {
-                System.err.println("File already exists: " + event.fileName());
-                // do nothing - just log
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to create backup file: " + event.fileName());
-            throw e;
+        Path targetPath = Paths.get(addBackupLocationToPath(addRootToPath(event.userId() + "/" + event.fileName())));
+        for (PendingTransfer transfer : pendingTransfers) {
+            if (transfer.target().equals(targetPath))
+                return transfer.future(); // redelivered while its copy is still running
         }
+        if (Files.exists(targetPath)) {
+            System.err.println("File already exists: " + targetPath);
+            return DONE;
+        }
+        // bounded, the listener waits for the oldest copy once too many are running
+        while (pendingTransfers.size() >= maxPendingTransfers) {
+            pendingTransfers.getFirst().future().exceptionally(_ -> null).join();
+            pendingTransfers.removeIf(t -> t.future().isDone());
+        }
+        CompletableFuture<Void> future = transferWithRetry(event, targetPath, 1)
+                .handle((_, e) -> e)
+                .thenCompose(e -> {
+                    if (e == null)
+                        return DONE;
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    System.err.println("Failed to create backup file: " + event.fileName() + " " + cause.getMessage());
+                    return deadLetter(record, cause);
+                });
+        pendingTransfers.add(new PendingTransfer(targetPath, future));
+        return future;
+    }
+
+    // same policy as the container's error handler, which no longer sees copies that fail after the listener returned
+    private CompletableFuture<Void> transferWithRetry(MediaUpdateEvent.FileCreated event, Path target, int attempt) {
+        return backupTransferService.submit(event.bucket(), event.objectName(), target)
+                .handle((_, e) -> e)
+                .thenCompose(e -> {
+                    if (e == null)
+                        return DONE;
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (attempt > KafkaRedPandaConfig.RETRY_ATTEMPTS || !KafkaRedPandaConfig.isRetryable(cause))
+                        return CompletableFuture.<Void>failedFuture(cause);
+                    System.err.println("Retrying backup file " + event.fileName() + " after: " + cause.getMessage());
+                    return CompletableFuture.runAsync(() -> {},
+                                    CompletableFuture.delayedExecutor(KafkaRedPandaConfig.RETRY_INTERVAL_MS, TimeUnit.MILLISECONDS))
+                            .thenCompose(_ -> transferWithRetry(event, target, attempt + 1));
+                });
     }
 
     private void onDeleteFile(MediaUpdateEvent.FileDeleted event) throws IOException {
@@ -79,6 +131,11 @@ public class MediaBackupEventConsumer {
             return;
         }
         createThumbnailBackup(event.thumbnail());
+        // uploaded before the event went out, missing only where generation failed
+        for (String spriteObject : ContentMetaData.spriteObjectsOfThumbnail(event.thumbnail())) {
+            if (minIOService.objectExists(ContentMetaData.THUMBNAIL_BUCKET, spriteObject))
+                createThumbnailBackup(spriteObject);
+        }
     }
 
     private void onUpdateMediaThumbnail(MediaUpdateEvent.MediaThumbnailUpdatedReady event) throws Exception {
@@ -90,6 +147,9 @@ public class MediaBackupEventConsumer {
 
     private void onThumbnailDeleted(MediaUpdateEvent.ThumbnailDeleted event) throws IOException {
         deleteThumbnailBackup(event.objectName());
+        // media-object removes the sprites together with a video thumbnail
+        for (String spriteObject : ContentMetaData.spriteObjectsOfThumbnail(event.objectName()))
+            deleteThumbnailBackup(spriteObject);
     }
 
 
@@ -172,6 +232,10 @@ public class MediaBackupEventConsumer {
             Path target = Paths.get(addBackupLocationToPath(
                     basePath.substring(0, lastSlash == -1 ? basePath.length() : lastSlash) + "/" + event.newFileName()
             ));
+            if (Files.notExists(source) && Files.exists(target)) {
+                System.out.println("Already renamed: " + target);
+                return;
+            }
             Files.move(source, target);
         } catch (Exception e) {
             System.err.println("Failed to rename file: " + event.fileId() + " : " + e.getMessage());
@@ -205,6 +269,10 @@ public class MediaBackupEventConsumer {
         Path source = Paths.get(addBackupLocationToPath(oldPath));
         Path target = Paths.get(addBackupLocationToPath(newPath));
         System.out.println(source + " -> " + target);
+        if (Files.notExists(source) && Files.exists(target.resolve(source.getFileName()))) {
+            System.out.println("Already moved: " + source);
+            return;
+        }
         Files.move(source, target.resolve(source.getFileName()));
     }
 
@@ -220,47 +288,162 @@ public class MediaBackupEventConsumer {
     }
 
 
-    @KafkaListener(topics = {
+    /**
+     * Backup paths a metadata event reads or changes, copies into them have to land before it runs.
+     */
+    private List<Path> getAffectedPaths(MediaUpdateEvent event) {
+        return switch (event) {
+            case MediaUpdateEvent.FileDeleted e -> List.of(Path.of(addBackupLocationToPath(addRootToPath(e.fileName()))));
+            case MediaUpdateEvent.FileRenamed e -> List.of(Path.of(addBackupLocationToPath(addRootToPath(e.filePath()))));
+            case MediaUpdateEvent.DirectoryMoved e -> List.of(
+                    Path.of(addBackupLocationToPath(addRootToPath(e.oldPath()))),
+                    Path.of(addBackupLocationToPath(addRootToPath(e.newPath()))));
+            case MediaUpdateEvent.FileMoved e -> List.of(
+                    Path.of(addBackupLocationToPath(addRootToPath(e.oldPath()))),
+                    Path.of(addBackupLocationToPath(addRootToPath(e.newPath()))));
+            case null, default -> List.of();
+        };
+    }
+
+    private void awaitTransfersUnder(List<Path> paths) {
+        for (PendingTransfer transfer : pendingTransfers) {
+            if (paths.stream().anyMatch(p -> transfer.target().startsWith(p)))
+                transfer.future().exceptionally(_ -> null).join();
+        }
+    }
+
+    /**
+     * Publishes the record to the DLQ.
+     * @return failed if that didn't work either, the partition is then sought back to the record and it runs again
+     */
+    private CompletableFuture<Void> deadLetter(ConsumerRecord<String, MediaUpdateEvent> record, Throwable cause) {
+        try {
+            deadLetterRecoverer.accept(record, cause instanceof Exception e ? e : new RuntimeException(cause));
+            return DONE;
+        } catch (Exception e) {
+            System.err.println("Failed to send media backup event to the DLQ: " + record.topic() + "-" + record.partition()
+                    + "@" + record.offset() + " " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<Void> process(ConsumerRecord<String, MediaUpdateEvent> record) {
+        MediaUpdateEvent event = record.value();
+        if (event instanceof MediaUpdateEvent.FileCreated e)
+            return onCreateFile(record, e);
+
+        awaitTransfersUnder(getAffectedPaths(event));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                handle(event);
+                return DONE;
+            } catch (Exception e) {
+                System.err.println("Failed to handle media backup event: " + event + " " + e.getMessage());
+                if (attempt > KafkaRedPandaConfig.RETRY_ATTEMPTS || !KafkaRedPandaConfig.isRetryable(e)) {
+                    e.printStackTrace();
+                    return deadLetter(record, e);
+                }
+                try {
+                    Thread.sleep(KafkaRedPandaConfig.RETRY_INTERVAL_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while retrying media backup event", ie);
+                }
+            }
+        }
+    }
+
+    private void track(ConsumerRecord<String, MediaUpdateEvent> record, CompletableFuture<Void> done) {
+        ArrayDeque<Progress> progress = uncommitted.computeIfAbsent(
+                new TopicPartition(record.topic(), record.partition()), _ -> new ArrayDeque<>());
+        if (!progress.isEmpty() && progress.getLast().offset() >= record.offset())
+            progress.clear(); // redelivered after a seek, the copies still running are joined by target
+        progress.add(new Progress(record.offset(), done));
+    }
+
+    /**
+     * Commits every partition up to its first record whose work hasn't finished. A first record that failed for good -
+     * not even the DLQ took it - is polled again from the next poll on, with everything after it.
+     * Must run on the consumer thread.
+     */
+    private void commitDone(Consumer<?, ?> consumer) {
+        uncommitted.keySet().retainAll(consumer.assignment()); // revoked partitions are redelivered to their new owner
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        uncommitted.forEach((partition, progress) -> {
+            long next = -1;
+            while (!progress.isEmpty() && progress.getFirst().done().isDone()
+                    && !progress.getFirst().done().isCompletedExceptionally())
+                next = progress.removeFirst().offset() + 1;
+            if (next >= 0)
+                offsets.put(partition, new OffsetAndMetadata(next));
+            if (!progress.isEmpty() && progress.getFirst().done().isCompletedExceptionally()) {
+                long failed = progress.getFirst().offset();
+                System.err.println("Redelivering media backup events from " + partition + "@" + failed);
+                consumer.seek(partition, failed);
+                progress.clear();
+            }
+        });
+        if (offsets.isEmpty())
+            return;
+        consumer.commitAsync(offsets, (_, e) -> {
+            if (e != null)
+                System.err.println("Failed to commit media backup offsets " + offsets + ": " + e.getMessage());
+        });
+    }
+
+    private void handle(MediaUpdateEvent event) throws Exception {
+        switch (event) {
+            case MediaUpdateEvent.FileDeleted e -> onDeleteFile(e);
+            case MediaUpdateEvent.MediaCreatedReady e -> onCreatedMedia(e);
+            case MediaUpdateEvent.MediaThumbnailUpdatedReady e -> onUpdateMediaThumbnail(e);
+
+            case MediaUpdateEvent.ThumbnailDeleted e -> onThumbnailDeleted(e);
+
+            case MediaUpdateEvent.NameEntityCreated e -> onNameEntityCreated(e);
+            case MediaUpdateEvent.NameEntityDeleted e -> onNameEntityDeleted(e);
+            case MediaUpdateEvent.NameEntityUpdated e -> onUpdateNameEntity(e);
+
+            case MediaUpdateEvent.DirectoryCreated e -> onCreateDirectory(e);
+            case MediaUpdateEvent.FileRenamed e -> onRenameFile(e);
+            case MediaUpdateEvent.DirectoryMoved e -> onMoveDirectory(e);
+            case MediaUpdateEvent.FileMoved e -> onMoveFile(e);
+            case null, default ->
+                // unknown event type → log and skip
+                    System.err.println("Unknown MediaUpdateEvent type: " + (event == null ? null : event.getClass()));
+        }
+    }
+
+    /**
+     * File copies run on the transfer engine while the small metadata events - renames, moves, thumbnails - go on
+     * here without queueing behind them, also across polls. A metadata event only waits for copies under the paths
+     * it touches. Offsets are committed per partition up to the first record whose copy hasn't landed, after each
+     * poll and while the container is idle, so a crash replays the unfinished copies and what came after them;
+     * the events that already ran are replayed too and have to be idempotent.
+     * Failures are retried and sent to the DLQ here, the container's error handler would commit past running copies.
+     * A record the DLQ didn't take either is polled again instead of holding back its partition's commits.
+     */
+    @KafkaListener(id = LISTENER_ID, idIsGroup = false, topics = {
             EventTopics.MEDIA_BACKUP_TOPIC,
             EventTopics.MEDIA_FILE_AND_BACKUP_TOPIC,
             EventTopics.MEDIA_FILE_SEARCH_AND_BACKUP_TOPIC,
             EventTopics.MEDIA_FILE_UPLOAD_SEARCH_AND_BACKUP_TOPIC,
             EventTopics.MEDIA_OBJECT_AND_BACKUP_TOPIC,
             EventTopics.MEDIA_SEARCH_AND_BACKUP_TOPIC,
-    }, groupId = KafkaRedPandaConfig.MEDIA_GROUP_ID)
-    public void handle(@Payload MediaUpdateEvent event, Acknowledgment ack) throws Exception {
-        try {
-            if (!Boolean.parseBoolean(backupEnabled)) {
-                System.out.println("Backup is disabled -- Skipping " + event.getClass().getSimpleName());
-                ack.acknowledge();
-                return;
-            }
-            switch (event) {
-                case MediaUpdateEvent.FileCreated e -> onCreateFile(e);
-                case MediaUpdateEvent.FileDeleted e -> onDeleteFile(e);
-                case MediaUpdateEvent.MediaCreatedReady e -> onCreatedMedia(e);
-                case MediaUpdateEvent.MediaThumbnailUpdatedReady e -> onUpdateMediaThumbnail(e);
-
-                case MediaUpdateEvent.ThumbnailDeleted e -> onThumbnailDeleted(e);
-
-                case MediaUpdateEvent.NameEntityCreated e -> onNameEntityCreated(e);
-                case MediaUpdateEvent.NameEntityDeleted e -> onNameEntityDeleted(e);
-                case MediaUpdateEvent.NameEntityUpdated e -> onUpdateNameEntity(e);
-
-                case MediaUpdateEvent.DirectoryCreated e -> onCreateDirectory(e);
-                case MediaUpdateEvent.FileRenamed e -> onRenameFile(e);
-                case MediaUpdateEvent.DirectoryMoved e -> onMoveDirectory(e);
-                case MediaUpdateEvent.FileMoved e -> onMoveFile(e);
-                default ->
-                    // unknown event type → log and skip
-                        System.err.println("Unknown MediaUpdateEvent type: " + event.getClass());
-            }
-            ack.acknowledge();
-        } catch (Exception e) {
-            System.err.println("Failed to handle media backup event: " + event + " " + e.getMessage());
-            e.printStackTrace();
-            throw e;
-        }
+    }, groupId = KafkaRedPandaConfig.MEDIA_GROUP_ID, batch = "true")
+    public void handle(List<ConsumerRecord<String, MediaUpdateEvent>> records, Consumer<?, ?> consumer) {
+        boolean enabled = Boolean.parseBoolean(backupEnabled);
+        if (!enabled)
+            System.out.println("Backup is disabled -- Skipping " + records.size() + " events");
+        pendingTransfers.removeIf(t -> t.future().isDone());
+        for (ConsumerRecord<String, MediaUpdateEvent> record : records)
+            track(record, enabled ? process(record) : DONE);
+        commitDone(consumer);
+    }
+
+    // copies that land while no records come in are committed from here, idle events run on the consumer thread
+    @EventListener(condition = "event.listenerId.startsWith('" + LISTENER_ID + "')")
+    public void onIdle(ListenerContainerIdleEvent event) {
+        commitDone(event.getConsumer());
     }
 
 
@@ -24,6 +24,16 @@ public class MinIOService {
         );
     }
 
+    // keys in lexicographic order, resuming after startAfter
+    public Iterable<Result<Item>> getAllItemsInBucketAfter(String bucketName, String startAfter) {
+        ListObjectsArgs.Builder args = ListObjectsArgs.builder()
+                .bucket(bucketName)
+                .recursive(true);
+        if (startAfter != null)
+            args.startAfter(startAfter);
+        return minioClient.listObjects(args.build());
+    }
+
     public InputStream getFile(String bucket, String object) throws Exception {
         return minioClient.getObject(
                 GetObjectArgs.builder()
@@ -33,6 +43,26 @@ public class MinIOService {
         );
     }
 
+    public InputStream getFileRange(String bucket, String object, long offset, long length) throws Exception {
+        return minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(object)
+                        .offset(offset)
+                        .length(length)
+                        .build()
+        );
+    }
+
+    public StatObjectResponse statObject(String bucket, String object) throws Exception {
+        return minioClient.statObject(
+                StatObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(object)
+                        .build()
+        );
+    }
+
     public boolean objectExists(String bucket, String key) {
         try {
             minioClient.statObject(
@@ -24,6 +24,7 @@ import org.springframework.util.backoff.FixedBackOff;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.NoSuchFileException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
@@ -32,8 +33,24 @@ public class KafkaRedPandaConfig {
     @Value("${kafka.bootstrap-servers}")
     private String BOOTSTRAP_SERVERS;
 
+    @Value("${kafka.consumer.max-poll-records:50}")
+    private int maxPollRecords;
+
     public static final String MEDIA_GROUP_ID = "media-backup-service";
 
+    public static final long RETRY_INTERVAL_MS = 2000L;
+    public static final int RETRY_ATTEMPTS = 3;
+    private static final List<Class<? extends Exception>> NOT_RETRYABLE = List.of(
+            FileAlreadyExistsException.class,
+            NullPointerException.class,
+            IllegalArgumentException.class,
+            NoSuchFileException.class
+    );
+
+    public static boolean isRetryable(Throwable e) {
+        return NOT_RETRYABLE.stream().noneMatch(type -> type.isInstance(e));
+    }
+
     @Bean
     public KafkaAdmin kafkaAdmin() {
         return new KafkaAdmin(Map.of(
@@ -48,6 +65,9 @@ public class KafkaRedPandaConfig {
         props.put(ConsumerConfig.GROUP_ID_CONFIG, MEDIA_GROUP_ID);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        // the listener only blocks once max-pending copies are running, multi GB videos take a while
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, 1_800_000);
 
         JsonDeserializer<MediaUpdateEvent> jsonDeserializer = new JsonDeserializer<>(MediaUpdateEvent.class);
         jsonDeserializer.addTrustedPackages("dev.chinh.streamingservice.common.event");
@@ -70,8 +90,10 @@ public class KafkaRedPandaConfig {
     ) {
         ConcurrentKafkaListenerContainerFactory<String, MediaUpdateEvent> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory);
-        // IMPORTANT: require manual ack
+        // IMPORTANT: require manual ack - the backup listener commits finished offsets itself
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        // lets the listener commit copies that landed while no records came in
+        factory.getContainerProperties().setIdleEventInterval(5000L);
 
         // retry + dlq handler
         factory.setCommonErrorHandler(errorHandler);
@@ -133,9 +155,8 @@ public class KafkaRedPandaConfig {
     }
 
     @Bean
-    public DefaultErrorHandler kafkaErrorHandler(KafkaTemplate<String, Object> dlqKafkaTemplate) {
-        DeadLetterPublishingRecoverer recoverer =
-                new DeadLetterPublishingRecoverer(
+    public DeadLetterPublishingRecoverer deadLetterRecoverer(KafkaTemplate<String, Object> dlqKafkaTemplate) {
+        return new DeadLetterPublishingRecoverer(
                         dlqKafkaTemplate,
                         (record, ex) -> {
                             // Check if the exception (or its cause) is FileAlreadyExistsException
@@ -144,14 +165,14 @@ public class KafkaRedPandaConfig {
 //                            }
                             return new org.apache.kafka.common.TopicPartition(MEDIA_BACKUP_DLQ_TOPIC, -1);
                         });
+    }
 
-        FixedBackOff fixedBackOff = new FixedBackOff(2000L, 3);
-        DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, fixedBackOff);
+    @Bean
+    public DefaultErrorHandler kafkaErrorHandler(DeadLetterPublishingRecoverer deadLetterRecoverer) {
+        FixedBackOff fixedBackOff = new FixedBackOff(RETRY_INTERVAL_MS, RETRY_ATTEMPTS);
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(deadLetterRecoverer, fixedBackOff);
 
-        errorHandler.addNotRetryableExceptions(FileAlreadyExistsException.class);
-        errorHandler.addNotRetryableExceptions(NullPointerException.class);
-        errorHandler.addNotRetryableExceptions(IllegalArgumentException.class);
-        errorHandler.addNotRetryableExceptions(NoSuchFileException.class);
+        NOT_RETRYABLE.forEach(errorHandler::addNotRetryableExceptions);
 
         return errorHandler;
     }
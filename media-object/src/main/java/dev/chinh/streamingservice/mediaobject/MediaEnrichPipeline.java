@@ -0,0 +1,151 @@
+package dev.chinh.streamingservice.mediaobject;
+
+import dev.chinh.streamingservice.common.event.MediaUpdateEvent;
+import dev.chinh.streamingservice.mediapersistence.entity.MediaMetaData;
+import dev.chinh.streamingservice.mediapersistence.repository.MediaMetaDataRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Enriches a run of MediaEnriched events at once: one read for all rows, probes and thumbnails in parallel on
+ * virtual threads (bounded by the permits in MediaObjectService), then one transaction that writes every row.
+ * <p>
+ * Events for the same mediaId run one after another in record order, different media run concurrently.
+ * Only the prefix up to the first failed event is written, so the records after it can be redelivered as they are -
+ * enrichment overwrites the same fields and thumbnail object, running it again is harmless. What is written for a
+ * media is the state its last written event left behind, a failed event's half-set fields are never kept.
+ */
+@Service
+@RequiredArgsConstructor
+public class MediaEnrichPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaEnrichPipeline.class);
+
+    private final MediaObjectService mediaObjectService;
+    private final MediaMetaDataRepository mediaMetaDataRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param completed number of leading events that were enriched and written
+     * @param failure the cause for the event at index completed, null if all of them went through
+     */
+    public record Result(int completed, Exception failure) {}
+
+    // the enriched fields as one event left them
+    private record Enriched(short frameRate, String format, Long size, Integer width, Integer height, Integer length,
+                            String thumbnail) {
+
+        static Enriched of(MediaMetaData mediaMetaData) {
+            return new Enriched(mediaMetaData.getFrameRate(), mediaMetaData.getFormat(), mediaMetaData.getSize(),
+                    mediaMetaData.getWidth(), mediaMetaData.getHeight(), mediaMetaData.getLength(), mediaMetaData.getThumbnail());
+        }
+
+        void applyTo(MediaMetaData mediaMetaData) {
+            mediaMetaData.setFrameRate(frameRate);
+            mediaMetaData.setFormat(format);
+            mediaMetaData.setSize(size);
+            mediaMetaData.setWidth(width);
+            mediaMetaData.setHeight(height);
+            mediaMetaData.setLength(length);
+            mediaMetaData.setThumbnail(thumbnail);
+        }
+    }
+
+    public Result enrich(List<MediaUpdateEvent.MediaEnriched> events) throws InterruptedException {
+        long start = System.nanoTime();
+        Map<Long, MediaMetaData> mediaById = mediaMetaDataRepository.findAllById(
+                events.stream().map(MediaUpdateEvent.MediaEnriched::mediaId).collect(Collectors.toSet())
+        ).stream().collect(Collectors.toMap(MediaMetaData::getId, Function.identity()));
+
+        Map<Long, List<Integer>> indexesByMedia = new LinkedHashMap<>();
+        for (int i = 0; i < events.size(); i++)
+            indexesByMedia.computeIfAbsent(events.get(i).mediaId(), _ -> new ArrayList<>()).add(i);
+
+        Exception[] failures = new Exception[events.size()];
+        Enriched[] enriched = new Enriched[events.size()];
+        List<Future<?>> tasks = new ArrayList<>(indexesByMedia.size());
+        for (List<Integer> indexes : indexesByMedia.values()) {
+            tasks.add(executor.submit(() -> {
+                for (int i : indexes) {
+                    MediaUpdateEvent.MediaEnriched event = events.get(i);
+                    MediaMetaData mediaMetaData = mediaById.get(event.mediaId());
+                    try {
+                        if (mediaMetaData == null || !mediaMetaData.getUserId().equals(Long.parseLong(event.userId())))
+                            throw new IllegalArgumentException("Media not found: " + event.mediaId());
+                        mediaObjectService.enrich(mediaMetaData, event);
+                        enriched[i] = Enriched.of(mediaMetaData);
+                    } catch (Exception e) {
+                        failures[i] = e;
+                        return; // later events of this media wait for the redelivery
+                    }
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        int completed = 0;
+        while (completed < events.size() && failures[completed] == null && !skipped(events, failures, completed))
+            completed++;
+
+        if (completed > 0)
+            write(events.subList(0, completed), Arrays.asList(enriched).subList(0, completed));
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        logger.info("Enriched {}/{} media in {} ms ({} events/s)",
+                completed, events.size(), elapsedMillis, completed * 1000L / elapsedMillis);
+        return new Result(completed, completed < events.size() ? failures[completed] : null);
+    }
+
+    // an event that never ran because an earlier event of the same media failed
+    private static boolean skipped(List<MediaUpdateEvent.MediaEnriched> events, Exception[] failures, int index) {
+        long mediaId = events.get(index).mediaId();
+        for (int i = 0; i < index; i++) {
+            if (failures[i] != null && events.get(i).mediaId() == mediaId)
+                return true;
+        }
+        return false;
+    }
+
+    // events and their snapshots in record order, so each media ends up with its last event's state
+    private void write(List<MediaUpdateEvent.MediaEnriched> events, List<Enriched> enriched) {
+        transactionTemplate.executeWithoutResult(_ -> {
+            Map<Long, MediaMetaData> managed = mediaMetaDataRepository.findAllById(
+                    events.stream().map(MediaUpdateEvent.MediaEnriched::mediaId).collect(Collectors.toSet())
+            ).stream().collect(Collectors.toMap(MediaMetaData::getId, Function.identity()));
+            for (int i = 0; i < events.size(); i++) {
+                MediaUpdateEvent.MediaEnriched event = events.get(i);
+                MediaMetaData target = managed.get(event.mediaId());
+                if (target == null)
+                    throw new IllegalArgumentException("Media not found: " + event.mediaId());
+                enriched.get(i).applyTo(target);
+                // dirty rows are flushed as one jdbc batch on commit, the events go out after it
+                mediaObjectService.publishMediaCreatedReady(event, target);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -5,33 +5,28 @@ import dev.chinh.streamingservice.common.event.MediaUpdateEvent;
 import dev.chinh.streamingservice.mediaobject.config.KafkaRedPandaConfig;
 import dev.chinh.streamingservice.mediapersistence.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 @RequiredArgsConstructor
 public class MediaObjectEventConsumer {
 
     private final MediaObjectService mediaObjectService;
+    private final MediaEnrichPipeline mediaEnrichPipeline;
 
     Logger logger = LoggerFactory.getLogger(MediaObjectEventConsumer.class);
 
-    public void onMediaEnrich(MediaUpdateEvent.MediaEnriched event) throws Exception {
-        logger.info("Received media enrichment update event: {} {}", event.mediaId(), event.mediaType());
-        try {
-            mediaObjectService.handleMediaEnrich(event);
-        } catch (Exception e) {
-            logger.error("Failed to update media enrichment: {} {}", event.mediaId(), event.mediaType());
-            throw e;
-        }
-    }
-
     private void onDeleteObject(MediaUpdateEvent.ObjectDeleted event) {
         logger.info("Received media object delete event: {}: {} objects", event.bucket(), event.objectNames().size());
         try {
@@ -63,28 +58,64 @@ public class MediaObjectEventConsumer {
     }
 
 
+    /**
+     * Consecutive MediaEnriched records of a poll go through the pipeline together. It writes the events before
+     * the first failure, so the failed record is the one retried and dead-lettered, the ones after it are redelivered.
+     */
+    private void onMediaEnrichBatch(List<ConsumerRecord<String, Object>> records, int from, int to) {
+        List<MediaUpdateEvent.MediaEnriched> events = records.subList(from, to).stream()
+                .map(r -> (MediaUpdateEvent.MediaEnriched) r.value())
+                .toList();
+        logger.info("Received {} media enrichment update events", events.size());
+        MediaEnrichPipeline.Result result;
+        try {
+            result = mediaEnrichPipeline.enrich(events);
+        } catch (Exception e) {
+            logger.error("Failed to write media enrichment batch of {}", events.size(), e);
+            throw new BatchListenerFailedException("Failed to update media enrichment", e, from);
+        }
+        if (result.failure() != null) {
+            MediaUpdateEvent.MediaEnriched failed = events.get(result.completed());
+            logger.error("Failed to update media enrichment: {} {}", failed.mediaId(), failed.mediaType(), result.failure());
+            throw new BatchListenerFailedException("Failed to update media enrichment", result.failure(), from + result.completed());
+        }
+    }
+
     @KafkaListener(topics = {
             EventTopics.MEDIA_OBJECT_TOPIC,
             EventTopics.MEDIA_OBJECT_AND_BACKUP_TOPIC
-    }, groupId = KafkaRedPandaConfig.MEDIA_GROUP_ID)
-    public void handle(@Payload MediaUpdateEvent event, Acknowledgment ack) throws Exception {
-        try {
-            switch (event) {
-                case MediaUpdateEvent.MediaEnriched e -> onMediaEnrich(e);
-                case MediaUpdateEvent.ObjectDeleted e -> onDeleteObject(e);
-                case MediaUpdateEvent.MediaThumbnailUpdated e -> onUpdateMediaThumbnail(e);
-                case MediaUpdateEvent.ThumbnailDeleted e -> onDeleteThumbnail(e);
-                default ->
-                    // unknown event type → log and skip
-                    System.err.println("Unknown MediaUpdateEvent type: " + event.getClass());
+    }, groupId = KafkaRedPandaConfig.MEDIA_GROUP_ID, batch = "true")
+    public void handle(List<ConsumerRecord<String, Object>> records, Acknowledgment ack) {
+        // records are processed in order, offsets before a failed index are committed by the error handler
+        int i = 0;
+        while (i < records.size()) {
+            int end = i;
+            while (end < records.size() && records.get(end).value() instanceof MediaUpdateEvent.MediaEnriched)
+                end++;
+            if (end > i) {
+                onMediaEnrichBatch(records, i, end);
+                i = end;
+                continue;
             }
-            ack.acknowledge();
-        } catch (Exception e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
-            // throwing the exception lets DefaultErrorHandler apply retry
-            throw e;
+            Object value = records.get(i).value();
+            try {
+                switch (value) {
+                    case MediaUpdateEvent.ObjectDeleted e -> onDeleteObject(e);
+                    case MediaUpdateEvent.MediaThumbnailUpdated e -> onUpdateMediaThumbnail(e);
+                    case MediaUpdateEvent.ThumbnailDeleted e -> onDeleteThumbnail(e);
+                    case null, default ->
+                        // unknown event type → log and skip
+                        System.err.println("Unknown MediaUpdateEvent type: " + (value == null ? null : value.getClass()));
+                }
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                e.printStackTrace();
+                // the error handler retries and dead-letters the record at this index
+                throw new BatchListenerFailedException("Failed to handle media event", e, i);
+            }
+            i++;
         }
+        ack.acknowledge();
     }
 
 
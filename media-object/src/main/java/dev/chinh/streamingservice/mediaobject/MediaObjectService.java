@@ -11,14 +11,19 @@ import dev.chinh.streamingservice.mediaobject.probe.VideoMetadata;
 import dev.chinh.streamingservice.mediapersistence.entity.MediaMetaData;
 import dev.chinh.streamingservice.mediapersistence.repository.MediaMetaDataRepository;
 import io.minio.messages.DeleteObject;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
 
 @Service
 @RequiredArgsConstructor
@@ -33,42 +38,60 @@ public class MediaObjectService {
 
     private final ApplicationEventPublisher eventPublisher;
 
-    @Transactional
-    public void handleMediaEnrich(MediaUpdateEvent.MediaEnriched event) throws Exception {
-        MediaMetaData mediaMetaData = getMediaMetadataById(Long.parseLong(event.userId()), event.mediaId());
+    @Value("${media-object.enrich.probe-concurrency:32}")
+    private int probeConcurrency;
+    @Value("${media-object.enrich.thumbnail-concurrency:0}")
+    private int thumbnailConcurrency;
+
+    // header probes are mostly waiting on minio, thumbnails keep a core busy each
+    private Semaphore probePermits;
+    private Semaphore thumbnailPermits;
+
+    @PostConstruct
+    public void init() {
+        probePermits = new Semaphore(probeConcurrency);
+        thumbnailPermits = new Semaphore(thumbnailConcurrency > 0 ? thumbnailConcurrency : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Probes the media and generates its thumbnail into mediaMetaData, without touching the database.
+     */
+    public void enrich(MediaMetaData mediaMetaData, MediaUpdateEvent.MediaEnriched event) throws Exception {
         if (event.mediaType() == MediaType.VIDEO) {
-            VideoMetadata videoMetadata = mediaProbe.parseMediaMetadata(mediaProbe.probeMediaInfo(mediaMetaData.getBucket(), mediaMetaData.getKey()), VideoMetadata.class);
+            VideoMetadata videoMetadata = withPermit(probePermits, () -> mediaProbe.probe(mediaMetaData.getBucket(), mediaMetaData.getKey(), VideoMetadata.class));
             mediaMetaData.setFrameRate(videoMetadata.frameRate());
             mediaMetaData.setFormat(videoMetadata.format());
             mediaMetaData.setSize(videoMetadata.size());
             mediaMetaData.setWidth(videoMetadata.width());
             mediaMetaData.setHeight(videoMetadata.height());
             mediaMetaData.setLength((int) videoMetadata.durationSeconds());
-            mediaMetaData.setThumbnail(thumbnailService.generateThumbnailFromVideo(mediaMetaData.getBucket(), mediaMetaData.getKey(), event.thumbnailObject(), mediaMetaData.getLength(), null));
+            mediaMetaData.setThumbnail(withPermit(thumbnailPermits, () -> thumbnailService.generateThumbnailFromVideo(mediaMetaData.getBucket(), mediaMetaData.getKey(), event.thumbnailObject(), mediaMetaData.getLength(), null)));
+            generateSpriteSheet(event.userId(), event.mediaId(), mediaMetaData, videoMetadata.durationSeconds());
         } else {
             mediaMetaData.setSize(event.size());
             mediaMetaData.setLength(event.length());
             if (event.searchable()) {
                 MediaType thumbnailMediaType = MediaType.detectMediaType(mediaMetaData.getKey());
                 if (thumbnailMediaType == MediaType.IMAGE) {
-                    ImageMetadata imageMetadata = mediaProbe.parseMediaMetadata(mediaProbe.probeMediaInfo(mediaMetaData.getBucket(), mediaMetaData.getKey()), ImageMetadata.class);
+                    ImageMetadata imageMetadata = withPermit(probePermits, () -> mediaProbe.probe(mediaMetaData.getBucket(), mediaMetaData.getKey(), ImageMetadata.class));
                     mediaMetaData.setWidth(imageMetadata.width());
                     mediaMetaData.setHeight(imageMetadata.height());
                     mediaMetaData.setFormat(imageMetadata.format());
                     mediaMetaData.setFrameRate((short) 1);
                     mediaMetaData.setThumbnail(thumbnailService.copyAlbumObjectToThumbnailBucket(mediaMetaData.getBucket(), mediaMetaData.getKey(), event.thumbnailObject()));
                 } else if (thumbnailMediaType == MediaType.VIDEO) {
-                    VideoMetadata videoMetadata = mediaProbe.parseMediaMetadata(mediaProbe.probeMediaInfo(mediaMetaData.getBucket(), mediaMetaData.getKey()), VideoMetadata.class);
+                    VideoMetadata videoMetadata = withPermit(probePermits, () -> mediaProbe.probe(mediaMetaData.getBucket(), mediaMetaData.getKey(), VideoMetadata.class));
                     mediaMetaData.setWidth(videoMetadata.width());
                     mediaMetaData.setHeight(videoMetadata.height());
                     mediaMetaData.setFormat(videoMetadata.format());
                     mediaMetaData.setFrameRate(videoMetadata.frameRate());
-                    mediaMetaData.setThumbnail(thumbnailService.generateThumbnailFromVideo(mediaMetaData.getBucket(), mediaMetaData.getKey(), event.thumbnailObject(), (int) videoMetadata.durationSeconds(), null));
+                    mediaMetaData.setThumbnail(withPermit(thumbnailPermits, () -> thumbnailService.generateThumbnailFromVideo(mediaMetaData.getBucket(), mediaMetaData.getKey(), event.thumbnailObject(), (int) videoMetadata.durationSeconds(), null)));
                 }
             }
         }
-        mediaMetaDataRepository.save(mediaMetaData);
+    }
 
+    public void publishMediaCreatedReady(MediaUpdateEvent.MediaEnriched event, MediaMetaData mediaMetaData) {
         String topic = event.searchable()
                 ? EventTopics.MEDIA_FILE_SEARCH_AND_BACKUP_TOPIC
                 : EventTopics.MEDIA_FILE_TOPIC; // not searchable - no thumbnail - no backup to save the thumbnail
@@ -88,12 +111,47 @@ public class MediaObjectService {
         ));
     }
 
+    // scrub previews are optional, a failure here must not fail the enrichment
+    private void generateSpriteSheet(String userId, long mediaId, MediaMetaData mediaMetaData, double durationSeconds) {
+        try {
+            withPermit(thumbnailPermits, () -> {
+                thumbnailService.generateSpriteSheetFromVideo(
+                        mediaMetaData.getBucket(),
+                        mediaMetaData.getKey(),
+                        ContentMetaData.spriteObjectOf(userId, mediaId),
+                        ContentMetaData.spriteIndexObjectOf(userId, mediaId),
+                        durationSeconds,
+                        mediaMetaData.getWidth(),
+                        mediaMetaData.getHeight()
+                );
+                return null;
+            });
+        } catch (Exception e) {
+            System.err.println("Failed to generate sprite sheet for media " + mediaId + ": " + e.getMessage());
+        }
+    }
+
+    private static <T> T withPermit(Semaphore permits, Callable<T> task) throws Exception {
+        permits.acquire();
+        try {
+            return task.call();
+        } finally {
+            permits.release();
+        }
+    }
+
     public void handleDeleteObject(MediaUpdateEvent.ObjectDeleted event) {
         List<DeleteObject> objects = event.objectNames().stream().map(DeleteObject::new).toList();
         if (event.bucket() == null) {
             System.err.println("Bucket is null, skipping delete objects");
             return;
         }
+        if (ContentMetaData.THUMBNAIL_BUCKET.equals(event.bucket())) {
+            objects = new ArrayList<>(objects);
+            for (String objectName : event.objectNames())
+                for (String spriteObject : ContentMetaData.spriteObjectsOfThumbnail(objectName))
+                    objects.add(new DeleteObject(spriteObject));
+        }
         minIOService.removeBulk(event.bucket(), objects);
     }
 
@@ -117,12 +175,12 @@ public class MediaObjectService {
         } else if (event.num() != null && event.mediaType() == MediaType.ALBUM) {
             MediaType thumbnailType = MediaType.detectMediaType(event.thumbnailObject());
             if (thumbnailType == MediaType.IMAGE) {
-                ImageMetadata imageMetadata = mediaProbe.parseMediaMetadata(mediaProbe.probeMediaInfo(mediaMetaData.getBucket(), event.thumbnailObject()), ImageMetadata.class);
+                ImageMetadata imageMetadata = mediaProbe.probe(mediaMetaData.getBucket(), event.thumbnailObject(), ImageMetadata.class);
                 mediaMetaData.setWidth(imageMetadata.width());
                 mediaMetaData.setHeight(imageMetadata.height());
                 mediaMetaData.setFormat(imageMetadata.format());
             } else if (thumbnailType == MediaType.VIDEO) {
-                VideoMetadata videoMetadata = mediaProbe.parseMediaMetadata(mediaProbe.probeMediaInfo(mediaMetaData.getBucket(), event.thumbnailObject()), VideoMetadata.class);
+                VideoMetadata videoMetadata = mediaProbe.probe(mediaMetaData.getBucket(), event.thumbnailObject(), VideoMetadata.class);
                 mediaMetaData.setWidth(videoMetadata.width());
                 mediaMetaData.setHeight(videoMetadata.height());
             }
@@ -155,6 +213,8 @@ public class MediaObjectService {
 
     public void handleDeleteThumbnail(MediaUpdateEvent.ThumbnailDeleted event) throws Exception {
         minIOService.removeFile(ContentMetaData.THUMBNAIL_BUCKET, event.objectName());
+        for (String spriteObject : ContentMetaData.spriteObjectsOfThumbnail(event.objectName()))
+            minIOService.removeFile(ContentMetaData.THUMBNAIL_BUCKET, spriteObject);
     }
 
 
@@ -54,6 +54,29 @@ public class MinIOService {
         );
     }
 
+    public record ObjectRange(byte[] bytes, long objectSize) {}
+
+    /**
+     * Reads up to length bytes from offset, along with the size of the whole object taken from Content-Range.
+     */
+    public ObjectRange getObjectRange(String bucket, String object, long offset, long length) throws Exception {
+        try (GetObjectResponse response = minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(object)
+                        .offset(offset)
+                        .length(length)
+                        .build()
+        )) {
+            byte[] bytes = response.readAllBytes();
+            String contentRange = response.headers().get("Content-Range");
+            long objectSize = contentRange == null
+                    ? offset + bytes.length
+                    : Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1));
+            return new ObjectRange(bytes, objectSize);
+        }
+    }
+
     public boolean objectExists(String bucket, String key) {
         try {
             minioClient.statObject(
@@ -117,6 +140,17 @@ public class MinIOService {
         );
     }
 
+    public void moveFileToObject(String bucket, String object, String filePath, String contentType) throws Exception {
+        minioClient.uploadObject(
+                UploadObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(object)
+                        .filename(filePath)
+                        .contentType(contentType)
+                        .build()
+        );
+    }
+
     public void copyObjectToAnotherBucket(String sourceBucket, String sourceObject,
                                           String destinationBucket, String destinationObject) throws Exception {
         CopySource source = CopySource.builder()
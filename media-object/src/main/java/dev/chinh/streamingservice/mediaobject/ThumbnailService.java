@@ -15,6 +15,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
 
 @Service
@@ -25,6 +26,10 @@ public class ThumbnailService {
 
     @Value("${thumbnail.disk}")
     private String diskDir;
+    @Value("${thumbnail.sprite.frames:100}")
+    private int spriteFrames;
+    @Value("${thumbnail.sprite.width:160}")
+    private int spriteTileWidth;
 
     @PostConstruct
     public void init() {
@@ -91,6 +96,96 @@ public class ThumbnailService {
         return thumbnailObject;
     }
 
+    /**
+     * One ffmpeg pass over the keyframes of the video that tiles evenly spaced frames into a single sprite image,
+     * plus a WebVTT index mapping each time range to its tile (#xywh=) for hover-scrub previews.
+     * Only keyframes are decoded, each tile shows the keyframe closest to the start of its range.
+     * Both objects go to the thumbnail bucket, the index refers to the sprite by file name.
+     */
+    public void generateSpriteSheetFromVideo(String bucket, String objectName, String spriteObject, String indexObject,
+                                             double videoLength, Integer width, Integer height) throws Exception {
+        if (videoLength <= 0)
+            return;
+        int frames = (int) Math.max(1, Math.min(spriteFrames, Math.floor(videoLength)));
+        int columns = (int) Math.ceil(Math.sqrt(frames));
+        int rows = (frames + columns - 1) / columns;
+        double interval = videoLength / frames;
+        int tileWidth = spriteTileWidth;
+        int tileHeight = width == null || height == null || width <= 0 || height <= 0
+                ? tileWidth * 9 / 16
+                : (int) Math.round((double) tileWidth * height / width);
+        tileHeight += tileHeight % 2;
+
+        String id = UUID.randomUUID().toString();
+        String tempDir = OSUtil.createDirInRAMDiskElseDisk(diskDir, "thumbnail");
+        String spriteOutput = OSUtil.normalizePath(tempDir, id + "_sprite.jpg");
+        String indexOutput = OSUtil.normalizePath(tempDir, id + "_sprite.vtt");
+
+        List<String> command = new ArrayList<>();
+        String ffmpegName = System.getenv("FFMPEG_NAME");
+        if (ffmpegName != null && !ffmpegName.isEmpty()) {
+            command.addAll(List.of("docker", "exec", ffmpegName));
+        }
+
+        command.addAll(List.of(
+                "ffmpeg",
+                "-v", "error",
+                "-skip_frame", "nokey",        // decode keyframes only
+                "-i", minIOService.getObjectUrlForContainer(bucket, objectName),
+                "-an",
+                "-vf", String.format(Locale.ROOT, "fps=%.6f,scale=%d:%d,tile=%dx%d", 1 / interval, tileWidth, tileHeight, columns, rows),
+                "-frames:v", "1",
+                "-q:v", "4",
+                "-f", "image2",
+                "-update", "1",
+                OSUtil.replaceHostRAMDiskWithContainer(spriteOutput)
+        ));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true); // merge STDOUT + STDERR
+
+        Process process = pb.start();
+
+        List<String> logs = getLogsFromInputStream(process.getInputStream());
+        Path spritePath = Path.of(spriteOutput);
+        Path indexPath = Path.of(indexOutput);
+
+        int exitCode = process.waitFor();
+        System.out.println("ffmpeg generate sprite sheet from video exited with code " + exitCode);
+        try {
+            if (exitCode != 0) {
+                logs.forEach(System.out::println);
+                throw new RuntimeException("Failed to generate sprite sheet from video");
+            }
+
+            String spriteFileName = spriteObject.substring(spriteObject.lastIndexOf("/") + 1);
+            StringBuilder vtt = new StringBuilder("WEBVTT\n");
+            for (int i = 0; i < frames; i++) {
+                vtt.append('\n')
+                        .append(formatVttTime(i * interval)).append(" --> ")
+                        .append(formatVttTime(Math.min((i + 1) * interval, videoLength))).append('\n')
+                        .append(spriteFileName).append("#xywh=")
+                        .append((i % columns) * tileWidth).append(',')
+                        .append((i / columns) * tileHeight).append(',')
+                        .append(tileWidth).append(',')
+                        .append(tileHeight).append('\n');
+            }
+            Files.writeString(indexPath, vtt.toString());
+
+            minIOService.moveFileToObject(ContentMetaData.THUMBNAIL_BUCKET, spriteObject, spriteOutput, "image/jpeg");
+            minIOService.moveFileToObject(ContentMetaData.THUMBNAIL_BUCKET, indexObject, indexOutput, "text/vtt");
+        } finally {
+            Files.deleteIfExists(spritePath);
+            Files.deleteIfExists(indexPath);
+        }
+    }
+
+    private static String formatVttTime(double seconds) {
+        long millis = Math.round(seconds * 1000);
+        return String.format(Locale.ROOT, "%02d:%02d:%02d.%03d",
+                millis / 3_600_000, millis / 60_000 % 60, millis / 1000 % 60, millis % 1000);
+    }
+
     private List<String> getLogsFromInputStream(InputStream inputStream) {
         List<String> logs = new ArrayList<>();
         try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
@@ -37,6 +37,9 @@ public class KafkaRedPandaConfig {
     @Value("${kafka.bootstrap-servers}")
     private String BOOTSTRAP_SERVERS;
 
+    @Value("${kafka.consumer.max-poll-records:100}")
+    private int maxPollRecords;
+
     public static final String MEDIA_GROUP_ID = "media-object-service";
 
 //    @Bean
@@ -75,6 +78,9 @@ public class KafkaRedPandaConfig {
         props.put(ConsumerConfig.GROUP_ID_CONFIG, MEDIA_GROUP_ID);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        // enrichment runs a whole poll in parallel, a batch of videos can take a few minutes
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, 900_000);
 
         // Use a custom mapper that handles "ClassNotFound" generally
         DefaultJackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper() {
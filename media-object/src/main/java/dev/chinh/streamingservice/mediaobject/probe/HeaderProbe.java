@@ -0,0 +1,466 @@
+package dev.chinh.streamingservice.mediaobject.probe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads dimensions, duration and frame rate straight from the container headers, with ranged reads instead of
+ * streaming the object through ffprobe: MP4/MOV moov boxes, Matroska/WebM EBML elements, JPEG SOF, PNG IHDR and
+ * WebP VP8X/VP8/VP8L chunks.
+ * <p>
+ * Anything it doesn't fully understand - fragmented MP4, live WebM without a duration, a missing frame rate - gives
+ * null, and the caller asks ffprobe. Format names are the ones ffprobe reports for the same files.
+ */
+final class HeaderProbe {
+
+    static final int HEAD_BYTES = 64 * 1024;
+    private static final int MAX_MOOV_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_JPEG_SEGMENTS = 64;
+
+    static final String MP4_FORMAT = "mov,mp4,m4a,3gp,3g2,mj2";
+    static final String MATROSKA_FORMAT = "matroska,webm";
+    static final String JPEG_FORMAT = "image2";
+    static final String PNG_FORMAT = "png_pipe";
+    static final String WEBP_FORMAT = "webp_pipe";
+
+    @FunctionalInterface
+    interface RangeReader {
+        byte[] read(long offset, int length) throws Exception;
+    }
+
+    private record Box(int start, int end) {}
+    private record Element(long id, int start, int end) {}
+
+    private final byte[] head;
+    private final long size;
+    private final RangeReader reader;
+
+    /**
+     * @param head the first bytes of the object, up to HEAD_BYTES
+     * @param size size of the whole object
+     */
+    HeaderProbe(byte[] head, long size, RangeReader reader) {
+        this.head = head;
+        this.size = size;
+        this.reader = reader;
+    }
+
+    MediaMetadata probe() throws Exception {
+        if (startsWith(0, 0xFF, 0xD8, 0xFF))
+            return probeJpeg();
+        if (startsWith(0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A))
+            return probePng();
+        if (startsWith(0, 'R', 'I', 'F', 'F') && startsWith(8, 'W', 'E', 'B', 'P'))
+            return probeWebp();
+        if (startsWith(0, 0x1A, 0x45, 0xDF, 0xA3))
+            return probeMatroska();
+        if (head.length >= 8 && isTopLevelBox(fourcc(head, 4)))
+            return probeMp4();
+        return null;
+    }
+
+    // ---------- MP4 / MOV ----------
+
+    private static boolean isTopLevelBox(String type) {
+        return switch (type) {
+            case "ftyp", "moov", "mdat", "free", "skip", "wide" -> true;
+            default -> false;
+        };
+    }
+
+    private VideoMetadata probeMp4() throws Exception {
+        // only box headers are read until moov, it comes after mdat when the file isn't fast start
+        long offset = 0;
+        while (offset + 8 <= size) {
+            byte[] header = read(offset, 16);
+            if (header.length < 8)
+                return null;
+            long boxSize = u32(header, 0);
+            int headerSize = 8;
+            if (boxSize == 1) {
+                if (header.length < 16)
+                    return null;
+                boxSize = u64(header, 8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                boxSize = size - offset;
+            }
+            if (boxSize < headerSize)
+                return null;
+            if (fourcc(header, 4).equals("moov")) {
+                if (boxSize > MAX_MOOV_BYTES)
+                    return null;
+                byte[] moov = read(offset, (int) boxSize);
+                if (moov.length < boxSize)
+                    return null;
+                return parseMoov(moov, headerSize);
+            }
+            offset += boxSize;
+        }
+        return null;
+    }
+
+    private VideoMetadata parseMoov(byte[] moov, int start) {
+        Box mvhd = child(moov, start, moov.length, "mvhd");
+        if (mvhd == null)
+            return null;
+        double duration = mediaDuration(moov, mvhd);
+        if (duration <= 0)
+            return null;
+
+        for (Box trak : children(moov, start, moov.length, "trak")) {
+            Box mdia = child(moov, trak.start(), trak.end(), "mdia");
+            Box hdlr = mdia == null ? null : child(moov, mdia.start(), mdia.end(), "hdlr");
+            if (hdlr == null || hdlr.start() + 12 > hdlr.end() || !fourcc(moov, hdlr.start() + 8).equals("vide"))
+                continue;
+
+            Box mdhd = child(moov, mdia.start(), mdia.end(), "mdhd");
+            Box minf = child(moov, mdia.start(), mdia.end(), "minf");
+            Box stbl = minf == null ? null : child(moov, minf.start(), minf.end(), "stbl");
+            if (mdhd == null || stbl == null)
+                return null;
+            Box stsd = child(moov, stbl.start(), stbl.end(), "stsd");
+            Box stsz = child(moov, stbl.start(), stbl.end(), "stsz");
+            if (stsz == null)
+                stsz = child(moov, stbl.start(), stbl.end(), "stz2");
+            if (stsd == null || stsz == null)
+                return null;
+
+            // first visual sample entry: 8 byte header, 6 reserved, data reference index, 16 bytes predefined
+            int entry = stsd.start() + 8;
+            if (entry + 36 > stsd.end())
+                return null;
+            int width = u16(moov, entry + 32);
+            int height = u16(moov, entry + 34);
+
+            // sample count over the track duration - ffprobe's avg_frame_rate
+            if (stsz.start() + 12 > stsz.end())
+                return null;
+            long frames = u32(moov, stsz.start() + 8);
+            double trackDuration = mediaDuration(moov, mdhd);
+            if (width == 0 || height == 0 || frames == 0 || trackDuration <= 0)
+                return null;
+            short frameRate = (short) Math.min(Short.MAX_VALUE, Math.round(frames / trackDuration));
+            return new VideoMetadata(frameRate, MP4_FORMAT, size, width, height, duration);
+        }
+        return null;
+    }
+
+    // mvhd and mdhd share the layout up to the duration
+    private static double mediaDuration(byte[] b, Box box) {
+        int p = box.start();
+        if (p + 4 > box.end())
+            return 0;
+        long timescale;
+        long duration;
+        if (b[p] == 1) {
+            if (p + 32 > box.end())
+                return 0;
+            timescale = u32(b, p + 20);
+            duration = u64(b, p + 24);
+        } else {
+            if (p + 20 > box.end())
+                return 0;
+            timescale = u32(b, p + 12);
+            duration = u32(b, p + 16);
+        }
+        return timescale == 0 ? 0 : (double) duration / timescale;
+    }
+
+    private static Box child(byte[] b, int from, int to, String type) {
+        List<Box> found = boxes(b, from, to, type, true);
+        return found.isEmpty() ? null : found.getFirst();
+    }
+
+    private static List<Box> children(byte[] b, int from, int to, String type) {
+        return boxes(b, from, to, type, false);
+    }
+
+    private static List<Box> boxes(byte[] b, int from, int to, String type, boolean firstOnly) {
+        List<Box> found = new ArrayList<>();
+        int p = from;
+        while (p + 8 <= to) {
+            long boxSize = u32(b, p);
+            int headerSize = 8;
+            if (boxSize == 1) {
+                if (p + 16 > to)
+                    break;
+                boxSize = u64(b, p + 8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                boxSize = to - p;
+            }
+            if (boxSize < headerSize || p + boxSize > to)
+                break;
+            if (fourcc(b, p + 4).equals(type)) {
+                found.add(new Box(p + headerSize, (int) (p + boxSize)));
+                if (firstOnly)
+                    break;
+            }
+            p += (int) boxSize;
+        }
+        return found;
+    }
+
+    // ---------- Matroska / WebM ----------
+
+    private static final long EBML_HEADER = 0x1A45DFA3L;
+    private static final long SEGMENT = 0x18538067L;
+    private static final long INFO = 0x1549A966L;
+    private static final long TRACKS = 0x1654AE6BL;
+    private static final long CLUSTER = 0x1F43B675L;
+    private static final long TIMECODE_SCALE = 0x2AD7B1L;
+    private static final long DURATION = 0x4489L;
+    private static final long TRACK_ENTRY = 0xAEL;
+    private static final long TRACK_TYPE = 0x83L;
+    private static final long DEFAULT_DURATION = 0x23E383L;
+    private static final long VIDEO = 0xE0L;
+    private static final long PIXEL_WIDTH = 0xB0L;
+    private static final long PIXEL_HEIGHT = 0xBAL;
+    private static final long UNKNOWN_SIZE = -2;
+
+    private int vintLength;
+
+    private VideoMetadata probeMatroska() {
+        Element ebml = element(head, 0, head.length);
+        if (ebml == null || ebml.id() != EBML_HEADER)
+            return null;
+        Element segment = element(head, ebml.end(), head.length);
+        if (segment == null || segment.id() != SEGMENT)
+            return null;
+
+        // Info and Tracks come before the first cluster, within the head for every muxer we've seen
+        Element info = null;
+        Element tracks = null;
+        int p = segment.start();
+        while (p < head.length && (info == null || tracks == null)) {
+            Element e = element(head, p, head.length);
+            if (e == null || e.id() == CLUSTER)
+                break;
+            if (e.id() == INFO) info = e;
+            else if (e.id() == TRACKS) tracks = e;
+            p = e.end();
+        }
+        if (info == null || tracks == null)
+            return null;
+
+        long timecodeScale = 1_000_000;
+        double duration = 0;
+        for (p = info.start(); p < info.end(); ) {
+            Element e = element(head, p, info.end());
+            if (e == null)
+                return null;
+            if (e.id() == TIMECODE_SCALE) timecodeScale = uint(head, e);
+            else if (e.id() == DURATION) duration = ebmlFloat(head, e);
+            p = e.end();
+        }
+        if (duration <= 0)
+            return null; // live recordings leave it out
+
+        for (p = tracks.start(); p < tracks.end(); ) {
+            Element entry = element(head, p, tracks.end());
+            if (entry == null)
+                return null;
+            p = entry.end();
+            if (entry.id() != TRACK_ENTRY)
+                continue;
+
+            long trackType = 0;
+            long defaultDuration = 0;
+            int width = 0;
+            int height = 0;
+            for (int q = entry.start(); q < entry.end(); ) {
+                Element e = element(head, q, entry.end());
+                if (e == null)
+                    return null;
+                if (e.id() == TRACK_TYPE) trackType = uint(head, e);
+                else if (e.id() == DEFAULT_DURATION) defaultDuration = uint(head, e);
+                else if (e.id() == VIDEO) {
+                    for (int r = e.start(); r < e.end(); ) {
+                        Element v = element(head, r, e.end());
+                        if (v == null)
+                            return null;
+                        if (v.id() == PIXEL_WIDTH) width = (int) uint(head, v);
+                        else if (v.id() == PIXEL_HEIGHT) height = (int) uint(head, v);
+                        r = v.end();
+                    }
+                }
+                q = e.end();
+            }
+            if (trackType != 1)
+                continue;
+            if (width == 0 || height == 0 || defaultDuration == 0)
+                return null;
+            short frameRate = (short) Math.min(Short.MAX_VALUE, Math.round(1e9 / defaultDuration));
+            return new VideoMetadata(frameRate, MATROSKA_FORMAT, size, width, height, duration * timecodeScale / 1e9);
+        }
+        return null;
+    }
+
+    // element header at p, null when it doesn't fit before limit or has an unknown size
+    private Element element(byte[] b, int p, int limit) {
+        long id = vint(b, p, limit, true);
+        if (id < 0)
+            return null;
+        int dataSizeAt = p + vintLength;
+        long dataSize = vint(b, dataSizeAt, limit, false);
+        int start = dataSizeAt + vintLength;
+        // the segment is the one element allowed to run past what was read, or to have no size when streamed
+        if (id == SEGMENT && (dataSize == UNKNOWN_SIZE || start + dataSize > limit))
+            return new Element(id, start, limit);
+        if (dataSize < 0 || start + dataSize > limit)
+            return null;
+        return new Element(id, start, (int) (start + dataSize));
+    }
+
+    // ids keep their length marker, sizes don't
+    private long vint(byte[] b, int p, int limit, boolean id) {
+        if (p >= limit)
+            return -1;
+        int first = b[p] & 0xff;
+        if (first == 0)
+            return -1;
+        int length = Integer.numberOfLeadingZeros(first) - 23;
+        if (p + length > limit)
+            return -1;
+        long value = id ? first : first & (0xff >> length);
+        for (int i = 1; i < length; i++) {
+            value = (value << 8) | (b[p + i] & 0xff);
+        }
+        vintLength = length;
+        if (!id && value == (1L << (7 * length)) - 1)
+            return UNKNOWN_SIZE;
+        return value;
+    }
+
+    private static long uint(byte[] b, Element e) {
+        long value = 0;
+        for (int i = e.start(); i < e.end(); i++) {
+            value = (value << 8) | (b[i] & 0xff);
+        }
+        return value;
+    }
+
+    private static double ebmlFloat(byte[] b, Element e) {
+        long bits = uint(b, e);
+        return switch (e.end() - e.start()) {
+            case 4 -> Float.intBitsToFloat((int) bits);
+            case 8 -> Double.longBitsToDouble(bits);
+            default -> 0;
+        };
+    }
+
+    // ---------- Images ----------
+
+    private ImageMetadata probeJpeg() throws Exception {
+        // segments are walked by their lengths, an EXIF block can push the frame header past the head
+        long p = 2;
+        for (int i = 0; i < MAX_JPEG_SEGMENTS && p + 4 <= size; i++) {
+            byte[] m = read(p, 9);
+            if (m.length < 4 || (m[0] & 0xff) != 0xFF)
+                return null;
+            int marker = m[1] & 0xff;
+            if (marker == 0xFF) {
+                p++; // fill byte
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                p += 2;
+                continue;
+            }
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                if (m.length < 9)
+                    return null;
+                return new ImageMetadata(u16(m, 7), u16(m, 5), size, JPEG_FORMAT);
+            }
+            if (marker == 0xDA || marker == 0xD9)
+                return null; // scan data before any frame header
+            p += 2 + u16(m, 2);
+        }
+        return null;
+    }
+
+    private ImageMetadata probePng() {
+        if (head.length < 24 || !fourcc(head, 12).equals("IHDR"))
+            return null;
+        return new ImageMetadata((int) u32(head, 16), (int) u32(head, 20), size, PNG_FORMAT);
+    }
+
+    private ImageMetadata probeWebp() {
+        if (head.length < 30)
+            return null;
+        int width;
+        int height;
+        switch (fourcc(head, 12)) {
+            case "VP8X" -> {
+                width = u24le(head, 24) + 1;
+                height = u24le(head, 27) + 1;
+            }
+            case "VP8 " -> {
+                if (!startsWith(23, 0x9D, 0x01, 0x2A))
+                    return null;
+                width = u16le(head, 26) & 0x3FFF;
+                height = u16le(head, 28) & 0x3FFF;
+            }
+            case "VP8L" -> {
+                if ((head[20] & 0xff) != 0x2F)
+                    return null;
+                long bits = (head[21] & 0xffL) | (head[22] & 0xffL) << 8 | (head[23] & 0xffL) << 16 | (head[24] & 0xffL) << 24;
+                width = (int) (bits & 0x3FFF) + 1;
+                height = (int) ((bits >> 14) & 0x3FFF) + 1;
+            }
+            default -> {
+                return null;
+            }
+        }
+        return new ImageMetadata(width, height, size, WEBP_FORMAT);
+    }
+
+    // ---------- Bytes ----------
+
+    // served from the head when it covers the range, a ranged read otherwise
+    private byte[] read(long offset, int length) throws Exception {
+        long end = Math.min(size, offset + length);
+        if (end <= offset)
+            return new byte[0];
+        if (end <= head.length)
+            return Arrays.copyOfRange(head, (int) offset, (int) end);
+        return reader.read(offset, (int) (end - offset));
+    }
+
+    private boolean startsWith(int offset, int... bytes) {
+        if (head.length < offset + bytes.length)
+            return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if ((head[offset + i] & 0xff) != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static String fourcc(byte[] b, int p) {
+        return new String(b, p, 4, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int u16(byte[] b, int p) {
+        return (b[p] & 0xff) << 8 | (b[p + 1] & 0xff);
+    }
+
+    private static long u32(byte[] b, int p) {
+        return (b[p] & 0xffL) << 24 | (b[p + 1] & 0xffL) << 16 | (b[p + 2] & 0xffL) << 8 | (b[p + 3] & 0xffL);
+    }
+
+    private static long u64(byte[] b, int p) {
+        return u32(b, p) << 32 | u32(b, p + 4);
+    }
+
+    private static int u16le(byte[] b, int p) {
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8;
+    }
+
+    private static int u24le(byte[] b, int p) {
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16;
+    }
+}
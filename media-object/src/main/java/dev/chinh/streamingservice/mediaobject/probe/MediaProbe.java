@@ -17,6 +17,27 @@ public class MediaProbe {
     private final MinIOService minIOService;
     private final ObjectMapper objectMapper;
 
+    /**
+     * Metadata from the container headers, read with a few ranged GETs. ffprobe is only started when the headers
+     * can't be parsed or don't describe the requested kind of media.
+     */
+    public <T extends MediaMetadata> T probe(String bucket, String object, Class<T> targetClass) throws Exception {
+        MediaMetadata metadata = null;
+        try {
+            MinIOService.ObjectRange head = minIOService.getObjectRange(bucket, object, 0, HeaderProbe.HEAD_BYTES);
+            metadata = new HeaderProbe(head.bytes(), head.objectSize(),
+                    (offset, length) -> minIOService.getObjectRange(bucket, object, offset, length).bytes()
+            ).probe();
+        } catch (Exception e) {
+            System.err.println("Header probe failed for " + bucket + "/" + object + ": " + e.getMessage());
+        }
+        if (targetClass.isInstance(metadata))
+            return targetClass.cast(metadata);
+
+        System.out.println("Falling back to ffprobe for " + bucket + "/" + object);
+        return parseMediaMetadata(probeMediaInfo(bucket, object), targetClass);
+    }
+
     public JsonNode probeMediaInfo(String bucket, String object) throws Exception {
         List<String> command = new ArrayList<>();
         String ffmpegName = System.getenv("FFMPEG_NAME");
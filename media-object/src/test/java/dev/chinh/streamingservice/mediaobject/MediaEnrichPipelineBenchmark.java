@@ -0,0 +1,154 @@
+package dev.chinh.streamingservice.mediaobject;
+
+import dev.chinh.streamingservice.common.constant.MediaType;
+import dev.chinh.streamingservice.common.event.MediaUpdateEvent;
+import dev.chinh.streamingservice.mediaobject.probe.MediaMetadata;
+import dev.chinh.streamingservice.mediaobject.probe.MediaProbe;
+import dev.chinh.streamingservice.mediaobject.probe.VideoMetadata;
+import dev.chinh.streamingservice.mediapersistence.entity.MediaMetaData;
+import dev.chinh.streamingservice.mediapersistence.repository.MediaMetaDataRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives MediaEnrichPipeline without MinIO, ffmpeg or a database: the probe and thumbnail steps only sleep for the
+ * time they take, the repository hands out fresh rows and the transaction does nothing.
+ * <p>
+ * Run with {@code mvn -pl media-object test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=dev.chinh.streamingservice.mediaobject.MediaEnrichPipelineBenchmark
+ * -Dexec.args="events batch probeMillis thumbnailMillis"}.
+ */
+public class MediaEnrichPipelineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int batch = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long probeMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        long thumbnailMillis = args.length > 3 ? Long.parseLong(args[3]) : 50;
+
+        AtomicLong published = new AtomicLong();
+        MediaMetaDataRepository repository = repository();
+        MediaObjectService mediaObjectService = new MediaObjectService(null, new StubProbe(probeMillis),
+                new StubThumbnailService(thumbnailMillis), repository, null, _ -> published.incrementAndGet());
+        setField(mediaObjectService, "probeConcurrency", 32);
+        setField(mediaObjectService, "thumbnailConcurrency", 0);
+        mediaObjectService.init();
+        MediaEnrichPipeline pipeline = new MediaEnrichPipeline(mediaObjectService, repository, new TransactionTemplate(new NoOpTransactionManager()));
+
+        List<MediaUpdateEvent.MediaEnriched> all = new ArrayList<>(events);
+        for (int i = 0; i < events; i++)
+            all.add(new MediaUpdateEvent.MediaEnriched("1", "file-" + i, i, MediaType.VIDEO, "thumbnail-" + i, true, 0, 0));
+
+        try {
+            run(pipeline, all.subList(0, Math.min(batch, events)), batch); // warm up
+            published.set(0);
+            long start = System.nanoTime();
+            run(pipeline, all, batch);
+            long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            System.out.printf("%d events in batches of %d, probe %d ms, thumbnail %d ms: %d ms, %d events/s, %d published%n",
+                    events, batch, probeMillis, thumbnailMillis, elapsedMillis, events * 1000L / elapsedMillis, published.get());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    private static void run(MediaEnrichPipeline pipeline, List<MediaUpdateEvent.MediaEnriched> events, int batch) throws InterruptedException {
+        for (int from = 0; from < events.size(); from += batch) {
+            MediaEnrichPipeline.Result result = pipeline.enrich(events.subList(from, Math.min(from + batch, events.size())));
+            if (result.failure() != null)
+                throw new IllegalStateException(result.failure());
+        }
+    }
+
+    private static MediaMetaDataRepository repository() {
+        return (MediaMetaDataRepository) Proxy.newProxyInstance(MediaMetaDataRepository.class.getClassLoader(),
+                new Class<?>[]{MediaMetaDataRepository.class}, (_, method, methodArgs) -> {
+                    if (!method.getName().equals("findAllById"))
+                        throw new UnsupportedOperationException(method.getName());
+                    List<MediaMetaData> rows = new ArrayList<>();
+                    for (Object id : (Iterable<?>) methodArgs[0]) {
+                        MediaMetaData row = new MediaMetaData();
+                        row.setId((Long) id);
+                        row.setUserId(1L);
+                        row.setBucket("media");
+                        row.setKey("1/video-" + id + ".mp4");
+                        rows.add(row);
+                    }
+                    return rows;
+                });
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class StubProbe extends MediaProbe {
+        private final long millis;
+
+        StubProbe(long millis) {
+            super(null, null);
+            this.millis = millis;
+        }
+
+        @Override
+        public <T extends MediaMetadata> T probe(String bucket, String object, Class<T> targetClass) {
+            sleep(millis);
+            return targetClass.cast(new VideoMetadata((short) 30, "mp4", 1L << 30, 1920, 1080, 600));
+        }
+    }
+
+    private static class StubThumbnailService extends ThumbnailService {
+        private final long millis;
+
+        StubThumbnailService(long millis) {
+            super(null);
+            this.millis = millis;
+        }
+
+        @Override
+        public String generateThumbnailFromVideo(String bucket, String objectName, String thumbnailObject, double videoLength, Double timeInSeconds) {
+            sleep(millis);
+            return thumbnailObject;
+        }
+
+        @Override
+        public void generateSpriteSheetFromVideo(String bucket, String objectName, String spriteObject, String indexObject,
+                                                 double durationSeconds, Integer width, Integer height) {
+            sleep(millis);
+        }
+    }
+
+    private static class NoOpTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -54,6 +54,13 @@ public interface MediaMetaDataRepository extends JpaRepository<MediaMetaData, Lo
     """)
     String getMediaTitle(@Param("userId") long userId, @Param("id") long id);
 
+    @Query("""
+        SELECT m.userId
+        FROM MediaMetaData m
+        WHERE m.id = :id
+    """)
+    Long getUserIdById(@Param("id") long id);
+
     @Modifying
     @Transactional
     @Query("""
@@ -39,7 +39,8 @@ public class OpenSearchService {
                                                 List<SearchFieldGroup> includeGroups,
                                                 List<SearchFieldGroup> excludeGroups,
                                                 List<MediaSearchRangeField> mediaSearchRanges,
-                                                int page, int size, SortBy sortBy, SortOrder sortOrder) throws IOException {
+                                                int page, int size, List<FieldValue> searchAfter,
+                                                SortBy sortBy, SortOrder sortOrder) throws IOException {
         BoolQuery.Builder rootBool = new BoolQuery.Builder();
 
         rootBool.filter(buildTermOrMatch(ContentMetaData.USER_ID, FieldValue.of(userId), true));
@@ -92,7 +93,7 @@ public class OpenSearchService {
 
         Query rootQuery = Query.of(q -> q.bool(rootBool.build()));
 
-        return searchWithQuery(index, rootQuery, page, size, sortBy, sortOrder, true);
+        return searchWithQuery(index, rootQuery, page, size, searchAfter, sortBy, sortOrder, true);
     }
 
     private Query buildTermOrMatch(String field, FieldValue value, boolean isTermQuery) {
@@ -116,8 +117,8 @@ public class OpenSearchService {
         return leafQuery;
     }
 
-    public SearchResponse<Object> search(long userId, String index, Object text, int page, int size, SortBy sortBy,
-                                    SortOrder sortOrder) throws IOException {
+    public SearchResponse<Object> search(long userId, String index, Object text, int page, int size, List<FieldValue> searchAfter,
+                                         SortBy sortBy, SortOrder sortOrder) throws IOException {
         Query multiMatchNested = Query.of(q -> q
                 .bool(b -> b
                         .minimumShouldMatch("1") // Forces at least one of the 'should' clauses to match else all is fetched
@@ -193,14 +194,14 @@ public class OpenSearchService {
                         )
                 )
         );
-        return searchWithQuery(index, multiMatchNested, page, size, sortBy, sortOrder, true);
+        return searchWithQuery(index, multiMatchNested, page, size, searchAfter, sortBy, sortOrder, true);
     }
 
     /**
      * Search exactly with given search strings by field.
      */
     public SearchResponse<Object> searchTermByOneField(long userId, String index, String field, List<Object> text, boolean matchAll, int page, int size,
-                                               SortBy sortBy, SortOrder sortOrder) throws IOException {
+                                               List<FieldValue> searchAfter, SortBy sortBy, SortOrder sortOrder) throws IOException {
         BoolQuery.Builder termBoolBuilder = new BoolQuery.Builder();
         termBoolBuilder.filter(buildTermOrMatch(ContentMetaData.USER_ID, FieldValue.of(userId), true));
         if (matchAll) {
@@ -214,10 +215,11 @@ public class OpenSearchService {
             termBoolBuilder.minimumShouldMatch("1");
         }
         Query termBoolQuery = Query.of(q -> q.bool(termBoolBuilder.build()));
-        return searchWithQuery(index, termBoolQuery, page, size, sortBy, sortOrder, true);
+        return searchWithQuery(index, termBoolQuery, page, size, searchAfter, sortBy, sortOrder, true);
     }
 
-    public SearchResponse<Object> searchMatchAll(String index, long userId, int page, int size, SortBy sortBy, SortOrder sortOrder) throws IOException {
+    public SearchResponse<Object> searchMatchAll(String index, long userId, int page, int size, List<FieldValue> searchAfter,
+                                                 SortBy sortBy, SortOrder sortOrder) throws IOException {
         Query matchAll = Query.of(q -> q
                 .bool(b -> b
                         .filter(buildTermOrMatch(ContentMetaData.USER_ID, FieldValue.of(userId), true))
@@ -226,11 +228,16 @@ public class OpenSearchService {
                         ))
                 )
         );
-        return searchWithQuery(index, matchAll, page, size, sortBy, sortOrder, false);
+        return searchWithQuery(index, matchAll, page, size, searchAfter, sortBy, sortOrder, false);
     }
 
-    private SearchResponse<Object> searchWithQuery(String index, Query query, int page, int size, SortBy sortBy,
-                                                   SortOrder sortOrder, boolean useScoreTieBreaker) throws IOException {
+    /**
+     * With searchAfter, the sort values of the previous page's last hit, the page starts right after that hit instead
+     * of at page * size - every shard then only collects size hits, however deep the page is. The id sort comes last
+     * so the sort values are unique and no hit is skipped or repeated between pages.
+     */
+    private SearchResponse<Object> searchWithQuery(String index, Query query, int page, int size, List<FieldValue> searchAfter,
+                                                   SortBy sortBy, SortOrder sortOrder, boolean useScoreTieBreaker) throws IOException {
 
         String sortByField = switch (sortBy) {
             case SortBy.UPLOAD_DATE -> ContentMetaData.UPLOAD_DATE;
@@ -253,16 +260,22 @@ public class OpenSearchService {
 
         SortOptions scoreTieBreaker = SortOptions.of(o -> o.score(s -> s.order(sortOrder)));
 
-        SortOptions sortTieBreaker = useScoreTieBreaker ? scoreTieBreaker : standardTieBreaker;
+        List<SortOptions> sorts = useScoreTieBreaker
+                ? List.of(primarySort, scoreTieBreaker, standardTieBreaker)
+                : List.of(primarySort, standardTieBreaker);
 
-        SearchResponse<Object> response = client.search(s -> s
-                .index(index)
-                .from(page * size)
-                .size(size)
-                .query(query)
-                .sort(primarySort, sortTieBreaker)
-                .trackTotalHits(t -> t.count(1000)), Object.class
-        );
+        SearchResponse<Object> response = client.search(s -> {
+            s.index(index)
+                    .size(size)
+                    .query(query)
+                    .sort(sorts)
+                    .trackTotalHits(t -> t.count(1000));
+            if (searchAfter != null)
+                s.searchAfter(searchAfter);
+            else
+                s.from(page * size);
+            return s;
+        }, Object.class);
 
 //        response.hits().hits().forEach(h -> {
 //            String source = h.source().toString();
@@ -0,0 +1,69 @@
+package dev.chinh.streamingservice.searchclient.data;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque search_after token: the sort values of the last hit of a page, as url safe base64 json.
+ */
+public final class SearchCursor {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private SearchCursor() {}
+
+    /**
+     * @return the cursor for the page after this one, null if this was the last page
+     */
+    public static String next(SearchResponse<?> response, int size) {
+        List<? extends Hit<?>> hits = response.hits().hits();
+        if (hits.size() < size || hits.isEmpty())
+            return null;
+        return encode(hits.getLast().sort());
+    }
+
+    public static String encode(List<FieldValue> sortValues) {
+        if (sortValues == null || sortValues.isEmpty())
+            return null;
+        try {
+            List<Object> values = new ArrayList<>(sortValues.size());
+            for (FieldValue value : sortValues) {
+                values.add(value.isNull() ? null : value._get());
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(values));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to encode cursor", e);
+        }
+    }
+
+    public static List<FieldValue> decode(String cursor) {
+        if (cursor == null || cursor.isBlank())
+            return null;
+        List<Object> values;
+        try {
+            values = mapper.readValue(Base64.getUrlDecoder().decode(cursor), new TypeReference<>() {});
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        List<FieldValue> sortValues = new ArrayList<>(values.size());
+        for (Object value : values) {
+            sortValues.add(switch (value) {
+                case null -> FieldValue.NULL;
+                case Integer i -> FieldValue.of(i.longValue());
+                case Long l -> FieldValue.of(l);
+                case Number n -> FieldValue.of(n.doubleValue());
+                case Boolean b -> FieldValue.of(b);
+                case String s -> FieldValue.of(s);
+                default -> throw new IllegalArgumentException("Invalid cursor");
+            });
+        }
+        return sortValues;
+    }
+}
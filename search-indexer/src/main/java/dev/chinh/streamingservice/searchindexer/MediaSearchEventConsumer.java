@@ -35,6 +35,7 @@ public class MediaSearchEventConsumer {
     private final MediaTagRepository mediaTagRepository;
     private final OpenSearchService openSearchService;
     private final MediaMapper mediaMapper;
+    private final SearchGenerationService searchGenerationService;
 
     private void onCreateMediaIndexSearch(MediaUpdateEvent.MediaCreatedReady event) {
         System.out.println("Received new index event: " + event.mediaId());
@@ -208,6 +209,27 @@ public class MediaSearchEventConsumer {
     }
 
 
+    // owner of the media documents the event changed, null when it changed none
+    private String getAffectedUserId(MediaUpdateEvent event) {
+        return switch (event) {
+            case MediaUpdateEvent.MediaCreatedReady e -> e.userId();
+            case MediaUpdateEvent.FileDeleted e -> e.userId();
+            case MediaUpdateEvent.MediaNameEntityUpdated e -> e.userId();
+            case MediaUpdateEvent.MediaTitleUpdated e -> e.userId();
+            case MediaUpdateEvent.MediaPreviewUpdated e -> e.userId();
+            case MediaUpdateEvent.NameEntityUpdated e -> e.userId();
+            case MediaUpdateEvent.MediaThumbnailUpdatedReady e -> getMediaOwner(e.mediaId());
+            case MediaUpdateEvent.LengthUpdated e -> getMediaOwner(e.mediaId());
+            default -> null;
+        };
+    }
+
+    private String getMediaOwner(long mediaId) {
+        Long userId = mediaMetaDataRepository.getUserIdById(mediaId);
+        return userId == null ? null : userId.toString();
+    }
+
+
     @KafkaListener(topics = {
             EventTopics.MEDIA_SEARCH_TOPIC,
             EventTopics.MEDIA_SEARCH_AND_BACKUP_TOPIC,
@@ -234,6 +256,7 @@ public class MediaSearchEventConsumer {
                     // unknown event type → log and skip
                         System.err.println("Unknown MediaUpdateEvent type: " + event.getClass());
             }
+            searchGenerationService.bump(getAffectedUserId(event));
             ack.acknowledge();
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -0,0 +1,50 @@
+package dev.chinh.streamingservice.searchindexer;
+
+import dev.chinh.streamingservice.common.constant.SearchCacheKeys;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per user index generation, the backend keys cached search result pages by it. Bumping it on a write makes every
+ * page cached so far unreachable.
+ * <p>
+ * Writes only become searchable after the index refresh, so a page can still be cached from the old state right after
+ * the first bump - the second bump once the refresh has run drops those as well.
+ */
+@Service
+public class SearchGenerationService {
+
+    private final StringRedisTemplate redisTemplate;
+    private final Executor afterRefresh;
+
+    public SearchGenerationService(StringRedisTemplate redisTemplate,
+                                   @Value("${search.cache.refresh-delay-ms:1500}") long refreshDelayMs) {
+        this.redisTemplate = redisTemplate;
+        this.afterRefresh = CompletableFuture.delayedExecutor(refreshDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void bump(String userId) {
+        if (userId == null)
+            return;
+        increment(userId);
+        afterRefresh.execute(() -> increment(userId));
+    }
+
+    private void increment(String userId) {
+        try {
+            String key = SearchCacheKeys.generation(userId);
+            redisTemplate.opsForValue().increment(key);
+            // idle users don't keep their counter around, a missing one reads as generation 0 and starts over
+            redisTemplate.expire(key, Duration.ofDays(1));
+        } catch (Exception e) {
+            // the cached pages still expire on their own
+            System.err.println("Failed to bump search generation for user " + userId + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package dev.chinh.streamingservice.workers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.chinh.streamingservice.workers.service.JobScheduler;
 import dev.chinh.streamingservice.workers.service.WorkerRedisService;
 import dev.chinh.streamingservice.common.data.MediaJobDescription;
 import dev.chinh.streamingservice.workers.service.AlbumService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+
 @Service
 @Scope("prototype")
 public class AlbumWorker extends Worker {
@@ -16,14 +20,17 @@ public class AlbumWorker extends Worker {
 
     public static final String STREAM = "ffmpeg_album_stream";
     public static final String GROUP = "album_workers";
-    public static final String TOKEN_KEY = "ffmpeg_album_tokens";
     public static final String DLQ_STREAM = "ffmpeg_album_dlq";
 
+    @Value("${worker.reclaim.album-min-idle:30s}")
+    private Duration reclaimMinIdle;
+
     public AlbumWorker(WorkerRedisService workerRedisService,
                        RedisTemplate<String, String> queueRedisTemplate,
                        ObjectMapper objectMapper,
+                       JobScheduler jobScheduler,
                        AlbumService albumService) {
-        super(workerRedisService, queueRedisTemplate, objectMapper);
+        super(workerRedisService, queueRedisTemplate, objectMapper, jobScheduler);
         this.albumService = albumService;
     }
 
@@ -38,17 +45,22 @@ public class AlbumWorker extends Worker {
     }
 
     @Override
-    protected String tokenKey() {
-        return TOKEN_KEY;
+    protected String streamKeyDLQ() {
+        return DLQ_STREAM;
     }
 
     @Override
-    protected String streamKeyDLQ() {
-        return DLQ_STREAM;
+    protected Duration reclaimMinIdle() {
+        return reclaimMinIdle;
+    }
+
+    @Override
+    public void performJob(String ticket, MediaJobDescription description) {
+        albumService.handleJob(ticket, description);
     }
 
     @Override
-    public void performJob(MediaJobDescription description) {
-        albumService.handleJob(TOKEN_KEY, description);
+    protected boolean needsAdmission(MediaJobDescription mediaJobDescription) {
+        return albumService.needsAdmission(mediaJobDescription);
     }
 }
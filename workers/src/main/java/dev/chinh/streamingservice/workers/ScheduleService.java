@@ -1,19 +1,17 @@
 package dev.chinh.streamingservice.workers;
 
-import dev.chinh.streamingservice.common.OSUtil;
 import dev.chinh.streamingservice.common.constant.MediaJobStatus;
+import dev.chinh.streamingservice.workers.service.MemoryManager;
 import dev.chinh.streamingservice.workers.service.ThumbnailService;
 import dev.chinh.streamingservice.workers.service.VideoService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
 import java.util.Set;
 
 @Service
@@ -23,6 +21,7 @@ public class ScheduleService {
 
     private final VideoService videoService;
     private final ThumbnailService thumbnailService;
+    private final MemoryManager memoryManager;
 
     @Value("${ffmpeg-name}")
     private String ffmpegName;
@@ -33,7 +32,7 @@ public class ScheduleService {
     public void scheduled() {
         stopNonViewingVideoRunningJob();
         try {
-            OSUtil.refreshUsableMemory(ffmpegName);
+            memoryManager.refresh(ffmpegName);
         } catch (Exception e) {
             System.out.println("Failed to refresh memory usage");
         }
@@ -89,24 +88,6 @@ public class ScheduleService {
     }
 
     private void cleanThumbnails() {
-        Set<ZSetOperations.TypedTuple<String>> lastAccessThumbnails = thumbnailService.getAllThumbnailCacheLastAccess(System.currentTimeMillis());
-        for (ZSetOperations.TypedTuple<String> thumbnail : lastAccessThumbnails) {
-            long lastAccess = thumbnail.getScore() == null ? 0 : thumbnail.getScore().longValue();
-            long millisPassed = (System.currentTimeMillis() - lastAccess);
-            if (millisPassed < 60_000) {
-                break;
-            }
-
-            String thumbnailFileName = thumbnail.getValue();
-
-            System.out.println("Removing: " + thumbnailFileName);
-            String path = ThumbnailService.getThumbnailParentPath() + "/" + thumbnailFileName;
-            try {
-                OSUtil.deleteForceMemoryDirectory(path, ffmpegName);
-            } catch (IOException e) {
-                System.err.println("Failed to delete memory path: " + path);
-            }
-            thumbnailService.removeThumbnailLastAccess(thumbnailFileName);
-        }
+        thumbnailService.removeExpired(System.currentTimeMillis());
     }
 }
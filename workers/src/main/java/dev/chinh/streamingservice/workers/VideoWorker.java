@@ -1,13 +1,17 @@
 package dev.chinh.streamingservice.workers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.chinh.streamingservice.workers.service.JobScheduler;
 import dev.chinh.streamingservice.workers.service.WorkerRedisService;
 import dev.chinh.streamingservice.common.data.MediaJobDescription;
 import dev.chinh.streamingservice.workers.service.VideoService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+
 @Service
 @Scope("prototype") // new instance for each request
 public class VideoWorker extends Worker {
@@ -16,14 +20,17 @@ public class VideoWorker extends Worker {
 
     public static final String STREAM = "ffmpeg_video_stream";
     public static final String GROUP = "video_workers";
-    public static final String TOKEN_KEY = "ffmpeg_video_tokens";
     public static final String DLQ_STREAM = "ffmpeg_video_dlq";
 
+    @Value("${worker.reclaim.video-min-idle:60s}")
+    private Duration reclaimMinIdle;
+
     public VideoWorker(WorkerRedisService workerRedisService,
                        RedisTemplate<String, String> queueRedisTemplate,
                        ObjectMapper objectMapper,
+                       JobScheduler jobScheduler,
                        VideoService videoService) {
-        super(workerRedisService, queueRedisTemplate, objectMapper);
+        super(workerRedisService, queueRedisTemplate, objectMapper, jobScheduler);
         this.videoService = videoService;
     }
 
@@ -38,17 +45,22 @@ public class VideoWorker extends Worker {
     }
 
     @Override
-    protected String tokenKey() {
-        return TOKEN_KEY;
+    protected String streamKeyDLQ() {
+        return DLQ_STREAM;
     }
 
     @Override
-    protected String streamKeyDLQ() {
-        return DLQ_STREAM;
+    protected Duration reclaimMinIdle() {
+        return reclaimMinIdle;
+    }
+
+    @Override
+    public void performJob(String ticket, MediaJobDescription mediaJobDescription) {
+        videoService.handleJob(ticket, mediaJobDescription);
     }
 
     @Override
-    public void performJob(MediaJobDescription mediaJobDescription) {
-        videoService.handleJob(TOKEN_KEY, mediaJobDescription);
+    protected boolean needsAdmission(MediaJobDescription mediaJobDescription) {
+        return videoService.needsAdmission(mediaJobDescription);
     }
 }
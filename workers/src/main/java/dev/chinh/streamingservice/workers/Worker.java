@@ -2,6 +2,7 @@ package dev.chinh.streamingservice.workers;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.chinh.streamingservice.workers.service.JobScheduler;
 import dev.chinh.streamingservice.workers.service.WorkerRedisService;
 import dev.chinh.streamingservice.common.constant.MediaJobStatus;
 import dev.chinh.streamingservice.common.data.MediaJobDescription;
@@ -11,9 +12,8 @@ import org.springframework.data.redis.core.RedisTemplate;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.*;
 
 @RequiredArgsConstructor
 public abstract class Worker implements Runnable {
@@ -21,108 +21,167 @@ public abstract class Worker implements Runnable {
     protected final WorkerRedisService workerRedisService;
     protected final RedisTemplate<String, String> queueRedisTemplate;
     protected final ObjectMapper objectMapper;
+    protected final JobScheduler jobScheduler;
 
     protected abstract String streamKey();
     protected abstract String groupName();
-    protected abstract String tokenKey();
     protected abstract String streamKeyDLQ();
+    // how long an entry may sit un-acked in the PEL before another consumer takes it over
+    protected abstract Duration reclaimMinIdle();
 
     private final String jobDescriptionKey = "job_description";
     private final String consumerName = getClass().getSimpleName() + "-" + UUID.randomUUID();
     private static final int MAX_RETRIES = 5;
+    private static final int BATCH_SIZE = 32;
+    private static final int MAX_IN_FLIGHT = 16;
+
+    // bounded so one slow job can't hold up the rest of the batch, and a full pool stops reading more records
+    private final ExecutorService jobExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    // bookkeeping from finished jobs - flushed together in one round trip by the read loop
+    private final Queue<RecordId> pendingAcks = new ConcurrentLinkedQueue<>();
+    private final Queue<String> pendingRetryClears = new ConcurrentLinkedQueue<>();
+
+    // records dispatched on this node and not finished yet - kept fresh in the PEL so other nodes don't reclaim them
+    private final Set<RecordId> inFlightIds = ConcurrentHashMap.newKeySet();
 
     @Override
     public void run() {
         workerRedisService.createGroupIfAbsent(streamKey(), groupName());
 
-        reclaimStaleJobs();
+        Thread.ofVirtual().name(consumerName + "-heartbeat").start(this::heartbeatLoop);
+        Thread.ofVirtual().name(consumerName + "-reclaimer").start(this::reclaimLoop);
 
         while (true) {
             try {
+                flushBookkeeping();
+
                 List<MapRecord<String, Object, Object>> records = workerRedisService.readFromStream(
                         streamKey(),
                         groupName(),
                         consumerName,
-                        Duration.ofSeconds(5)
+                        Duration.ofSeconds(5),
+                        Math.max(1, Math.min(BATCH_SIZE, inFlight.availablePermits()))
                 );
 
                 if (records == null || records.isEmpty()) {
                     continue;
                 }
 
-                for (MapRecord<String, Object, Object> record : records) {
-                    handleRecord(record);
-                }
+                handleBatch(records, true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             } catch (Exception ignored) {}
         }
     }
 
-    private void handleRecord(MapRecord<String, Object, Object> record) {
-        Map<Object, Object> fields = record.getValue();
+    /**
+     * @param wait block for a free permit, otherwise records without one are left in the PEL for a later claim
+     */
+    private void handleBatch(List<MapRecord<String, Object, Object>> records, boolean wait) throws InterruptedException {
+        List<String> workIds = records.stream().map(r -> r.getId().getValue()).toList();
+        List<Integer> retries = workerRedisService.getRetryCounts(workIds);
 
-        String workId = record.getId().getValue();
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            String workId = workIds.get(i);
+            int retry = retries.get(i);
 
-        int retry = getRetryCount(workId);
+            if (retry >= MAX_RETRIES) {
+                sendToDLQ(record, "max retries reached");
+                pendingAcks.add(record.getId());
+                pendingRetryClears.add(workId);
+                continue;
+            }
 
-        if (retry >= MAX_RETRIES) {
-            sendToDLQ(record, "max retries reached");
-            workerRedisService.ack(streamKey(), groupName(), record.getId());
-            clearRetry(workId);
-            return;
-        }
+            if (inFlightIds.contains(record.getId()))
+                continue; // reclaimed while still running here
 
-        String jobJson = (String) fields.get(jobDescriptionKey);
+            String jobJson = (String) record.getValue().get(jobDescriptionKey);
 
-        System.out.println("JobJson: " + jobJson);
+            System.out.println("JobJson: " + jobJson);
 
-        MediaJobDescription mediaJobDescription;
-        try {
-            mediaJobDescription = objectMapper.readValue(jobJson, MediaJobDescription.class);
-        } catch (JsonProcessingException e) {
-            // Poison pill - ACK and drop
-            workerRedisService.ack(streamKey(), groupName(), record.getId());
-            System.out.println("Failed to parse job description: " + jobJson);
-            return;
+            MediaJobDescription mediaJobDescription;
+            try {
+                mediaJobDescription = objectMapper.readValue(jobJson, MediaJobDescription.class);
+            } catch (JsonProcessingException e) {
+                // Poison pill - ACK and drop
+                pendingAcks.add(record.getId());
+                System.out.println("Failed to parse job description: " + jobJson);
+                continue;
+            }
+
+            if (wait)
+                inFlight.acquire();
+            else if (!inFlight.tryAcquire())
+                break;
+            inFlightIds.add(record.getId());
+            try {
+                jobExecutor.submit(() -> {
+                    try {
+                        handleJob(record.getId(), workId, retry, mediaJobDescription);
+                    } finally {
+                        inFlightIds.remove(record.getId());
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlightIds.remove(record.getId());
+                inFlight.release();
+                throw e;
+            }
         }
+        flushBookkeeping();
+    }
 
-        if (!workerRedisService.tryAcquireToken(tokenKey())) {
-            sleep(500);
+    private void handleJob(RecordId recordId, String workId, int retry, MediaJobDescription mediaJobDescription) {
+        String ticket = null;
+        try {
+            // cache hits don't run ffmpeg, they must not queue behind jobs that do
+            if (needsAdmission(mediaJobDescription))
+                ticket = jobScheduler.admit(mediaJobDescription);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
 
+        boolean failed = false;
         try {
             System.out.println("Performing job: " + mediaJobDescription.getWorkId() + " " + mediaJobDescription.getJobType());
-            performJob(mediaJobDescription);
-            workerRedisService.ack(streamKey(), groupName(), record.getId());
-            clearRetry(workId);
+            performJob(ticket, mediaJobDescription);
+            pendingAcks.add(recordId);
+            pendingRetryClears.add(workId);
         } catch (Exception e) {
             workerRedisService.updateStatus(mediaJobDescription.getWorkId(), MediaJobStatus.FAILED.name());
-            incrementRetry(workId);
-            backoff(retry);
+            workerRedisService.incrementRetry(workId);
+            failed = true;
             e.printStackTrace();
+        } finally {
+            // async jobs hand the ticket off to their ffmpeg process which releases it on exit
+            jobScheduler.complete(ticket);
         }
-        // release token is handled by the job caller not worker to handle async jobs
-    }
-
-    public int getRetryCount(String workId) {
-        Object value = queueRedisTemplate.opsForHash().get("retry:"+workId, "count");
-        return value == null ? 0 : Integer.parseInt((String) value);
-    }
-
-    public void incrementRetry(String workId) {
-        Object value = queueRedisTemplate.opsForHash().get("retry:" + workId, "count");
-
-        int currentCount = (value == null) ? 0 : Integer.parseInt((String) value);
-        currentCount++;
-
-        queueRedisTemplate.opsForHash().put("retry:" + workId, "count", String.valueOf(currentCount));
+        if (failed)
+            backoff(retry);
     }
 
-
-    public void clearRetry(String workId) {
-        queueRedisTemplate.delete("retry:"+workId);
+    private void flushBookkeeping() {
+        if (pendingAcks.isEmpty() && pendingRetryClears.isEmpty())
+            return;
+        List<RecordId> acks = new ArrayList<>();
+        RecordId recordId;
+        while ((recordId = pendingAcks.poll()) != null) {
+            acks.add(recordId);
+        }
+        List<String> retryClears = new ArrayList<>();
+        String workId;
+        while ((workId = pendingRetryClears.poll()) != null) {
+            retryClears.add(workId);
+        }
+        workerRedisService.ackAndClearRetries(streamKey(), groupName(), acks, retryClears);
     }
 
-
     private void backoff(int retry) {
         long delay = Math.min(1000L * (1L << retry), 30000);
         sleep(delay);
@@ -150,36 +209,71 @@ public abstract class Worker implements Runnable {
         } catch (InterruptedException ignored) {}
     }
 
-    public abstract void performJob(MediaJobDescription mediaJobDescription) throws Exception;
-
-    // claiming failed to ack job
-    private void reclaimStaleJobs() {
-        // 1. Fetch pending messages (with details)
-        PendingMessages pending = workerRedisService.getPendingMessages(
-                streamKey(),
-                groupName(),
-                50
-        );
+    public abstract void performJob(String ticket, MediaJobDescription mediaJobDescription) throws Exception;
 
-        List<RecordId> stale = pending.stream()
-                .filter(p -> p.getElapsedTimeSinceLastDelivery().toMillis() > 60000)
-                .map(PendingMessage::getId)
-                .toList();
-
-        if (stale.isEmpty()) return;
+    /**
+     * False for jobs that can be answered without running anything, performJob then gets a null ticket
+     * and admits itself through JobScheduler.runAdmitted if it has to encode after all.
+     */
+    protected boolean needsAdmission(MediaJobDescription mediaJobDescription) {
+        return true;
+    }
 
-        List<MapRecord<String,Object,Object>> claimed =
-                queueRedisTemplate.opsForStream().claim(
-                        streamKey(),
-                        groupName(),
-                        consumerName,
-                        Duration.ofSeconds(60),
-                        stale.toArray(new RecordId[0])
-                );
+    // keeps the PEL entries of running jobs fresh so other nodes don't reclaim them, never waits on job permits
+    private void heartbeatLoop() {
+        long interval = Math.max(1000, reclaimMinIdle().toMillis() / 3);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                workerRedisService.touchPending(streamKey(), groupName(), consumerName, Set.copyOf(inFlightIds));
+            } catch (Exception e) {
+                System.out.println("Heartbeat on " + streamKey() + " failed: " + e.getMessage());
+            }
+            sleep(interval);
+        }
+    }
 
-        // Re-handle claimed jobs normally
-        for (MapRecord<String,Object,Object> record : claimed) {
-            handleRecord(record);
+    private void reclaimLoop() {
+        Duration minIdle = reclaimMinIdle();
+        long interval = Math.max(1000, minIdle.toMillis() / 2);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                reclaimStaleJobs(minIdle);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.out.println("Reclaim on " + streamKey() + " failed: " + e.getMessage());
+            }
+            sleep(interval);
         }
     }
+
+    // claiming jobs other consumers failed to ack - crashed nodes, failed attempts awaiting retry
+    // only as many as there are free permits, so nothing is claimed that can't start right away
+    private void reclaimStaleJobs(Duration minIdle) throws InterruptedException {
+        String cursor = "0-0";
+        do {
+            int free = Math.min(BATCH_SIZE, inFlight.availablePermits());
+            if (free == 0)
+                return;
+            WorkerRedisService.AutoClaimPage page = workerRedisService.autoClaimIds(
+                    streamKey(),
+                    groupName(),
+                    consumerName,
+                    minIdle,
+                    cursor,
+                    free
+            );
+            cursor = page.nextCursor();
+            if (page.recordIds().isEmpty())
+                continue;
+
+            List<MapRecord<String, Object, Object>> claimed =
+                    workerRedisService.claimRecords(streamKey(), groupName(), consumerName, page.recordIds());
+            System.out.println("Reclaimed " + claimed.size() + " stale jobs on " + streamKey());
+
+            // Re-handle claimed jobs normally
+            handleBatch(claimed, false);
+        } while (!"0-0".equals(cursor));
+    }
 }
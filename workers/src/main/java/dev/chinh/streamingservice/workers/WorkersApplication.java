@@ -1,7 +1,7 @@
 package dev.chinh.streamingservice.workers;
 
 import dev.chinh.streamingservice.common.OSUtil;
-import dev.chinh.streamingservice.workers.service.WorkerRedisService;
+import dev.chinh.streamingservice.workers.service.MemoryManager;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -19,10 +19,7 @@ public class WorkersApplication {
     CommandLineRunner startWorkers(ApplicationContext ctx) {
         return _ -> {
             OSUtil._initializeRAMInfo(System.getenv("FFMPEG_NAME"));
-
-            WorkerRedisService workerRedisService = ctx.getBean(WorkerRedisService.class);
-            workerRedisService.initializeTokens(VideoWorker.TOKEN_KEY, 2);
-            workerRedisService.initializeTokens(AlbumWorker.TOKEN_KEY, 2);
+            ctx.getBean(MemoryManager.class).initialize();
 
             int workerCount = 2;
             createAndStartWorkers(ctx, VideoWorker.class, workerCount, "video-worker");
@@ -1,11 +1,15 @@
 package dev.chinh.streamingservice.workers.internal;
 
+import dev.chinh.streamingservice.common.proto.FileChunk;
 import dev.chinh.streamingservice.common.proto.FileRequest;
 import dev.chinh.streamingservice.common.proto.FileResponse;
 import dev.chinh.streamingservice.common.proto.FileServiceGrpc;
+import dev.chinh.streamingservice.common.proto.FileStreamRequest;
 import net.devh.boot.grpc.client.inject.GrpcClient;
 import org.springframework.stereotype.Service;
 
+import java.util.Iterator;
+
 @Service
 public class FileDiscoveryService {
 
@@ -24,6 +28,25 @@ public class FileDiscoveryService {
         return fileStub.findFilesInDirectory(request);
     }
 
+    /**
+     * Stream a directory's whole subtree, name ascending, in chunks starting after cursor.
+     * Chunks are pulled from the server as the iterator is consumed - drain it to release the call.
+     * @param limit max items over all chunks, 0 for everything
+     */
+    public Iterator<FileChunk> streamFiles(String userId, String id, String cursor, int chunkSize, int limit) {
+        FileStreamRequest request = FileStreamRequest.newBuilder()
+                .setUserId(userId)
+                .setId(id)
+                .setCursor(cursor)
+                .setSortBy("NAME")
+                .setSortOrder("ASC")
+                .setChunkSize(chunkSize)
+                .setLimit(limit)
+                .build();
+
+        return fileStub.streamFilesInDirectory(request);
+    }
+
     public FileResponse findFileByMId(String userId, long mediaId) {
         FileRequest request = FileRequest.newBuilder()
                 .setUserId(userId)
@@ -1,7 +1,7 @@
 package dev.chinh.streamingservice.workers.respond;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -16,11 +16,18 @@ public class RedisJobStatusListener {
 
     public record JobStatus(String jobId, String userId, Object result) {}
 
+    public record JobProgress(String jobId, String userId, Object progress) {}
+
     // registered as a listener in RedisConfig
     public void handleJob(String message) {
         JobStatus jobStatus;
         try {
-            jobStatus = objectMapper.readValue(message, new TypeReference<>() {});
+            JsonNode node = objectMapper.readTree(message);
+            if (node.has("progress")) {
+                handleProgress(node);
+                return;
+            }
+            jobStatus = objectMapper.treeToValue(node, JobStatus.class);
         } catch (JsonProcessingException e) {
             System.err.println(e.getMessage());
             System.out.println("Failed to parse job status message: " + message);
@@ -35,4 +42,22 @@ public class RedisJobStatusListener {
                 jobStatus
         );
     }
+
+    // live ffmpeg progress goes to its own destination so it isn't mistaken for the job result
+    private void handleProgress(JsonNode node) {
+        JobProgress jobProgress;
+        try {
+            jobProgress = objectMapper.treeToValue(node, JobProgress.class);
+        } catch (JsonProcessingException e) {
+            System.err.println(e.getMessage());
+            System.out.println("Failed to parse job progress message: " + node);
+            return;
+        }
+
+        simpleMessagingTemplate.convertAndSendToUser(
+                jobProgress.userId,
+                "/queue/job-progress",
+                jobProgress
+        );
+    }
 }
@@ -1,15 +1,18 @@
 package dev.chinh.streamingservice.workers.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.chinh.streamingservice.common.ImageResizer;
 import dev.chinh.streamingservice.common.OSUtil;
 import dev.chinh.streamingservice.common.constant.MediaJobStatus;
 import dev.chinh.streamingservice.common.constant.MediaType;
 import dev.chinh.streamingservice.common.constant.Resolution;
 import dev.chinh.streamingservice.common.data.ContentMetaData;
 import dev.chinh.streamingservice.common.data.MediaJobDescription;
+import dev.chinh.streamingservice.common.proto.FileChunk;
 import dev.chinh.streamingservice.common.proto.FileItem;
 import dev.chinh.streamingservice.workers.internal.FileDiscoveryService;
 import io.grpc.StatusRuntimeException;
+import jakarta.annotation.PostConstruct;
 import org.apache.coyote.BadRequestException;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -18,6 +21,7 @@ import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
@@ -28,6 +32,8 @@ public class AlbumService extends MediaService implements ResourceCleanable {
     private final MemoryManager memoryManager;
     private final VideoService videoService;
     private final FileDiscoveryService fileService;
+    private final FfmpegTelemetry ffmpegTelemetry;
+    private final JobScheduler jobScheduler;
 
     @Value("${ffmpeg-name}")
     private String ffmpegName;
@@ -38,11 +44,20 @@ public class AlbumService extends MediaService implements ResourceCleanable {
                         WorkerRedisService workerRedisService,
                         MemoryManager memoryManager,
                         VideoService videoService,
-                        FileDiscoveryService fileService) {
+                        FileDiscoveryService fileService,
+                        FfmpegTelemetry ffmpegTelemetry,
+                        JobScheduler jobScheduler) {
         super(redisTemplate, objectMapper, minIOService, workerRedisService);
         this.memoryManager = memoryManager;
         this.videoService = videoService;
         this.fileService = fileService;
+        this.ffmpegTelemetry = ffmpegTelemetry;
+        this.jobScheduler = jobScheduler;
+    }
+
+    @PostConstruct
+    public void init() {
+        memoryManager.registerResourceCleanable(this);
     }
 
     public record AlbumUrlResult(List<MediaUrl> result, String nextCursor) {}
@@ -50,12 +65,21 @@ public class AlbumService extends MediaService implements ResourceCleanable {
     public record AlbumUrlInfo(List<MediaUrl> mediaUrlList, List<String> buckets, List<String> pathList) {}
 
     @Override
-    public void handleJob(String tokenKey, MediaJobDescription description) {
+    public boolean needsAdmission(MediaJobDescription description) {
+        if (!"albumVideoUrl".equals(description.getJobType()))
+            return true;
+        if (description.getVidResolution() == Resolution.original)
+            return false;
+        MediaJobStatus mediaJobStatus = videoService.getVideoJobStatus(description.getUserId());
+        return mediaJobStatus == null || mediaJobStatus.equals(MediaJobStatus.STOPPED);
+    }
+
+    @Override
+    public void handleJob(String ticket, MediaJobDescription description) {
         try {
-            boolean toHandleJob = isJobWithinHandleWindow(tokenKey, description);
+            boolean toHandleJob = isJobWithinHandleWindow(ticket, description);
             if (!toHandleJob) { // check if job has passed too long or not
                 workerRedisService.updateStatus(description.getWorkId(), MediaJobStatus.STOPPED.name());
-                workerRedisService.releaseToken(tokenKey);
                 return;
             }
             switch (description.getJobType()) {
@@ -63,11 +87,10 @@ public class AlbumService extends MediaService implements ResourceCleanable {
                     var albumUrlResult = processAlbumList(description);
                     String albumUrlString = objectMapper.writeValueAsString(albumUrlResult);
                     workerRedisService.addResultToStatus(description.getWorkId(), "page::"+description.getOffset(), albumUrlString);
-                    workerRedisService.releaseToken(tokenKey);
                     workerRedisService.sendJobNotification(description.getWorkId(), description.getUserId(), albumUrlString);
                 }
                 case "albumVideoUrl" -> {
-                    String videoPartialUrl = getAlbumPartialVideoUrl(tokenKey, description);
+                    String videoPartialUrl = getAlbumPartialVideoUrl(ticket, description);
                     workerRedisService.addResultToStatus(description.getWorkId(), "result", videoPartialUrl);
                     workerRedisService.updateStatus(description.getWorkId(), MediaJobStatus.RUNNING.name());
                     workerRedisService.sendJobNotification(description.getWorkId(), description.getUserId(), videoPartialUrl);
@@ -77,7 +100,6 @@ public class AlbumService extends MediaService implements ResourceCleanable {
         } catch (Exception e) {
             if (description.getJobType().equals("albumUrlList"))
                 workerRedisService.addResultToStatus(description.getWorkId(), "page::"+description.getOffset(), MediaJobStatus.FAILED.name());
-            workerRedisService.releaseToken(tokenKey);
             throw new RuntimeException(e);
         }
     }
@@ -107,29 +129,90 @@ public class AlbumService extends MediaService implements ResourceCleanable {
             }
         }
 
-        var response = fileService.listFiles(userId, albumInfo.get("fileId").toString(), jobDescription.getNextCursor() == null ? "" : jobDescription.getNextCursor());
+        String fileId = albumInfo.get("fileId").toString();
+        String cursor = jobDescription.getNextCursor() == null ? "" : jobDescription.getNextCursor();
+        boolean webp = jobDescription.getAcceptHeader() != null && jobDescription.getAcceptHeader().contains("image/webp");
+
+        AlbumPage page = prefetchedPages.remove(pageKey(albumId, resolution, webp, cursor));
+        if (page == null) {
+            var response = fileService.listFiles(userId, fileId, cursor);
+            page = new AlbumPage(response.getContentList(), response.getNextCursor(), false);
+        }
+
+        PageMedia media = collectPageMedia(userId, albumId, resolution, webp, page.content());
+        boolean hasImage = !media.imageOutputs().isEmpty();
+
+        if (resolution != Resolution.original && hasImage && !page.resized()) {
+            if (!resizePage(userId, albumId, resolution, media)) {
+                return new AlbumUrlResult(
+                        page.content().stream()
+                                .map(i ->
+                                        new MediaUrl(MediaType.detectMediaType(i.getObjectName()),
+                                                minIOService.getObjectUrl(userId, i.getBucket(), ContentMetaData.removeUserIdDirFromObjectKey(userId, i.getObjectName()))))
+                                .toList(),
+                        page.nextCursor());
+            }
+        }
+
+        if (noFileId || (resolution != Resolution.original && hasImage)) {
+            long previousSize = albumInfo.get("size") == null ? 0 : Long.parseLong(albumInfo.get("size").toString());
+            previousSize += media.size();
+            albumInfo.put("size", String.valueOf(previousSize));
+            albumInfo.putIfAbsent("width", String.valueOf(jobDescription.getWidth()));
+            albumInfo.putIfAbsent("height", String.valueOf(jobDescription.getHeight()));
+            addCacheAlbumJobInfo(albumId, albumInfo);
+        }
+
+        if (resolution != Resolution.original && !page.nextCursor().isEmpty())
+            prefetchPages(userId, albumId, fileId, resolution, webp, page.nextCursor());
+
+        return new AlbumUrlResult(media.all(), page.nextCursor());
+    }
+
+    private record AlbumPage(List<FileItem> content, String nextCursor, boolean resized) {}
 
+    private record PageMedia(List<MediaUrl> all, List<MediaUrl> imageOutputs, List<String> buckets, List<String> paths, long size) {}
+
+    // same page size as the file service's unary listing, so streamed chunk cursors and page cursors line up
+    private static final int ALBUM_PAGE_SIZE = 25;
+
+    @Value("${album.prefetch-pages:2}")
+    private int prefetchPageCount;
+
+    // listings of upcoming pages, images already resized when resized is set
+    private final Map<String, AlbumPage> prefetchedPages = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AlbumPage> eldest) {
+            return size() > 256;
+        }
+    });
+    private final Set<String> prefetching = ConcurrentHashMap.newKeySet();
+
+    private static String pageKey(long albumId, Resolution resolution, boolean webp, String cursor) {
+        return albumId + ":" + resolution.name() + "|" + webp + "|" + cursor;
+    }
+
+    private PageMedia collectPageMedia(String userId, long albumId, Resolution resolution, boolean webp, List<FileItem> items) {
         String albumDir = "/stream/album/" + albumId + "/" + resolution.name();
         long size = 0;
-        boolean hasImage = false;
 
         List<MediaUrl> mediaAllUrlList = new ArrayList<>();
         List<MediaUrl> mediaImageOutputList = new ArrayList<>();
         List<String> bucketList = new ArrayList<>();
         List<String> pathList = new ArrayList<>();
-        for (FileItem f : response.getContentList()) {
+        for (FileItem f : items) {
             String objectName = f.getObjectName();
             String objectNameOmittedUserDir = ContentMetaData.removeUserIdDirFromObjectKey(userId, objectName);
 
             MediaType mediaType = MediaType.detectMediaType(objectName);
 
             if (resolution == Resolution.original) {
-                mediaAllUrlList.add(new MediaUrl(mediaType, minIOService.getObjectUrl(f.getBucket(), objectNameOmittedUserDir)));
+                mediaAllUrlList.add(new MediaUrl(mediaType, minIOService.getObjectUrl(userId, f.getBucket(), objectNameOmittedUserDir)));
             } else {
                 if (mediaType == MediaType.IMAGE) {
                     String originalExtension = objectName.contains(".") ? objectName.substring(objectName.lastIndexOf(".") + 1)
                             .toLowerCase() : "jpg";
-                    String format = (jobDescription.getAcceptHeader() != null && jobDescription.getAcceptHeader().contains("image/webp")) ? "webp" : originalExtension;
+                    String format = webp ? "webp" : originalExtension;
                     String savedFileName = objectNameOmittedUserDir + "_" + resolution + "." + format;
                     String urlPath = OSUtil.normalizePath(albumDir, savedFileName);
                     mediaAllUrlList.add(new MediaUrl(mediaType, urlPath));
@@ -139,44 +222,101 @@ public class AlbumService extends MediaService implements ResourceCleanable {
                     pathList.add(objectName);
 
                     size += f.getSize();
-                    hasImage = true;
                 } else if (mediaType == MediaType.VIDEO) {
                     String videoDir = "/api/album/" + albumId + "/" + resolution + "/vid/" + objectNameOmittedUserDir;
                     mediaAllUrlList.add(new MediaUrl(mediaType, videoDir));
                 }
             }
         }
+        return new PageMedia(mediaAllUrlList, mediaImageOutputList, bucketList, pathList, size);
+    }
 
-        if (resolution != Resolution.original && hasImage) {
-            if (!memoryManager.freeMemoryForSize(size)) {
-                return new AlbumUrlResult(
-                        response.getContentList().stream()
-                                .map(i ->
-                                        new MediaUrl(MediaType.detectMediaType(i.getObjectName()),
-                                                minIOService.getObjectUrl(i.getBucket(), ContentMetaData.removeUserIdDirFromObjectKey(userId, i.getObjectName()))))
-                                .toList(),
-                        response.getNextCursor());
-            }
+    /**
+     * @return false if there wasn't enough RAM disk space to resize into
+     */
+    private boolean resizePage(String userId, long albumId, Resolution resolution, PageMedia media) {
+        // same id the album cleaner evicts by
+        String albumResJobId = albumId + ":" + resolution.name();
+        if (!memoryManager.reserve(albumResJobId, media.size()))
+            return false;
 
-            AlbumUrlInfo urlInfo = new AlbumUrlInfo(mediaImageOutputList, bucketList, pathList);
-            String saveDir = userId + "/" + albumId + "/" + resolution.name();
-            try {
-                processResizedImagesInBatch(urlInfo, resolution, saveDir, false, false);
-            } catch (Exception e) {
-                System.err.println("Failed to resize images for albumId: " + albumId);
-            }
+        String saveDir = userId + "/" + albumId + "/" + resolution.name();
+        try {
+            resizeInto(saveDir, albumId, resolution, media);
+        } finally {
+            memoryManager.reconcileFromDirectory(albumResJobId, saveDir);
+            memoryManager.settle(albumResJobId);
         }
+        return true;
+    }
 
-        if (noFileId || (resolution != Resolution.original && hasImage)) {
-            long previousSize = albumInfo.get("size") == null ? 0 : Long.parseLong(albumInfo.get("size").toString());
-            previousSize += size;
-            albumInfo.put("size", String.valueOf(previousSize));
-            albumInfo.putIfAbsent("width", String.valueOf(jobDescription.getWidth()));
-            albumInfo.putIfAbsent("height", String.valueOf(jobDescription.getHeight()));
-            addCacheAlbumJobInfo(albumId, albumInfo);
+    /**
+     * Like resizePage, under its own ledger owner: the foreground page settles the album's owner while this runs.
+     * Once done its bytes are folded into the album's owner, which the album cleaner evicts by.
+     */
+    private boolean prefetchResizePage(String userId, long albumId, Resolution resolution, PageMedia media) {
+        String albumResJobId = albumId + ":" + resolution.name();
+        String prefetchJobId = albumResJobId + "#prefetch";
+        if (!memoryManager.reserve(prefetchJobId, media.size()))
+            return false;
+
+        String saveDir = userId + "/" + albumId + "/" + resolution.name();
+        try {
+            resizeInto(saveDir, albumId, resolution, media);
+        } finally {
+            memoryManager.absorb(prefetchJobId, albumResJobId);
+            memoryManager.reconcileFromDirectory(albumResJobId, saveDir);
         }
+        return true;
+    }
 
-        return new AlbumUrlResult(mediaAllUrlList, response.getNextCursor());
+    private void resizeInto(String saveDir, long albumId, Resolution resolution, PageMedia media) {
+        AlbumUrlInfo urlInfo = new AlbumUrlInfo(media.imageOutputs(), media.buckets(), media.paths());
+        try {
+            processResizedImagesInBatch(urlInfo, resolution, saveDir, false, false);
+        } catch (Exception e) {
+            System.err.println("Failed to resize images for albumId: " + albumId);
+        }
+    }
+
+    /**
+     * List and resize the pages after cursor in the background while the user looks at the current one.
+     * Chunks are streamed in one call and only pulled as each is resized, so a long album isn't listed
+     * further ahead than the prefetch window. Admitted as background work, it doesn't take a slot from playback.
+     */
+    private void prefetchPages(String userId, long albumId, String fileId, Resolution resolution, boolean webp, String cursor) {
+        String key = pageKey(albumId, resolution, webp, cursor);
+        if (prefetchPageCount <= 0 || prefetchedPages.containsKey(key) || !prefetching.add(key))
+            return;
+
+        MediaJobDescription prefetchJob = new MediaJobDescription();
+        prefetchJob.setUserId(userId);
+        prefetchJob.setWorkId(key);
+        prefetchJob.setJobType("albumPrefetch");
+
+        Thread.ofVirtual().start(() -> {
+            String ticket = null;
+            try {
+                ticket = jobScheduler.admit(prefetchJob);
+                Iterator<FileChunk> chunks = fileService.streamFiles(userId, fileId, cursor, ALBUM_PAGE_SIZE, ALBUM_PAGE_SIZE * prefetchPageCount);
+                String chunkCursor = cursor;
+                while (chunks.hasNext()) {
+                    FileChunk chunk = chunks.next();
+                    PageMedia media = collectPageMedia(userId, albumId, resolution, webp, chunk.getContentList());
+                    boolean resized = !media.imageOutputs().isEmpty() && prefetchResizePage(userId, albumId, resolution, media);
+                    prefetchedPages.put(pageKey(albumId, resolution, webp, chunkCursor),
+                            new AlbumPage(chunk.getContentList(), chunk.getNextCursor(), resized));
+                    chunkCursor = chunk.getNextCursor();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Failed to prefetch pages for albumId: " + albumId + ": " + e.getMessage());
+            } finally {
+                jobScheduler.release(ticket);
+                prefetching.remove(key);
+            }
+        });
     }
 
     private void processResizedImagesInBatch(AlbumUrlInfo albumUrlInfo, Resolution resolution, String saveDir, boolean isAlbum, boolean addThumbnailCache) throws InterruptedException, IOException {
@@ -186,57 +326,34 @@ public class AlbumService extends MediaService implements ResourceCleanable {
 
             OSUtil.createTempDir(saveDir, ffmpegName);
             String scale = getFfmpegScaleString(resolution, false);
+            boolean inProcess = OSUtil.isRAMDiskHostAccessible();
 
             for (int i = 0; i < albumUrlInfo.mediaUrlList.size(); i++) {
                 final int index = i;
 
                 CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                    String output = "/chunks/" + saveDir + "/" + albumUrlInfo.mediaUrlList.get(index).url;
+                    String bucket = isAlbum ? albumUrlInfo.buckets.getFirst() : albumUrlInfo.buckets.get(index);
+                    String object = albumUrlInfo.pathList.get(index);
                     try {
-                        semaphore.acquire();
-
-                        List<String> cmd = new ArrayList<>();
-                        if (ffmpegName != null && !ffmpegName.isEmpty()) {
-                            // DEV: Start a bash session inside the ffmpeg container
-                            cmd.addAll(List.of("docker", "exec", ffmpegName));
+                        boolean resized = false;
+                        if (inProcess)
+                            resized = resizeInProcess(bucket, object, output, resolution);
+                        if (!resized) {
+                            semaphore.acquire();
+                            try {
+                                resized = resizeWithFfmpeg(bucket, object, output, scale);
+                            } finally {
+                                semaphore.release();
+                            }
                         }
-
-                        String output = albumUrlInfo.mediaUrlList.get(index).url;
-                        output = "/chunks/" + saveDir + "/" + output;
-                        String bucket = isAlbum ? albumUrlInfo.buckets.getFirst() : albumUrlInfo.buckets.get(index);
-                        String input = minIOService.getObjectUrlForContainer(bucket, albumUrlInfo.pathList.get(index));
-
-                        cmd.addAll(List.of(
-                                "ffmpeg",
-                                "-n", "-hide_banner", "-loglevel", "error",
-                                "-i", input,
-                                "-vf", scale,
-                                "-q:v", "2",
-                                "-frames:v", "1",
-                                "-update", "1",
-                                output
-                        ));
-
-                        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
-
-                        // Setup thread-safe list to hold logs
-                        List<String> logs = Collections.synchronizedList(new ArrayList<>());
-                        Thread logConsumer = Thread.ofVirtual().unstarted(() -> getLogsFromInputStream(logs, process.getInputStream()));
-                        logConsumer.start();
-
-                        int exitCode = process.waitFor();
-                        if (exitCode != 0) {
-                            logs.forEach(System.out::println);
-                            System.out.println();
-                        } else if (addThumbnailCache) {
+                        if (resized && addThumbnailCache) {
                             String name = output.replaceFirst("/chunks/thumbnail-cache/", "");
                             long now = System.currentTimeMillis() + 60 * 60 * 1000;
                             addCacheThumbnails(name, now);
                         }
-
                     } catch (Exception e) {
-                        System.err.println("Failed to execute ffmpeg command: " + e.getMessage());
-                    } finally {
-                        semaphore.release();
+                        System.err.println("Failed to resize " + object + ": " + e.getMessage());
                     }
                 }, executorService);
 
@@ -249,12 +366,79 @@ public class AlbumService extends MediaService implements ResourceCleanable {
         }
     }
 
+    // decode and scale are CPU bound, more than one per core only adds heap pressure
+    private final Semaphore inProcessResizeSemaphore = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Resize with ImageIO straight from MinIO into the RAM disk, no process fork.
+     * @return false if the format isn't supported in process or decoding failed, fall back to ffmpeg
+     */
+    private boolean resizeInProcess(String bucket, String object, String output, Resolution resolution) throws InterruptedException {
+        Path outputPath = OSUtil.getRAMDiskPath(output.replaceFirst("/chunks/", ""));
+        if (!ImageResizer.canWrite(outputPath))
+            return false;
+        inProcessResizeSemaphore.acquire();
+        long start = System.nanoTime();
+        try (InputStream input = minIOService.getObject(bucket, object)) {
+            boolean resized = ImageResizer.resize(input, outputPath, resolution.getResolution());
+            if (resized)
+                ffmpegTelemetry.recordImageResize("jvm", System.nanoTime() - start);
+            return resized;
+        } catch (Exception e) {
+            System.err.println("In process resize failed for " + object + ", falling back to ffmpeg: " + e.getMessage());
+            return false;
+        } finally {
+            inProcessResizeSemaphore.release();
+        }
+    }
+
+    private boolean resizeWithFfmpeg(String bucket, String object, String output, String scale) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        if (ffmpegName != null && !ffmpegName.isEmpty()) {
+            // DEV: Start a bash session inside the ffmpeg container
+            cmd.addAll(List.of("docker", "exec", ffmpegName));
+        }
+
+        String input = minIOService.getObjectUrlForContainer(bucket, object);
+
+        cmd.addAll(List.of(
+                "ffmpeg",
+                "-n", "-hide_banner", "-loglevel", "error",
+                "-i", input,
+                "-vf", scale,
+                "-q:v", "2",
+                "-frames:v", "1",
+                "-update", "1",
+                output
+        ));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(withProgressOutput(cmd.toArray(new String[0])))
+                .redirectErrorStream(true).start();
+
+        // Setup thread-safe list to hold logs
+        List<String> logs = Collections.synchronizedList(new ArrayList<>());
+        FfmpegProgress progress = ffmpegTelemetry.track(null, null, "album-image");
+        Thread logConsumer = Thread.ofVirtual().unstarted(() -> getLogsFromInputStream(logs, process.getInputStream(), progress::accept));
+        logConsumer.start();
+
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            logs.forEach(System.out::println);
+            System.out.println();
+            return false;
+        }
+        ffmpegTelemetry.recordImageResize("ffmpeg", System.nanoTime() - start);
+        return true;
+    }
+
     private void addCacheThumbnails(String thumbnailFileNames, long expiry) {
         redisTemplate.opsForZSet().add("thumbnail-cache", thumbnailFileNames, expiry);
+        memoryManager.recordAccess("thumbnail:" + thumbnailFileNames, 0, 50);
     }
 
 
-    private String getAlbumPartialVideoUrl(String tokenKey, MediaJobDescription jobDescription) throws Exception {
+    private String getAlbumPartialVideoUrl(String ticket, MediaJobDescription jobDescription) throws Exception {
         long albumId = jobDescription.getId();
         Resolution albumRes = jobDescription.getResolution();
         String objectName = jobDescription.getUserId() + "/" + jobDescription.getKey();
@@ -269,7 +453,7 @@ public class AlbumService extends MediaService implements ResourceCleanable {
         String bucket = ContentMetaData.VIDEO_BUCKET;
 
         if (res == Resolution.original) {
-            return minIOService.getObjectUrl(bucket, objectNameOmittedUserDir);
+            return minIOService.getObjectUrl(jobDescription.getUserId(), bucket, objectNameOmittedUserDir);
         }
 
         List<String> streamUrlPaths = List.of(
@@ -289,11 +473,13 @@ public class AlbumService extends MediaService implements ResourceCleanable {
             else
                 prevJobStopped = true;
         }
+        if (ticket == null)
+            return jobScheduler.runAdmitted(jobDescription, t -> getAlbumPartialVideoUrl(t, jobDescription));
 
         long objectSize = minIOService.getObjectSize(bucket, objectName);
-        boolean enoughSpace = memoryManager.freeMemoryForSize(objectSize);
+        boolean enoughSpace = memoryManager.reserve(albumVidCacheJobId, objectSize);
         if (!enoughSpace)
-            return minIOService.getObjectUrl(bucket, objectNameOmittedUserDir);
+            return minIOService.getObjectUrl(jobDescription.getUserId(), bucket, objectNameOmittedUserDir);
 
         final String videoDir = albumId + "/" + objectNameOmittedUserDir + "/" + res.name();
         String userDir = jobDescription.getUserId() + "/" + videoDir;
@@ -303,12 +489,16 @@ public class AlbumService extends MediaService implements ResourceCleanable {
 
         String scale = getFfmpegScaleString(res, false);
         String input = minIOService.getObjectUrlForContainer(bucket, objectName);
-        String partialVideoJobId = videoService.createPartialVideo(tokenKey, input, scale, videoDir, outPath, prevJobStopped, albumVidCacheJobId);
+        String partialVideoJobId = videoService.createPartialVideo(ticket, input, scale, videoDir, outPath, prevJobStopped, albumVidCacheJobId);
 
         videoService.addCacheVideoJobStatus(albumVidCacheJobId, partialVideoJobId, objectSize, MediaJobStatus.RUNNING);
         videoService.addCacheRunningJob(albumVidCacheJobId);
 
-        videoService.checkPlaylistCreated(userDir + masterFileName);
+        try {
+            videoService.checkPlaylistCreated(userDir + masterFileName);
+        } finally {
+            jobScheduler.demote(ticket);
+        }
         return streamUrl;
     }
 
@@ -354,80 +544,53 @@ public class AlbumService extends MediaService implements ResourceCleanable {
      * Only free album image info. Videos in album is handled by video service free memory
      */
     @Override
-    public boolean freeMemorySpaceForSize(long size) {
-        if (OSUtil.getUsableMemory() >= size) {
-            OSUtil.updateUsableMemory(-size);
-            return true;
-        }
-        if (size > OSUtil.MEMORY_TOTAL) {
-            System.out.println("Memory limit reached: " + size / 1000 + " MB");
-            return false;
-        }
-
-        long headRoom = (long) (OSUtil.MEMORY_TOTAL * 0.1);
-        long neededSpace = size + headRoom - OSUtil.getUsableMemory();
-        neededSpace = (neededSpace > OSUtil.MEMORY_TOTAL) ? size : neededSpace;
-
-        long removingSpace = neededSpace;
-        boolean enough = false;
-
-        long now = System.currentTimeMillis();
-        Set<ZSetOperations.TypedTuple<String>> lastAccessMediaJob = getAllAlbumCacheLastAccess(now);
-        for (ZSetOperations.TypedTuple<String> mediaJob : lastAccessMediaJob) {
-            if (removingSpace <= 0) {
-                enough = true;
-                break;
-            }
-
-            long millisPassed = (long) (now - mediaJob.getScore());
-            if (millisPassed < 60_000) {
-                // zset is already sort, so if one found still being active - then the rest after is the same
-                if (removingSpace - headRoom > 0) {
-                    System.out.println("Most content is still being active, can't remove enough memory");
-                    System.out.println("Serve original size from disk instead or wait");
-                }
-                break;
-            }
-
+    public List<Resident> listEvictable(long now, long activeWindowMillis) {
+        List<Resident> residents = new ArrayList<>();
+        for (ZSetOperations.TypedTuple<String> mediaJob : getAllCacheLastAccess(albumLastAccessKey, now - activeWindowMillis, EVICTION_CANDIDATES)) {
             String mediaJobId = Objects.requireNonNull(mediaJob.getValue());
-            System.out.println("Removing: " + mediaJobId);
-
-            String[] mediaJobIdParts = mediaJobId.split(":");
-            long albumId = Long.parseLong(mediaJobIdParts[0]);
-            Resolution resolution = Resolution.valueOf(mediaJobIdParts[1]);
-
             // avoid removing entire album info (pathList, bucket, size) in making space
             // (only remove the album job which actually has memory data usage)
-            if (mediaJobId.endsWith(":album")) {
+            if (mediaJobId.endsWith(":album"))
                 continue;
-            }
 
+            long estimatedSize = 0;
             try {
+                String[] mediaJobIdParts = mediaJobId.split(":");
+                long albumId = Long.parseLong(mediaJobIdParts[0]);
+                Resolution resolution = Resolution.valueOf(mediaJobIdParts[1]);
                 Map<Object, Object> albumInfo = getCacheAlbumJobInfo(albumId);
-                long estimatedSize = albumInfo.get("size") == null ? 0 : Long.parseLong(albumInfo.get("size").toString());
+                estimatedSize = albumInfo.get("size") == null ? 0 : Long.parseLong(albumInfo.get("size").toString());
                 estimatedSize = Resolution.getEstimatedSize(
                         estimatedSize,
                         Integer.parseInt(albumInfo.getOrDefault("width", 1).toString()),
                         Integer.parseInt(albumInfo.getOrDefault("height", 1).toString()),
                         resolution);
-                System.out.println("Estimated size: " + estimatedSize);
-
-                String mediaMemoryPath = mediaJobId.replace(":", "/");
-                boolean deleted = OSUtil.deleteForceMemoryDirectory(mediaMemoryPath, ffmpegName);
-                if (deleted)
-                    removingSpace -= estimatedSize;
-            } catch (IOException e) {
-                System.err.println("Failed to delete memory path: " + mediaJobId.replace(":", "/"));
             } catch (Exception e) {
-                System.out.println("Failed to get estimated size to estimate removing space");
+                System.out.println("Failed to get estimated size for " + mediaJobId);
             }
+            long lastAccess = mediaJob.getScore() == null ? 0 : mediaJob.getScore().longValue();
+            // resizing images is cheap next to encoding video, assume ~10 MB per second
+            residents.add(new Resident(mediaJobId, estimatedSize, lastAccess, estimatedSize / 10_000d));
+        }
+        return residents;
+    }
+
+    @Override
+    public boolean evict(Resident resident) {
+        String mediaJobId = resident.id();
+        boolean deleted = false;
+        String mediaMemoryPath = mediaJobId.replace(":", "/");
+        try {
+            deleted = OSUtil.deleteForceMemoryDirectory(mediaMemoryPath, ffmpegName);
+        } catch (IOException e) {
+            System.err.println("Failed to delete memory path: " + mediaMemoryPath);
+        }
 
-            removeAlbumCacheLastAccess(mediaJobId);
-            removeJobStatus(mediaJobId);
+        synchronized (prefetchedPages) {
+            prefetchedPages.keySet().removeIf(key -> key.startsWith(mediaJobId + "|"));
         }
-        if (!enough && removingSpace - headRoom <= 0)
-            enough = true;
-        OSUtil.updateUsableMemory(neededSpace - removingSpace); // removingSpace is negative or 0
-        return enough;
+        removeAlbumCacheLastAccess(mediaJobId);
+        removeJobStatus(mediaJobId);
+        return deleted;
     }
 }
@@ -0,0 +1,84 @@
+package dev.chinh.streamingservice.workers.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses victims globally across every RAM disk resident by the configured policy, optionally behind
+ * a TinyLFU admission filter: new content is only let in if it is requested more often than what it would displace.
+ * <p>
+ * Accesses can be appended to a trace file (epochMillis,id,size,cost) for EvictionTraceReplay.
+ */
+public class EvictionEngine {
+
+    public record Victim(ResourceCleanable source, ResourceCleanable.Resident resident, double priority) {}
+
+    private final EvictionPolicy policy;
+    private final FrequencySketch sketch;
+    private final boolean tinyLfuAdmission;
+    private final BufferedWriter trace;
+
+    public EvictionEngine(EvictionPolicy policy, boolean tinyLfuAdmission, Path traceFile) throws IOException {
+        this.policy = policy;
+        this.sketch = new FrequencySketch(10_000);
+        this.tinyLfuAdmission = tinyLfuAdmission;
+        this.trace = traceFile == null ? null : Files.newBufferedWriter(traceFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public synchronized void recordAccess(String id, long size, double cost) {
+        sketch.increment(id);
+        policy.onAccess(id);
+        if (trace != null) {
+            try {
+                trace.write(System.currentTimeMillis() + "," + id + "," + size + "," + (long) cost);
+                trace.newLine();
+                trace.flush();
+            } catch (IOException e) {
+                System.err.println("Failed to write eviction trace: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param residents everything evictable right now, sizes already resolved against the ledger
+     * @param needed    bytes to free
+     * @param candidate id of the content asking for the space
+     * @return victims in eviction order, or null if admission rejected the candidate
+     */
+    public synchronized List<Victim> selectVictims(List<Victim> residents, long needed, String candidate) {
+        List<Victim> ranked = new ArrayList<>(residents.size());
+        for (Victim v : residents) {
+            ResourceCleanable.Resident r = v.resident();
+            double priority = policy.priority(new EvictionPolicy.Candidate(
+                    r.id(), r.size(), r.lastAccess(), sketch.frequency(r.id()), r.cost()));
+            ranked.add(new Victim(v.source(), r, priority));
+        }
+        ranked.sort(Comparator.comparingDouble(Victim::priority));
+
+        List<Victim> victims = new ArrayList<>();
+        long freed = 0;
+        int maxVictimFrequency = 0;
+        for (Victim v : ranked) {
+            if (freed >= needed)
+                break;
+            victims.add(v);
+            freed += v.resident().size();
+            maxVictimFrequency = Math.max(maxVictimFrequency, sketch.frequency(v.resident().id()));
+        }
+
+        if (tinyLfuAdmission && !victims.isEmpty() && sketch.frequency(candidate) <= maxVictimFrequency)
+            return null;
+        return victims;
+    }
+
+    public synchronized void onEvicted(Victim victim) {
+        policy.onEvict(victim.resident().id(), victim.priority());
+    }
+}
@@ -0,0 +1,82 @@
+package dev.chinh.streamingservice.workers.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Orders RAM disk residents for eviction - the lowest priority is evicted first.
+ * Implementations are not thread safe, EvictionEngine synchronizes.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * @param size      bytes the resident occupies
+     * @param cost      estimated ms to recreate it (re-encode, resize, copy from warm tier...)
+     * @param frequency approximate recent access count
+     */
+    record Candidate(String id, long size, long lastAccess, int frequency, double cost) {}
+
+    double priority(Candidate candidate);
+
+    default void onAccess(String id) {}
+
+    default void onEvict(String id, double priority) {}
+
+    static EvictionPolicy of(String name) {
+        return switch (name.toLowerCase()) {
+            case "lru" -> new Lru();
+            case "lfu" -> new Lfu();
+            case "gdsf" -> new Gdsf();
+            default -> throw new IllegalArgumentException("Unknown eviction policy: " + name);
+        };
+    }
+
+    /**
+     * Least recently used, size is ignored.
+     */
+    final class Lru implements EvictionPolicy {
+        @Override
+        public double priority(Candidate candidate) {
+            return candidate.lastAccess();
+        }
+    }
+
+    /**
+     * Least frequently used per byte, so one large rarely watched video goes before many small popular pages.
+     */
+    final class Lfu implements EvictionPolicy {
+        @Override
+        public double priority(Candidate candidate) {
+            return (double) candidate.frequency() / Math.max(1, candidate.size());
+        }
+    }
+
+    /**
+     * Greedy-Dual-Size-Frequency: H = L + frequency * cost / size.
+     * L inflates to the priority of each victim, and a resident keeps the L of its last access,
+     * so entries that stop being accessed age out even if they were popular once.
+     */
+    final class Gdsf implements EvictionPolicy {
+        private double clock;
+        private final Map<String, Double> clockAtAccess = new HashMap<>();
+
+        @Override
+        public double priority(Candidate candidate) {
+            return clockAtAccess.getOrDefault(candidate.id(), 0d)
+                    + candidate.frequency() * candidate.cost() / Math.max(1, candidate.size());
+        }
+
+        @Override
+        public void onAccess(String id) {
+            if (clockAtAccess.size() > 100_000)
+                clockAtAccess.clear(); // ids removed outside eviction are never cleaned up - start over rather than grow
+            clockAtAccess.put(id, clock);
+        }
+
+        @Override
+        public void onEvict(String id, double priority) {
+            clock = Math.max(clock, priority);
+            clockAtAccess.remove(id);
+        }
+    }
+}
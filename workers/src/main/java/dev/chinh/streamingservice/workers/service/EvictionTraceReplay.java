@@ -0,0 +1,136 @@
+package dev.chinh.streamingservice.workers.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Replays an access trace against every eviction policy (with and without TinyLFU admission) and prints hit rates.
+ * <p>
+ * The trace is what MemoryManager writes with memory.eviction.trace-file set: epochMillis,id,size,cost per line.
+ * <pre>
+ * java -cp workers.jar dev.chinh.streamingservice.workers.service.EvictionTraceReplay trace.csv 4294967296
+ * </pre>
+ */
+public class EvictionTraceReplay {
+
+    private record Access(long time, String id, long size, double cost) {}
+
+    private record Result(String name, long hits, long requests, long hitBytes, long requestBytes, double costSaved) {}
+
+    private static final class Cached {
+        private long size;
+        private long lastAccess;
+        private double cost;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: EvictionTraceReplay <trace.csv> <capacityBytes> [policy...]");
+            return;
+        }
+        List<Access> trace = readTrace(Path.of(args[0]));
+        long capacity = Long.parseLong(args[1]);
+        List<String> policies = args.length > 2
+                ? Arrays.asList(args).subList(2, args.length)
+                : List.of("lru", "lfu", "gdsf");
+
+        System.out.printf("%d accesses, capacity %d MB%n", trace.size(), capacity / 1_000_000);
+        System.out.printf("%-16s %10s %10s %14s%n", "policy", "hit rate", "byte hit", "cost saved ms");
+        for (String policy : policies) {
+            for (boolean admission : List.of(false, true)) {
+                Result r = replay(trace, capacity, policy, admission);
+                System.out.printf("%-16s %9.2f%% %9.2f%% %14.0f%n",
+                        r.name(),
+                        100d * r.hits() / Math.max(1, r.requests()),
+                        100d * r.hitBytes() / Math.max(1, r.requestBytes()),
+                        r.costSaved());
+            }
+        }
+    }
+
+    private static Result replay(List<Access> trace, long capacity, String policyName, boolean tinyLfuAdmission) {
+        EvictionPolicy policy = EvictionPolicy.of(policyName);
+        FrequencySketch sketch = new FrequencySketch(10_000);
+        Map<String, Cached> cache = new HashMap<>();
+        long used = 0;
+        long hits = 0, hitBytes = 0, requestBytes = 0;
+        double costSaved = 0;
+
+        for (Access access : trace) {
+            sketch.increment(access.id());
+            policy.onAccess(access.id());
+            requestBytes += access.size();
+
+            Cached cached = cache.get(access.id());
+            if (cached != null) {
+                hits++;
+                hitBytes += cached.size;
+                costSaved += cached.cost;
+                cached.lastAccess = access.time();
+                continue;
+            }
+            if (access.size() > capacity)
+                continue;
+
+            // rank everything, same as EvictionEngine
+            List<Map.Entry<String, Double>> ranked = new ArrayList<>();
+            for (Map.Entry<String, Cached> e : cache.entrySet()) {
+                Cached c = e.getValue();
+                ranked.add(Map.entry(e.getKey(), policy.priority(new EvictionPolicy.Candidate(
+                        e.getKey(), c.size, c.lastAccess, sketch.frequency(e.getKey()), c.cost))));
+            }
+            ranked.sort(Map.Entry.comparingByValue());
+
+            List<Map.Entry<String, Double>> victims = new ArrayList<>();
+            long freed = 0;
+            int maxVictimFrequency = 0;
+            for (Map.Entry<String, Double> e : ranked) {
+                if (used - freed + access.size() <= capacity)
+                    break;
+                victims.add(e);
+                freed += cache.get(e.getKey()).size;
+                maxVictimFrequency = Math.max(maxVictimFrequency, sketch.frequency(e.getKey()));
+            }
+            if (tinyLfuAdmission && !victims.isEmpty() && sketch.frequency(access.id()) <= maxVictimFrequency)
+                continue;
+
+            for (Map.Entry<String, Double> victim : victims) {
+                used -= cache.remove(victim.getKey()).size;
+                policy.onEvict(victim.getKey(), victim.getValue());
+            }
+            Cached c = new Cached();
+            c.size = access.size();
+            c.lastAccess = access.time();
+            c.cost = access.cost();
+            cache.put(access.id(), c);
+            used += c.size;
+        }
+        String name = policyName + (tinyLfuAdmission ? "+tinylfu" : "");
+        return new Result(name, hits, trace.size(), hitBytes, requestBytes, costSaved);
+    }
+
+    // sizes and costs of a hit are 0 in the trace, keep the last known ones per id
+    private static List<Access> readTrace(Path file) throws IOException {
+        List<Access> trace = new ArrayList<>();
+        Map<String, long[]> known = new HashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length < 4)
+                    continue;
+                String id = parts[1];
+                long size = Long.parseLong(parts[2]);
+                long cost = Long.parseLong(parts[3]);
+                long[] last = known.computeIfAbsent(id, _ -> new long[]{1, 0});
+                if (size > 0) last[0] = size;
+                if (cost > 0) last[1] = cost;
+                trace.add(new Access(Long.parseLong(parts[0]), id, last[0], last[1] == 0 ? last[0] / 1000d : last[1]));
+            }
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,70 @@
+package dev.chinh.streamingservice.workers.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for ffmpeg {@code -progress pipe:1} output of a single job.
+ * <p>
+ * ffmpeg writes a block of key=value lines per update, terminated by {@code progress=continue} or {@code progress=end}.
+ * Progress goes to the same stream as the regular log so every line is offered to {@link #accept(String)},
+ * which swallows the progress lines and leaves the rest for the log buffer.
+ */
+public class FfmpegProgress {
+
+    private static final Pattern KEY_VALUE = Pattern.compile("^[a-z][a-z0-9_]*=\\S*$");
+
+    public record Snapshot(long frame, double fps, double speed, double encodedSeconds,
+                           double bitrateKbps, long bytesOut, boolean end) {}
+
+    private final Map<String, String> current = new HashMap<>();
+    private final Consumer<Snapshot> onSnapshot;
+
+    public FfmpegProgress(Consumer<Snapshot> onSnapshot) {
+        this.onSnapshot = onSnapshot;
+    }
+
+    /**
+     * @return true if the line was part of the progress output
+     */
+    public boolean accept(String line) {
+        if (line.indexOf('=') < 0 || !KEY_VALUE.matcher(line).matches())
+            return false;
+
+        int eq = line.indexOf('=');
+        String key = line.substring(0, eq);
+        String value = line.substring(eq + 1);
+        if (!key.equals("progress")) {
+            current.put(key, value);
+            return true;
+        }
+
+        Snapshot snapshot = new Snapshot(
+                (long) parse(current.get("frame"), ""),
+                parse(current.get("fps"), ""),
+                parse(current.get("speed"), "x"),
+                parse(current.get("out_time_us"), "") / 1_000_000d,
+                parse(current.get("bitrate"), "kbits/s"),
+                (long) parse(current.get("total_size"), ""),
+                value.equals("end")
+        );
+        current.clear();
+        onSnapshot.accept(snapshot);
+        return true;
+    }
+
+    // values are N/A until ffmpeg has something to report
+    private static double parse(String value, String suffix) {
+        if (value == null)
+            return 0;
+        if (!suffix.isEmpty() && value.endsWith(suffix))
+            value = value.substring(0, value.length() - suffix.length());
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
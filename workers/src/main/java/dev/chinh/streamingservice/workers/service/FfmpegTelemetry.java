@@ -0,0 +1,100 @@
+package dev.chinh.streamingservice.workers.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns ffmpeg progress into per-profile metrics and pushes live progress to the job's user.
+ * The profile is the rendition being produced (p720, preview, ladder, album-image...) so speed factors
+ * can be compared per resolution when sizing transcode nodes.
+ */
+@Service
+public class FfmpegTelemetry {
+
+    private final MeterRegistry meterRegistry;
+    private final WorkerRedisService workerRedisService;
+
+    @Value("${ffmpeg.progress.push-interval-ms:2000}")
+    private long pushIntervalMs;
+
+    public FfmpegTelemetry(MeterRegistry meterRegistry, WorkerRedisService workerRedisService) {
+        this.meterRegistry = meterRegistry;
+        this.workerRedisService = workerRedisService;
+    }
+
+    /**
+     * @param jobId  job to report progress for, null to only record metrics
+     * @param userId user to push progress to, null to only record metrics
+     */
+    public FfmpegProgress track(String jobId, String userId, String profile) {
+        DistributionSummary speed = DistributionSummary.builder("worker.ffmpeg.speed")
+                .description("encode speed as a multiple of real time")
+                .tag("profile", profile)
+                .register(meterRegistry);
+        DistributionSummary fps = DistributionSummary.builder("worker.ffmpeg.fps")
+                .tag("profile", profile)
+                .register(meterRegistry);
+        DistributionSummary bitrate = DistributionSummary.builder("worker.ffmpeg.bitrate")
+                .baseUnit("kbits/s")
+                .tag("profile", profile)
+                .register(meterRegistry);
+        Counter encodedSeconds = Counter.builder("worker.ffmpeg.encoded")
+                .baseUnit("seconds")
+                .tag("profile", profile)
+                .register(meterRegistry);
+        Counter bytesOut = Counter.builder("worker.ffmpeg.bytes.out")
+                .baseUnit("bytes")
+                .tag("profile", profile)
+                .register(meterRegistry);
+
+        boolean push = jobId != null && userId != null;
+        // snapshots of one job arrive in order on its log reader thread
+        return new FfmpegProgress(new java.util.function.Consumer<>() {
+            private FfmpegProgress.Snapshot last;
+            private long lastPush;
+
+            @Override
+            public void accept(FfmpegProgress.Snapshot snapshot) {
+                if (snapshot.speed() > 0)
+                    speed.record(snapshot.speed());
+                if (snapshot.fps() > 0)
+                    fps.record(snapshot.fps());
+                if (snapshot.bitrateKbps() > 0)
+                    bitrate.record(snapshot.bitrateKbps());
+                double prevSeconds = last == null ? 0 : last.encodedSeconds();
+                long prevBytes = last == null ? 0 : last.bytesOut();
+                // counters restart when ffmpeg resumes a stopped job so only count forward movement
+                encodedSeconds.increment(Math.max(0, snapshot.encodedSeconds() - prevSeconds));
+                bytesOut.increment(Math.max(0, snapshot.bytesOut() - prevBytes));
+                last = snapshot;
+
+                long now = System.currentTimeMillis();
+                if (push && (snapshot.end() || now - lastPush >= pushIntervalMs)) {
+                    lastPush = now;
+                    try {
+                        workerRedisService.sendJobProgress(jobId, userId, snapshot);
+                    } catch (Exception e) {
+                        System.err.println("Failed to push ffmpeg progress for " + jobId + ": " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * One resized image, engine is jvm or ffmpeg. The count gives images/sec and the histogram p99 per engine.
+     */
+    public void recordImageResize(String engine, long nanos) {
+        Timer.builder("worker.image.resize")
+                .tag("engine", engine)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,63 @@
+package dev.chinh.streamingservice.workers.service;
+
+/**
+ * Approximate access counts in fixed memory (count-min sketch, 4 rows of 4-bit style counters capped at 15).
+ * All counters are halved once the sample size is reached so old popularity fades, as in TinyLFU.
+ * Not thread safe - callers synchronize.
+ */
+public class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final int[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    public FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(16, expectedEntries) * 2 - 1);
+        this.table = new int[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = width * 10;
+    }
+
+    public void increment(String key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (table[i][index] < MAX_COUNT) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    public int frequency(String key) {
+        int hash = key.hashCode();
+        int min = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table[i][indexOf(hash, i)]);
+        }
+        return min;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+
+    private void reset() {
+        for (int[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
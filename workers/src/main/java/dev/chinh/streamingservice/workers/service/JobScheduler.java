@@ -0,0 +1,326 @@
+package dev.chinh.streamingservice.workers.service;
+
+import dev.chinh.streamingservice.common.OSUtil;
+import dev.chinh.streamingservice.common.data.MediaJobDescription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process admission control for ffmpeg jobs on this node.
+ * <p>
+ * Every job gets a ticket before it runs. A waiting job is admitted by priority class first,
+ * then by fair share (user with the fewest running jobs), then by arrival time.
+ * Capacity comes from the cpu cores reported by OSUtil, and background work is held back
+ * while the RAM disk is below its headroom.
+ * An interactive job that finds no free slot preempts a running background preview.
+ * <p>
+ * A ticket is released exactly once: either by the worker when the job returns,
+ * or by the async ffmpeg process once it exits if the job handed the ticket off.
+ * Once the user has their playlist the rest of the encode is demoted to background work,
+ * it stops counting against interactive and page capacity but still holds back background jobs.
+ * Jobs served from cache are not admitted at all, they only take a ticket once they have to encode.
+ */
+@Service
+public class JobScheduler {
+
+    private static final Logger log = LogManager.getLogger(JobScheduler.class);
+
+    public enum JobClass {
+        INTERACTIVE, // user is waiting on playback
+        PAGE,        // album page being browsed
+        BACKGROUND;  // previews, thumbnails and album prefetch
+
+        public static JobClass of(String jobType) {
+            return switch (jobType) {
+                case "partial", "ladder", "albumVideoUrl" -> INTERACTIVE;
+                case "albumUrlList" -> PAGE;
+                case null, default -> BACKGROUND;
+            };
+        }
+    }
+
+    private record Waiter(String ticket, JobClass jobClass, String userId, long enqueuedAt) {}
+
+    private static final class Running {
+        private final String ticket;
+        private final JobClass jobClass;
+        private final String userId;
+        private boolean handedOff;
+        private boolean demoted;
+        private Runnable preemptHandler;
+        private boolean preempting;
+
+        private Running(String ticket, JobClass jobClass, String userId) {
+            this.ticket = ticket;
+            this.jobClass = jobClass;
+            this.userId = userId;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${scheduler.max-concurrent-jobs:0}")
+    private int maxConcurrentJobs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Waiter> waiting = new ArrayList<>();
+    private final Map<String, Running> running = new HashMap<>();
+
+    private final Map<JobClass, Timer> waitTimers = new EnumMap<>(JobClass.class);
+    private Counter preemptions;
+
+    public JobScheduler(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (maxConcurrentJobs <= 0) {
+            int ffmpegThreads = 4;
+            String numOfThreadEnv = System.getenv("NUMBER_OF_THREADS");
+            if (numOfThreadEnv != null && !numOfThreadEnv.isEmpty()) {
+                try {
+                    ffmpegThreads = Math.max(1, Integer.parseInt(numOfThreadEnv));
+                } catch (NumberFormatException ignored) {}
+            }
+            maxConcurrentJobs = Math.max(2, OSUtil.getCpuCores() / ffmpegThreads);
+        }
+        log.info("Job scheduler max concurrent jobs: {}", maxConcurrentJobs);
+
+        for (JobClass jobClass : JobClass.values()) {
+            String tag = jobClass.name().toLowerCase();
+            Gauge.builder("worker.scheduler.queue.depth", () -> countWaiting(jobClass))
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            Gauge.builder("worker.scheduler.running", () -> countRunning(jobClass))
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            waitTimers.put(jobClass, Timer.builder("worker.scheduler.wait")
+                    .tag("class", tag)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        preemptions = Counter.builder("worker.scheduler.preemptions").register(meterRegistry);
+    }
+
+    /**
+     * Block until the job may run.
+     * @return the ticket to thread through the job and release once it is done
+     */
+    public String admit(MediaJobDescription description) throws InterruptedException {
+        Waiter waiter = new Waiter(
+                description.getWorkId() + "#" + UUID.randomUUID(),
+                JobClass.of(description.getJobType()),
+                description.getUserId(),
+                System.nanoTime());
+
+        lock.lock();
+        try {
+            waiting.add(waiter);
+            try {
+                while (!canAdmit(waiter)) {
+                    if (waiter == nextWaiter() && waiter.jobClass() == JobClass.INTERACTIVE)
+                        preemptBackground();
+                    changed.await(1, TimeUnit.SECONDS); // re-check RAM headroom periodically
+                }
+            } finally {
+                waiting.remove(waiter);
+                changed.signalAll();
+            }
+            running.put(waiter.ticket(), new Running(waiter.ticket(), waiter.jobClass(), waiter.userId()));
+        } finally {
+            lock.unlock();
+        }
+        waitTimers.get(waiter.jobClass()).record(Duration.ofNanos(System.nanoTime() - waiter.enqueuedAt()));
+        return waiter.ticket();
+    }
+
+    @FunctionalInterface
+    public interface AdmittedCall<T> {
+        T call(String ticket) throws Exception;
+    }
+
+    /**
+     * Admit a job that skipped admission in the worker and turned out to need a slot after all.
+     * The ticket is completed when the call returns, unless it was handed off.
+     */
+    public <T> T runAdmitted(MediaJobDescription description, AdmittedCall<T> call) throws Exception {
+        String ticket = admit(description);
+        try {
+            return call.call(ticket);
+        } finally {
+            complete(ticket);
+        }
+    }
+
+    /**
+     * The job started an async process which now owns the ticket and releases it on exit.
+     * @param preemptHandler stops the process if an interactive job needs the slot, null if not preemptible
+     */
+    public void handOff(String ticket, Runnable preemptHandler) {
+        lock.lock();
+        try {
+            Running r = running.get(ticket);
+            if (r != null) {
+                r.handedOff = true;
+                r.preemptHandler = preemptHandler;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The job's result is out and what is left of its process runs in the background,
+     * interactive and page jobs may take its slot. No-op for an unknown ticket.
+     */
+    public void demote(String ticket) {
+        if (ticket == null)
+            return;
+        lock.lock();
+        try {
+            Running r = running.get(ticket);
+            if (r != null && !r.demoted) {
+                r.demoted = true;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the worker once the job returns. Releases the ticket unless it was handed off.
+     */
+    public void complete(String ticket) {
+        if (ticket == null)
+            return;
+        lock.lock();
+        try {
+            Running r = running.get(ticket);
+            if (r != null && !r.handedOff) {
+                running.remove(ticket);
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release regardless of hand off. Safe to call more than once.
+     */
+    public void release(String ticket) {
+        if (ticket == null)
+            return;
+        lock.lock();
+        try {
+            if (running.remove(ticket) != null)
+                changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAdmit(Waiter waiter) {
+        if (waiter != nextWaiter())
+            return false;
+        if (waiter.jobClass() != JobClass.BACKGROUND)
+            return countForeground() < maxConcurrentJobs;
+        if (running.size() >= maxConcurrentJobs)
+            return false;
+        if (!hasRamHeadroom())
+            return running.isEmpty(); // never stall completely
+        return true;
+    }
+
+    // demoted encodes don't hold up interactive or page jobs
+    private long countForeground() {
+        return running.values().stream().filter(r -> !r.demoted).count();
+    }
+
+    private JobClass classOf(Running r) {
+        return r.demoted ? JobClass.BACKGROUND : r.jobClass;
+    }
+
+    private boolean hasRamHeadroom() {
+        if (OSUtil.MEMORY_USABLE == null || OSUtil.MEMORY_TOTAL == 0)
+            return true;
+        return OSUtil.getUsableMemory() >= OSUtil.MEMORY_TOTAL * 0.1;
+    }
+
+    private Waiter nextWaiter() {
+        Map<String, Integer> runningPerUser = new HashMap<>();
+        for (Running r : running.values()) {
+            runningPerUser.merge(r.userId, 1, Integer::sum);
+        }
+        return waiting.stream()
+                .min(Comparator.comparing(Waiter::jobClass)
+                        .thenComparingInt(w -> runningPerUser.getOrDefault(w.userId(), 0))
+                        .thenComparingLong(Waiter::enqueuedAt))
+                .orElse(null);
+    }
+
+    private void preemptBackground() {
+        if (countForeground() < maxConcurrentJobs)
+            return;
+        for (Running r : running.values()) {
+            if (r.preempting)
+                return; // one at a time - wait for it to exit
+        }
+        for (Running r : running.values()) {
+            if (r.jobClass == JobClass.BACKGROUND && !r.demoted && r.preemptHandler != null) {
+                r.preempting = true;
+                preemptions.increment();
+                log.info("Preempting background job {}", r.ticket);
+                Runnable handler = r.preemptHandler;
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        handler.run();
+                    } catch (Exception e) {
+                        log.error("Failed to preempt job", e);
+                        lock.lock();
+                        try {
+                            r.preempting = false;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                });
+                return;
+            }
+        }
+    }
+
+    private double countWaiting(JobClass jobClass) {
+        lock.lock();
+        try {
+            return waiting.stream().filter(w -> w.jobClass() == jobClass).count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double countRunning(JobClass jobClass) {
+        lock.lock();
+        try {
+            return running.values().stream().filter(r -> classOf(r) == jobClass).count();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -15,6 +15,7 @@ import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 public abstract class MediaService {
 
@@ -33,9 +34,16 @@ public abstract class MediaService {
         this.workerRedisService = workerRedisService;
     }
 
-    public abstract void handleJob(String tokenKey, MediaJobDescription jobDescription);
+    public abstract void handleJob(String ticket, MediaJobDescription jobDescription);
 
-    public boolean isJobWithinHandleWindow(String tokenKey, MediaJobDescription jobDescription) {
+    /**
+     * @return false if the job is served from cache, handleJob then runs with a null ticket
+     */
+    public boolean needsAdmission(MediaJobDescription jobDescription) {
+        return true;
+    }
+
+    public boolean isJobWithinHandleWindow(String ticket, MediaJobDescription jobDescription) {
         Instant scheduledTime = jobDescription.getScheduledTime();
         Instant fiveMinutesAgo = Instant.now().minus(5, ChronoUnit.MINUTES);
         return !scheduledTime.isBefore(fiveMinutesAgo); // has passed 5 minutes then don't rehandle
@@ -61,10 +69,32 @@ public abstract class MediaService {
         workerRedisService.removeStatus(jobId);
     }
 
+    /**
+     * Add machine readable progress (key=value blocks on stdout) right after the ffmpeg binary, see FfmpegProgress.
+     */
+    protected String[] withProgressOutput(String[] cmd) {
+        List<String> command = new ArrayList<>(List.of(cmd));
+        int ffmpeg = command.indexOf("ffmpeg");
+        if (ffmpeg < 0)
+            return cmd;
+        command.addAll(ffmpeg + 1, List.of("-progress", "pipe:1", "-nostats"));
+        return command.toArray(new String[0]);
+    }
+
     public void getLogsFromInputStream(List<String> logs, InputStream inputStream) {
+        getLogsFromInputStream(logs, inputStream, null);
+    }
+
+    /**
+     * @param onLine sees every line as it is read and returns true if it consumed it (e.g. ffmpeg progress)
+     *               so it is kept out of the log buffer. May be null.
+     */
+    public void getLogsFromInputStream(List<String> logs, InputStream inputStream, Predicate<String> onLine) {
         try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
             String line;
             while ((line = br.readLine()) != null) {
+                if (onLine != null && onLine.test(line))
+                    continue;
                 logs.add("[ffmpeg] " + line);
             }
         } catch (Exception e) {
@@ -77,10 +107,17 @@ public abstract class MediaService {
      * @return mediaJobId in batch of 50.
      */
     protected Set<ZSetOperations.TypedTuple<String>> getAllCacheLastAccess(String key, long max) {
+        return getAllCacheLastAccess(key, max, 50);
+    }
+
+    protected Set<ZSetOperations.TypedTuple<String>> getAllCacheLastAccess(String key, long max, int count) {
         return redisTemplate.opsForZSet()
-                .rangeByScoreWithScores(key, 0, max, 0, 50);
+                .rangeByScoreWithScores(key, 0, max, 0, count);
     }
 
+    // eviction candidates per cleanable - the engine ranks them together
+    protected static final int EVICTION_CANDIDATES = 200;
+
     protected boolean checkSrcSmallerThanTarget(int width, int height, int target) {
         if (width >= height) { // Landscape
             return height <= target;
@@ -1,25 +1,298 @@
 package dev.chinh.streamingservice.workers.service;
 
+import dev.chinh.streamingservice.common.OSUtil;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
+/**
+ * Reservation ledger for the RAM disk.
+ * <p>
+ * Every owner (a media work id) reserves an estimate before writing. While it is open it is charged the larger of
+ * its reservation and the bytes actually written, reconciled from segment sizes as they land. Once the job ends the
+ * owner is settled and only charged what it actually wrote, refunding the rest. Eviction releases owners and frees
+ * their real size.
+ * <p>
+ * Admissions are checked and charged atomically so parallel reservations never oversubscribe the disk.
+ * When space is short victims are chosen globally across every registered ResourceCleanable by the EvictionEngine.
+ * Usage the ledger doesn't know about (files left from a previous run) is picked up as untracked
+ * on each df refresh. OSUtil.MEMORY_USABLE mirrors the ledger's available bytes for other readers.
+ */
 @Service
 public class MemoryManager {
 
-    private final List<ResourceCleanable> cleanableList = new ArrayList<>();
+    private static final Logger log = LogManager.getLogger(MemoryManager.class);
+
+    private static final class Entry {
+        private long reserved;
+        private long actual;
+        private boolean settled;
+
+        private long charged() {
+            return settled ? actual : Math.max(reserved, actual);
+        }
+    }
+
+    private final List<ResourceCleanable> cleanableList = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Entry> ledger = new HashMap<>();
+    private long charged;
+    private long untracked;
+
+    // one eviction pass at a time, ledger updates don't wait on it
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // residents accessed within this window are never evicted
+    private static final long ACTIVE_WINDOW_MILLIS = 60_000;
+
+    @Value("${memory.eviction.policy:gdsf}")
+    private String evictionPolicy;
+
+    @Value("${memory.eviction.admission:none}")
+    private String admissionPolicy;
+
+    @Value("${memory.eviction.trace-file:}")
+    private String traceFile;
+
+    private EvictionEngine evictionEngine;
+
+    @PostConstruct
+    public void init() throws IOException {
+        evictionEngine = new EvictionEngine(
+                EvictionPolicy.of(evictionPolicy),
+                admissionPolicy.equalsIgnoreCase("tinylfu"),
+                traceFile.isBlank() ? null : Path.of(traceFile));
+        log.info("RAM disk eviction policy: {}, admission: {}", evictionPolicy, admissionPolicy);
+    }
+
+    /**
+     * Called once OSUtil has read the RAM disk info. Whatever is on it at startup belongs to a previous run.
+     */
+    public synchronized void initialize() {
+        if (OSUtil.MEMORY_USABLE != null)
+            untracked = Math.max(0, OSUtil.MEMORY_TOTAL - OSUtil.getUsableMemory());
+        publish();
+    }
 
     public void registerResourceCleanable(ResourceCleanable cleanable) {
         cleanableList.add(cleanable);
     }
 
-    public boolean freeMemoryForSize(long size) {
-        for (ResourceCleanable cleanable : cleanableList) {
-            if (cleanable.freeMemorySpaceForSize(size)) {
+    /**
+     * Reserve size bytes for owner, evicting inactive content if needed. Reservations of the same owner add up.
+     * @return false if there isn't enough space even after eviction - nothing is reserved then
+     */
+    public boolean reserve(String owner, long size) {
+        recordAccess(owner, size, 0);
+        if (size > OSUtil.MEMORY_TOTAL) {
+            System.out.println("Memory limit reached: " + size / 1000 + " MB");
+            return false;
+        }
+        if (tryReserve(owner, size))
+            return true;
+
+        evictionLock.lock();
+        try {
+            if (tryReserve(owner, size))
                 return true;
+            long headRoom = (long) (OSUtil.MEMORY_TOTAL * 0.1);
+            long needed = size + headRoom - available();
+            List<EvictionEngine.Victim> victims = evictionEngine.selectVictims(listResidents(), needed, owner);
+            if (victims == null) {
+                System.out.println("Not admitting " + owner + " - less popular than what it would evict");
+                return false;
+            }
+            long freed = 0;
+            for (EvictionEngine.Victim victim : victims) {
+                ResourceCleanable.Resident resident = victim.resident();
+                System.out.println("Removing: " + resident.id());
+                if (victim.source().evict(resident)) {
+                    freed += release(resident.id(), resident.size());
+                    evictionEngine.onEvicted(victim);
+                }
             }
+            if (freed < needed)
+                System.out.println("Most content is still being active, can't remove enough memory");
+            return tryReserve(owner, size);
+        } finally {
+            evictionLock.unlock();
         }
-        return false;
+    }
+
+    /**
+     * Content was requested. Feeds the eviction policy's frequency and recency.
+     * @param cost estimated ms to recreate it, 0 if unknown
+     */
+    public void recordAccess(String id, long size, double cost) {
+        if (evictionEngine != null)
+            evictionEngine.recordAccess(id, size, cost);
+    }
+
+    // every resident across all cleanables, sized by the ledger where it knows better
+    private List<EvictionEngine.Victim> listResidents() {
+        long now = System.currentTimeMillis();
+        Map<String, EvictionEngine.Victim> byId = new HashMap<>();
+        for (ResourceCleanable cleanable : cleanableList) {
+            for (ResourceCleanable.Resident r : cleanable.listEvictable(now, ACTIVE_WINDOW_MILLIS)) {
+                ResourceCleanable.Resident sized = new ResourceCleanable.Resident(
+                        r.id(), chargedSize(r.id(), r.size()), r.lastAccess(), r.cost());
+                // the same content can be listed twice (e.g. hot segment store copy of a video) - keep the cheaper removal
+                byId.merge(r.id(), new EvictionEngine.Victim(cleanable, sized, 0),
+                        (a, b) -> a.resident().cost() <= b.resident().cost() ? a : b);
+            }
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    private synchronized long chargedSize(String owner, long fallback) {
+        Entry entry = ledger.get(owner);
+        return entry == null ? fallback : entry.charged();
+    }
+
+    private synchronized boolean tryReserve(String owner, long size) {
+        if (available() < size)
+            return false;
+        Entry entry = ledger.computeIfAbsent(owner, _ -> new Entry());
+        long before = entry.charged();
+        if (entry.settled) {
+            // owner is being written again (resumed or next album page) - charge on top of what is on disk
+            entry.settled = false;
+            entry.reserved = entry.actual;
+        }
+        entry.reserved += size;
+        charged += entry.charged() - before;
+        publish();
+        return true;
+    }
+
+    /**
+     * Bytes owner has actually written so far.
+     */
+    public synchronized void reconcile(String owner, long actualBytes) {
+        Entry entry = ledger.get(owner);
+        if (entry == null)
+            return;
+        long before = entry.charged();
+        entry.actual = actualBytes;
+        charged += entry.charged() - before;
+        publish();
+    }
+
+    /**
+     * Reconcile from the size of owner's directory on the RAM disk. No-op when the RAM disk isn't reachable
+     * from this host (ffmpeg in another container) - the reservation stands until the next df refresh.
+     */
+    public void reconcileFromDirectory(String owner, String relativeDir) {
+        if (!OSUtil.isRAMDiskHostAccessible())
+            return;
+        Path dir = OSUtil.getRAMDiskPath(relativeDir);
+        if (!Files.isDirectory(dir))
+            return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            long size = walk.filter(Files::isRegularFile)
+                    .mapToLong(p -> {
+                        try {
+                            return Files.size(p);
+                        } catch (IOException e) {
+                            return 0; // removed while walking
+                        }
+                    })
+                    .sum();
+            reconcile(owner, size);
+        } catch (IOException e) {
+            log.warn("Failed to size {}", dir, e);
+        }
+    }
+
+    /**
+     * The owner's job ended - refund whatever it reserved but didn't write.
+     */
+    public synchronized void settle(String owner) {
+        Entry entry = ledger.get(owner);
+        if (entry == null || entry.settled)
+            return;
+        long before = entry.charged();
+        if (entry.actual == 0)
+            entry.actual = entry.reserved; // nothing reconciled (container mode) - keep the estimate
+        entry.settled = true;
+        charged += entry.charged() - before;
+        publish();
+    }
+
+    /**
+     * from wrote into into's directory and is done, its bytes now belong to into and are evicted with it.
+     * An open reservation of into is left as it is. Reconcile into from its directory afterwards,
+     * it may already have counted some of the files.
+     */
+    public synchronized void absorb(String from, String into) {
+        Entry source = ledger.remove(from);
+        if (source == null)
+            return;
+        long bytes = source.settled || source.actual > 0 ? source.actual : source.reserved;
+        charged -= source.charged();
+        Entry target = ledger.computeIfAbsent(into, _ -> {
+            Entry entry = new Entry();
+            entry.settled = true;
+            return entry;
+        });
+        long before = target.charged();
+        target.actual += bytes;
+        charged += target.charged() - before;
+        publish();
+    }
+
+    /**
+     * The owner's files were removed from the RAM disk.
+     * @param fallbackSize size to assume for content the ledger doesn't know about, taken from untracked usage
+     * @return bytes freed
+     */
+    public synchronized long release(String owner, long fallbackSize) {
+        Entry entry = ledger.remove(owner);
+        long freed;
+        if (entry != null) {
+            freed = entry.charged();
+            charged -= freed;
+        } else {
+            freed = Math.min(untracked, Math.max(0, fallbackSize));
+            untracked -= freed;
+        }
+        publish();
+        return freed;
+    }
+
+    /**
+     * Re-read usage from df and attribute whatever the ledger can't explain to untracked content.
+     * Open reservations without reconciled bytes are counted on top of df, which errs on the safe side.
+     */
+    public void refresh(String containerName) throws IOException, InterruptedException {
+        long usableOnDisk = OSUtil.readUsableMemory(containerName);
+        synchronized (this) {
+            long usedOnDisk = OSUtil.MEMORY_TOTAL - usableOnDisk;
+            long written = ledger.values().stream().mapToLong(e -> e.actual).sum();
+            untracked = Math.max(0, usedOnDisk - written);
+            publish();
+        }
+    }
+
+    public synchronized long available() {
+        return OSUtil.MEMORY_TOTAL - untracked - charged;
+    }
+
+    private void publish() {
+        if (OSUtil.MEMORY_USABLE != null)
+            OSUtil.MEMORY_USABLE.set(available());
     }
 }
@@ -1,5 +1,6 @@
 package dev.chinh.streamingservice.workers.service;
 
+import dev.chinh.streamingservice.common.ObjectUrlResolver;
 import io.minio.*;
 import io.minio.messages.Item;
 import lombok.RequiredArgsConstructor;
@@ -7,6 +8,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.util.UriUtils;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
 @Service
@@ -14,6 +16,7 @@ import java.nio.charset.StandardCharsets;
 public class MinIOService {
 
     private final MinioClient minioClient;
+    private final ObjectUrlResolver objectUrlResolver;
 
     @Value("${minio.container.url}")
     private String minioContainerUrl;
@@ -30,8 +33,23 @@ public class MinIOService {
         return minioContainerUrl + "/" + encodeUriPathSegment(bucket) + "/" + encodeUriPath(object);
     }
 
-    public String getObjectUrl(String bucket, String object) {
-        return "/stream/object/" + encodeUriPathSegment(bucket) + "/" + encodeUriPath(object);
+    /**
+     * Url the browser loads an object from, object is relative to the owner's directory in the bucket.
+     */
+    public String getObjectUrl(String userId, String bucket, String object) {
+        return objectUrlResolver.getObjectUrl(userId, bucket, object);
+    }
+
+    /**
+     * Stream an object's content. Caller closes it.
+     */
+    public InputStream getObject(String bucket, String object) throws Exception {
+        return minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(object)
+                        .build()
+        );
     }
 
     public Iterable<Result<Item>> getAllItemsInBucketWithPrefix(String bucketName, String prefix) {
@@ -58,6 +76,20 @@ public class MinIOService {
         }
     }
 
+    public String getObjectETag(String bucket, String object) {
+        try {
+            StatObjectResponse response = minioClient.statObject(
+                    StatObjectArgs.builder()
+                            .bucket(bucket)
+                            .object(object)
+                            .build()
+            );
+            return response.etag();
+        } catch (Exception e) {
+            throw new RuntimeException("Error reading ETag of " + bucket + "/" + object, e);
+        }
+    }
+
     public void removeFile(String bucket, String object) throws Exception {
         minioClient.removeObject(
                 RemoveObjectArgs.builder()
@@ -0,0 +1,73 @@
+package dev.chinh.streamingservice.workers.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks when an HLS output can start playing by following ffmpeg's own log instead of polling the file system.
+ * <p>
+ * The hls muxer logs {@code Opening '<dir>/master3.ts' for writing} every time it starts a segment, and it only does
+ * so after closing the previous segment and rewriting the playlist (and the master playlist for var_stream_map).
+ * So once segment N+1 of every variant has been opened, the playlist lists N complete segments.
+ */
+public class PlaylistReadiness {
+
+    // variant prefix e.g. "master" or "p720_" then the segment index
+    private static final Pattern SEGMENT_OPENED = Pattern.compile("Opening '(?:.*/)?([^/']*?)(\\d+)\\.ts' for writing");
+
+    private final int variants;
+    private final int segments;
+    private final Map<String, Integer> openedPerVariant = new HashMap<>();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile boolean failed;
+
+    /**
+     * @param variants number of variant streams written by the job
+     * @param segments complete segments each variant needs before playback starts
+     */
+    public PlaylistReadiness(int variants, int segments) {
+        this.variants = Math.max(1, variants);
+        this.segments = Math.max(1, segments);
+    }
+
+    /**
+     * @return true if the line opened a new segment, i.e. the previous one of that variant is complete
+     */
+    public boolean onLogLine(String line) {
+        if (!line.contains("Opening '"))
+            return false;
+        Matcher matcher = SEGMENT_OPENED.matcher(line);
+        if (!matcher.find())
+            return false;
+        if (ready.getCount() == 0)
+            return true;
+        synchronized (openedPerVariant) {
+            openedPerVariant.merge(matcher.group(1), 1, Integer::sum);
+            long done = openedPerVariant.values().stream().filter(opened -> opened > segments).count();
+            if (done >= variants)
+                ready.countDown();
+        }
+        return true;
+    }
+
+    /**
+     * ffmpeg exited. A successful exit wrote the final playlist (short inputs may never reach the segment count).
+     */
+    public void onExit(int exitCode) {
+        if (ready.getCount() == 0)
+            return;
+        failed = exitCode != 0;
+        ready.countDown();
+    }
+
+    /**
+     * @return true once playable, false if ffmpeg failed or nothing was seen before the timeout
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return ready.await(timeoutMillis, TimeUnit.MILLISECONDS) && !failed;
+    }
+}
@@ -1,6 +1,28 @@
 package dev.chinh.streamingservice.workers.service;
 
+import java.util.List;
+
+/**
+ * Something that keeps content on the RAM disk. MemoryManager picks victims across all of them.
+ */
 public interface ResourceCleanable {
 
-    boolean freeMemorySpaceForSize(long size);
+    /**
+     * @param id         ledger owner id
+     * @param size       best known size in bytes, the ledger's size wins when it knows the id
+     * @param lastAccess epoch millis
+     * @param cost       estimated ms to recreate
+     */
+    record Resident(String id, long size, long lastAccess, double cost) {}
+
+    /**
+     * Residents that may be evicted now, i.e. not accessed in the last activeWindowMillis.
+     */
+    List<Resident> listEvictable(long now, long activeWindowMillis);
+
+    /**
+     * Remove the resident's files and cache state. The ledger is released by the caller.
+     * @return true if the files were deleted
+     */
+    boolean evict(Resident resident);
 }
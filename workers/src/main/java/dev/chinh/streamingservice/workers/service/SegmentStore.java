@@ -0,0 +1,327 @@
+package dev.chinh.streamingservice.workers.service;
+
+import dev.chinh.streamingservice.common.OSUtil;
+import dev.chinh.streamingservice.common.constant.Resolution;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed HLS segment store with two tiers.
+ * Hot: the per-job RAM disk directories served by nginx (/chunks/userId/videoId/res).
+ * Warm: a local disk directory keyed by (object ETag, resolution, segment index) which survives restarts
+ * and RAM evictions, so a finished transcode never has to be encoded again.
+ * <p>
+ * Finished renditions are archived to warm, and promoted back to hot (copied into the job RAM dir) on request.
+ * As a ResourceCleanable, the store demotes the least frequently requested hot renditions first,
+ * since they can be restored from warm without re-encoding.
+ * The store is node-local: the warm index is rebuilt from disk on startup.
+ */
+@Service
+public class SegmentStore implements ResourceCleanable {
+
+    private static final Logger log = LogManager.getLogger(SegmentStore.class);
+
+    private static final String PLAYLIST_NAME = "master.m3u8";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("master(\\d+)\\.ts");
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final WorkerRedisService workerRedisService;
+    private final MemoryManager memoryManager;
+
+    @Value("${segment-store.warm-dir:}")
+    private String warmDir;
+
+    @Value("${segment-store.warm-max-bytes:21474836480}")
+    private long warmMaxBytes;
+
+    @Value("${ffmpeg-name}")
+    private String ffmpegName;
+
+    public record Rendition(String etag, Resolution resolution, long size, int segments) {}
+    private record HotEntry(String renditionKey, String workId, String hotDir, long size) {}
+
+    private final Map<String, Rendition> warmIndex = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> frequency = new ConcurrentHashMap<>();
+    private final Map<String, HotEntry> hotIndex = new ConcurrentHashMap<>();
+    private final AtomicLong warmBytes = new AtomicLong();
+
+    public SegmentStore(@Qualifier("queueRedisTemplate") RedisTemplate<String, String> redisTemplate,
+                        WorkerRedisService workerRedisService,
+                        MemoryManager memoryManager) {
+        this.redisTemplate = redisTemplate;
+        this.workerRedisService = workerRedisService;
+        this.memoryManager = memoryManager;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            log.info("Segment store disabled");
+            return;
+        }
+        memoryManager.registerResourceCleanable(this);
+        try {
+            rebuildWarmIndex();
+        } catch (IOException e) {
+            log.error("Failed to rebuild segment store index from {}", warmDir, e);
+        }
+        log.info("Segment store loaded {} renditions ({} bytes) from {}", warmIndex.size(), warmBytes.get(), warmDir);
+    }
+
+    public boolean isEnabled() {
+        return warmDir != null && !warmDir.isBlank() && OSUtil.isRAMDiskHostAccessible();
+    }
+
+    private String getRenditionKey(String etag, Resolution resolution) {
+        return etag + "/" + resolution.name();
+    }
+
+    private Path getWarmPath(String renditionKey) {
+        return Path.of(warmDir, renditionKey);
+    }
+
+    private void rebuildWarmIndex() throws IOException {
+        Path root = Path.of(warmDir);
+        Files.createDirectories(root);
+        try (DirectoryStream<Path> etagDirs = Files.newDirectoryStream(root)) {
+            for (Path etagDir : etagDirs) {
+                if (!Files.isDirectory(etagDir))
+                    continue;
+                try (DirectoryStream<Path> resDirs = Files.newDirectoryStream(etagDir)) {
+                    for (Path resDir : resDirs) {
+                        // left by an archive that didn't finish
+                        if (resDir.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                            deleteDirectory(resDir);
+                            continue;
+                        }
+                        Resolution resolution;
+                        try {
+                            resolution = Resolution.valueOf(resDir.getFileName().toString());
+                        } catch (IllegalArgumentException e) {
+                            continue;
+                        }
+                        // playlist is copied last so a missing playlist means an incomplete archive
+                        if (!Files.exists(resDir.resolve(PLAYLIST_NAME))) {
+                            deleteDirectory(resDir);
+                            continue;
+                        }
+                        Rendition rendition = readRendition(etagDir.getFileName().toString(), resolution, resDir);
+                        warmIndex.put(getRenditionKey(rendition.etag(), resolution), rendition);
+                        warmBytes.addAndGet(rendition.size());
+                    }
+                }
+            }
+        }
+    }
+
+    private Rendition readRendition(String etag, Resolution resolution, Path dir) throws IOException {
+        long size = 0;
+        int segments = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                size += Files.size(file);
+                if (SEGMENT_PATTERN.matcher(file.getFileName().toString()).matches())
+                    segments++;
+            }
+        }
+        return new Rendition(etag, resolution, size, segments);
+    }
+
+    public void recordAccess(String etag, Resolution resolution) {
+        frequency.computeIfAbsent(getRenditionKey(etag, resolution), _ -> new AtomicLong()).incrementAndGet();
+    }
+
+    public Rendition getWarmRendition(String etag, Resolution resolution) {
+        if (!isEnabled())
+            return null;
+        return warmIndex.get(getRenditionKey(etag, resolution));
+    }
+
+    /**
+     * Promote a warm rendition into the hot job directory (relative to the RAM disk).
+     * Memory for the rendition size must already be reserved through MemoryManager.
+     * @return true if every segment and the playlist were restored.
+     */
+    public boolean promote(String etag, Resolution resolution, String workId, String hotDir) {
+        String renditionKey = getRenditionKey(etag, resolution);
+        Rendition rendition = warmIndex.get(renditionKey);
+        if (rendition == null)
+            return false;
+
+        Path source = getWarmPath(renditionKey);
+        Path target = OSUtil.getRAMDiskPath(hotDir);
+        try {
+            Files.createDirectories(target);
+            copySegmentsThenPlaylist(source, target);
+        } catch (IOException e) {
+            log.error("Failed to promote {} to {}", renditionKey, hotDir, e);
+            try {
+                OSUtil.deleteForceMemoryDirectory(hotDir, ffmpegName);
+            } catch (IOException ignored) {}
+            return false;
+        }
+        hotIndex.put(workId, new HotEntry(renditionKey, workId, hotDir, rendition.size()));
+        log.info("Promoted {} ({} segments) to {}", renditionKey, rendition.segments(), hotDir);
+        return true;
+    }
+
+    /**
+     * Archive a finished hot rendition to the warm tier. Called once ffmpeg has written the ENDLIST.
+     */
+    public void archive(String etag, Resolution resolution, String workId, String hotDir) {
+        if (!isEnabled())
+            return;
+        String renditionKey = getRenditionKey(etag, resolution);
+        Path source = OSUtil.getRAMDiskPath(hotDir);
+        Path target = getWarmPath(renditionKey);
+        if (!warmIndex.containsKey(renditionKey)) {
+            // unique per archive, two jobs of the same rendition may finish at once
+            Path tmp = target.resolveSibling("." + resolution.name() + "." + UUID.randomUUID() + TMP_SUFFIX);
+            try {
+                Files.createDirectories(tmp);
+                copySegmentsThenPlaylist(source, tmp);
+                deleteDirectory(target);
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+
+                Rendition rendition = readRendition(etag, resolution, target);
+                Rendition replaced = warmIndex.put(renditionKey, rendition);
+                warmBytes.addAndGet(rendition.size() - (replaced == null ? 0 : replaced.size()));
+                log.info("Archived {} ({} segments, {} bytes)", renditionKey, rendition.segments(), rendition.size());
+            } catch (IOException e) {
+                log.error("Failed to archive {} from {}", renditionKey, hotDir, e);
+                try {
+                    deleteDirectory(tmp);
+                } catch (IOException ignored) {}
+                return;
+            }
+            evictWarmOverCapacity(renditionKey);
+        }
+        Rendition rendition = warmIndex.get(renditionKey);
+        if (rendition != null)
+            hotIndex.put(workId, new HotEntry(renditionKey, workId, hotDir, rendition.size()));
+    }
+
+    private void copySegmentsThenPlaylist(Path source, Path target) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(source)) {
+            files = stream.filter(Files::isRegularFile).toList();
+        }
+        Path playlist = null;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.equals(PLAYLIST_NAME)) {
+                playlist = file;
+                continue;
+            }
+            Matcher matcher = SEGMENT_PATTERN.matcher(name);
+            if (!matcher.matches())
+                continue;
+            Files.copy(file, target.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (playlist == null)
+            throw new IOException("No playlist found in " + source);
+        Files.copy(playlist, target.resolve(PLAYLIST_NAME), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Least frequently requested renditions leave the warm tier first.
+     */
+    private void evictWarmOverCapacity(String keepRenditionKey) {
+        if (warmBytes.get() <= warmMaxBytes)
+            return;
+        List<String> candidates = new ArrayList<>(warmIndex.keySet());
+        candidates.sort(Comparator.comparingLong(this::getFrequency));
+        for (String renditionKey : candidates) {
+            if (warmBytes.get() <= warmMaxBytes)
+                break;
+            if (renditionKey.equals(keepRenditionKey) || isHot(renditionKey))
+                continue;
+            Rendition rendition = warmIndex.remove(renditionKey);
+            if (rendition == null)
+                continue;
+            try {
+                deleteDirectory(getWarmPath(renditionKey));
+                warmBytes.addAndGet(-rendition.size());
+                log.info("Evicted {} from warm tier", renditionKey);
+            } catch (IOException e) {
+                log.error("Failed to evict {} from warm tier", renditionKey, e);
+            }
+        }
+    }
+
+    private long getFrequency(String renditionKey) {
+        AtomicLong count = frequency.get(renditionKey);
+        return count == null ? 0 : count.get();
+    }
+
+    private boolean isHot(String renditionKey) {
+        return hotIndex.values().stream().anyMatch(e -> e.renditionKey().equals(renditionKey));
+    }
+
+    public void removeHot(String workId) {
+        hotIndex.remove(workId);
+    }
+
+    /**
+     * Hot renditions that are already archived to warm. Removing them only costs a copy back from the warm tier,
+     * so they are offered as cheap victims next to the same video's full re-encode cost.
+     */
+    @Override
+    public List<Resident> listEvictable(long now, long activeWindowMillis) {
+        List<Resident> residents = new ArrayList<>();
+        for (HotEntry entry : hotIndex.values()) {
+            Double lastAccess = redisTemplate.opsForZSet().score("cache:lastAccess:video", entry.workId());
+            if (lastAccess != null && now - lastAccess.longValue() < activeWindowMillis)
+                continue;
+            // ~500 MB/s copy from the warm tier
+            residents.add(new Resident(entry.workId(), entry.size(), lastAccess == null ? 0 : lastAccess.longValue(), entry.size() / 500_000d));
+        }
+        return residents;
+    }
+
+    @Override
+    public boolean evict(Resident resident) {
+        HotEntry entry = hotIndex.get(resident.id());
+        if (entry == null)
+            return false;
+        try {
+            if (!OSUtil.deleteForceMemoryDirectory(entry.hotDir(), ffmpegName))
+                return false;
+        } catch (IOException e) {
+            log.error("Failed to demote {}", entry.hotDir(), e);
+            return false;
+        }
+        hotIndex.remove(entry.workId());
+        // clear job state so the next request promotes from warm instead of returning a missing playlist
+        redisTemplate.opsForZSet().remove("cache:lastAccess:video", entry.workId());
+        redisTemplate.delete(entry.workId());
+        workerRedisService.removeStatus(entry.workId());
+        log.info("Demoted {} from RAM disk", entry.renditionKey());
+        return true;
+    }
+
+    private void deleteDirectory(Path dir) throws IOException {
+        if (!Files.exists(dir))
+            return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -1,18 +1,38 @@
 package dev.chinh.streamingservice.workers.service;
 
-import dev.chinh.streamingservice.common.constant.Resolution;
+import dev.chinh.streamingservice.common.OSUtil;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
-public class ThumbnailService {
+public class ThumbnailService implements ResourceCleanable {
 
     private final RedisTemplate<String, String> queueRedisTemplate;
+    private final MemoryManager memoryManager;
+
+    @Value("${ffmpeg-name}")
+    private String ffmpegName;
+
+    // thumbnail-cache scores are expiry times, set an hour after the last access
+    private static final long THUMBNAIL_TTL_MILLIS = 60 * 60 * 1000;
+    // when the size can't be read from the RAM disk
+    private static final long ESTIMATED_THUMBNAIL_SIZE = 50_000;
+
+    @PostConstruct
+    public void init() {
+        memoryManager.registerResourceCleanable(this);
+    }
 
     public Set<ZSetOperations.TypedTuple<String>> getAllThumbnailCacheLastAccess(long max) {
         return queueRedisTemplate.opsForZSet()
@@ -26,4 +46,60 @@ public class ThumbnailService {
     public static String getThumbnailParentPath() {
         return "/thumbnail-cache";
     }
+
+    /**
+     * Remove thumbnails whose expiry passed more than a minute ago.
+     */
+    public void removeExpired(long now) {
+        for (ZSetOperations.TypedTuple<String> thumbnail : getAllThumbnailCacheLastAccess(now)) {
+            long expiry = thumbnail.getScore() == null ? 0 : thumbnail.getScore().longValue();
+            if (now - expiry < 60_000) {
+                break;
+            }
+            Resident resident = toResident(thumbnail);
+            if (evict(resident))
+                memoryManager.release(resident.id(), resident.size());
+        }
+    }
+
+    @Override
+    public List<Resident> listEvictable(long now, long activeWindowMillis) {
+        List<Resident> residents = new ArrayList<>();
+        Set<ZSetOperations.TypedTuple<String>> thumbnails = queueRedisTemplate.opsForZSet()
+                .rangeByScoreWithScores("thumbnail-cache", 0, now - activeWindowMillis + THUMBNAIL_TTL_MILLIS, 0, MediaService.EVICTION_CANDIDATES);
+        if (thumbnails == null)
+            return residents;
+        for (ZSetOperations.TypedTuple<String> thumbnail : thumbnails) {
+            residents.add(toResident(thumbnail));
+        }
+        return residents;
+    }
+
+    @Override
+    public boolean evict(Resident resident) {
+        String thumbnailFileName = resident.id().substring("thumbnail:".length());
+        System.out.println("Removing: " + thumbnailFileName);
+        String path = getThumbnailParentPath() + "/" + thumbnailFileName;
+        boolean deleted = false;
+        try {
+            deleted = OSUtil.deleteForceMemoryDirectory(path, ffmpegName);
+        } catch (IOException e) {
+            System.err.println("Failed to delete memory path: " + path);
+        }
+        removeThumbnailLastAccess(thumbnailFileName);
+        return deleted;
+    }
+
+    private Resident toResident(ZSetOperations.TypedTuple<String> thumbnail) {
+        String thumbnailFileName = thumbnail.getValue();
+        long expiry = thumbnail.getScore() == null ? 0 : thumbnail.getScore().longValue();
+        long size = ESTIMATED_THUMBNAIL_SIZE;
+        if (OSUtil.isRAMDiskHostAccessible()) {
+            try {
+                size = Files.size(OSUtil.getRAMDiskPath(getThumbnailParentPath() + "/" + thumbnailFileName));
+            } catch (IOException ignored) {}
+        }
+        // a single frame resize
+        return new Resident("thumbnail:" + thumbnailFileName, size, expiry - THUMBNAIL_TTL_MILLIS, 50);
+    }
 }
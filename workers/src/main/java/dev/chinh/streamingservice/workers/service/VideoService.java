@@ -8,7 +8,6 @@ import dev.chinh.streamingservice.common.data.ContentMetaData;
 import dev.chinh.streamingservice.common.data.MediaJobDescription;
 import dev.chinh.streamingservice.common.event.EventTopics;
 import dev.chinh.streamingservice.common.event.MediaUpdateEvent;
-import dev.chinh.streamingservice.workers.VideoWorker;
 import dev.chinh.streamingservice.workers.event.WorkerEventProducer;
 import jakarta.annotation.PostConstruct;
 import org.apache.logging.log4j.LogManager;
@@ -24,6 +23,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
@@ -44,17 +44,36 @@ public class VideoService extends MediaService implements ResourceCleanable {
 
     private int numberOfThreads = 4;
 
+    // complete segments per variant before a playlist url is handed back
+    @Value("${video.ready-segments:2}")
+    private int readySegments;
+
+    @Value("${video.ready-timeout-ms:20000}")
+    private long readyTimeoutMs;
+
+    // keyed by the playlist path relative to the RAM disk, removed once ffmpeg exits
+    private final Map<String, PlaylistReadiness> playlistReadiness = new ConcurrentHashMap<>();
+
     private final MemoryManager memoryManager;
+    private final SegmentStore segmentStore;
+    private final JobScheduler jobScheduler;
+    private final FfmpegTelemetry ffmpegTelemetry;
 
     public VideoService(@Qualifier("queueRedisTemplate") RedisTemplate<String, String> redisTemplate,
                         ObjectMapper objectMapper,
                         MinIOService minIOService,
                         WorkerRedisService workerRedisService,
                         MemoryManager memoryManager,
+                        SegmentStore segmentStore,
+                        JobScheduler jobScheduler,
+                        FfmpegTelemetry ffmpegTelemetry,
                         ExecutorService ffmpegExecutor,
                         ApplicationEventPublisher publisher) {
         super(redisTemplate, objectMapper, minIOService, workerRedisService);
         this.memoryManager = memoryManager;
+        this.segmentStore = segmentStore;
+        this.jobScheduler = jobScheduler;
+        this.ffmpegTelemetry = ffmpegTelemetry;
         this.ffmpegExecutor = ffmpegExecutor;
         this.publisher = publisher;
     }
@@ -74,23 +93,28 @@ public class VideoService extends MediaService implements ResourceCleanable {
     }
 
     @Override
-    public void handleJob(String tokenKey, MediaJobDescription jobDescription) {
+    public void handleJob(String ticket, MediaJobDescription jobDescription) {
         try {
-            boolean toHandleJob = isJobWithinHandleWindow(tokenKey, jobDescription);
+            boolean toHandleJob = isJobWithinHandleWindow(ticket, jobDescription);
             if (!toHandleJob) { // check if job has passed too long or not
                 workerRedisService.updateStatus(jobDescription.getWorkId(), MediaJobStatus.STOPPED.name());
-                workerRedisService.releaseToken(tokenKey);
                 return;
             }
             switch (jobDescription.getJobType()) {
                 case "preview" -> {
-                    String url = getPreviewVideoUrl(tokenKey, jobDescription);
+                    String url = getPreviewVideoUrl(ticket, jobDescription);
                     workerRedisService.updateStatus(jobDescription.getWorkId(), MediaJobStatus.RUNNING.name());
                     workerRedisService.addResultToStatus(jobDescription.getWorkId(), "result", url);
                     workerRedisService.sendJobNotification(jobDescription.getWorkId(), jobDescription.getUserId(), url);
                 }
                 case "partial" -> {
-                    String url = getPartialVideoUrl(tokenKey, jobDescription, jobDescription.getResolution());
+                    String url = getPartialVideoUrl(ticket, jobDescription, jobDescription.getResolution());
+                    workerRedisService.updateStatus(jobDescription.getWorkId(), MediaJobStatus.RUNNING.name());
+                    workerRedisService.addResultToStatus(jobDescription.getWorkId(), "result", url);
+                    workerRedisService.sendJobNotification(jobDescription.getWorkId(), jobDescription.getUserId(), url);
+                }
+                case "ladder" -> {
+                    String url = getLadderVideoUrl(ticket, jobDescription);
                     workerRedisService.updateStatus(jobDescription.getWorkId(), MediaJobStatus.RUNNING.name());
                     workerRedisService.addResultToStatus(jobDescription.getWorkId(), "result", url);
                     workerRedisService.sendJobNotification(jobDescription.getWorkId(), jobDescription.getUserId(), url);
@@ -98,27 +122,39 @@ public class VideoService extends MediaService implements ResourceCleanable {
                 case null, default -> throw new IllegalArgumentException("Unknown job type");
            };
         } catch (Exception e) {
-            // job is called to handle - acquired token for it
-            // if failed, release the acquired token
-            workerRedisService.releaseToken(tokenKey);
+            // ticket is released by the worker, or by the ffmpeg process if one was already started
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    public boolean isJobWithinHandleWindow(String tokenKey, MediaJobDescription mediaJobDescription) {
+    public boolean needsAdmission(MediaJobDescription jobDescription) {
+        return switch (jobDescription.getJobType()) {
+            case "partial" -> jobDescription.getResolution() != Resolution.original && !isCached(jobDescription.getWorkId());
+            case "preview", "ladder" -> !isCached(jobDescription.getWorkId());
+            case null, default -> true;
+        };
+    }
+
+    private boolean isCached(String jobId) {
+        MediaJobStatus mediaJobStatus = getVideoJobStatus(jobId);
+        return mediaJobStatus == MediaJobStatus.COMPLETED || mediaJobStatus == MediaJobStatus.RUNNING;
+    }
+
+    @Override
+    public boolean isJobWithinHandleWindow(String ticket, MediaJobDescription mediaJobDescription) {
         if (mediaJobDescription.getJobType().equals("videoThumbnail")) {
             return true;
         }
-        return super.isJobWithinHandleWindow(tokenKey, mediaJobDescription);
+        return super.isJobWithinHandleWindow(ticket, mediaJobDescription);
     }
 
     private String getOriginalVideoUrl(MediaJobDescription mediaJobDescription) {
         String key = ContentMetaData.removeUserIdDirFromObjectKey(mediaJobDescription.getUserId(), mediaJobDescription.getKey());
-        return minIOService.getObjectUrl(mediaJobDescription.getBucket(), key);
+        return minIOService.getObjectUrl(mediaJobDescription.getUserId(), mediaJobDescription.getBucket(), key);
     }
 
-    private String getPreviewVideoUrl(String tokenKey, MediaJobDescription jobDescription) throws Exception {
+    private String getPreviewVideoUrl(String ticket, MediaJobDescription jobDescription) throws Exception {
         long videoId = jobDescription.getId();
         String videoDir = videoId + "/preview";
 
@@ -127,11 +163,14 @@ public class VideoService extends MediaService implements ResourceCleanable {
         MediaJobStatus mediaJobStatus = getVideoJobStatus(jobId);
         boolean prevJobStopped = false;
         if (mediaJobStatus != null) {
-            if (mediaJobStatus.equals(MediaJobStatus.COMPLETED) || mediaJobStatus.equals(MediaJobStatus.RUNNING))
+            if (mediaJobStatus.equals(MediaJobStatus.COMPLETED) || mediaJobStatus.equals(MediaJobStatus.RUNNING)) {
+                memoryManager.recordAccess(jobId, 0, 0);
                 return getNginxVideoStreamUrl(videoDir);
-            else
+            } else
                 prevJobStopped = true;
         }
+        if (ticket == null) // evicted since the worker checked, queue up like any encode
+            return jobScheduler.runAdmitted(jobDescription, t -> getPreviewVideoUrl(t, jobDescription));
 
         // === resolution control ===
         final Resolution resolution = Resolution.p240;
@@ -143,13 +182,13 @@ public class VideoService extends MediaService implements ResourceCleanable {
         double interval = duration / segments;
 
         if (duration <= 60) {
-            return getPartialVideoUrl(tokenKey, jobDescription, resolution);
+            return getPartialVideoUrl(ticket, jobDescription, resolution);
         }
 
         long estimatedSize = (long) (Resolution.getEstimatedSize(
                 jobDescription.getSize(), jobDescription.getWidth(), jobDescription.getHeight(), resolution)
                 / (duration / previewLength));
-        memoryManager.freeMemoryForSize(estimatedSize);
+        memoryManager.reserve(jobId, estimatedSize);
 
         // Build trim chains
         StringBuilder fc = new StringBuilder();
@@ -227,7 +266,15 @@ public class VideoService extends MediaService implements ResourceCleanable {
                 "-hls_flags", "append_list+omit_endlist",
                 outPath
         ));
-        runAndLogAsync(tokenKey, command.toArray(new String[0]), jobId, outPath, this::saveVideoPreviewToObjectStorage, jobDescription);
+        runAndLogAsync(ticket, command.toArray(new String[0]), jobId, outPath, 1, true, this::saveVideoPreviewToObjectStorage, jobDescription);
+        // previews are background work - give the slot up to interactive playback, resumed on next request
+        jobScheduler.handOff(ticket, () -> {
+            try {
+                stopFfmpegJob(jobId, partialVideoJobId);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
 
         addCacheVideoLastAccess(jobId, null);
         addCacheVideoJobStatus(jobId, partialVideoJobId, estimatedSize, MediaJobStatus.RUNNING);
@@ -238,7 +285,7 @@ public class VideoService extends MediaService implements ResourceCleanable {
         return getNginxVideoStreamUrl(videoDir);
     }
 
-    private String getPartialVideoUrl(String tokenKey, MediaJobDescription jobDescription, Resolution res) throws Exception {
+    private String getPartialVideoUrl(String ticket, MediaJobDescription jobDescription, Resolution res) throws Exception {
         if (res == Resolution.original)
             return getOriginalVideoUrl(jobDescription);
 
@@ -251,18 +298,39 @@ public class VideoService extends MediaService implements ResourceCleanable {
         MediaJobStatus mediaJobStatus = getVideoJobStatus(jobId);
         boolean prevJobStopped = false;
         if (mediaJobStatus != null) {
-            if (mediaJobStatus.equals(MediaJobStatus.COMPLETED) || mediaJobStatus.equals(MediaJobStatus.RUNNING))
+            if (mediaJobStatus.equals(MediaJobStatus.COMPLETED) || mediaJobStatus.equals(MediaJobStatus.RUNNING)) {
+                memoryManager.recordAccess(jobId, 0, 0);
                 return getNginxVideoStreamUrl(videoDir);
-            else
+            } else
                 prevJobStopped = true;
         }
 
         if (checkSrcSmallerThanTarget(jobDescription.getWidth(), jobDescription.getHeight(), res.getResolution()))
             return getOriginalVideoUrl(jobDescription);
+        if (ticket == null)
+            return jobScheduler.runAdmitted(jobDescription, t -> getPartialVideoUrl(t, jobDescription, res));
+
+        String userDir = jobDescription.getUserId() + "/" + videoDir;
+
+        String etag = segmentStore.isEnabled() ? getSourceETag(jobDescription) : null;
+        if (etag != null) {
+            segmentStore.recordAccess(etag, res);
+            SegmentStore.Rendition rendition = segmentStore.getWarmRendition(etag, res);
+            if (rendition != null && memoryManager.reserve(jobId, rendition.size())) {
+                if (segmentStore.promote(etag, res, jobId, userDir)) {
+                    memoryManager.reconcile(jobId, rendition.size());
+                    memoryManager.settle(jobId);
+                    addCacheVideoLastAccess(jobId, null);
+                    addCacheVideoJobStatus(jobId, null, rendition.size(), MediaJobStatus.COMPLETED);
+                    return getNginxVideoStreamUrl(videoDir);
+                }
+                memoryManager.release(jobId, 0); // refund reservation and encode instead
+            }
+        }
 
         long estimatedSize = Resolution.getEstimatedSize(
                 jobDescription.getSize(), jobDescription.getWidth(), jobDescription.getHeight(), res);
-        boolean enoughSpace = memoryManager.freeMemoryForSize(estimatedSize);
+        boolean enoughSpace = memoryManager.reserve(jobId, estimatedSize);
         if (!enoughSpace)
             return getOriginalVideoUrl(jobDescription);
 
@@ -271,18 +339,22 @@ public class VideoService extends MediaService implements ResourceCleanable {
         String scale = getFfmpegScaleString(
                 jobDescription.getWidth(), jobDescription.getHeight(), res.getResolution());
 
-        String userDir = jobDescription.getUserId() + "/" + videoDir;
         OSUtil.createTempDir(userDir, ffmpegName);
         String containerDir = "/chunks/" + userDir;
         String outPath = containerDir + masterFileName;
-        String partialVideoJobId = createPartialVideo(tokenKey, nginxUrl, scale, videoDir, outPath, prevJobStopped, jobId);
+        Consumer<String> onCompleted = etag == null ? null : _ -> segmentStore.archive(etag, res, jobId, userDir);
+        String partialVideoJobId = createPartialVideo(ticket, nginxUrl, scale, videoDir, outPath, prevJobStopped, jobId, onCompleted);
 
         addCacheVideoLastAccess(jobId, null);
         addCacheVideoJobStatus(jobId, partialVideoJobId, estimatedSize, MediaJobStatus.RUNNING);
         addCacheRunningJob(jobId);
 
         // check the master file has been created. maybe check first chunks being created for smoother experience
-        checkPlaylistCreated(userDir + masterFileName);
+        try {
+            checkPlaylistCreated(userDir + masterFileName);
+        } finally {
+            jobScheduler.demote(ticket); // the rest of the encode is background work
+        }
 
         // Return playlist URL for browser
         return getNginxVideoStreamUrl(videoDir);
@@ -329,8 +401,16 @@ public class VideoService extends MediaService implements ResourceCleanable {
         }
     }
 
-    public String createPartialVideo(String tokenKey, String inputUrl, String scale, String videoDir, String outPath,
+    public String createPartialVideo(String ticket, String inputUrl, String scale, String videoDir, String outPath,
                                      boolean prevJobStopped, String cacheJobId) throws Exception {
+        return createPartialVideo(ticket, inputUrl, scale, videoDir, outPath, prevJobStopped, cacheJobId, null);
+    }
+
+    /**
+     * @param onCompleted called with the job id once ffmpeg exits successfully and the ENDLIST has been written.
+     */
+    private String createPartialVideo(String ticket, String inputUrl, String scale, String videoDir, String outPath,
+                                      boolean prevJobStopped, String cacheJobId, Consumer<String> onCompleted) throws Exception {
         final int segmentDuration = 4;
         String partialVideoJobId = UUID.randomUUID().toString();
 
@@ -368,19 +448,197 @@ public class VideoService extends MediaService implements ResourceCleanable {
                 outPath                       // output playlist path: /chunks/<videoId>/<resolution>/partial/master.m3u8)
         ));
 
-        runAndLogAsync(tokenKey, command.toArray(new String[0]), cacheJobId, outPath, null , null);
+        runAndLogAsync(ticket, command.toArray(new String[0]), cacheJobId, outPath, 1, true, onCompleted, cacheJobId);
         return partialVideoJobId;
     }
 
+    private final int maxLadderRungs = 4;
+
+    /**
+     * Rungs are taken from the Resolution enum (highest first), capped by the requested top resolution
+     * and skipping any that would upscale the source. At most maxLadderRungs rungs are kept.
+     */
+    private List<Resolution> getLadderResolutions(int width, int height, Resolution top) {
+        List<Resolution> ladder = new ArrayList<>();
+        for (Resolution res : Resolution.values()) {
+            if (res == Resolution.original)
+                continue;
+            if (top != null && top != Resolution.original && res.getResolution() > top.getResolution())
+                continue;
+            if (checkSrcSmallerThanTarget(width, height, res.getResolution()))
+                continue;
+            ladder.add(res);
+            if (ladder.size() == maxLadderRungs)
+                break;
+        }
+        return ladder;
+    }
+
+    private String getLadderVideoUrl(String ticket, MediaJobDescription jobDescription) throws Exception {
+        String jobId = jobDescription.getWorkId();
+        // <videoId>/ladder_<top>, one per top resolution - same path eviction derives from the job id
+        String videoDir = jobId.replace(":", "/");
+
+        MediaJobStatus mediaJobStatus = getVideoJobStatus(jobId);
+        if (mediaJobStatus != null) {
+            if (mediaJobStatus.equals(MediaJobStatus.COMPLETED) || mediaJobStatus.equals(MediaJobStatus.RUNNING)) {
+                memoryManager.recordAccess(jobId, 0, 0);
+                return getNginxVideoStreamUrl(videoDir);
+            }
+        }
+        if (ticket == null)
+            return jobScheduler.runAdmitted(jobDescription, t -> getLadderVideoUrl(t, jobDescription));
+
+        List<Resolution> ladder = getLadderResolutions(
+                jobDescription.getWidth(), jobDescription.getHeight(), jobDescription.getResolution());
+        if (ladder.isEmpty())
+            return getOriginalVideoUrl(jobDescription);
+
+        long estimatedSize = 0;
+        for (Resolution res : ladder) {
+            estimatedSize += Resolution.getEstimatedSize(
+                    jobDescription.getSize(), jobDescription.getWidth(), jobDescription.getHeight(), res);
+        }
+        boolean enoughSpace = memoryManager.reserve(jobId, estimatedSize);
+        if (!enoughSpace)
+            return getOriginalVideoUrl(jobDescription);
+
+        String nginxUrl = minIOService.getObjectUrlForContainer(jobDescription.getBucket(), jobDescription.getKey());
+
+        String userDir = jobDescription.getUserId() + "/" + videoDir;
+        OSUtil.createTempDir(userDir, ffmpegName);
+        String containerDir = "/chunks/" + userDir;
+        String ladderVideoJobId = createLadderVideo(ticket, nginxUrl, ladder,
+                jobDescription.getWidth(), jobDescription.getHeight(), hasAudioStream(nginxUrl), containerDir, jobId);
+
+        addCacheVideoLastAccess(jobId, null);
+        addCacheVideoJobStatus(jobId, ladderVideoJobId, estimatedSize, MediaJobStatus.RUNNING);
+        addCacheRunningJob(jobId);
+
+        try {
+            checkPlaylistCreated(userDir + masterFileName);
+        } finally {
+            jobScheduler.demote(ticket);
+        }
+
+        return getNginxVideoStreamUrl(videoDir);
+    }
+
+    // the warm tier only saves an encode, without the etag the job encodes as if it were disabled
+    private String getSourceETag(MediaJobDescription jobDescription) {
+        try {
+            return minIOService.getObjectETag(jobDescription.getBucket(), jobDescription.getKey());
+        } catch (Exception e) {
+            log.warn("Skipping segment store for {}: {}", jobDescription.getWorkId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Decode the source once and split it into one scaled encode per rung.
+     * Writes <containerDir>/master.m3u8 (HLS master playlist) with one variant playlist per rung
+     * named after the resolution e.g. p720.m3u8 with segments p720_0.ts, p720_1.ts...
+     * A stopped ladder job is restarted from the beginning as variants can't be resumed individually.
+     * Without an audio stream the variants are video only, var_stream_map can't name audio that isn't mapped.
+     */
+    public String createLadderVideo(String ticket, String inputUrl, List<Resolution> ladder, int width, int height,
+                                    boolean hasAudio, String containerDir, String cacheJobId) throws Exception {
+        final int segmentDuration = 4;
+        String ladderVideoJobId = UUID.randomUUID().toString();
+
+        // [0:v]split=3[s0][s1][s2];[s0]scale=-2:720[v0];[s1]scale=-2:480[v1];[s2]scale=-2:360[v2]
+        StringBuilder fc = new StringBuilder("[0:v]split=" + ladder.size());
+        for (int i = 0; i < ladder.size(); i++) {
+            fc.append("[s").append(i).append("]");
+        }
+        for (int i = 0; i < ladder.size(); i++) {
+            fc.append(";[s").append(i).append("]")
+                    .append(getFfmpegScaleString(width, height, ladder.get(i).getResolution()))
+                    .append("[v").append(i).append("]");
+        }
+
+        List<String> command = new ArrayList<>();
+        if (ffmpegName != null && !ffmpegName.isEmpty()) {
+            command.addAll(List.of("docker", "exec", ffmpegName));
+        }
+        command.addAll(List.of(
+                "ffmpeg", "-y", "-hide_banner",
+                "-i", inputUrl,
+                "-threads", String.valueOf(numberOfThreads),
+                "-filter_complex", fc.toString()
+        ));
+
+        List<String> streamMap = new ArrayList<>();
+        for (int i = 0; i < ladder.size(); i++) {
+            int bitrate = Resolution.getLadderBitrateKbps(ladder.get(i));
+            command.addAll(List.of("-map", "[v" + i + "]"));
+            if (hasAudio)
+                command.addAll(List.of("-map", "0:a:0?"));
+            command.addAll(List.of(
+                    "-b:v:" + i, bitrate + "k",
+                    "-maxrate:v:" + i, (bitrate * 3 / 2) + "k",
+                    "-bufsize:v:" + i, (bitrate * 2) + "k"
+            ));
+            streamMap.add("v:" + i + (hasAudio ? ",a:" + i : "") + ",name:" + ladder.get(i).name());
+        }
+
+        command.addAll(List.of(
+                "-c:v", "h264",
+                "-preset", "veryfast",
+                "-force_key_frames", "expr:gte(t,n_forced*" + segmentDuration + ")", // aligned keyframes across every variant
+                "-sc_threshold", "0",
+                "-c:a", "aac",
+                "-b:a", "128k",
+                "-metadata", "job_id=" + ladderVideoJobId,
+                "-f", "hls",
+                "-hls_time", String.valueOf(segmentDuration),
+                "-hls_list_size", "0",
+                "-hls_playlist_type", "event",  // players keep polling until ffmpeg writes ENDLIST on exit
+                "-master_pl_name", masterFileName.substring(1),
+                "-var_stream_map", String.join(" ", streamMap),
+                "-hls_segment_filename", containerDir + "/%v_%d.ts",
+                containerDir + "/%v.m3u8"
+        ));
+
+        runAndLogAsync(ticket, command.toArray(new String[0]), cacheJobId, containerDir + masterFileName, ladder.size(), false, null, null);
+        return ladderVideoJobId;
+    }
+
+    /**
+     * Assumes audio if the probe fails: a failed encode is retried, a ladder without sound would be cached.
+     */
+    private boolean hasAudioStream(String inputUrl) {
+        List<String> command = new ArrayList<>();
+        if (ffmpegName != null && !ffmpegName.isEmpty()) {
+            command.addAll(List.of("docker", "exec", ffmpegName));
+        }
+        command.addAll(List.of(
+                "ffprobe", "-v", "error",
+                "-select_streams", "a:0",
+                "-show_entries", "stream=index",
+                "-of", "csv=p=0",
+                inputUrl
+        ));
+        try {
+            return !OSUtil.runCommandAndLog(command.toArray(new String[0]), null).isBlank();
+        } catch (Exception e) {
+            log.warn("Failed to probe audio of {}: {}", inputUrl, e.getMessage());
+            return true;
+        }
+    }
+
     private String getFfmpegScaleString(int width, int height, int target) {
         return (width >= height) ? "scale=-2:" + target : "scale=" + target + ":-2";
     }
 
+    /**
+     * Block until the playlist has readySegments complete segments, as reported by the ffmpeg job writing it.
+     * Falls back to a single file check when no job is tracked (already exited) or it went quiet.
+     */
     public void checkPlaylistCreated(String playlist) throws InterruptedException {
-        int retries = 100;
-        while (!OSUtil.checkTempFileExists(playlist, ffmpegName) && retries-- > 0) {
-            Thread.sleep(100);
-        }
+        PlaylistReadiness readiness = playlistReadiness.get(playlist);
+        if (readiness != null && readiness.await(readyTimeoutMs))
+            return;
         if (!OSUtil.checkTempFileExists(playlist, ffmpegName)) {
             throw new RuntimeException("ffmpeg did not create playlist in time: " + playlist);
         }
@@ -399,40 +657,73 @@ public class VideoService extends MediaService implements ResourceCleanable {
         return lastIndex;
     }
 
-    private <T> void runAndLogAsync(String tokenKey, String[] cmd, String videoJobId, String videoMasterFilePath, Consumer<T> action, T data) throws Exception {
-        Process process = new ProcessBuilder(cmd)
+    private <T> void runAndLogAsync(String ticket, String[] cmd, String videoJobId, String videoMasterFilePath, int variants,
+                                    boolean appendEndList, Consumer<T> action, T data) throws Exception {
+        String playlist = videoMasterFilePath.replaceFirst("/chunks/", "");
+        Process process = new ProcessBuilder(withProgressOutput(cmd))
                 .redirectErrorStream(true)
                 .start();
 
+        PlaylistReadiness readiness = new PlaylistReadiness(variants, readySegments);
+        playlistReadiness.put(playlist, readiness);
+
+        // RAM disk paths are <userId>/<videoDir>/master.m3u8 and the playlist's dir names the rendition
+        Path playlistPath = Path.of(playlist);
+        String userId = playlistPath.getNameCount() > 1 ? playlistPath.getName(0).toString() : null;
+        String profile = playlistPath.getParent() == null ? "unknown" : playlistPath.getParent().getFileName().toString();
+        FfmpegProgress progress = ffmpegTelemetry.track(videoJobId, userId, profile);
+        String outputDir = playlistPath.getParent() == null ? playlist : playlistPath.getParent().toString();
+
+        // the process now owns the ticket and releases it on exit
+        jobScheduler.handOff(ticket, null);
+
+        long startedAt = System.currentTimeMillis();
         // Start a new thread
         ffmpegExecutor.submit(() -> {
             List<String> logs = Collections.synchronizedList(new ArrayList<>());
-            getLogsFromInputStream(logs, process.getInputStream());
+            int exit = -1;
             try {
-                int exit = process.waitFor();
+                getLogsFromInputStream(logs, process.getInputStream(), line -> {
+                    if (progress.accept(line))
+                        return true;
+                    if (readiness.onLogLine(line) && videoJobId != null)
+                        memoryManager.reconcileFromDirectory(videoJobId, outputDir); // a segment was just completed
+                    return false;
+                });
+                exit = process.waitFor();
                 System.out.println("ffmpeg video " + videoMasterFilePath + " exited with code " + exit);
                 // mark as completed
-                if (exit == 0) {
-                    boolean wrote = OSUtil.writeTextToTempFile(videoMasterFilePath.replaceFirst("/chunks/", ""), List.of("#EXT-X-ENDLIST"), false, ffmpegName);
+                if (exit == 0 && appendEndList) {
+                    boolean wrote = OSUtil.writeTextToTempFile(playlist, List.of("#EXT-X-ENDLIST"), false, ffmpegName);
                     if (!wrote) {
                         System.err.println("Failed to write to file: " + videoMasterFilePath);
                     }
                 }
+                readiness.onExit(exit);
                 if (videoJobId != null && exit == 0) {
                     if (action != null && data != null)
                         action.accept(data);
                     addCacheVideoJobStatus(videoJobId, null, null, MediaJobStatus.COMPLETED);
+                    // what it would cost to encode again, used by eviction
+                    redisTemplate.opsForHash().put(videoJobId, "encodeMs", String.valueOf(System.currentTimeMillis() - startedAt));
                 }
                 else {
                     addCacheVideoJobStatus(videoJobId, null, null, MediaJobStatus.FAILED);
                     logs.forEach(System.out::println);
                 }
                 workerRedisService.updateStatus(videoJobId, MediaJobStatus.COMPLETED.name());
-                workerRedisService.releaseToken(tokenKey);
             } catch (Exception e) {
                 System.err.println(e.getMessage());
                 e.printStackTrace();
                 throw new RuntimeException(e);
+            } finally {
+                if (videoJobId != null) {
+                    memoryManager.reconcileFromDirectory(videoJobId, outputDir);
+                    memoryManager.settle(videoJobId); // refund what wasn't written
+                }
+                readiness.onExit(exit); // no-op if already signalled
+                playlistReadiness.remove(playlist, readiness);
+                jobScheduler.release(ticket);
             }
         });
     }
@@ -447,7 +738,7 @@ public class VideoService extends MediaService implements ResourceCleanable {
         OSUtil.runCommandAndLog(stopCmd.toArray(new String[0]), List.of(255));
         workerRedisService.updateStatus(videoJobId, MediaJobStatus.STOPPED.name());
         addCacheVideoJobStatus(videoJobId, null, null, MediaJobStatus.STOPPED);
-        workerRedisService.releaseToken(VideoWorker.TOKEN_KEY);
+        // scheduler ticket is released once the stopped ffmpeg process exits
     }
 
     private String getNginxVideoStreamUrl(String videoDir) {
@@ -455,12 +746,7 @@ public class VideoService extends MediaService implements ResourceCleanable {
     }
 
     private final String videoLastAccessKey = "cache:lastAccess:video";
-    private Set<ZSetOperations.TypedTuple<String>> getAllVideoCacheLastAccess(long max) {
-        return getAllCacheLastAccess(videoLastAccessKey, max);
-    }
-
     public void addCacheVideoLastAccess(String videoId, Long expiry) {
-        String videoLastAccessKey = "cache:lastAccess:video";
         addCacheLastAccess(videoLastAccessKey, videoId, expiry);
     }
 
@@ -509,62 +795,36 @@ public class VideoService extends MediaService implements ResourceCleanable {
                 .rangeByScore("video:running", 0, max, 0, 50);
     }
 
-    public boolean freeMemorySpaceForSize(long size) {
-        if (OSUtil.getUsableMemory() >= size) {
-            OSUtil.updateUsableMemory(-size);
-            return true;
-        }
-        if (size > OSUtil.MEMORY_TOTAL) {
-            System.out.println("Memory limit reached: " + size / 1000 + " MB");
-            return false;
-        }
-
-        long headRoom = (long) (OSUtil.MEMORY_TOTAL * 0.1);
-        long neededSpace = size + headRoom - OSUtil.getUsableMemory();
-        neededSpace = (neededSpace > OSUtil.MEMORY_TOTAL) ? size : neededSpace;
-
-        long removingSpace = neededSpace;
-        boolean enough = false;
-
-        long now = System.currentTimeMillis();
-        Set<ZSetOperations.TypedTuple<String>> lastAccessMediaJob = getAllVideoCacheLastAccess(now);
-        for (ZSetOperations.TypedTuple<String> mediaJob : lastAccessMediaJob) {
-            if (removingSpace <= 0) {
-                enough = true;
-                break;
-            }
-
-            long millisPassed = (long) (System.currentTimeMillis() - mediaJob.getScore());
-            if (millisPassed < 60_000) {
-                // zset is already sort, so if one found still being active - then the rest after is the same
-                if (removingSpace - headRoom > 0) {
-                    System.out.println("Most content is still being active, can't remove enough memory");
-                    System.out.println("Serve original size from disk instead or wait");
-                }
-                break;
-            }
-
+    @Override
+    public List<Resident> listEvictable(long now, long activeWindowMillis) {
+        List<Resident> residents = new ArrayList<>();
+        for (ZSetOperations.TypedTuple<String> mediaJob : getAllCacheLastAccess(videoLastAccessKey, now - activeWindowMillis, EVICTION_CANDIDATES)) {
             String mediaJobId = Objects.requireNonNull(mediaJob.getValue());
-            System.out.println("Removing: " + mediaJobId);
-
-            long estimatedSize = Long.parseLong((String) getVideoJobStatusInfo(mediaJobId).get("size"));
-
-            String mediaMemoryPath = mediaJobId.replace(":", "/");
-            try {
-                boolean deleted = OSUtil.deleteForceMemoryDirectory(mediaMemoryPath, ffmpegName);
-                if (deleted)
-                    removingSpace = removingSpace - estimatedSize;
-            } catch (IOException e) {
-                System.err.println("Failed to delete memory path: " + mediaMemoryPath);
-            }
+            long lastAccess = mediaJob.getScore() == null ? 0 : mediaJob.getScore().longValue();
+            List<Object> info = redisTemplate.opsForHash().multiGet(mediaJobId, List.of("size", "encodeMs"));
+            long estimatedSize = info.get(0) == null ? 0 : Long.parseLong((String) info.get(0));
+            // re-encode cost: measured when the job finished, else assume ~1 MB of output per second of encoding
+            double cost = info.get(1) == null ? estimatedSize / 1000d : Long.parseLong((String) info.get(1));
+            residents.add(new Resident(mediaJobId, estimatedSize, lastAccess, cost));
+        }
+        return residents;
+    }
 
-            removeCacheVideoLastAccess(mediaJobId);
-            removeCacheVideoJobStatus(mediaJobId);
-            removeJobStatus(mediaJobId);
+    @Override
+    public boolean evict(Resident resident) {
+        String mediaJobId = resident.id();
+        boolean deleted = false;
+        String mediaMemoryPath = mediaJobId.replace(":", "/");
+        try {
+            deleted = OSUtil.deleteForceMemoryDirectory(mediaMemoryPath, ffmpegName);
+        } catch (IOException e) {
+            System.err.println("Failed to delete memory path: " + mediaMemoryPath);
         }
-        if (!enough && removingSpace - headRoom <= 0)
-            enough = true;
-        OSUtil.updateUsableMemory(neededSpace - removingSpace); // removingSpace is negative or 0
-        return enough;
+
+        removeCacheVideoLastAccess(mediaJobId);
+        removeCacheVideoJobStatus(mediaJobId);
+        segmentStore.removeHot(mediaJobId);
+        removeJobStatus(mediaJobId);
+        return deleted;
     }
 }
@@ -2,16 +2,24 @@ package dev.chinh.streamingservice.workers.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.lettuce.core.ClaimedMessages;
+import io.lettuce.core.XAutoClaimArgs;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class WorkerRedisService {
@@ -27,45 +35,6 @@ public class WorkerRedisService {
         this.objectMapper = objectMapper;
     }
 
-    private static final DefaultRedisScript<Long> acquireScript;
-    private static final DefaultRedisScript<Long> releaseScript;
-
-    static {
-        acquireScript = new DefaultRedisScript<>();
-        acquireScript.setScriptText(
-                "local key = KEYS[1] " +
-                        "local current = tonumber(redis.call('GET', key)) " +
-                        "if current ~= nil and current > 0 then " +
-                        "  redis.call('DECR', key) " +
-                        "  return 1 " +
-                        "end " +
-                        "return 0"
-        );
-        acquireScript.setResultType(Long.class);
-
-        releaseScript = new DefaultRedisScript<>();
-        releaseScript.setScriptText(
-                "local key = KEYS[1] " +
-                        "redis.call('INCR', key) " +
-                        "return 1"
-        );
-        releaseScript.setResultType(Long.class);
-    }
-
-    // Call on startup or via config
-    public void initializeTokens(String tokenKey, int maxConcurrentJobs) {
-        redisTemplate.opsForValue().set(tokenKey, String.valueOf(maxConcurrentJobs));
-    }
-
-    public boolean tryAcquireToken(String tokenKey) {
-        Long result = redisTemplate.execute(acquireScript, Collections.singletonList(tokenKey));
-        return result == 1L;
-    }
-
-    public void releaseToken(String tokenKey) {
-        redisTemplate.execute(releaseScript, Collections.singletonList(tokenKey));
-    }
-
     public void updateStatus(String jobId, String status) {
         redisTemplate.opsForHash().put("ffmpeg_job_status:" + jobId, "status", status);
     }
@@ -88,6 +57,16 @@ public class WorkerRedisService {
         }
     }
 
+    public record JobProgress(String jobId, String userId, FfmpegProgress.Snapshot progress) {}
+    public void sendJobProgress(String jobId, String userId, FfmpegProgress.Snapshot progress) {
+        try {
+            String value = objectMapper.writeValueAsString(new JobProgress(jobId, userId, progress));
+            redisTemplate.convertAndSend("job-status-channel", value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     // stream init
     public void createGroupIfAbsent(String stream, String group) {
         try {
@@ -98,12 +77,12 @@ public class WorkerRedisService {
     }
 
     // stream read
-    public List<MapRecord<String, Object, Object>> readFromStream(String stream, String group, String consumer, Duration blockTime) {
+    public List<MapRecord<String, Object, Object>> readFromStream(String stream, String group, String consumer, Duration blockTime, int count) {
         return redisTemplate.opsForStream().read(
                 Consumer.from(group, consumer),
                 StreamReadOptions.empty()
                         .block(blockTime)
-                        .count(5),
+                        .count(count),
                 StreamOffset.create(stream, ReadOffset.lastConsumed())
         );
     }
@@ -112,16 +91,114 @@ public class WorkerRedisService {
         redisTemplate.opsForStream().acknowledge(stream, group, recordId);
     }
 
+    private String getRetryKey(String workId) {
+        return "retry:count:" + workId;
+    }
+
+    /**
+     * Retry counts for a whole batch in one pipelined round trip. Same order as workIds.
+     */
+    public List<Integer> getRetryCounts(List<String> workIds) {
+        if (workIds.isEmpty())
+            return List.of();
+        List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) conn -> {
+            for (String workId : workIds) {
+                conn.stringCommands().get(getRetryKey(workId).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<Integer> counts = new ArrayList<>(workIds.size());
+        for (Object value : values) {
+            counts.add(value == null ? 0 : Integer.parseInt(value.toString()));
+        }
+        return counts;
+    }
+
+    public void incrementRetry(String workId) {
+        redisTemplate.opsForValue().increment(getRetryKey(workId));
+    }
+
+    /**
+     * XACK every record id at once and drop their retry counters, in one pipelined round trip.
+     */
+    public void ackAndClearRetries(String stream, String group, List<RecordId> recordIds, List<String> workIds) {
+        if (recordIds.isEmpty() && workIds.isEmpty())
+            return;
+        redisTemplate.executePipelined((RedisCallback<Object>) conn -> {
+            if (!recordIds.isEmpty()) {
+                conn.streamCommands().xAck(stream.getBytes(StandardCharsets.UTF_8), group, recordIds.toArray(new RecordId[0]));
+            }
+            if (!workIds.isEmpty()) {
+                byte[][] keys = workIds.stream()
+                        .map(workId -> getRetryKey(workId).getBytes(StandardCharsets.UTF_8))
+                        .toArray(byte[][]::new);
+                conn.keyCommands().del(keys);
+            }
+            return null;
+        });
+    }
+
     public void del(String stream, RecordId recordId) {
         redisTemplate.opsForStream().delete(stream, recordId);
     }
 
-    public PendingMessages getPendingMessages(String stream, String group, int count) {
-        return redisTemplate.opsForStream().pending(
+    public record AutoClaimPage(String nextCursor, List<RecordId> recordIds) {}
+
+    /**
+     * One XAUTOCLAIM ... JUSTID page: take ownership of entries idle for at least minIdle.
+     * Spring Data Redis doesn't expose XAUTOCLAIM so it goes through the native Lettuce connection.
+     */
+    public AutoClaimPage autoClaimIds(String stream, String group, String consumer, Duration minIdle, String cursor, int count) {
+        return redisTemplate.execute((RedisCallback<AutoClaimPage>) conn -> {
+            @SuppressWarnings("unchecked")
+            RedisClusterAsyncCommands<byte[], byte[]> commands = (RedisClusterAsyncCommands<byte[], byte[]>) conn.getNativeConnection();
+            XAutoClaimArgs<byte[]> args = XAutoClaimArgs.Builder.justid(
+                    io.lettuce.core.Consumer.from(group.getBytes(StandardCharsets.UTF_8), consumer.getBytes(StandardCharsets.UTF_8)),
+                    minIdle,
+                    cursor
+            ).count(count);
+            try {
+                ClaimedMessages<byte[], byte[]> claimed = commands.xautoclaim(stream.getBytes(StandardCharsets.UTF_8), args)
+                        .get(10, TimeUnit.SECONDS);
+                List<RecordId> ids = claimed.getMessages().stream()
+                        .map(m -> RecordId.of(m.getId()))
+                        .toList();
+                return new AutoClaimPage(claimed.getId(), ids);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted during XAUTOCLAIM on " + stream, e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IllegalStateException("XAUTOCLAIM failed on " + stream, e);
+            }
+        });
+    }
+
+    /**
+     * Load full records for ids this consumer already owns. XCLAIM to self with no idle requirement.
+     */
+    public List<MapRecord<String, Object, Object>> claimRecords(String stream, String group, String consumer, List<RecordId> recordIds) {
+        if (recordIds.isEmpty())
+            return List.of();
+        return redisTemplate.opsForStream().claim(
                 stream,
                 group,
-                Range.unbounded(),
-                count
+                consumer,
+                Duration.ZERO,
+                recordIds.toArray(new RecordId[0])
         );
     }
+
+    /**
+     * Reset the idle time of entries still being worked on, so other nodes don't reclaim them.
+     */
+    public void touchPending(String stream, String group, String consumer, Collection<RecordId> recordIds) {
+        if (recordIds.isEmpty())
+            return;
+        redisTemplate.execute((RedisCallback<Object>) conn -> conn.streamCommands().xClaimJustId(
+                stream.getBytes(StandardCharsets.UTF_8),
+                group,
+                consumer,
+                RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(recordIds.toArray(new RecordId[0]))
+        ));
+    }
 }